@@ -33,6 +33,20 @@ create
 index idx_user_id
     on order_info (user_id);
 
+-- 订单列表游标翻页：按(创建时间, 主键)倒序定位，二级索引自带主键，索引顺序就是(创建时间, 主键)，不用文件排序
+-- 订单状态不放进这个索引，否则主键排在订单状态后面，索引顺序不再是(创建时间, 主键)；订单状态在索引范围内回表过滤
+create
+index idx_delete_status_gmt_create
+    on order_info (delete_status, gmt_create);
+
+create
+index idx_user_id_gmt_create
+    on order_info (user_id, delete_status, gmt_create);
+
+create
+index idx_seller_id_gmt_create
+    on order_info (seller_id, delete_status, gmt_create);
+
 -- order_item
 create
 index idx_product_name
@@ -46,6 +60,10 @@ create
 index idx_sku_code
     on order_item (sku_code);
 
+create
+index idx_order_id_sku_code
+    on order_item (order_id, sku_code);
+
 -- order_payment_detail
 create
 index idx_out_trade_no
@@ -70,4 +88,28 @@ index idx_order_id
 
 create
 index idx_receiver_phone
-    on order_delivery_detail (receiver_phone);
\ No newline at end of file
+    on order_delivery_detail (receiver_phone);
+
+-- after_sale_info
+create
+index idx_after_sale_id
+    on after_sale_info (after_sale_id);
+
+-- after_sale_item
+create
+index idx_after_sale_id
+    on after_sale_item (after_sale_id);
+
+-- after_sale_log（没有order_id列，按售后单号查询）
+create
+index idx_after_sale_id
+    on after_sale_log (after_sale_id);
+
+-- after_sale_refund
+create
+index idx_after_sale_id
+    on after_sale_refund (after_sale_id);
+
+create
+index idx_order_id
+    on after_sale_refund (order_id);
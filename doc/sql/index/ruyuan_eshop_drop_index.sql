@@ -9,11 +9,15 @@ ALTER TABLE order_info DROP INDEX idx_order_type;
 ALTER TABLE order_info DROP INDEX idx_pay_amount;
 ALTER TABLE order_info DROP INDEX idx_seller_id;
 ALTER TABLE order_info DROP INDEX idx_user_id;
+ALTER TABLE order_info DROP INDEX idx_delete_status_gmt_create;
+ALTER TABLE order_info DROP INDEX idx_user_id_gmt_create;
+ALTER TABLE order_info DROP INDEX idx_seller_id_gmt_create;
 
 -- order_item
 ALTER TABLE order_item DROP INDEX idx_product_name;
 ALTER TABLE order_item DROP INDEX idx_seller_id;
 ALTER TABLE order_item DROP INDEX idx_sku_code;
+ALTER TABLE order_item DROP INDEX idx_order_id_sku_code;
 
 -- order_payment_detail
 ALTER TABLE order_payment_detail DROP INDEX idx_out_trade_no;
@@ -23,4 +27,17 @@ ALTER TABLE order_payment_detail DROP INDEX idx_pay_type;
 -- order_delivery_detail
 ALTER TABLE order_delivery_detail DROP INDEX idx_delivery_name;
 ALTER TABLE order_delivery_detail DROP INDEX idx_order_id;
-ALTER TABLE order_delivery_detail DROP INDEX idx_receiver_phone;
\ No newline at end of file
+ALTER TABLE order_delivery_detail DROP INDEX idx_receiver_phone;
+
+-- after_sale_info
+ALTER TABLE after_sale_info DROP INDEX idx_after_sale_id;
+
+-- after_sale_item
+ALTER TABLE after_sale_item DROP INDEX idx_after_sale_id;
+
+-- after_sale_log
+ALTER TABLE after_sale_log DROP INDEX idx_after_sale_id;
+
+-- after_sale_refund
+ALTER TABLE after_sale_refund DROP INDEX idx_after_sale_id;
+ALTER TABLE after_sale_refund DROP INDEX idx_order_id;
@@ -51,6 +51,23 @@ CREATE TABLE `product_stock_log` (
 
 SET FOREIGN_KEY_CHECKS = 1;
 
+-- ----------------------------
+--  Table structure for `tcc_fence_log`
+-- ----------------------------
+DROP TABLE IF EXISTS `tcc_fence_log`;
+CREATE TABLE `tcc_fence_log` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `xid` varchar(128) NOT NULL COMMENT '全局事务id',
+  `branch_id` bigint(20) NOT NULL COMMENT '分支事务id',
+  `action_name` varchar(64) NOT NULL COMMENT 'TCC资源名称',
+  `status` tinyint(4) NOT NULL COMMENT '状态，1-try已执行；2-已提交；3-已回滚；4-悬挂（二阶段先于try到达）',
+  `gmt_create` datetime NOT NULL COMMENT '创建时间',
+  `gmt_modified` datetime NOT NULL COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE KEY `uk_xid_branch_id` (`xid`,`branch_id`) USING BTREE,
+  KEY `idx_status_gmt_modified` (`status`,`gmt_modified`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='TCC事务防护日志表';
+
 -- ----------------------------
 -- Table structure for undo_log
 -- ----------------------------
@@ -273,6 +273,29 @@ INSERT INTO `order_auto_no` VALUES (37, '2021-12-12 11:38:01', '2021-12-12 11:38
 INSERT INTO `order_auto_no` VALUES (38, '2021-12-12 12:35:10', '2021-12-12 12:35:10');
 COMMIT;
 
+-- ----------------------------
+-- Table structure for order_auto_no_segment
+-- ----------------------------
+DROP TABLE IF EXISTS `order_auto_no_segment`;
+CREATE TABLE `order_auto_no_segment` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `biz_tag` varchar(64) NOT NULL COMMENT '业务标识',
+  `max_id` bigint(20) NOT NULL DEFAULT '0' COMMENT '已分配出去的最大序列号',
+  `step` int(11) NOT NULL DEFAULT '1000' COMMENT '每次申请的号段长度',
+  `gmt_create` datetime NOT NULL COMMENT '创建时间',
+  `gmt_modified` datetime NOT NULL COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE KEY `uk_biz_tag` (`biz_tag`) USING BTREE
+) ENGINE=InnoDB AUTO_INCREMENT=2 DEFAULT CHARSET=utf8 COMMENT='订单编号号段表';
+
+-- ----------------------------
+-- Records of order_auto_no_segment
+-- max_id从order_auto_no当前最大id开始，保证切换到号段模式后序列号不重复
+-- ----------------------------
+BEGIN;
+INSERT INTO `order_auto_no_segment` VALUES (1, 'order_auto_no', 38, 1000, '2021-12-12 12:35:10', '2021-12-12 12:35:10');
+COMMIT;
+
 -- ----------------------------
 -- Table structure for order_delivery_detail
 -- ----------------------------
@@ -445,6 +468,55 @@ INSERT INTO `order_operate_log` VALUES (1469168490472357890, '102112103290956810
 INSERT INTO `order_operate_log` VALUES (1469883478325456898, '1021121232909584100', 10, 0, 10, '创建订单操作0-10', '2021-12-12 12:15:05', '2021-12-12 12:15:05');
 COMMIT;
 
+-- ----------------------------
+-- Table structure for order_outbox
+-- 订单消息发件箱，和订单状态变更在同一个本地事务里写入，由后台线程投递到MQ
+-- ----------------------------
+DROP TABLE IF EXISTS `order_outbox`;
+CREATE TABLE `order_outbox` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键，同一个订单的消息按主键顺序投递',
+  `order_id` varchar(50) NOT NULL COMMENT '订单编号',
+  `topic` varchar(128) NOT NULL COMMENT '消息topic',
+  `tags` varchar(128) DEFAULT NULL COMMENT '消息tags',
+  `msg_keys` varchar(128) DEFAULT NULL COMMENT '消息keys',
+  `msg_id` varchar(64) NOT NULL COMMENT '消息唯一ID，重复投递时不变',
+  `codec` varchar(32) NOT NULL COMMENT '消息体编码方式',
+  `body` blob NOT NULL COMMENT '消息体',
+  `delay_time_level` tinyint(4) NOT NULL DEFAULT '0' COMMENT '延迟级别，0表示不延迟',
+  `status` tinyint(4) NOT NULL DEFAULT '0' COMMENT '投递状态 0:待投递 1:已投递',
+  `retry_count` int(11) NOT NULL DEFAULT '0' COMMENT '投递失败次数',
+  `next_retry_time` datetime(3) NOT NULL COMMENT '最早可以投递的时间',
+  `lease_owner` varchar(64) DEFAULT NULL COMMENT '领取这条消息的投递线程',
+  `lease_expire_time` datetime(3) DEFAULT NULL COMMENT '领取到期时间，到期后其他投递线程可以重新领取',
+  `last_error` varchar(255) DEFAULT NULL COMMENT '最近一次投递失败原因',
+  `delivered_time` datetime(3) DEFAULT NULL COMMENT '投递成功时间',
+  `gmt_create` datetime NOT NULL COMMENT '创建时间',
+  `gmt_modified` datetime NOT NULL COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  KEY `idx_status_next_retry_time` (`status`,`next_retry_time`,`id`) USING BTREE,
+  KEY `idx_order_id_status` (`order_id`,`status`) USING BTREE,
+  KEY `idx_status_delivered_time` (`status`,`delivered_time`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='订单消息发件箱';
+
+-- ----------------------------
+-- Table structure for mq_consumed
+-- 消息消费记录，按(消费者组, 消息唯一ID)去重，过期后由消费线程分批删除
+-- ----------------------------
+DROP TABLE IF EXISTS `mq_consumed`;
+CREATE TABLE `mq_consumed` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+  `consumer_group` varchar(128) NOT NULL COMMENT '消费者组',
+  `msg_key` varchar(64) NOT NULL COMMENT '消息唯一ID，生产者重试、broker重投时不变',
+  `status` tinyint(4) NOT NULL COMMENT '消费状态 0:消费中 1:已消费',
+  `expire_time` datetime(3) NOT NULL COMMENT '到期时间，消费中到期后可以重新消费，已消费到期后记录删除',
+  `lease_token` varchar(64) NOT NULL DEFAULT '' COMMENT '写入消费中记录的标识，批量写入后按它找出本次写入成功的记录',
+  `gmt_create` datetime NOT NULL COMMENT '创建时间',
+  `gmt_modified` datetime NOT NULL COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE KEY `uk_consumer_group_msg_key` (`consumer_group`,`msg_key`) USING BTREE,
+  KEY `idx_expire_time` (`expire_time`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='消息消费记录';
+
 -- ----------------------------
 -- Table structure for order_payment_detail
 -- ----------------------------
@@ -2,6 +2,7 @@ package com.ruyuan.eshop.address;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * swagger ui : http://localhost:8015/swagger-ui.html
@@ -10,6 +11,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  * @version 1.0
  */
 @SpringBootApplication
+@EnableScheduling
 public class AddressApplication {
 
     public static void main(String[] args) {
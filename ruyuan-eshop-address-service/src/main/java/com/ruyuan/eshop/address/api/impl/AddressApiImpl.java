@@ -4,6 +4,9 @@ import com.baomidou.mybatisplus.core.toolkit.CollectionUtils;
 import com.baomidou.mybatisplus.core.toolkit.StringUtils;
 import com.google.common.collect.Lists;
 import com.ruyuan.eshop.address.api.AddressApi;
+import com.ruyuan.eshop.address.cache.RegionLookup;
+import com.ruyuan.eshop.address.cache.RegionTree;
+import com.ruyuan.eshop.address.cache.RegionTreeCache;
 import com.ruyuan.eshop.address.dao.AreaDAO;
 import com.ruyuan.eshop.address.dao.CityDAO;
 import com.ruyuan.eshop.address.dao.ProvinceDAO;
@@ -44,16 +47,55 @@ public class AddressApiImpl implements AddressApi {
     @Autowired
     private ProvinceDAO provinceDAO;
 
+    @Autowired
+    private RegionTreeCache regionTreeCache;
+
+    /**
+     * 区域树还没有加载成功时直接查询数据库
+     */
+    private final RegionLookup databaseRegionLookup = new RegionLookup() {
+        @Override
+        public List<StreetDO> listStreets(String streetCode, String street) {
+            return streetDAO.listStreets(streetCode, street);
+        }
+
+        @Override
+        public List<AreaDO> listAreas(Set<String> areaCodes, String area) {
+            return areaDAO.listAreas(areaCodes, area);
+        }
+
+        @Override
+        public List<CityDO> listCities(Set<String> cityCodes, String city) {
+            return cityDAO.listCities(cityCodes, city);
+        }
+
+        @Override
+        public List<ProvinceDO> listProvinces(Set<String> provinceCodes, String province) {
+            return provinceDAO.listProvinces(provinceCodes, province);
+        }
+    };
 
     @Override
     public JsonResult<AddressDTO> queryAddress(AddressQuery query) {
         //1、参数校验
         checkParam(query);
 
+        RegionTree regionTree = regionTreeCache.get();
+        return queryAddress(query, regionTree != null ? regionTree : databaseRegionLookup);
+    }
+
+    /**
+     * 逐级查询街道、区、市、省，组装候选结果后筛选
+     *
+     * @param query
+     * @param regionLookup 区域查询，内存中的区域树或数据库
+     * @return
+     */
+    private JsonResult<AddressDTO> queryAddress(AddressQuery query, RegionLookup regionLookup) {
         //2、查询街道信息
         List<StreetDO> streets = new ArrayList<>();
         if (streetNotEmpty(query)) {
-            streets = streetDAO.listStreets(query.getStreetCode(), query.getStreet());
+            streets = regionLookup.listStreets(query.getStreetCode(), query.getStreet());
 
             if (CollectionUtils.isEmpty(streets)) {
                 return JsonResult.buildSuccess();
@@ -69,7 +111,7 @@ public class AddressApiImpl implements AddressApi {
             if (StringUtils.isNotBlank(query.getAreaCode())) {
                 areaCodes.add(query.getAreaCode());
             }
-            areas = areaDAO.listAreas(areaCodes, query.getArea());
+            areas = regionLookup.listAreas(areaCodes, query.getArea());
 
             if (CollectionUtils.isEmpty(areas)) {
                 return JsonResult.buildSuccess();
@@ -85,7 +127,7 @@ public class AddressApiImpl implements AddressApi {
             if (StringUtils.isNotBlank(query.getCityCode())) {
                 cityCodes.add(query.getCityCode());
             }
-            cities = cityDAO.listCities(cityCodes, query.getCity());
+            cities = regionLookup.listCities(cityCodes, query.getCity());
 
             if (CollectionUtils.isEmpty(cities)) {
                 return JsonResult.buildSuccess();
@@ -101,7 +143,7 @@ public class AddressApiImpl implements AddressApi {
             if (StringUtils.isNotBlank(query.getProvinceCode())) {
                 provinceCodes.add(query.getProvinceCode());
             }
-            provinces = provinceDAO.listProvinces(provinceCodes, query.getProvince());
+            provinces = regionLookup.listProvinces(provinceCodes, query.getProvince());
 
             if (CollectionUtils.isEmpty(provinces)) {
                 return JsonResult.buildSuccess();
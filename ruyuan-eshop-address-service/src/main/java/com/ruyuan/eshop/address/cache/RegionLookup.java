@@ -0,0 +1,54 @@
+package com.ruyuan.eshop.address.cache;
+
+import com.ruyuan.eshop.address.domain.entity.AreaDO;
+import com.ruyuan.eshop.address.domain.entity.CityDO;
+import com.ruyuan.eshop.address.domain.entity.ProvinceDO;
+import com.ruyuan.eshop.address.domain.entity.StreetDO;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 行政区域查询，条件和对应DAO的查询方法一致：编码、名称为空时不作为条件，结果按主键排序
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public interface RegionLookup {
+
+    /**
+     * 查询街道
+     *
+     * @param streetCode
+     * @param street
+     * @return
+     */
+    List<StreetDO> listStreets(String streetCode, String street);
+
+    /**
+     * 查询区
+     *
+     * @param areaCodes
+     * @param area
+     * @return
+     */
+    List<AreaDO> listAreas(Set<String> areaCodes, String area);
+
+    /**
+     * 查询市
+     *
+     * @param cityCodes
+     * @param city
+     * @return
+     */
+    List<CityDO> listCities(Set<String> cityCodes, String city);
+
+    /**
+     * 查询省
+     *
+     * @param provinceCodes
+     * @param province
+     * @return
+     */
+    List<ProvinceDO> listProvinces(Set<String> provinceCodes, String province);
+}
@@ -0,0 +1,79 @@
+package com.ruyuan.eshop.address.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 行政区域树的节点
+ *
+ * @param <T> 省、市、区、街道的DO
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public final class RegionNode<T> {
+
+    private final Long id;
+
+    private final String code;
+
+    private final String name;
+
+    private final T region;
+
+    private RegionNode<?> parent;
+
+    private List<RegionNode<?>> children = new ArrayList<>();
+
+    RegionNode(Long id, String code, String name, T region) {
+        this.id = id;
+        this.code = code;
+        this.name = name;
+        this.region = region;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 区域数据，树内共享，不能修改
+     */
+    public T getRegion() {
+        return region;
+    }
+
+    /**
+     * 上级区域，省和找不到上级的区域为null
+     */
+    public RegionNode<?> getParent() {
+        return parent;
+    }
+
+    /**
+     * 下级区域，按主键排序
+     */
+    public List<RegionNode<?>> getChildren() {
+        return children;
+    }
+
+    void attachTo(RegionNode<?> parent) {
+        this.parent = parent;
+        parent.children.add(this);
+    }
+
+    /**
+     * 构建完成后冻结下级列表
+     */
+    void freeze() {
+        children = Collections.unmodifiableList(children);
+    }
+}
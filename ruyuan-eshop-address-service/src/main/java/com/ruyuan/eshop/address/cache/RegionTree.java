@@ -0,0 +1,200 @@
+package com.ruyuan.eshop.address.cache;
+
+import com.baomidou.mybatisplus.core.toolkit.CollectionUtils;
+import com.baomidou.mybatisplus.core.toolkit.StringUtils;
+import com.ruyuan.eshop.address.domain.entity.AreaDO;
+import com.ruyuan.eshop.address.domain.entity.CityDO;
+import com.ruyuan.eshop.address.domain.entity.ProvinceDO;
+import com.ruyuan.eshop.address.domain.entity.StreetDO;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 内存中的行政区域树
+ * <p>
+ * 省、市、区、街道各自按编码建索引，按编码查找是一次hash查找；每个节点指向上级区域。
+ * 构建完成后不再修改，重新加载时整棵树替换，读的时候不需要加锁。
+ * 区域编码在同一级内唯一，编码重复时只保留主键最小的一条
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public final class RegionTree implements RegionLookup {
+
+    /**
+     * 和数据库查询结果的顺序一致
+     */
+    private static final Comparator<RegionNode<?>> BY_ID =
+            Comparator.comparing(RegionNode::getId, Comparator.nullsLast(Comparator.<Long>naturalOrder()));
+
+    private final Level<ProvinceDO> provinces;
+
+    private final Level<CityDO> cities;
+
+    private final Level<AreaDO> areas;
+
+    private final Level<StreetDO> streets;
+
+    private RegionTree(Level<ProvinceDO> provinces, Level<CityDO> cities, Level<AreaDO> areas, Level<StreetDO> streets) {
+        this.provinces = provinces;
+        this.cities = cities;
+        this.areas = areas;
+        this.streets = streets;
+    }
+
+    /**
+     * 构建区域树
+     *
+     * @param provinceList 全部省
+     * @param cityList     全部市
+     * @param areaList     全部区
+     * @param streetList   全部街道
+     * @return 区域树
+     */
+    public static RegionTree build(List<ProvinceDO> provinceList, List<CityDO> cityList,
+                                   List<AreaDO> areaList, List<StreetDO> streetList) {
+        Level<ProvinceDO> provinces = new Level<>(provinceList, ProvinceDO::getId, ProvinceDO::getCode, ProvinceDO::getName);
+        Level<CityDO> cities = new Level<>(cityList, CityDO::getId, CityDO::getCode, CityDO::getName);
+        Level<AreaDO> areas = new Level<>(areaList, AreaDO::getId, AreaDO::getCode, AreaDO::getName);
+        Level<StreetDO> streets = new Level<>(streetList, StreetDO::getId, StreetDO::getCode, StreetDO::getName);
+
+        cities.attachTo(provinces, CityDO::getProvinceCode);
+        areas.attachTo(cities, AreaDO::getCityCode);
+        streets.attachTo(areas, StreetDO::getAreaCode);
+
+        provinces.freeze();
+        cities.freeze();
+        areas.freeze();
+        streets.freeze();
+        return new RegionTree(provinces, cities, areas, streets);
+    }
+
+    public RegionNode<ProvinceDO> getProvince(String code) {
+        return provinces.get(code);
+    }
+
+    public RegionNode<CityDO> getCity(String code) {
+        return cities.get(code);
+    }
+
+    public RegionNode<AreaDO> getArea(String code) {
+        return areas.get(code);
+    }
+
+    public RegionNode<StreetDO> getStreet(String code) {
+        return streets.get(code);
+    }
+
+    @Override
+    public List<StreetDO> listStreets(String streetCode, String street) {
+        Set<String> streetCodes = StringUtils.isNotBlank(streetCode)
+                ? Collections.singleton(streetCode) : Collections.emptySet();
+        return streets.list(streetCodes, street);
+    }
+
+    @Override
+    public List<AreaDO> listAreas(Set<String> areaCodes, String area) {
+        return areas.list(areaCodes, area);
+    }
+
+    @Override
+    public List<CityDO> listCities(Set<String> cityCodes, String city) {
+        return cities.list(cityCodes, city);
+    }
+
+    @Override
+    public List<ProvinceDO> listProvinces(Set<String> provinceCodes, String province) {
+        return provinces.list(provinceCodes, province);
+    }
+
+    @Override
+    public String toString() {
+        return "RegionTree{provinces=" + provinces.size() + ", cities=" + cities.size()
+                + ", areas=" + areas.size() + ", streets=" + streets.size() + "}";
+    }
+
+    /**
+     * 一级区域：按编码、名称的索引
+     */
+    private static final class Level<T> {
+
+        private final List<RegionNode<T>> nodes;
+
+        private final Map<String, RegionNode<T>> byCode;
+
+        private final Map<String, List<RegionNode<T>>> byName;
+
+        private Level(List<T> regions, Function<T, Long> id, Function<T, String> code, Function<T, String> name) {
+            List<RegionNode<T>> nodes = new ArrayList<>(regions.size());
+            for (T region : regions) {
+                nodes.add(new RegionNode<>(id.apply(region), code.apply(region), name.apply(region), region));
+            }
+            nodes.sort(BY_ID);
+
+            Map<String, RegionNode<T>> byCode = new HashMap<>(nodes.size() * 2);
+            Map<String, List<RegionNode<T>>> byName = new HashMap<>(nodes.size() * 2);
+            for (RegionNode<T> node : nodes) {
+                byCode.putIfAbsent(node.getCode(), node);
+                byName.computeIfAbsent(node.getName(), key -> new ArrayList<>(1)).add(node);
+            }
+            this.nodes = Collections.unmodifiableList(nodes);
+            this.byCode = byCode;
+            this.byName = byName;
+        }
+
+        private <P> void attachTo(Level<P> parents, Function<T, String> parentCode) {
+            for (RegionNode<T> node : nodes) {
+                RegionNode<P> parent = parents.get(parentCode.apply(node.getRegion()));
+                if (parent != null) {
+                    node.attachTo(parent);
+                }
+            }
+        }
+
+        private void freeze() {
+            for (RegionNode<T> node : nodes) {
+                node.freeze();
+            }
+        }
+
+        private RegionNode<T> get(String code) {
+            return code == null ? null : byCode.get(code);
+        }
+
+        private int size() {
+            return nodes.size();
+        }
+
+        /**
+         * 编码不为空时按编码查，否则名称不为空时按名称查，都为空时返回全部，名称不为空时再按名称过滤
+         */
+        private List<T> list(Collection<String> codes, String name) {
+            boolean filterName = StringUtils.isNotBlank(name);
+            List<RegionNode<T>> candidates;
+            if (CollectionUtils.isNotEmpty(codes)) {
+                candidates = new ArrayList<>(codes.size());
+                for (String code : codes) {
+                    RegionNode<T> node = get(code);
+                    if (node != null) {
+                        candidates.add(node);
+                    }
+                }
+                candidates.sort(BY_ID);
+            } else if (filterName) {
+                candidates = byName.getOrDefault(name, Collections.emptyList());
+            } else {
+                candidates = nodes;
+            }
+
+            List<T> result = new ArrayList<>(candidates.size());
+            for (RegionNode<T> node : candidates) {
+                if (!filterName || name.equals(node.getName())) {
+                    result.add(node.getRegion());
+                }
+            }
+            return result;
+        }
+    }
+}
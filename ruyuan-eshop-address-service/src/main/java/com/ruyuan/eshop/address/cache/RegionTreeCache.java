@@ -0,0 +1,73 @@
+package com.ruyuan.eshop.address.cache;
+
+import com.ruyuan.eshop.address.dao.AreaDAO;
+import com.ruyuan.eshop.address.dao.CityDAO;
+import com.ruyuan.eshop.address.dao.ProvinceDAO;
+import com.ruyuan.eshop.address.dao.StreetDAO;
+import com.ruyuan.eshop.common.utils.LoggerFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * 行政区域树缓存
+ * <p>
+ * 启动时加载全部省市区街道，之后定时重新加载：新树构建完成后整体替换引用，
+ * 正在使用旧树的请求不受影响。加载失败时保留上一棵树，启动时就加载失败则返回null，由调用方查询数据库
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class RegionTreeCache {
+
+    @Autowired
+    private ProvinceDAO provinceDAO;
+
+    @Autowired
+    private CityDAO cityDAO;
+
+    @Autowired
+    private AreaDAO areaDAO;
+
+    @Autowired
+    private StreetDAO streetDAO;
+
+    private volatile RegionTree regionTree;
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    /**
+     * 当前的区域树
+     *
+     * @return 还没有加载成功时为null
+     */
+    public RegionTree get() {
+        return regionTree;
+    }
+
+    /**
+     * 重新加载区域树
+     */
+    @Scheduled(initialDelayString = "${address.region-tree.reload-interval-millis:600000}",
+            fixedDelayString = "${address.region-tree.reload-interval-millis:600000}")
+    public void reload() {
+        try {
+            RegionTree loaded = RegionTree.build(provinceDAO.list(), cityDAO.list(), areaDAO.list(), streetDAO.list());
+            regionTree = loaded;
+            log.info("{}", LoggerFormat.build()
+                    .remark("加载行政区域树")
+                    .data("regionTree", loaded.toString()));
+        } catch (Exception e) {
+            log.error("加载行政区域树失败", e);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.ruyuan.eshop.address.cache;
+
+import com.baomidou.mybatisplus.core.config.GlobalConfig;
+import com.baomidou.mybatisplus.core.toolkit.GlobalConfigUtils;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.ruyuan.eshop.address.api.impl.AddressApiImpl;
+import com.ruyuan.eshop.address.dao.AreaDAO;
+import com.ruyuan.eshop.address.dao.CityDAO;
+import com.ruyuan.eshop.address.dao.ProvinceDAO;
+import com.ruyuan.eshop.address.dao.StreetDAO;
+import com.ruyuan.eshop.address.domain.dto.AddressDTO;
+import com.ruyuan.eshop.address.domain.entity.StreetDO;
+import com.ruyuan.eshop.address.domain.query.AddressQuery;
+import com.ruyuan.eshop.address.mapper.AreaMapper;
+import com.ruyuan.eshop.address.mapper.CityMapper;
+import com.ruyuan.eshop.address.mapper.ProvinceMapper;
+import com.ruyuan.eshop.address.mapper.StreetMapper;
+import com.ruyuan.eshop.common.core.JsonResult;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * 行政区域树测试：使用doc/sql里的全部区域数据，对每个区域构造查询，内存查询和数据库查询的结果一致
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = RegionTreeTest.Config.class)
+public class RegionTreeTest {
+
+    private static final String SEED_SQL = "doc/sql/ruyuan_eshop_address.sql";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ProvinceDAO provinceDAO;
+
+    @Autowired
+    private CityDAO cityDAO;
+
+    @Autowired
+    private AreaDAO areaDAO;
+
+    @Autowired
+    private StreetDAO streetDAO;
+
+    @Test
+    public void shouldAnswerSameAsDatabaseForEveryRegion() {
+        // 内存查询的接口不注入DAO，查询数据库会空指针
+        AddressApiImpl memoryAddressApi = new AddressApiImpl();
+        ReflectionTestUtils.setField(memoryAddressApi, "regionTreeCache", newRegionTreeCache(true));
+        AddressApiImpl databaseAddressApi = newAddressApi(newRegionTreeCache(false));
+
+        Collection<AddressQuery> queries = buildQueries();
+        int found = 0;
+        for (AddressQuery query : queries) {
+            JsonResult<AddressDTO> expected = databaseAddressApi.queryAddress(query);
+            JsonResult<AddressDTO> actual = memoryAddressApi.queryAddress(query);
+            assertEquals(String.valueOf(query), expected.getSuccess(), actual.getSuccess());
+            assertEquals(String.valueOf(query), expected.getData(), actual.getData());
+            if (actual.getData() != null) {
+                found++;
+            }
+        }
+        // 种子数据里每个街道都能查到完整地址
+        assertTrue(found > count("street") * 2);
+    }
+
+    @Test
+    public void shouldLinkEveryRegionToItsParent() {
+        RegionTree regionTree = newRegionTreeCache(true).get();
+
+        RegionNode<StreetDO> street = regionTree.getStreet("110101001");
+        assertEquals("东华门街道", street.getName());
+        RegionNode<?> area = street.getParent();
+        RegionNode<?> city = area.getParent();
+        RegionNode<?> province = city.getParent();
+        assertEquals("110101", area.getCode());
+        assertEquals("110100", city.getCode());
+        assertEquals("110000", province.getCode());
+        assertNull(province.getParent());
+        assertSame(regionTree.getProvince("110000"), province);
+        assertTrue(area.getChildren().contains(street));
+
+        for (StreetDO streetDO : streetDAO.list()) {
+            RegionNode<StreetDO> node = regionTree.getStreet(streetDO.getCode());
+            assertSame(streetDO.getCode(), node.getParent(), regionTree.getArea(streetDO.getAreaCode()));
+            assertNotNull(streetDO.getCode(), node.getParent().getParent().getParent());
+        }
+        assertNull(regionTree.getStreet("999999999"));
+    }
+
+    @Test
+    public void shouldReplaceTreeOnReload() {
+        RegionTreeCache regionTreeCache = newRegionTreeCache(true);
+        RegionTree before = regionTreeCache.get();
+        jdbcTemplate.update("INSERT INTO street VALUES (99999, '110101999', '110101', '测试街道', '测试街道', NULL, NULL, 99)");
+        try {
+            regionTreeCache.reload();
+            RegionTree after = regionTreeCache.get();
+            assertNotSame(before, after);
+            assertEquals("110101", after.getStreet("110101999").getParent().getCode());
+            // 正在使用旧树的请求看到的还是旧数据
+            assertNull(before.getStreet("110101999"));
+            assertEquals(before.getArea("110101").getChildren().size() + 1, after.getArea("110101").getChildren().size());
+        } finally {
+            jdbcTemplate.update("DELETE FROM street WHERE id = 99999");
+        }
+    }
+
+    private Collection<AddressQuery> buildQueries() {
+        Random random = new Random(20220101L);
+        List<Map<String, Object>> streets = jdbcTemplate.queryForList("SELECT s.code street_code, s.name street,"
+                + " a.code area_code, a.name area, c.code city_code, c.name city, p.code province_code, p.name province"
+                + " FROM street s JOIN area a ON s.area_code = a.code JOIN city c ON a.city_code = c.code"
+                + " JOIN province p ON c.province_code = p.code ORDER BY s.id");
+        // 省、市、区的查询在多个街道间重复，去重
+        Set<AddressQuery> queries = new LinkedHashSet<>();
+        for (Map<String, Object> row : streets) {
+            Map<String, Object> other = streets.get(random.nextInt(streets.size()));
+            // 完整的编码和名称
+            queries.add(query(row, true, true, 4));
+            // 只有编码
+            queries.add(query(row, true, false, 4));
+            // 只有街道名称，同名街道有多个
+            AddressQuery streetOnly = new AddressQuery();
+            streetOnly.setStreet((String) row.get("street"));
+            queries.add(streetOnly);
+            // 街道和区不匹配
+            AddressQuery mismatch = query(row, true, false, 4);
+            mismatch.setAreaCode((String) other.get("area_code"));
+            queries.add(mismatch);
+            // 街道和省不匹配
+            AddressQuery wrongProvince = query(row, false, true, 4);
+            wrongProvince.setProvince((String) other.get("province"));
+            queries.add(wrongProvince);
+        }
+        for (Map<String, Object> row : streets) {
+            for (int depth = 1; depth <= 3; depth++) {
+                queries.add(query(row, true, true, depth));
+                queries.add(query(row, false, true, depth));
+                queries.add(query(row, true, false, depth));
+            }
+        }
+        AddressQuery notExists = new AddressQuery();
+        notExists.setCity("不存在的市");
+        queries.add(notExists);
+        return queries;
+    }
+
+    /**
+     * 按区域层级构造查询
+     *
+     * @param depth 1省 2市 3区 4街道
+     */
+    private AddressQuery query(Map<String, Object> row, boolean withCode, boolean withName, int depth) {
+        AddressQuery query = new AddressQuery();
+        String[] levels = {"province", "city", "area", "street"};
+        for (int i = 0; i < depth; i++) {
+            String code = withCode ? (String) row.get(levels[i] + "_code") : null;
+            String name = withName ? (String) row.get(levels[i]) : null;
+            switch (i) {
+                case 0:
+                    query.setProvinceCode(code);
+                    query.setProvince(name);
+                    break;
+                case 1:
+                    query.setCityCode(code);
+                    query.setCity(name);
+                    break;
+                case 2:
+                    query.setAreaCode(code);
+                    query.setArea(name);
+                    break;
+                default:
+                    query.setStreetCode(code);
+                    query.setStreet(name);
+            }
+        }
+        return query;
+    }
+
+    private RegionTreeCache newRegionTreeCache(boolean load) {
+        RegionTreeCache regionTreeCache = new RegionTreeCache();
+        ReflectionTestUtils.setField(regionTreeCache, "provinceDAO", provinceDAO);
+        ReflectionTestUtils.setField(regionTreeCache, "cityDAO", cityDAO);
+        ReflectionTestUtils.setField(regionTreeCache, "areaDAO", areaDAO);
+        ReflectionTestUtils.setField(regionTreeCache, "streetDAO", streetDAO);
+        if (load) {
+            regionTreeCache.init();
+            assertNotNull(regionTreeCache.get());
+        }
+        return regionTreeCache;
+    }
+
+    private AddressApiImpl newAddressApi(RegionTreeCache regionTreeCache) {
+        AddressApiImpl addressApi = new AddressApiImpl();
+        ReflectionTestUtils.setField(addressApi, "provinceDAO", provinceDAO);
+        ReflectionTestUtils.setField(addressApi, "cityDAO", cityDAO);
+        ReflectionTestUtils.setField(addressApi, "areaDAO", areaDAO);
+        ReflectionTestUtils.setField(addressApi, "streetDAO", streetDAO);
+        ReflectionTestUtils.setField(addressApi, "regionTreeCache", regionTreeCache);
+        return addressApi;
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() throws IOException {
+            DataSource dataSource = JdbcConnectionPool.create(
+                    "jdbc:h2:mem:region_tree;DB_CLOSE_DELAY=-1;MODE=MySQL", "sa", "");
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.execute("CREATE TABLE province (id BIGINT PRIMARY KEY, code VARCHAR(40), name VARCHAR(50),"
+                    + " short_name VARCHAR(20), lng VARCHAR(20), lat VARCHAR(20), sort INT)");
+            jdbcTemplate.execute("CREATE TABLE city (id BIGINT PRIMARY KEY, code VARCHAR(40), name VARCHAR(40),"
+                    + " short_code VARCHAR(20), province_code VARCHAR(40), lng VARCHAR(20), lat VARCHAR(20), sort INT)");
+            jdbcTemplate.execute("CREATE TABLE area (id BIGINT PRIMARY KEY, code VARCHAR(40), city_code VARCHAR(40),"
+                    + " name VARCHAR(40), short_name VARCHAR(20), lng VARCHAR(20), lat VARCHAR(20), sort INT)");
+            jdbcTemplate.execute("CREATE TABLE street (id BIGINT PRIMARY KEY, code VARCHAR(40), area_code VARCHAR(40),"
+                    + " name VARCHAR(50), short_name VARCHAR(30), lng VARCHAR(20), lat VARCHAR(20), sort INT)");
+            for (String line : Files.readAllLines(seedSql().toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("INSERT INTO")) {
+                    jdbcTemplate.execute(line.replace("`", "").replaceAll(";\\s*$", ""));
+                }
+            }
+            return dataSource;
+        }
+
+        /**
+         * 在模块目录或项目根目录下运行都能找到种子数据
+         */
+        private static File seedSql() {
+            File file = new File("../" + SEED_SQL);
+            return file.exists() ? file : new File(SEED_SQL);
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+            factoryBean.setDataSource(dataSource);
+            GlobalConfig globalConfig = GlobalConfigUtils.defaults();
+            factoryBean.setGlobalConfig(globalConfig);
+            return factoryBean.getObject();
+        }
+
+        @Bean
+        public MapperFactoryBean<ProvinceMapper> provinceMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(ProvinceMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<CityMapper> cityMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(CityMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<AreaMapper> areaMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(AreaMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<StreetMapper> streetMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(StreetMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public ProvinceDAO provinceDAO() {
+            return new ProvinceDAO();
+        }
+
+        @Bean
+        public CityDAO cityDAO() {
+            return new CityDAO();
+        }
+
+        @Bean
+        public AreaDAO areaDAO() {
+            return new AreaDAO();
+        }
+
+        @Bean
+        public StreetDAO streetDAO() {
+            return new StreetDAO();
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        private static <T> MapperFactoryBean<T> mapper(Class<T> mapperInterface, SqlSessionFactory sqlSessionFactory) {
+            MapperFactoryBean<T> factoryBean = new MapperFactoryBean<>(mapperInterface);
+            factoryBean.setSqlSessionFactory(sqlSessionFactory);
+            return factoryBean;
+        }
+    }
+}
@@ -35,7 +35,7 @@ public class RedisLockKeyConstants {
     /**
      * 订单扣减商品库存锁
      */
-    public static final String ORDER_DEDUCT_PRODUCT_STOCK_KEY = "#ORDER_DEDUCT_PRODUCT_STOCK_KEY:{0}:{1}";
+    public static final String ORDER_DEDUCT_PRODUCT_STOCK_KEY = "#ORDER_DEDUCT_PRODUCT_STOCK_KEY:{0}";
 
     /**
      * 扣减商品库存锁（保证mysql+redis库存扣减的原子性）
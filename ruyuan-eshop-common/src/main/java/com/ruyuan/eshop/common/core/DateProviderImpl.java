@@ -1,9 +1,10 @@
 package com.ruyuan.eshop.common.core;
 
-import com.ruyuan.eshop.common.constants.CoreConstant;
+import com.ruyuan.eshop.common.utils.DateFormatUtil;
 import lombok.extern.slf4j.Slf4j;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Date;
 
 /**
@@ -15,19 +16,13 @@ import java.util.Date;
 public class DateProviderImpl implements DateProvider {
 
     /**
-     * 获取当前时间
+     * 获取当前时间，精确到秒
      *
      * @return 当前时间
      */
     @Override
     public Date getCurrentTime() {
-        SimpleDateFormat dateFormatter = new SimpleDateFormat(CoreConstant.DATE_TIME_FORMAT_PATTERN);
-        try {
-            return dateFormatter.parse(dateFormatter.format(new Date()));
-        } catch (Exception e) {
-            log.warn("getCurrentTime error");
-        }
-        return null;
+        return Date.from(Instant.now().truncatedTo(ChronoUnit.SECONDS));
     }
 
     /**
@@ -38,8 +33,7 @@ public class DateProviderImpl implements DateProvider {
      */
     @Override
     public String formatDatetime(Date date) {
-        SimpleDateFormat dateFormatter = new SimpleDateFormat(CoreConstant.DATE_TIME_FORMAT_PATTERN);
-        return dateFormatter.format(date);
+        return DateFormatUtil.formatDateTime(date);
     }
 
     /**
@@ -50,9 +44,8 @@ public class DateProviderImpl implements DateProvider {
      */
     @Override
     public Date parseDatetime(String datetime) {
-        SimpleDateFormat dateFormatter = new SimpleDateFormat(CoreConstant.DATE_TIME_FORMAT_PATTERN);
         try {
-            return dateFormatter.parse(datetime);
+            return DateFormatUtil.parseDateTime(datetime);
         } catch (Exception e) {
             log.warn("parseDatetime error");
         }
@@ -0,0 +1,147 @@
+package com.ruyuan.eshop.common.dao;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 分片游标扫描
+ * <p>
+ * 分片条件下推到SQL：MOD(分片键表达式, 分片总数) = 分片序号，每个分片只读自己那部分数据，
+ * 分片键表达式可以是 CRC32(order_id) 这样的哈希，也可以是用户ID后缀这类已有的整数列。
+ * 按主键 id > lastId 分批读取，不用offset，每批只扫描一个固定大小的索引范围。
+ * </p>
+ * <p>
+ * 读到的每批数据交给线程池处理，同时在处理中的批数有上限，处理跟不上时暂停读取，内存里最多只有几批数据。
+ * 某一批处理失败后不再读取新的批次，等已提交的批次处理完后抛出异常
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public class ShardedCursorScanner<T> {
+
+    private final IService<T> service;
+
+    /**
+     * 主键列名，主键需要是递增的整数
+     */
+    private final String idColumn;
+
+    private final Function<T, Long> idGetter;
+
+    /**
+     * 分片键表达式，结果需要是非负整数
+     */
+    private final String shardKeyExpression;
+
+    /**
+     * 每批读取的行数
+     */
+    private final int chunkSize;
+
+    private final Executor executor;
+
+    /**
+     * 同时在处理中的最大批数
+     */
+    private final int maxInFlightChunks;
+
+    public ShardedCursorScanner(IService<T> service, String idColumn, Function<T, Long> idGetter,
+                                String shardKeyExpression, int chunkSize,
+                                Executor executor, int maxInFlightChunks) {
+        if (chunkSize <= 0 || maxInFlightChunks <= 0) {
+            throw new IllegalArgumentException("chunkSize and maxInFlightChunks must be positive");
+        }
+        this.service = service;
+        this.idColumn = idColumn;
+        this.idGetter = idGetter;
+        this.shardKeyExpression = shardKeyExpression;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.maxInFlightChunks = maxInFlightChunks;
+    }
+
+    /**
+     * 扫描一个分片
+     *
+     * @param shardIndex   分片序号，从0开始
+     * @param shardTotal   分片总数，小于等于1时扫描全部数据
+     * @param condition    业务查询条件，可以为null，会用括号包起来和分片条件一起查询
+     * @param chunkHandler 每批数据的处理逻辑，在线程池中执行
+     * @return 处理的行数
+     * @throws InterruptedException 等待处理时被中断
+     */
+    public long scan(int shardIndex, int shardTotal, Consumer<QueryWrapper<T>> condition,
+                     Consumer<List<T>> chunkHandler) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(maxInFlightChunks);
+        AtomicLong processed = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        long lastId = 0L;
+        List<T> chunk;
+        do {
+            chunk = service.list(buildChunkQuery(shardIndex, shardTotal, condition, lastId));
+            if (chunk.isEmpty()) {
+                break;
+            }
+            lastId = idGetter.apply(chunk.get(chunk.size() - 1));
+
+            // 处理中的批数达到上限时等待
+            inFlight.acquire();
+            if (failure.get() != null) {
+                inFlight.release();
+                break;
+            }
+            List<T> rows = chunk;
+            try {
+                executor.execute(() -> {
+                    try {
+                        chunkHandler.accept(rows);
+                        processed.addAndGet(rows.size());
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.release();
+                failure.compareAndSet(null, e);
+                break;
+            }
+        } while (chunk.size() >= chunkSize);
+
+        // 等待已提交的批次处理完
+        inFlight.acquire(maxInFlightChunks);
+        inFlight.release(maxInFlightChunks);
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("sharded scan failed, shardIndex=" + shardIndex
+                    + ", shardTotal=" + shardTotal + ", processed=" + processed.get(), failure.get());
+        }
+        return processed.get();
+    }
+
+    private QueryWrapper<T> buildChunkQuery(int shardIndex, int shardTotal, Consumer<QueryWrapper<T>> condition,
+                                            long lastId) {
+        QueryWrapper<T> queryWrapper = new QueryWrapper<>();
+        if (condition != null) {
+            queryWrapper.and(condition);
+        }
+        if (shardTotal > 1) {
+            queryWrapper.apply("MOD(" + shardKeyExpression + ", {0}) = {1}", shardTotal, shardIndex);
+        }
+        queryWrapper.gt(idColumn, lastId)
+                .orderByAsc(idColumn)
+                .last("LIMIT " + chunkSize);
+        return queryWrapper;
+    }
+}
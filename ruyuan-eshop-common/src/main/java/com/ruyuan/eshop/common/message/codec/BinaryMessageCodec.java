@@ -0,0 +1,79 @@
+package com.ruyuan.eshop.common.message.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 带版本号的二进制编解码
+ * <p>
+ * 消息体格式：1字节格式版本 + 变长编码的schema版本 + 按字段编号写入的字段，字段格式见{@link BinaryWriter}。
+ * 只支持注册了{@link MessageSchema}的消息类型，其他类型由调用方使用JSON编码。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    public static final String NAME = "binary";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final Map<Class<?>, MessageSchema<?>> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    /**
+     * 注册消息类型的二进制格式，同一类型后注册的覆盖先注册的
+     */
+    public BinaryMessageCodec register(MessageSchema<?> schema) {
+        schemas.put(schema.type(), schema);
+        return this;
+    }
+
+    @Override
+    public boolean supports(Class<?> clazz) {
+        return schemas.containsKey(clazz);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object message) {
+        MessageSchema<Object> schema = (MessageSchema<Object>) getSchema(message.getClass());
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeRawByte(FORMAT_VERSION);
+        writer.writeRawVarint(schema.version());
+        schema.write(message, writer);
+        return writer.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] body, Class<T> clazz) {
+        MessageSchema<T> schema = (MessageSchema<T>) getSchema(clazz);
+        if (body.length == 0 || body[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("unsupported binary message format, type: " + clazz.getName());
+        }
+        BinaryReader reader = new BinaryReader(body, 1);
+        reader.readSchemaVersion();
+        T message = schema.newInstance();
+        int fieldNumber;
+        while ((fieldNumber = reader.nextField()) != 0) {
+            if (!schema.readField(message, fieldNumber, reader)) {
+                reader.skipField();
+            }
+        }
+        return message;
+    }
+
+    private MessageSchema<?> getSchema(Class<?> clazz) {
+        MessageSchema<?> schema = schemas.get(clazz);
+        if (schema == null) {
+            throw new IllegalArgumentException("binary message schema not registered: " + clazz.getName());
+        }
+        return schema;
+    }
+}
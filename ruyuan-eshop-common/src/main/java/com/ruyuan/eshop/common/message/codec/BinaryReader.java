@@ -0,0 +1,131 @@
+package com.ruyuan.eshop.common.message.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * 二进制消息读取，格式见{@link BinaryWriter}
+ * <p>
+ * 先用{@link #nextField()}读到下一个字段，再按字段编号调用对应类型的读取方法；
+ * 不认识的字段调用{@link #skipField()}跳过，新版本多出来的字段不影响老版本解码。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public class BinaryReader {
+
+    private final byte[] buffer;
+
+    private int position;
+
+    /**
+     * 写入方的schema版本
+     */
+    private int schemaVersion;
+
+    private int wireType;
+
+    BinaryReader(byte[] buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    /**
+     * 读取消息头里的schema版本
+     */
+    void readSchemaVersion() {
+        schemaVersion = (int) readRawVarint();
+    }
+
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    /**
+     * 读取下一个字段的标签
+     *
+     * @return 字段编号，没有更多字段时返回0
+     */
+    public int nextField() {
+        if (position >= buffer.length) {
+            return 0;
+        }
+        long tag = readRawVarint();
+        wireType = (int) (tag & 0x7);
+        int fieldNumber = (int) (tag >>> 3);
+        if (fieldNumber <= 0) {
+            throw new IllegalArgumentException("illegal field number: " + fieldNumber);
+        }
+        return fieldNumber;
+    }
+
+    public Integer readInt() {
+        return (int) readVarintField();
+    }
+
+    public Long readLong() {
+        return readVarintField();
+    }
+
+    public Boolean readBoolean() {
+        return readVarintField() != 0;
+    }
+
+    public Date readDate() {
+        return new Date(readVarintField());
+    }
+
+    public String readString() {
+        checkWireType(BinaryWriter.WIRE_LENGTH_DELIMITED);
+        int length = readLength();
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public void skipField() {
+        if (wireType == BinaryWriter.WIRE_VARINT) {
+            readRawVarint();
+        } else if (wireType == BinaryWriter.WIRE_LENGTH_DELIMITED) {
+            position += readLength();
+        } else {
+            throw new IllegalArgumentException("unknown wire type: " + wireType);
+        }
+    }
+
+    private long readRawVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= buffer.length) {
+                throw new IllegalArgumentException("truncated varint");
+            }
+            byte b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    private long readVarintField() {
+        checkWireType(BinaryWriter.WIRE_VARINT);
+        long value = readRawVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readLength() {
+        long length = readRawVarint();
+        if (length < 0 || length > buffer.length - position) {
+            throw new IllegalArgumentException("truncated field, length: " + length);
+        }
+        return (int) length;
+    }
+
+    private void checkWireType(int expected) {
+        if (wireType != expected) {
+            throw new IllegalArgumentException("wire type mismatch, expected: " + expected + ", actual: " + wireType);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.ruyuan.eshop.common.message.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * 二进制消息写入
+ * <p>
+ * 每个字段先写标签：字段编号左移3位或上类型，整数类型用zigzag变长编码，字符串先写长度再写UTF-8字节。
+ * 值为null的字段不写，解码时保持默认值。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public class BinaryWriter {
+
+    static final int WIRE_VARINT = 0;
+
+    static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private byte[] buffer;
+
+    private int position;
+
+    public BinaryWriter() {
+        this(32);
+    }
+
+    public BinaryWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    public BinaryWriter writeInt(int fieldNumber, Integer value) {
+        if (value != null) {
+            writeTag(fieldNumber, WIRE_VARINT);
+            writeRawVarint(zigzag(value));
+        }
+        return this;
+    }
+
+    public BinaryWriter writeLong(int fieldNumber, Long value) {
+        if (value != null) {
+            writeTag(fieldNumber, WIRE_VARINT);
+            writeRawVarint(zigzag(value));
+        }
+        return this;
+    }
+
+    public BinaryWriter writeBoolean(int fieldNumber, Boolean value) {
+        if (value != null) {
+            writeTag(fieldNumber, WIRE_VARINT);
+            writeRawVarint(value ? 1 : 0);
+        }
+        return this;
+    }
+
+    public BinaryWriter writeDate(int fieldNumber, Date value) {
+        return writeLong(fieldNumber, value == null ? null : value.getTime());
+    }
+
+    public BinaryWriter writeString(int fieldNumber, String value) {
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeTag(fieldNumber, WIRE_LENGTH_DELIMITED);
+            writeRawVarint(bytes.length);
+            writeRawBytes(bytes);
+        }
+        return this;
+    }
+
+    void writeRawVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    void writeRawByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void writeTag(int fieldNumber, int wireType) {
+        if (fieldNumber <= 0) {
+            throw new IllegalArgumentException("field number must be positive: " + fieldNumber);
+        }
+        writeRawVarint(((long) fieldNumber << 3) | wireType);
+    }
+
+    private void writeRawBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensureCapacity(int required) {
+        if (position + required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + required));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
@@ -0,0 +1,36 @@
+package com.ruyuan.eshop.common.message.codec;
+
+import com.alibaba.fastjson.JSON;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON编解码，和原来直接用fastjson收发的消息格式一致
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public class JsonMessageCodec implements MessageCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(Class<?> clazz) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object message) {
+        return JSON.toJSONString(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] body, Class<T> clazz) {
+        return JSON.parseObject(new String(body, StandardCharsets.UTF_8), clazz);
+    }
+}
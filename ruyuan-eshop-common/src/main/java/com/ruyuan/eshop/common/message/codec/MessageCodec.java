@@ -0,0 +1,46 @@
+package com.ruyuan.eshop.common.message.codec;
+
+/**
+ * 消息编解码
+ * <p>
+ * 生产者把编码方式的名字写到消息属性{@link #PROPERTY_CODEC}里，消费者按属性选择解码方式，
+ * 没有这个属性的消息按JSON解码，切换编码方式时新老格式的消息可以同时存在。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public interface MessageCodec {
+
+    /**
+     * 记录编码方式的消息属性
+     */
+    String PROPERTY_CODEC = "CODEC";
+
+    /**
+     * 编码方式的名字，写在消息属性里
+     */
+    String name();
+
+    /**
+     * 是否支持这个消息类型
+     */
+    boolean supports(Class<?> clazz);
+
+    /**
+     * 编码
+     *
+     * @param message 消息对象
+     * @return 消息体
+     */
+    byte[] encode(Object message);
+
+    /**
+     * 解码
+     *
+     * @param body  消息体
+     * @param clazz 消息类型
+     * @return 消息对象
+     */
+    <T> T decode(byte[] body, Class<T> clazz);
+}
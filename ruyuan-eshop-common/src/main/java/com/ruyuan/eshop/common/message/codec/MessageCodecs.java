@@ -0,0 +1,81 @@
+package com.ruyuan.eshop.common.message.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 消息编解码方式注册表
+ * <p>
+ * 默认注册JSON和二进制两种编码，二进制编码内置订单高频消息的格式。
+ * 消费者按消息属性里的编码方式解码，没有属性的老消息按JSON解码；
+ * 生产者按配置选择编码方式，配置的编码方式不支持的消息类型退回JSON。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public final class MessageCodecs {
+
+    private static final MessageCodec JSON = new JsonMessageCodec();
+
+    private static final Map<String, MessageCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(JSON);
+        register(new BinaryMessageCodec()
+                .register(MessageSchemas.PAID_ORDER_SUCCESS)
+                .register(MessageSchemas.PAY_ORDER_TIMEOUT_DELAY)
+                .register(MessageSchemas.ACTUAL_REFUND));
+    }
+
+    private MessageCodecs() {
+    }
+
+    /**
+     * 注册编解码方式，同名的后注册的覆盖先注册的
+     */
+    public static void register(MessageCodec codec) {
+        CODECS.put(codec.name(), codec);
+    }
+
+    /**
+     * 按名字查询编解码方式
+     *
+     * @param name 名字，为空时返回JSON
+     * @return 编解码方式
+     */
+    public static MessageCodec get(String name) {
+        if (name == null || name.isEmpty()) {
+            return JSON;
+        }
+        MessageCodec codec = CODECS.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("message codec not registered: " + name);
+        }
+        return codec;
+    }
+
+    /**
+     * 选择编码方式，优先使用指定的，不支持这个消息类型时使用JSON
+     *
+     * @param name    指定的编码方式
+     * @param message 消息对象
+     * @return 编解码方式
+     */
+    public static MessageCodec select(String name, Object message) {
+        MessageCodec codec = get(name);
+        return codec.supports(message.getClass()) ? codec : JSON;
+    }
+
+    /**
+     * 按消息属性里的编码方式解码
+     *
+     * @param codecName 消息属性里的编码方式，老消息没有这个属性
+     * @param body      消息体
+     * @param clazz     消息类型
+     * @return 消息对象
+     */
+    public static <T> T decode(String codecName, byte[] body, Class<T> clazz) {
+        return get(codecName).decode(body, clazz);
+    }
+}
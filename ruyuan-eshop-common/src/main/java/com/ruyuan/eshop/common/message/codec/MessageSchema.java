@@ -0,0 +1,44 @@
+package com.ruyuan.eshop.common.message.codec;
+
+/**
+ * 一个消息类型的二进制格式
+ * <p>
+ * 字段编号一旦使用就不能改成别的含义；加字段时使用新的编号并升级版本号，删字段时编号留空不再复用。
+ * 老版本写的消息缺少的字段保持默认值，新版本多出来的字段老版本读取时跳过。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public interface MessageSchema<T> {
+
+    /**
+     * 消息类型
+     */
+    Class<T> type();
+
+    /**
+     * 当前版本号，写在消息头里
+     */
+    int version();
+
+    /**
+     * 写入消息的所有字段
+     */
+    void write(T message, BinaryWriter writer);
+
+    /**
+     * 创建空的消息对象，解码时逐个字段填充
+     */
+    T newInstance();
+
+    /**
+     * 读取一个字段
+     *
+     * @param message     消息对象
+     * @param fieldNumber 字段编号
+     * @param reader      读取器，可以通过{@link BinaryReader#getSchemaVersion()}拿到写入方的版本
+     * @return 不认识的字段返回false，由调用方跳过
+     */
+    boolean readField(T message, int fieldNumber, BinaryReader reader);
+}
@@ -0,0 +1,161 @@
+package com.ruyuan.eshop.common.message.codec;
+
+import com.ruyuan.eshop.common.message.ActualRefundMessage;
+import com.ruyuan.eshop.common.message.PaidOrderSuccessMessage;
+import com.ruyuan.eshop.common.message.PayOrderTimeoutDelayMessage;
+
+/**
+ * 订单高频消息的二进制格式
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public final class MessageSchemas {
+
+    /**
+     * 订单完成支付消息
+     * v1: 1-orderId
+     */
+    public static final MessageSchema<PaidOrderSuccessMessage> PAID_ORDER_SUCCESS = new MessageSchema<PaidOrderSuccessMessage>() {
+
+        @Override
+        public Class<PaidOrderSuccessMessage> type() {
+            return PaidOrderSuccessMessage.class;
+        }
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(PaidOrderSuccessMessage message, BinaryWriter writer) {
+            writer.writeString(1, message.getOrderId());
+        }
+
+        @Override
+        public PaidOrderSuccessMessage newInstance() {
+            return new PaidOrderSuccessMessage();
+        }
+
+        @Override
+        public boolean readField(PaidOrderSuccessMessage message, int fieldNumber, BinaryReader reader) {
+            if (fieldNumber == 1) {
+                message.setOrderId(reader.readString());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * 支付超时延迟消息
+     * v1: 1-orderId 2-businessIdentifier 3-cancelType 4-userId 5-orderType 6-orderStatus
+     */
+    public static final MessageSchema<PayOrderTimeoutDelayMessage> PAY_ORDER_TIMEOUT_DELAY = new MessageSchema<PayOrderTimeoutDelayMessage>() {
+
+        @Override
+        public Class<PayOrderTimeoutDelayMessage> type() {
+            return PayOrderTimeoutDelayMessage.class;
+        }
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(PayOrderTimeoutDelayMessage message, BinaryWriter writer) {
+            writer.writeString(1, message.getOrderId())
+                    .writeInt(2, message.getBusinessIdentifier())
+                    .writeInt(3, message.getCancelType())
+                    .writeString(4, message.getUserId())
+                    .writeInt(5, message.getOrderType())
+                    .writeInt(6, message.getOrderStatus());
+        }
+
+        @Override
+        public PayOrderTimeoutDelayMessage newInstance() {
+            return new PayOrderTimeoutDelayMessage();
+        }
+
+        @Override
+        public boolean readField(PayOrderTimeoutDelayMessage message, int fieldNumber, BinaryReader reader) {
+            switch (fieldNumber) {
+                case 1:
+                    message.setOrderId(reader.readString());
+                    return true;
+                case 2:
+                    message.setBusinessIdentifier(reader.readInt());
+                    return true;
+                case 3:
+                    message.setCancelType(reader.readInt());
+                    return true;
+                case 4:
+                    message.setUserId(reader.readString());
+                    return true;
+                case 5:
+                    message.setOrderType(reader.readInt());
+                    return true;
+                case 6:
+                    message.setOrderStatus(reader.readInt());
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    };
+
+    /**
+     * 实际退款消息
+     * v1: 1-afterSaleRefundId 2-afterSaleId 3-orderId 4-lastReturnGoods
+     */
+    public static final MessageSchema<ActualRefundMessage> ACTUAL_REFUND = new MessageSchema<ActualRefundMessage>() {
+
+        @Override
+        public Class<ActualRefundMessage> type() {
+            return ActualRefundMessage.class;
+        }
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(ActualRefundMessage message, BinaryWriter writer) {
+            writer.writeLong(1, message.getAfterSaleRefundId())
+                    .writeLong(2, message.getAfterSaleId())
+                    .writeString(3, message.getOrderId())
+                    .writeBoolean(4, message.isLastReturnGoods());
+        }
+
+        @Override
+        public ActualRefundMessage newInstance() {
+            return new ActualRefundMessage();
+        }
+
+        @Override
+        public boolean readField(ActualRefundMessage message, int fieldNumber, BinaryReader reader) {
+            switch (fieldNumber) {
+                case 1:
+                    message.setAfterSaleRefundId(reader.readLong());
+                    return true;
+                case 2:
+                    message.setAfterSaleId(reader.readLong());
+                    return true;
+                case 3:
+                    message.setOrderId(reader.readString());
+                    return true;
+                case 4:
+                    message.setLastReturnGoods(reader.readBoolean());
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    };
+
+    private MessageSchemas() {
+    }
+}
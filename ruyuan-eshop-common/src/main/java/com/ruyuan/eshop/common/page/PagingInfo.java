@@ -34,6 +34,16 @@ public class PagingInfo<T> {
 
     private List<T> list;
 
+    /**
+     * 下一页游标，游标翻页时返回，没有下一页时为空
+     */
+    private String nextCursor;
+
+    /**
+     * 总条数是否为估算值，游标翻页统计总条数达到上限时为true
+     */
+    private Boolean approximateTotal;
+
     public PagingInfo() {
 
     }
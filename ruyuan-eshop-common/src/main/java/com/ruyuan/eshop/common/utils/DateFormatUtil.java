@@ -2,23 +2,37 @@ package com.ruyuan.eshop.common.utils;
 
 import com.ruyuan.eshop.common.constants.CoreConstant;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * java.util.Date日期格式化工具类
+ * DateTimeFormatter是不可变、线程安全的，可以在多个线程间共享，按系统默认时区格式化
  *
  * @author zhonghuashishan
  * @version 1.0
  */
 public class DateFormatUtil {
 
-    private static DateFormat dateFormat = new SimpleDateFormat(CoreConstant.DATE_FORMAT_PATTERN);
+    private static final ZoneId ZONE_ID = ZoneId.systemDefault();
 
-    private static DateFormat dateTimeFormat = new SimpleDateFormat(CoreConstant.DATE_TIME_FORMAT_PATTERN);
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern(CoreConstant.DATE_FORMAT_PATTERN).withZone(ZONE_ID);
 
-    private static DateFormat timeFormat = new SimpleDateFormat(CoreConstant.TIME_FORMAT_PATTERN);
+    private static final DateTimeFormatter DATE_TIME_FORMATTER =
+            DateTimeFormatter.ofPattern(CoreConstant.DATE_TIME_FORMAT_PATTERN).withZone(ZONE_ID);
+
+    private static final DateTimeFormatter TIME_FORMATTER =
+            DateTimeFormatter.ofPattern(CoreConstant.TIME_FORMAT_PATTERN).withZone(ZONE_ID);
+
+    /**
+     * 自定义格式的格式化器，格式种类有限，创建一次后复用
+     */
+    private static final ConcurrentMap<String, DateTimeFormatter> PATTERN_FORMATTERS = new ConcurrentHashMap<>();
 
     /**
      * 日期格式化(不包含时间) yyyy-MM-dd
@@ -27,7 +41,7 @@ public class DateFormatUtil {
      * @return
      */
     public static String format(Date date) {
-        return dateFormat.format(date);
+        return DATE_FORMATTER.format(date.toInstant());
     }
 
     /**
@@ -37,7 +51,7 @@ public class DateFormatUtil {
      * @return
      */
     public static String formatDateTime(Date date) {
-        return dateTimeFormat.format(date);
+        return DATE_TIME_FORMATTER.format(date.toInstant());
     }
 
     /**
@@ -47,7 +61,7 @@ public class DateFormatUtil {
      * @return
      */
     public static String formatTime(Date date) {
-        return timeFormat.format(date);
+        return TIME_FORMATTER.format(date.toInstant());
     }
 
     /**
@@ -58,7 +72,28 @@ public class DateFormatUtil {
      * @return
      */
     public static String format(Date date, String pattern) {
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
-        return simpleDateFormat.format(date);
+        return ofPattern(pattern).format(date.toInstant());
+    }
+
+    /**
+     * 解析日期字符串 yyyy-MM-dd HH:mm:ss
+     *
+     * @param datetime 日期字符串
+     * @return
+     */
+    public static Date parseDateTime(String datetime) {
+        LocalDateTime localDateTime = LocalDateTime.parse(datetime, DATE_TIME_FORMATTER);
+        return Date.from(localDateTime.atZone(ZONE_ID).toInstant());
+    }
+
+    /**
+     * 获取自定义格式的格式化器
+     *
+     * @param pattern 自定义格式
+     * @return
+     */
+    public static DateTimeFormatter ofPattern(String pattern) {
+        return PATTERN_FORMATTERS.computeIfAbsent(pattern,
+                key -> DateTimeFormatter.ofPattern(key).withZone(ZONE_ID));
     }
-}
\ No newline at end of file
+}
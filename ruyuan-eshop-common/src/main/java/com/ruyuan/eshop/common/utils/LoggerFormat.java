@@ -2,20 +2,45 @@ package com.ruyuan.eshop.common.utils;
 
 import com.alibaba.fastjson.JSONObject;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Set;
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 日志格式器
+ * <p>
+ * data(key, Object)只记录原始对象，到finish()或toString()时才序列化。
+ * 配合SLF4J的占位符使用时，日志级别关闭就不会序列化：
+ * <pre>
+ * log.info("{}", LoggerFormat.build()
+ *         .remark("createOrder-&gt;request")
+ *         .data("request", createOrderRequest));
+ * </pre>
+ * 每个字段序列化时，顶层的集合、数组、Map只保留前面的元素，序列化后的字符串超长也会截断；
+ * 每笔订单都会打印的高频日志可以先用{@link #sampled(double)}抽样。
+ * </p>
  *
  * @author zhonghuashishan
  * @version 1.0
  */
 public class LoggerFormat {
-    private final Map<String, String> logInfo = new LinkedHashMap<>();
+
+    /**
+     * 单个字段序列化后的默认最大长度
+     */
+    public static final int DEFAULT_MAX_LENGTH = 4096;
+
+    /**
+     * 集合、数组、Map默认只序列化的元素个数
+     */
+    public static final int DEFAULT_MAX_ELEMENTS = 50;
+
     private static final String USER_TRACE_ID = "TraceId";
 
+    private final Map<String, Field> logInfo = new LinkedHashMap<>();
+
+    private String rendered;
+
     private LoggerFormat() {
     }
 
@@ -23,6 +48,19 @@ public class LoggerFormat {
         return new LoggerFormat();
     }
 
+    /**
+     * 按比例抽样，高频日志只输出其中一部分
+     *
+     * @param rate 抽样比例，0到1之间
+     * @return 本次是否输出
+     */
+    public static boolean sampled(double rate) {
+        if (rate >= 1) {
+            return true;
+        }
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
     /**
      * 日志备注
      *
@@ -30,8 +68,7 @@ public class LoggerFormat {
      * @return
      */
     public LoggerFormat remark(String remark) {
-        logInfo.put("remark", remark);
-        return this;
+        return put("remark", new Field(remark, true, DEFAULT_MAX_ELEMENTS, DEFAULT_MAX_LENGTH));
     }
 
     /**
@@ -42,26 +79,134 @@ public class LoggerFormat {
      * @return
      */
     public LoggerFormat data(String key, String value) {
-        logInfo.put(key, value);
-        return this;
+        return put(key, new Field(value, true, DEFAULT_MAX_ELEMENTS, DEFAULT_MAX_LENGTH));
     }
 
     public LoggerFormat data(String key, Object value) {
-        logInfo.put(key, JSONObject.toJSONString(value));
+        return data(key, value, DEFAULT_MAX_ELEMENTS, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * 日志数据，单独指定这个字段的大小上限
+     *
+     * @param key
+     * @param value
+     * @param maxElements 集合、数组、Map只序列化前面的元素个数
+     * @param maxLength   序列化后的最大长度
+     * @return
+     */
+    public LoggerFormat data(String key, Object value, int maxElements, int maxLength) {
+        return put(key, new Field(value, false, maxElements, maxLength));
+    }
+
+    private LoggerFormat put(String key, Field field) {
+        logInfo.put(key, field);
+        rendered = null;
         return this;
     }
 
     public String finish() {
+        if (rendered != null) {
+            return rendered;
+        }
         StringBuilder sb = new StringBuilder();
         if (!logInfo.isEmpty()) {
-            Set<String> keys = logInfo.keySet();
             if (MdcUtil.isUserCustomized()) {
                 sb.append(USER_TRACE_ID).append("=[").append(MdcUtil.getTraceId()).append("] ");
             }
-            for (String key : keys) {
-                sb.append(key).append("=[").append(logInfo.get(key)).append("] ");
+            for (Map.Entry<String, Field> entry : logInfo.entrySet()) {
+                sb.append(entry.getKey()).append("=[").append(entry.getValue().render()).append("] ");
+            }
+        }
+        rendered = sb.toString();
+        return rendered;
+    }
+
+    @Override
+    public String toString() {
+        return finish();
+    }
+
+    /**
+     * 一个日志字段
+     */
+    private static class Field {
+
+        private final Object value;
+
+        /**
+         * 字符串原样输出，不做JSON序列化
+         */
+        private final boolean raw;
+
+        private final int maxElements;
+
+        private final int maxLength;
+
+        Field(Object value, boolean raw, int maxElements, int maxLength) {
+            this.value = value;
+            this.raw = raw;
+            this.maxElements = maxElements;
+            this.maxLength = maxLength;
+        }
+
+        String render() {
+            if (raw) {
+                return truncate((String) value, maxLength);
+            }
+            int size = sizeOf(value);
+            if (size > maxElements) {
+                String json = JSONObject.toJSONString(head(value, maxElements));
+                return truncate(json, maxLength) + "...(size=" + size + ")";
+            }
+            return truncate(JSONObject.toJSONString(value), maxLength);
+        }
+
+        private static int sizeOf(Object value) {
+            if (value instanceof Collection) {
+                return ((Collection<?>) value).size();
+            }
+            if (value instanceof Map) {
+                return ((Map<?, ?>) value).size();
+            }
+            if (value != null && value.getClass().isArray()) {
+                return Array.getLength(value);
+            }
+            return -1;
+        }
+
+        private static Object head(Object value, int maxElements) {
+            if (value instanceof Map) {
+                Map<Object, Object> head = new LinkedHashMap<>();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    if (head.size() >= maxElements) {
+                        break;
+                    }
+                    head.put(entry.getKey(), entry.getValue());
+                }
+                return head;
+            }
+            List<Object> head = new ArrayList<>(maxElements);
+            if (value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    if (head.size() >= maxElements) {
+                        break;
+                    }
+                    head.add(element);
+                }
+                return head;
+            }
+            for (int i = 0; i < maxElements; i++) {
+                head.add(Array.get(value, i));
+            }
+            return head;
+        }
+
+        private static String truncate(String text, int maxLength) {
+            if (text == null || text.length() <= maxLength) {
+                return text;
             }
+            return text.substring(0, maxLength) + "...(length=" + text.length() + ")";
         }
-        return sb.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,214 @@
+package com.ruyuan.eshop.common.utils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import com.alibaba.fastjson.JSONObject;
+import lombok.Data;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生单请求日志的基准测试，INFO级别打开和关闭两种情况下，对比原来先序列化再判断级别的写法和延迟序列化的写法
+ * <p>
+ * 运行main方法，GC profiler会输出每次调用的分配字节数（gc.alloc.rate.norm）。
+ * 日志输出到一个只取格式化结果、不写文件的appender，测的只是格式化本身的开销。
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerFormatBenchmark {
+
+    @Param({"INFO", "WARN"})
+    private String level;
+
+    /**
+     * 订单条目数量，超过LoggerFormat.DEFAULT_MAX_ELEMENTS时会被截断
+     */
+    @Param({"5", "200"})
+    private int itemCount;
+
+    private Logger logger;
+
+    private CreateOrderRequest createOrderRequest;
+
+    @Setup
+    public void setUp() {
+        logger = (Logger) LoggerFactory.getLogger(LoggerFormatBenchmark.class);
+        logger.detachAndStopAllAppenders();
+        logger.setAdditive(false);
+        logger.setLevel(Level.toLevel(level));
+        FormattingAppender appender = new FormattingAppender();
+        appender.setContext(logger.getLoggerContext());
+        appender.start();
+        logger.addAppender(appender);
+
+        createOrderRequest = buildCreateOrderRequest(itemCount);
+    }
+
+    /**
+     * 原来的写法：无论级别是否打开都先序列化
+     */
+    @Benchmark
+    public void eagerFinish() {
+        logger.info(LoggerFormat.build()
+                .remark("createOrder->request")
+                .data("request", createOrderRequest)
+                .finish());
+    }
+
+    /**
+     * 原来监听器里的写法：直接toJSONString
+     */
+    @Benchmark
+    public void eagerToJsonString() {
+        logger.info("createOrder->request, request={}", JSONObject.toJSONString(createOrderRequest));
+    }
+
+    /**
+     * 延迟序列化：级别关闭时不调用toString()，不序列化
+     */
+    @Benchmark
+    public void deferredData() {
+        logger.info("{}", LoggerFormat.build()
+                .remark("createOrder->request")
+                .data("request", createOrderRequest));
+    }
+
+    /**
+     * 只截断顶层集合：订单条目列表单独作为一个字段输出
+     */
+    @Benchmark
+    public void deferredDataWithItemList(Blackhole blackhole) {
+        List<OrderItemRequest> orderItemRequestList = createOrderRequest.getOrderItemRequestList();
+        logger.info("{}", LoggerFormat.build()
+                .remark("createOrder->items")
+                .data("orderId", createOrderRequest.getOrderId())
+                .data("orderItemRequestList", orderItemRequestList));
+        blackhole.consume(orderItemRequestList);
+    }
+
+    private static CreateOrderRequest buildCreateOrderRequest(int itemCount) {
+        CreateOrderRequest request = new CreateOrderRequest();
+        request.setOrderId("1011250000000010001");
+        request.setBusinessIdentifier(1);
+        request.setUserId("100");
+        request.setOrderType(1);
+        request.setSellerId("101");
+        request.setCouponId("1001001");
+        request.setDeliveryType(1);
+        request.setProvince("110000");
+        request.setCity("110100");
+        request.setArea("110105");
+        request.setStreet("110101007");
+        request.setDetailAddress("北京北京市东城区东华门街道");
+        request.setLon(new BigDecimal("100.1000"));
+        request.setLat(new BigDecimal("1010.2010"));
+        request.setReceiverName("张三");
+        request.setReceiverPhone("13434545545");
+        request.setRegionId("110105");
+        List<OrderItemRequest> orderItemRequestList = new ArrayList<>();
+        for (int i = 0; i < itemCount; i++) {
+            OrderItemRequest orderItemRequest = new OrderItemRequest();
+            orderItemRequest.setProductType(1 + i % 2);
+            orderItemRequest.setSaleQuantity(i + 1);
+            orderItemRequest.setSkuCode("skuCode" + i);
+            orderItemRequestList.add(orderItemRequest);
+        }
+        request.setOrderItemRequestList(orderItemRequestList);
+        return request;
+    }
+
+    /**
+     * 生单请求，字段和订单服务的生单请求一致，common模块不依赖订单服务
+     */
+    @Data
+    public static class CreateOrderRequest {
+
+        private String orderId;
+
+        private Integer businessIdentifier;
+
+        private String userId;
+
+        private Integer orderType;
+
+        private String sellerId;
+
+        private String couponId;
+
+        private Integer deliveryType;
+
+        private String province;
+
+        private String city;
+
+        private String area;
+
+        private String street;
+
+        private String detailAddress;
+
+        private BigDecimal lon;
+
+        private BigDecimal lat;
+
+        private String receiverName;
+
+        private String receiverPhone;
+
+        private String regionId;
+
+        private List<OrderItemRequest> orderItemRequestList;
+    }
+
+    /**
+     * 生单请求的订单条目
+     */
+    @Data
+    public static class OrderItemRequest {
+
+        private Integer productType;
+
+        private Integer saleQuantity;
+
+        private String skuCode;
+    }
+
+    /**
+     * 只做格式化、不落盘的appender
+     */
+    private static class FormattingAppender extends AppenderBase<ILoggingEvent> {
+
+        private volatile int length;
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            length = event.getFormattedMessage().length();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LoggerFormatBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
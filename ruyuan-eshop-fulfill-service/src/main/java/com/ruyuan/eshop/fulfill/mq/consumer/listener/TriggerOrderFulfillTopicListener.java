@@ -1,7 +1,6 @@
 package com.ruyuan.eshop.fulfill.mq.consumer.listener;
 
 import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
 import com.ruyuan.eshop.fulfill.domain.request.ReceiveFulfillRequest;
 import com.ruyuan.eshop.fulfill.service.FulfillService;
 import lombok.extern.slf4j.Slf4j;
@@ -39,7 +38,8 @@ public class TriggerOrderFulfillTopicListener implements MessageListenerConcurre
                 ReceiveFulfillRequest request =
                         JSON.parseObject(message, ReceiveFulfillRequest.class);
 
-                log.info("接受订单履约成功，request={}", JSONObject.toJSONString(request));
+                // 消息体本身就是请求的JSON，直接输出，不再重新序列化
+                log.info("接受订单履约成功，request={}", message);
 
                 fulfillService.receiveOrderFulFill(request);
             }
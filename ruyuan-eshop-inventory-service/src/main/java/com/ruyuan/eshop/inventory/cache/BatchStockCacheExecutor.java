@@ -0,0 +1,98 @@
+package com.ruyuan.eshop.inventory.cache;
+
+import com.ruyuan.eshop.common.redis.RedisCache;
+import com.ruyuan.eshop.inventory.domain.dto.DeductStockDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多sku批量操作redis库存
+ * <p>
+ * 一笔订单的所有sku在一次lua调用里完成检查和扣减，取代逐个sku的hGetAll+分布式锁+lua，
+ * 多商品订单只需要一次网络往返。多个库存key需要落在同一个redis节点（当前为单机部署）
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Component
+public class BatchStockCacheExecutor {
+
+    /**
+     * 成功
+     */
+    public static final long SUCCESS = 1L;
+
+    /**
+     * 库存不足
+     */
+    public static final long STOCK_NOT_ENOUGH = -1L;
+
+    /**
+     * redis中没有该sku的库存数据
+     */
+    public static final long STOCK_NOT_CACHED = -2L;
+
+    @Autowired
+    private RedisCache redisCache;
+
+    /**
+     * 批量扣减销售库存、增加已销售库存，要么全部扣减，要么全部不扣减
+     *
+     * @param deductStocks 同一sku出现多次时数量合并
+     * @return skuCode -> 结果码
+     */
+    public Map<String, Long> deduct(List<DeductStockDTO> deductStocks) {
+        return execute(LuaRedisScript.BATCH_DEDUCT_PRODUCT_STOCK, deductStocks);
+    }
+
+    /**
+     * 批量增加销售库存、扣减已销售库存，逐个sku释放
+     *
+     * @param deductStocks 同一sku出现多次时数量合并
+     * @return skuCode -> 结果码
+     */
+    public Map<String, Long> release(List<DeductStockDTO> deductStocks) {
+        return execute(LuaRedisScript.BATCH_RELEASE_PRODUCT_STOCK, deductStocks);
+    }
+
+    /**
+     * 是否全部sku都执行成功
+     */
+    public static boolean isAllSuccess(Map<String, Long> results) {
+        return results.values().stream().allMatch(result -> result == SUCCESS);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private Map<String, Long> execute(RedisScript<List> script, List<DeductStockDTO> deductStocks) {
+        Map<String, Integer> saleQuantities = new LinkedHashMap<>();
+        for (DeductStockDTO deductStock : deductStocks) {
+            saleQuantities.merge(deductStock.getSkuCode(), deductStock.getSaleQuantity(), Integer::sum);
+        }
+
+        List<String> keys = new ArrayList<>(saleQuantities.size());
+        String[] args = new String[saleQuantities.size() + 2];
+        args[0] = CacheSupport.SALE_STOCK;
+        args[1] = CacheSupport.SALED_STOCK;
+        int i = 2;
+        for (Map.Entry<String, Integer> entry : saleQuantities.entrySet()) {
+            keys.add(CacheSupport.buildProductStockKey(entry.getKey()));
+            args[i++] = String.valueOf(entry.getValue());
+        }
+
+        List<Long> codes = redisCache.execute(script, keys, args);
+
+        Map<String, Long> results = new LinkedHashMap<>();
+        i = 0;
+        for (String skuCode : saleQuantities.keySet()) {
+            results.put(skuCode, codes.get(i++));
+        }
+        return results;
+    }
+}
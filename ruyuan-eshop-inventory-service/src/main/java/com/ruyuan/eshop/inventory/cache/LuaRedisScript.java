@@ -0,0 +1,49 @@
+package com.ruyuan.eshop.inventory.cache;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+
+/**
+ * lua脚本对象
+ * <p>
+ * 脚本对象全局只创建一次，sha1只计算一次。RedisTemplate执行脚本时先用EVALSHA，
+ * redis返回NOSCRIPT（例如redis重启或执行过SCRIPT FLUSH）时再用EVAL执行并加载脚本，
+ * 之后的调用重新走EVALSHA，不再每次传输整段脚本
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public final class LuaRedisScript {
+
+    private LuaRedisScript() {
+    }
+
+    /**
+     * 调整商品库存
+     */
+    public static final RedisScript<Long> MODIFY_PRODUCT_STOCK =
+            new DefaultRedisScript<>(LuaScript.MODIFY_PRODUCT_STOCK, Long.class);
+
+    /**
+     * 释放商品库存
+     */
+    public static final RedisScript<Long> RELEASE_PRODUCT_STOCK =
+            new DefaultRedisScript<>(LuaScript.RELEASE_PRODUCT_STOCK, Long.class);
+
+    /**
+     * 批量扣减商品库存
+     */
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> BATCH_DEDUCT_PRODUCT_STOCK =
+            new DefaultRedisScript<>(LuaScript.BATCH_DEDUCT_PRODUCT_STOCK, List.class);
+
+    /**
+     * 批量释放商品库存
+     */
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> BATCH_RELEASE_PRODUCT_STOCK =
+            new DefaultRedisScript<>(LuaScript.BATCH_RELEASE_PRODUCT_STOCK, List.class);
+}
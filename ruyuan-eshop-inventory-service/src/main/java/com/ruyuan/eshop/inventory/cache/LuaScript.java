@@ -27,84 +27,78 @@ public interface LuaScript {
                     + "return 1;";
 
     /**
-     * 扣减商品库存
+     * 释放商品库存
      */
-    String DEDUCT_PRODUCT_STOCK =
+    String RELEASE_PRODUCT_STOCK =
             "local productStockKey = KEYS[1];"
                     + "local saleStockKey = KEYS[2];"
                     + "local saledStockKey = KEYS[3];"
                     + "local saleQuantity = tonumber(ARGV[1]);"
                     + "local saleStock   = tonumber(redis.call('hget', productStockKey, saleStockKey));"
                     + "local saledStock = tonumber(redis.call('hget', productStockKey, saledStockKey));"
-                    + "if saleStock < saleQuantity then"
+                    + "if saledStock < saleQuantity then"
                     + "   return -1;"
                     + "end;"
-                    + "redis.call('hset', productStockKey, saleStockKey,   saleStock - saleQuantity);"
-                    + "redis.call('hset', productStockKey, saledStockKey, saledStock + saleQuantity);"
+                    + "redis.call('hset', productStockKey, saleStockKey,   saleStock + saleQuantity);"
+                    + "redis.call('hset', productStockKey, saledStockKey, saledStock - saleQuantity);"
                     + "return 1;";
 
     /**
-     * 扣减销售库存
+     * 批量扣减商品库存
+     * KEYS为各sku的库存hash，ARGV[1]、ARGV[2]为销售库存、已销售库存字段名，ARGV[2+i]为KEYS[i]的销售数量
+     * 先检查全部sku，全部满足才一起扣减，返回每个sku的结果：1成功，-1库存不足，-2库存未缓存
      */
-    String DEDUCT_SALE_STOCK =
-            "local productStockKey = KEYS[1];"
-                    + "local saleStockKey = KEYS[2];"
-                    + "local saleQuantity = tonumber(ARGV[1]);"
-                    + "local originSaleStock = tonumber(ARGV[2]);"
-                    + "local saleStock   = tonumber(redis.call('hget', productStockKey, saleStockKey));"
-                    + "if saleStock < saleQuantity then"
-                    + "   return -1;"
+    String BATCH_DEDUCT_PRODUCT_STOCK =
+            "local saleStockKey = ARGV[1];"
+                    + "local saledStockKey = ARGV[2];"
+                    + "local result = {};"
+                    + "local success = true;"
+                    + "for i = 1, #KEYS do"
+                    + "   local stock = redis.call('hmget', KEYS[i], saleStockKey, saledStockKey);"
+                    + "   local saleStock = tonumber(stock[1]);"
+                    + "   local saledStock = tonumber(stock[2]);"
+                    + "   local saleQuantity = tonumber(ARGV[i + 2]);"
+                    + "   if saleStock == nil or saledStock == nil then"
+                    + "      result[i] = -2;"
+                    + "      success = false;"
+                    + "   elseif saleStock < saleQuantity then"
+                    + "      result[i] = -1;"
+                    + "      success = false;"
+                    + "   else"
+                    + "      result[i] = 1;"
+                    + "   end;"
                     + "end;"
-                    + "if saleStock ~= originSaleStock then"
-                    + "   return -1;"
+                    + "if success then"
+                    + "   for i = 1, #KEYS do"
+                    + "      local saleQuantity = tonumber(ARGV[i + 2]);"
+                    + "      redis.call('hincrby', KEYS[i], saleStockKey, -saleQuantity);"
+                    + "      redis.call('hincrby', KEYS[i], saledStockKey, saleQuantity);"
+                    + "   end;"
                     + "end;"
-                    + "redis.call('hset', productStockKey, saleStockKey,   saleStock - saleQuantity);"
-                    + "return 1;";
+                    + "return result;";
 
     /**
-     * 增加已销售库存
+     * 批量释放商品库存
+     * 参数同BATCH_DEDUCT_PRODUCT_STOCK，逐个sku释放，返回每个sku的结果：1成功，-1已销售库存不足，-2库存未缓存
      */
-    String INCREASE_SALED_STOCK =
-            "local productStockKey = KEYS[1];"
-                    + "local saledStockKey = KEYS[2];"
-                    + "local saleQuantity = tonumber(ARGV[1]);"
-                    + "local originSaledStock = tonumber(ARGV[2]);"
-                    + "local saledStock = tonumber(redis.call('hget', productStockKey, saledStockKey));"
-                    + "if saledStock ~= originSaledStock then"
-                    + "   return -1;"
+    String BATCH_RELEASE_PRODUCT_STOCK =
+            "local saleStockKey = ARGV[1];"
+                    + "local saledStockKey = ARGV[2];"
+                    + "local result = {};"
+                    + "for i = 1, #KEYS do"
+                    + "   local stock = redis.call('hmget', KEYS[i], saleStockKey, saledStockKey);"
+                    + "   local saleStock = tonumber(stock[1]);"
+                    + "   local saledStock = tonumber(stock[2]);"
+                    + "   local saleQuantity = tonumber(ARGV[i + 2]);"
+                    + "   if saleStock == nil or saledStock == nil then"
+                    + "      result[i] = -2;"
+                    + "   elseif saledStock < saleQuantity then"
+                    + "      result[i] = -1;"
+                    + "   else"
+                    + "      redis.call('hincrby', KEYS[i], saleStockKey, saleQuantity);"
+                    + "      redis.call('hincrby', KEYS[i], saledStockKey, -saleQuantity);"
+                    + "      result[i] = 1;"
+                    + "   end;"
                     + "end;"
-                    + "redis.call('hset', productStockKey, saledStockKey, saledStock + saleQuantity);"
-                    + "return 1;";
-
-    /**
-     * 还原销售库存
-     */
-    String RESTORE_SALE_STOCK =
-            "local productStockKey = KEYS[1];"
-                    + "local saleStockKey = KEYS[2];"
-                    + "local saleQuantity = tonumber(ARGV[1]);"
-                    + "local originSaleStock = tonumber(ARGV[2]);"
-                    + "local saleStock   = tonumber(redis.call('hget', productStockKey, saleStockKey));"
-                    + "if saleStock ~= originSaleStock then"
-                    + "   return -1;"
-                    + "end;"
-                    + "redis.call('hset', productStockKey, saleStockKey,   saleStock + saleQuantity);"
-                    + "return 1;";
-
-    /**
-     * 释放商品库存
-     */
-    String RELEASE_PRODUCT_STOCK =
-            "local productStockKey = KEYS[1];"
-                    + "local saleStockKey = KEYS[2];"
-                    + "local saledStockKey = KEYS[3];"
-                    + "local saleQuantity = tonumber(ARGV[1]);"
-                    + "local saleStock   = tonumber(redis.call('hget', productStockKey, saleStockKey));"
-                    + "local saledStock = tonumber(redis.call('hget', productStockKey, saledStockKey));"
-                    + "if saledStock < saleQuantity then"
-                    + "   return -1;"
-                    + "end;"
-                    + "redis.call('hset', productStockKey, saleStockKey,   saleStock + saleQuantity);"
-                    + "redis.call('hset', productStockKey, saledStockKey, saledStock - saleQuantity);"
-                    + "return 1;";
+                    + "return result;";
 }
@@ -9,6 +9,8 @@ import com.ruyuan.eshop.inventory.mapper.ProductStockLogMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 /**
  * <p>
  * 库存扣减日志表 Mapper 接口
@@ -37,6 +39,21 @@ public class ProductStockLogDAO extends BaseDAO<ProductStockLogMapper, ProductSt
         return baseMapper.selectOne(queryWrapper);
     }
 
+    /**
+     * 批量查询订单sku的库存扣减日志
+     *
+     * @param orderId
+     * @param skuCodes
+     * @return
+     */
+    public List<ProductStockLogDO> listLogs(String orderId, List<String> skuCodes) {
+        LambdaQueryWrapper<ProductStockLogDO> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.eq(ProductStockLogDO::getOrderId, orderId)
+                .in(ProductStockLogDO::getSkuCode, skuCodes)
+        ;
+        return list(queryWrapper);
+    }
+
     /**
      * 更新库存日志状态
      *
@@ -0,0 +1,66 @@
+package com.ruyuan.eshop.inventory.dao;
+
+import com.ruyuan.eshop.common.dao.BaseDAO;
+import com.ruyuan.eshop.inventory.domain.entity.TccFenceLogDO;
+import com.ruyuan.eshop.inventory.enums.TccFenceStatusEnum;
+import com.ruyuan.eshop.inventory.mapper.TccFenceLogMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * TCC事务防护日志表 DAO
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Repository
+public class TccFenceLogDAO extends BaseDAO<TccFenceLogMapper, TccFenceLogDO> {
+
+    @Autowired
+    private TccFenceLogMapper tccFenceLogMapper;
+
+    /**
+     * 插入防护日志，已存在时忽略
+     *
+     * @return 是否插入成功
+     */
+    public boolean insertIgnore(String xid, Long branchId, String actionName, TccFenceStatusEnum status) {
+        return tccFenceLogMapper.insertIgnore(xid, branchId, actionName, status.getCode()) > 0;
+    }
+
+    /**
+     * 加行锁查询防护日志，需要在事务中调用
+     *
+     * @param xid
+     * @param branchId
+     * @return
+     */
+    public TccFenceLogDO getForUpdate(String xid, Long branchId) {
+        return tccFenceLogMapper.selectForUpdate(xid, branchId);
+    }
+
+    /**
+     * 按原状态更新防护日志状态
+     *
+     * @return 是否更新成功
+     */
+    public boolean updateStatus(String xid, Long branchId, TccFenceStatusEnum originStatus, TccFenceStatusEnum status) {
+        return tccFenceLogMapper.updateStatus(xid, branchId, originStatus.getCode(), status.getCode()) > 0;
+    }
+
+    /**
+     * 删除一批指定时间之前已结束的防护日志
+     *
+     * @param before
+     * @param statuses
+     * @param limit
+     * @return 删除的行数
+     */
+    public int deleteFinished(Date before, List<Integer> statuses, int limit) {
+        return tccFenceLogMapper.deleteFinished(before, statuses, limit);
+    }
+}
@@ -0,0 +1,59 @@
+package com.ruyuan.eshop.inventory.domain.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * <p>
+ * TCC事务防护日志表
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Data
+@TableName("tcc_fence_log")
+public class TccFenceLogDO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键ID
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 创建时间
+     */
+    @TableField(fill = FieldFill.INSERT)
+    private Date gmtCreate;
+
+    /**
+     * 更新时间
+     */
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private Date gmtModified;
+
+    /**
+     * 全局事务id
+     */
+    private String xid;
+
+    /**
+     * 分支事务id
+     */
+    private Long branchId;
+
+    /**
+     * TCC资源名称
+     */
+    private String actionName;
+
+    /**
+     * 状态
+     */
+    private Integer status;
+}
@@ -0,0 +1,32 @@
+package com.ruyuan.eshop.inventory.enums;
+
+/**
+ * TCC事务防护日志状态
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public enum TccFenceStatusEnum {
+
+    TRIED(1, "try已执行"),
+    COMMITTED(2, "已提交"),
+    ROLLBACKED(3, "已回滚"),
+    SUSPENDED(4, "悬挂，二阶段先于try到达");
+
+    private Integer code;
+
+    private String msg;
+
+    TccFenceStatusEnum(Integer code, String msg) {
+        this.code = code;
+        this.msg = msg;
+    }
+
+    public Integer getCode() {
+        return code;
+    }
+
+    public String getMsg() {
+        return msg;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ruyuan.eshop.inventory.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.ruyuan.eshop.inventory.domain.entity.TccFenceLogDO;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * TCC事务防护日志表 Mapper 接口
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Mapper
+public interface TccFenceLogMapper extends BaseMapper<TccFenceLogDO> {
+
+    /**
+     * 插入防护日志，xid+branchId已存在时忽略
+     *
+     * @param xid
+     * @param branchId
+     * @param actionName
+     * @param status
+     * @return 插入的行数
+     */
+    int insertIgnore(@Param("xid") String xid, @Param("branchId") Long branchId,
+                     @Param("actionName") String actionName, @Param("status") Integer status);
+
+    /**
+     * 加行锁查询防护日志
+     *
+     * @param xid
+     * @param branchId
+     * @return
+     */
+    TccFenceLogDO selectForUpdate(@Param("xid") String xid, @Param("branchId") Long branchId);
+
+    /**
+     * 按原状态更新防护日志状态
+     *
+     * @param xid
+     * @param branchId
+     * @param originStatus
+     * @param status
+     * @return
+     */
+    int updateStatus(@Param("xid") String xid, @Param("branchId") Long branchId,
+                     @Param("originStatus") Integer originStatus, @Param("status") Integer status);
+
+    /**
+     * 分批删除指定时间之前已结束的防护日志
+     *
+     * @param before
+     * @param statuses
+     * @param limit
+     * @return 删除的行数
+     */
+    int deleteFinished(@Param("before") Date before, @Param("statuses") List<Integer> statuses,
+                       @Param("limit") Integer limit);
+}
@@ -0,0 +1,55 @@
+package com.ruyuan.eshop.inventory.schedule;
+
+import com.ruyuan.eshop.common.utils.LoggerFormat;
+import com.ruyuan.eshop.inventory.tcc.TccFenceHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定时清理已结束的TCC防护日志
+ * 分批删除，避免一次删除大量数据长时间锁表
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class TccFenceLogCleanTask {
+
+    @Autowired
+    private TccFenceHandler tccFenceHandler;
+
+    /**
+     * 防护日志保留时长，需要大于TC对二阶段的最长重试时间，否则迟到的try可能越过悬挂标识
+     */
+    @Value("${tcc.fence.log-retention-hours:24}")
+    private Integer logRetentionHours;
+
+    /**
+     * 每批删除的行数
+     */
+    @Value("${tcc.fence.clean-batch-size:1000}")
+    private Integer cleanBatchSize;
+
+    @Scheduled(fixedDelayString = "${tcc.fence.clean-interval-millis:3600000}")
+    public void execute() {
+        Date before = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(logRetentionHours));
+        int total = 0;
+        int deleted;
+        do {
+            deleted = tccFenceHandler.deleteFinishedFenceLog(before, cleanBatchSize);
+            total += deleted;
+        } while (deleted >= cleanBatchSize);
+
+        log.info("{}", LoggerFormat.build()
+                .remark("清理TCC防护日志")
+                .data("before", before)
+                .data("total", total));
+    }
+}
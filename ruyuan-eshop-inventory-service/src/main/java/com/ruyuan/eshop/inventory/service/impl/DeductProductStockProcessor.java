@@ -12,6 +12,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 /**
  * 扣减商品库存处理器
  *
@@ -38,24 +40,27 @@ public class DeductProductStockProcessor {
      * 执行扣减商品库存逻辑
      */
 //    @GlobalTransactional(rollbackFor = Exception.class)
-    public void doDeduct(DeductStockDTO deductStock) {
+    public void doDeduct(List<DeductStockDTO> deductStocks) {
         String traceId = MdcUtil.getTraceId();
         // 1、执行执行mysql库存扣减
-        boolean result = lockMysqlStockTccService
-                .deductStock(null, deductStock, traceId);
-        if (!result) {
-            throw new InventoryBizException(InventoryErrorCodeEnum.DEDUCT_PRODUCT_SKU_STOCK_ERROR);
+        for (DeductStockDTO deductStock : deductStocks) {
+            boolean result = lockMysqlStockTccService
+                    .deductStock(null, deductStock, traceId);
+            if (!result) {
+                throw new InventoryBizException(InventoryErrorCodeEnum.DEDUCT_PRODUCT_SKU_STOCK_ERROR);
+            }
         }
 
-        // 2、执行redis库存扣减
-        result = lockRedisStockTccService.deductStock(null, deductStock, traceId);
+        // 2、一次lua调用批量执行redis库存扣减
+        boolean result = lockRedisStockTccService.deductStock(null, deductStocks, traceId);
         if (!result) {
-            // 已mysql数据为准
-            log.info(LoggerFormat.build()
+            // 批量扣减是全部成功或全部不扣减，失败时所有sku都以mysql数据为准
+            log.info("{}", LoggerFormat.build()
                     .remark("执行redis库存扣减失败！")
-                    .data("deductStock", deductStock)
-                    .finish());
-            syncStockToCacheProcessor.doSync(deductStock.getSkuCode());
+                    .data("deductStocks", deductStocks));
+            for (DeductStockDTO deductStock : deductStocks) {
+                syncStockToCacheProcessor.doSync(deductStock.getSkuCode());
+            }
         }
     }
 }
@@ -23,8 +23,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * @author zhonghuashishan
@@ -74,63 +77,60 @@ public class InventoryServiceImpl implements InventoryService {
         String orderId = deductProductStockRequest.getOrderId();
         List<DeductProductStockRequest.OrderItemRequest> orderItemRequestList =
                 deductProductStockRequest.getOrderItemRequestList();
-        for (DeductProductStockRequest.OrderItemRequest orderItemRequest : orderItemRequestList) {
-            String skuCode = orderItemRequest.getSkuCode();
-            //1、查询mysql库存数据
-            ProductStockDO productStockDO = productStockDAO.getBySkuCode(skuCode);
-            log.info(LoggerFormat.build()
-                    .remark("查询mysql库存数据")
-                    .data("productStockDO", productStockDO)
-                    .finish());
-            if (productStockDO == null) {
-                log.error(LoggerFormat.build()
+        List<String> skuCodes = orderItemRequestList.stream()
+                .map(DeductProductStockRequest.OrderItemRequest::getSkuCode)
+                .distinct()
+                .collect(Collectors.toList());
+
+        //1、一次查询出订单所有sku的mysql库存数据
+        Map<String, ProductStockDO> productStockMap = productStockDAO.listBySkuCodes(skuCodes).stream()
+                .collect(Collectors.toMap(ProductStockDO::getSkuCode, Function.identity()));
+        log.info("{}", LoggerFormat.build()
+                .remark("查询mysql库存数据")
+                .data("productStockMap", productStockMap));
+        for (String skuCode : skuCodes) {
+            if (!productStockMap.containsKey(skuCode)) {
+                log.error("{}", LoggerFormat.build()
                         .remark("商品库存记录不存在")
-                        .data("skuCode", skuCode)
-                        .finish());
+                        .data("skuCode", skuCode));
                 throw new InventoryBizException(InventoryErrorCodeEnum.PRODUCT_SKU_STOCK_NOT_FOUND_ERROR);
             }
+        }
 
-            //2、查询redis库存数据
-            String productStockKey = CacheSupport.buildProductStockKey(skuCode);
-            Map<String, String> productStockValue = redisCache.hGetAll(productStockKey);
-            if (productStockValue.isEmpty()) {
-                // 如果查询不到redis库存数据，将mysql库存数据放入redis，以mysql的数据为准
-                addProductStockProcessor.addStockToRedis(productStockDO);
-            }
-
-            //3、添加redis锁，防同一笔订单重复扣库存
-            String lockKey = MessageFormat.format(RedisLockKeyConstants.ORDER_DEDUCT_PRODUCT_STOCK_KEY, orderId, skuCode);
-            Boolean locked = redisLock.tryLock(lockKey);
-            if (!locked) {
-                log.error(LoggerFormat.build()
-                        .remark("无法获取扣减库存锁")
-                        .data("orderId", orderId)
-                        .data("skuCode", skuCode)
-                        .finish());
-                throw new InventoryBizException(InventoryErrorCodeEnum.DEDUCT_PRODUCT_SKU_STOCK_CANNOT_ACQUIRE);
+        //2、添加redis锁，防同一笔订单重复扣库存
+        // redis库存由一次lua调用批量原子扣减，不再需要逐个sku加锁
+        String lockKey = MessageFormat.format(RedisLockKeyConstants.ORDER_DEDUCT_PRODUCT_STOCK_KEY, orderId);
+        Boolean locked = redisLock.tryLock(lockKey);
+        if (!locked) {
+            log.error("{}", LoggerFormat.build()
+                    .remark("无法获取扣减库存锁")
+                    .data("orderId", orderId));
+            throw new InventoryBizException(InventoryErrorCodeEnum.DEDUCT_PRODUCT_SKU_STOCK_CANNOT_ACQUIRE);
+        }
+        try {
+            //3、查询库存扣减日志
+            List<ProductStockLogDO> productStockLogs = productStockLogDAO.listLogs(orderId, skuCodes);
+            if (!productStockLogs.isEmpty()) {
+                log.info("已扣减过，扣减库存日志已存在,orderId={},skuCodes={}", orderId, skuCodes);
+                return true;
             }
-            try {
-                //4、查询库存扣减日志
-                ProductStockLogDO productStockLog = productStockLogDAO.getLog(orderId, skuCode);
-                if (null != productStockLog) {
-                    log.info("已扣减过，扣减库存日志已存在,orderId={},skuCode={}", orderId, skuCode);
-                    return true;
-                }
 
+            //4、执行执库存扣减，redis中没有库存数据时扣减失败，以mysql的数据为准重新同步
+            List<DeductStockDTO> deductStocks = new ArrayList<>(orderItemRequestList.size());
+            for (DeductProductStockRequest.OrderItemRequest orderItemRequest : orderItemRequestList) {
+                ProductStockDO productStockDO = productStockMap.get(orderItemRequest.getSkuCode());
                 Integer saleQuantity = orderItemRequest.getSaleQuantity();
                 Integer originSaleStock = productStockDO.getSaleStockQuantity().intValue();
                 Integer originSaledStock = productStockDO.getSaledStockQuantity().intValue();
-
-                //5、执行执库存扣减
-                DeductStockDTO deductStock = new DeductStockDTO(orderId, skuCode, saleQuantity, originSaleStock, originSaledStock);
-                deductProductStockProcessor.doDeduct(deductStock);
-            } finally {
-                redisLock.unlock(lockKey);
+                deductStocks.add(new DeductStockDTO(orderId, orderItemRequest.getSkuCode(), saleQuantity,
+                        originSaleStock, originSaledStock));
             }
+            deductProductStockProcessor.doDeduct(deductStocks);
+        } finally {
+            redisLock.unlock(lockKey);
         }
-        log.info(LoggerFormat.build()
-                .remark("deductProductStock->response")
-                .finish());
+        log.info("{}", LoggerFormat.build()
+                .remark("deductProductStock->response"));
         return true;
     }
 
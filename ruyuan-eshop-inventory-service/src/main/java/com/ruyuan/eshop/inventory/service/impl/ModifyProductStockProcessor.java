@@ -2,14 +2,13 @@ package com.ruyuan.eshop.inventory.service.impl;
 
 import com.ruyuan.eshop.common.redis.RedisCache;
 import com.ruyuan.eshop.inventory.cache.CacheSupport;
-import com.ruyuan.eshop.inventory.cache.LuaScript;
+import com.ruyuan.eshop.inventory.cache.LuaRedisScript;
 import com.ruyuan.eshop.inventory.dao.ProductStockDAO;
 import com.ruyuan.eshop.inventory.domain.entity.ProductStockDO;
 import com.ruyuan.eshop.inventory.exception.InventoryBizException;
 import com.ruyuan.eshop.inventory.exception.InventoryErrorCodeEnum;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -49,11 +48,10 @@ public class ModifyProductStockProcessor {
         }
 
         //2、lua脚本更新redis商品可销售库存数量
-        String luaScript = LuaScript.MODIFY_PRODUCT_STOCK;
         String productStockKey = CacheSupport.buildProductStockKey(skuCode);
         String saleStockKey = CacheSupport.SALE_STOCK;
 
-        Long result = redisCache.execute(new DefaultRedisScript<>(luaScript, Long.class),
+        Long result = redisCache.execute(LuaRedisScript.MODIFY_PRODUCT_STOCK,
                 Arrays.asList(productStockKey, saleStockKey), String.valueOf(originSaleStockQuantity), String.valueOf(stockIncremental));
         if (result < 0) {
             //redis更新异常，以mysql的数据为准
@@ -2,7 +2,7 @@ package com.ruyuan.eshop.inventory.service.impl;
 
 import com.ruyuan.eshop.common.redis.RedisCache;
 import com.ruyuan.eshop.inventory.cache.CacheSupport;
-import com.ruyuan.eshop.inventory.cache.LuaScript;
+import com.ruyuan.eshop.inventory.cache.LuaRedisScript;
 import com.ruyuan.eshop.inventory.dao.ProductStockDAO;
 import com.ruyuan.eshop.inventory.dao.ProductStockLogDAO;
 import com.ruyuan.eshop.inventory.domain.entity.ProductStockLogDO;
@@ -11,7 +11,6 @@ import com.ruyuan.eshop.inventory.exception.InventoryBizException;
 import com.ruyuan.eshop.inventory.exception.InventoryErrorCodeEnum;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -54,12 +53,11 @@ public class ReleaseProductStockProcessor {
         }
 
         //3、执行redis库存释放逻辑
-        String luaScript = LuaScript.RELEASE_PRODUCT_STOCK;
         String saleStockKey = CacheSupport.SALE_STOCK;
         String saledStockKey = CacheSupport.SALED_STOCK;
         String productStockKey = CacheSupport.buildProductStockKey(skuCode);
 
-        Long result = redisCache.execute(new DefaultRedisScript<>(luaScript, Long.class),
+        Long result = redisCache.execute(LuaRedisScript.RELEASE_PRODUCT_STOCK,
                 Arrays.asList(productStockKey, saleStockKey, saledStockKey), String.valueOf(saleQuantity));
         if (result < 0) {
             throw new InventoryBizException(InventoryErrorCodeEnum.MODIFY_PRODUCT_SKU_STOCK_ERROR);
@@ -32,15 +32,15 @@ public interface LockMysqlStockTccService {
      * 二阶段方法：增加已销售库存（saledStockQuantity+saleQuantity）
      *
      * @param actionContext
-     * @return
+     * @return 是否执行完成，返回false时TC会重试
      */
-    void commit(BusinessActionContext actionContext);
+    boolean commit(BusinessActionContext actionContext);
 
     /**
      * 回滚：增加销售库存（saleStockQuantity+saleQuantity）
      *
      * @param actionContext
-     * @return
+     * @return 是否执行完成，返回false时TC会重试
      */
-    void rollback(BusinessActionContext actionContext);
+    boolean rollback(BusinessActionContext actionContext);
 }
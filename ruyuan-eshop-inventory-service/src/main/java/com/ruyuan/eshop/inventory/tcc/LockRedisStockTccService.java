@@ -6,6 +6,8 @@ import io.seata.rm.tcc.api.BusinessActionContextParameter;
 import io.seata.rm.tcc.api.LocalTCC;
 import io.seata.rm.tcc.api.TwoPhaseBusinessAction;
 
+import java.util.List;
+
 /**
  * 锁定redis库存 Seata TCC模式 service
  *
@@ -16,31 +18,32 @@ import io.seata.rm.tcc.api.TwoPhaseBusinessAction;
 public interface LockRedisStockTccService {
 
     /**
-     * 一阶段方法：扣减销售库存（saleStockQuantity-saleQuantity）
+     * 一阶段方法：一次lua调用批量扣减订单所有sku的库存
+     * （saleStockQuantity-saleQuantity，saledStockQuantity+saleQuantity），全部成功或全部不扣减
      *
      * @param actionContext
      * @return
      */
     @TwoPhaseBusinessAction(name = "lockRedisStockTccService", commitMethod = "commit", rollbackMethod = "rollback")
     boolean deductStock(BusinessActionContext actionContext,
-                        @BusinessActionContextParameter(paramName = "deductStock") DeductStockDTO deductStock,
+                        @BusinessActionContextParameter(paramName = "deductStocks") List<DeductStockDTO> deductStocks,
                         @BusinessActionContextParameter(paramName = "traceId") String traceId);
 
 
     /**
-     * 二阶段方法：增加已销售库存（saledStockQuantity+saleQuantity）
+     * 二阶段方法：一阶段已完成扣减，这里只清理一阶段标识
      *
      * @param actionContext
-     * @return
+     * @return 是否执行完成，返回false时TC会重试
      */
-    void commit(BusinessActionContext actionContext);
+    boolean commit(BusinessActionContext actionContext);
 
     /**
-     * 回滚：增加销售库存（saleStockQuantity+saleQuantity）
+     * 回滚：批量还原库存（saleStockQuantity+saleQuantity，saledStockQuantity-saleQuantity）
      *
      * @param actionContext
-     * @return
+     * @return 是否执行完成，返回false时TC会重试
      */
-    void rollback(BusinessActionContext actionContext);
+    boolean rollback(BusinessActionContext actionContext);
 
 }
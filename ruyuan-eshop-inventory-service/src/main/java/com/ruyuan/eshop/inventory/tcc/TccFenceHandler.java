@@ -0,0 +1,235 @@
+package com.ruyuan.eshop.inventory.tcc;
+
+import com.ruyuan.eshop.common.utils.LoggerFormat;
+import com.ruyuan.eshop.inventory.dao.TccFenceLogDAO;
+import com.ruyuan.eshop.inventory.domain.entity.TccFenceLogDO;
+import com.ruyuan.eshop.inventory.enums.TccFenceStatusEnum;
+import io.seata.rm.tcc.api.BusinessActionContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * TCC事务防护，用tcc_fence_log表解决TCC幂等，空回滚，悬挂问题
+ * <p>
+ * 每个分支事务(xid+branchId)在表里只有一条记录，各阶段的业务操作和防护日志在同一个本地事务里提交：
+ * 1、try：插入TRIED记录后再执行业务，记录已存在说明重复调用或二阶段已经先到达（悬挂），不再执行业务；
+ * 业务操作不在本地事务里时，本地事务提交失败由调用方提供的补偿操作还原
+ * 2、commit/rollback：锁住记录，只有TRIED状态才执行业务并推进状态，其余状态直接返回（幂等）
+ * 3、二阶段到达时记录不存在，说明try没有执行（空回滚），插入SUSPENDED记录，拦截之后到达的try
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class TccFenceHandler {
+
+    /**
+     * 可以清理的状态，TRIED状态的记录还在等待二阶段，不清理
+     */
+    private static final List<Integer> FINISHED_STATUSES = Arrays.asList(
+            TccFenceStatusEnum.COMMITTED.getCode(),
+            TccFenceStatusEnum.ROLLBACKED.getCode(),
+            TccFenceStatusEnum.SUSPENDED.getCode());
+
+    @Autowired
+    private TccFenceLogDAO tccFenceLogDAO;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 执行一阶段方法
+     *
+     * @param actionContext
+     * @param tryAction     业务操作，返回false时本地事务回滚，不留下防护日志
+     * @return 业务操作是否成功
+     */
+    public boolean prepareFence(BusinessActionContext actionContext, BooleanSupplier tryAction) {
+        return prepareFence(actionContext, tryAction, () -> {
+        });
+    }
+
+    /**
+     * 执行一阶段方法，业务操作不在本地事务里（比如扣减redis库存）时使用
+     * <p>
+     * 业务操作成功后本地事务提交失败，防护日志没有落库，二阶段回滚会按空回滚处理，不会还原业务操作，
+     * 所以这里确认防护日志没有提交后执行补偿操作；提交结果未知但防护日志已经提交时按成功返回
+     * </p>
+     *
+     * @param actionContext
+     * @param tryAction     业务操作，返回false时本地事务回滚，不留下防护日志
+     * @param compensation  业务操作成功但本地事务没有提交时的补偿操作
+     * @return 业务操作是否成功
+     */
+    public boolean prepareFence(BusinessActionContext actionContext, BooleanSupplier tryAction,
+                                Runnable compensation) {
+        String xid = actionContext.getXid();
+        Long branchId = actionContext.getBranchId();
+        AtomicBoolean tried = new AtomicBoolean();
+        try {
+            return doPrepareFence(actionContext, tryAction, tried);
+        } catch (RuntimeException e) {
+            if (!tried.get()) {
+                throw e;
+            }
+            if (isTried(xid, branchId)) {
+                log.warn("{}", LoggerFormat.build()
+                        .remark("try阶段本地事务提交异常，防护日志已提交")
+                        .data("xid", xid)
+                        .data("branchId", branchId), e);
+                return true;
+            }
+            log.error("{}", LoggerFormat.build()
+                    .remark("try阶段本地事务提交失败，执行补偿")
+                    .data("xid", xid)
+                    .data("branchId", branchId), e);
+            compensation.run();
+            throw e;
+        }
+    }
+
+    private boolean doPrepareFence(BusinessActionContext actionContext, BooleanSupplier tryAction,
+                                   AtomicBoolean tried) {
+        String xid = actionContext.getXid();
+        Long branchId = actionContext.getBranchId();
+        String actionName = actionContext.getActionName();
+        return transactionTemplate.execute(status -> {
+            if (!tccFenceLogDAO.insertIgnore(xid, branchId, actionName, TccFenceStatusEnum.TRIED)) {
+                // 重复的try直接返回原结果，二阶段已经执行过则拒绝执行（防悬挂）
+                TccFenceLogDO fenceLog = tccFenceLogDAO.getForUpdate(xid, branchId);
+                boolean tried = fenceLog != null && !isSuspendedOrRollbacked(fenceLog);
+                log.info("{}", LoggerFormat.build()
+                        .remark("try阶段防护日志已存在")
+                        .data("xid", xid)
+                        .data("branchId", branchId)
+                        .data("fenceLog", fenceLog));
+                return tried;
+            }
+            boolean result = tryAction.getAsBoolean();
+            if (!result) {
+                status.setRollbackOnly();
+            }
+            tried.set(result);
+            return result;
+        });
+    }
+
+    /**
+     * 执行二阶段提交方法
+     *
+     * @param actionContext
+     * @param commitAction  业务操作
+     * @return 是否提交完成，返回false时TC会重试
+     */
+    public boolean commitFence(BusinessActionContext actionContext, Runnable commitAction) {
+        return secondPhase(actionContext, TccFenceStatusEnum.COMMITTED, commitAction);
+    }
+
+    /**
+     * 执行二阶段回滚方法
+     *
+     * @param actionContext
+     * @param rollbackAction 业务操作
+     * @return 是否回滚完成，返回false时TC会重试
+     */
+    public boolean rollbackFence(BusinessActionContext actionContext, Runnable rollbackAction) {
+        return secondPhase(actionContext, TccFenceStatusEnum.ROLLBACKED, rollbackAction);
+    }
+
+    /**
+     * 删除一批指定时间之前已结束的防护日志
+     *
+     * @param before
+     * @param batchSize
+     * @return 删除的行数
+     */
+    public int deleteFinishedFenceLog(Date before, int batchSize) {
+        return tccFenceLogDAO.deleteFinished(before, FINISHED_STATUSES, batchSize);
+    }
+
+    private boolean secondPhase(BusinessActionContext actionContext, TccFenceStatusEnum targetStatus, Runnable action) {
+        String xid = actionContext.getXid();
+        Long branchId = actionContext.getBranchId();
+        String actionName = actionContext.getActionName();
+        return transactionTemplate.execute(status -> {
+            // 先插入SUSPENDED记录，插入成功说明try没有执行过（空回滚），同时拦截之后到达的try
+            if (tccFenceLogDAO.insertIgnore(xid, branchId, actionName, TccFenceStatusEnum.SUSPENDED)) {
+                log.info("{}", LoggerFormat.build()
+                        .remark("二阶段到达时try未执行，记录悬挂标识")
+                        .data("xid", xid)
+                        .data("branchId", branchId)
+                        .data("targetStatus", targetStatus));
+                return true;
+            }
+
+            TccFenceLogDO fenceLog = tccFenceLogDAO.getForUpdate(xid, branchId);
+            TccFenceStatusEnum currentStatus = fenceLog == null ? null : toStatus(fenceLog.getStatus());
+            if (currentStatus == targetStatus || currentStatus == TccFenceStatusEnum.SUSPENDED) {
+                // 幂等：当出现网络异常或者TC Server异常时，会出现重复调用二阶段的情况
+                return true;
+            }
+            if (targetStatus == TccFenceStatusEnum.COMMITTED && currentStatus == TccFenceStatusEnum.ROLLBACKED) {
+                // 分支已经回滚，重试提交也不会成功，不再让TC无限重试，留下告警人工核对
+                log.warn("{}", LoggerFormat.build()
+                        .remark("二阶段提交时分支已回滚，跳过提交")
+                        .data("xid", xid)
+                        .data("branchId", branchId)
+                        .data("actionName", actionName));
+                return true;
+            }
+            if (currentStatus != TccFenceStatusEnum.TRIED) {
+                log.error("{}", LoggerFormat.build()
+                        .remark("二阶段状态不一致")
+                        .data("xid", xid)
+                        .data("branchId", branchId)
+                        .data("fenceLog", fenceLog)
+                        .data("targetStatus", targetStatus));
+                return false;
+            }
+
+            action.run();
+            tccFenceLogDAO.updateStatus(xid, branchId, TccFenceStatusEnum.TRIED, targetStatus);
+            return true;
+        });
+    }
+
+    /**
+     * 本地事务提交异常后确认防护日志是否已经提交，查询失败时按没有提交处理
+     */
+    private boolean isTried(String xid, Long branchId) {
+        try {
+            TccFenceLogDO fenceLog = tccFenceLogDAO.getForUpdate(xid, branchId);
+            return fenceLog != null && toStatus(fenceLog.getStatus()) == TccFenceStatusEnum.TRIED;
+        } catch (Exception e) {
+            log.error("{}", LoggerFormat.build()
+                    .remark("查询防护日志失败")
+                    .data("xid", xid)
+                    .data("branchId", branchId), e);
+            return false;
+        }
+    }
+
+    private boolean isSuspendedOrRollbacked(TccFenceLogDO fenceLog) {
+        TccFenceStatusEnum status = toStatus(fenceLog.getStatus());
+        return status == TccFenceStatusEnum.SUSPENDED || status == TccFenceStatusEnum.ROLLBACKED;
+    }
+
+    private TccFenceStatusEnum toStatus(Integer code) {
+        for (TccFenceStatusEnum status : TccFenceStatusEnum.values()) {
+            if (status.getCode().equals(code)) {
+                return status;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,196 @@
+package com.ruyuan.eshop.inventory.cache;
+
+import com.ruyuan.eshop.common.redis.RedisCache;
+import com.ruyuan.eshop.inventory.domain.dto.DeductStockDTO;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 批量扣减redis库存测试，需要本地启动redis-server
+ * 默认连接localhost:6379，可通过-Dredis.host、-Dredis.port指定，连接不上时跳过
+ */
+public class BatchStockCacheExecutorTest {
+
+    private static final String ORDER_ID = "1021121945762025";
+
+    private static final String SKU_1 = "batch_test_sku_1";
+
+    private static final String SKU_2 = "batch_test_sku_2";
+
+    private static final String SKU_3 = "batch_test_sku_3";
+
+    private JedisConnectionFactory connectionFactory;
+
+    private RedisCache redisCache;
+
+    private BatchStockCacheExecutor executor;
+
+    @Before
+    public void setUp() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+        connectionFactory = new JedisConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.ping();
+        } catch (Exception e) {
+            connectionFactory.destroy();
+            Assume.assumeNoException("redis-server不可用", e);
+        }
+
+        RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setDefaultSerializer(new StringRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+        redisCache = new RedisCache(redisTemplate);
+
+        executor = new BatchStockCacheExecutor();
+        ReflectionTestUtils.setField(executor, "redisCache", redisCache);
+
+        putStock(SKU_1, 10, 0);
+        putStock(SKU_2, 5, 3);
+        redisCache.delete(CacheSupport.buildProductStockKey(SKU_3));
+    }
+
+    @After
+    public void tearDown() {
+        if (redisCache != null) {
+            redisCache.delete(CacheSupport.buildProductStockKey(SKU_1));
+            redisCache.delete(CacheSupport.buildProductStockKey(SKU_2));
+            redisCache.delete(CacheSupport.buildProductStockKey(SKU_3));
+        }
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    public void shouldDeductAllSkus() {
+        Map<String, Long> results = executor.deduct(Arrays.asList(deductStock(SKU_1, 4), deductStock(SKU_2, 5)));
+
+        assertTrue(BatchStockCacheExecutor.isAllSuccess(results));
+        assertStock(SKU_1, 6, 4);
+        assertStock(SKU_2, 0, 8);
+    }
+
+    @Test
+    public void shouldDeductNothingWhenAnySkuNotEnough() {
+        Map<String, Long> results = executor.deduct(Arrays.asList(deductStock(SKU_1, 4), deductStock(SKU_2, 6)));
+
+        assertFalse(BatchStockCacheExecutor.isAllSuccess(results));
+        assertEquals(Long.valueOf(BatchStockCacheExecutor.SUCCESS), results.get(SKU_1));
+        assertEquals(Long.valueOf(BatchStockCacheExecutor.STOCK_NOT_ENOUGH), results.get(SKU_2));
+        assertStock(SKU_1, 10, 0);
+        assertStock(SKU_2, 5, 3);
+    }
+
+    @Test
+    public void shouldReportSkuNotCached() {
+        Map<String, Long> results = executor.deduct(Arrays.asList(deductStock(SKU_1, 1), deductStock(SKU_3, 1)));
+
+        assertEquals(Long.valueOf(BatchStockCacheExecutor.STOCK_NOT_CACHED), results.get(SKU_3));
+        assertStock(SKU_1, 10, 0);
+    }
+
+    @Test
+    public void shouldMergeSameSku() {
+        Map<String, Long> results = executor.deduct(Arrays.asList(deductStock(SKU_2, 3), deductStock(SKU_2, 3)));
+
+        assertEquals(1, results.size());
+        assertEquals(Long.valueOf(BatchStockCacheExecutor.STOCK_NOT_ENOUGH), results.get(SKU_2));
+        assertStock(SKU_2, 5, 3);
+    }
+
+    @Test
+    public void shouldReleaseDeductedStock() {
+        List<DeductStockDTO> deductStocks = Arrays.asList(deductStock(SKU_1, 4), deductStock(SKU_2, 2));
+        assertTrue(BatchStockCacheExecutor.isAllSuccess(executor.deduct(deductStocks)));
+
+        assertTrue(BatchStockCacheExecutor.isAllSuccess(executor.release(deductStocks)));
+        assertStock(SKU_1, 10, 0);
+        assertStock(SKU_2, 5, 3);
+    }
+
+    @Test
+    public void shouldFallbackToEvalAfterScriptFlush() {
+        assertTrue(BatchStockCacheExecutor.isAllSuccess(executor.deduct(Arrays.asList(deductStock(SKU_1, 1)))));
+
+        // 清空脚本缓存后EVALSHA返回NOSCRIPT，应退化为EVAL并重新加载脚本
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.scriptFlush();
+        }
+        assertTrue(BatchStockCacheExecutor.isAllSuccess(executor.deduct(Arrays.asList(deductStock(SKU_1, 1)))));
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            String sha1 = LuaRedisScript.BATCH_DEDUCT_PRODUCT_STOCK.getSha1();
+            assertEquals(Arrays.asList(true), connection.scriptExists(sha1));
+        }
+        assertStock(SKU_1, 8, 2);
+    }
+
+    @Test
+    public void shouldNotOversellConcurrently() throws Exception {
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger successCount = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(() -> {
+                try {
+                    start.await();
+                    Map<String, Long> results = executor.deduct(
+                            Arrays.asList(deductStock(SKU_1, 2), deductStock(SKU_2, 1)));
+                    if (BatchStockCacheExecutor.isAllSuccess(results)) {
+                        successCount.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        tasks.forEach(pool::execute);
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        // sku2只有5个库存，最多成功5单，且两个sku扣减数量保持一致
+        assertEquals(5, successCount.get());
+        assertStock(SKU_1, 0, 10);
+        assertStock(SKU_2, 0, 8);
+    }
+
+    private DeductStockDTO deductStock(String skuCode, int saleQuantity) {
+        return new DeductStockDTO(ORDER_ID, skuCode, saleQuantity, null, null);
+    }
+
+    private void putStock(String skuCode, long saleStock, long saledStock) {
+        redisCache.hPutAll(CacheSupport.buildProductStockKey(skuCode),
+                CacheSupport.buildProductStockValue(saleStock, saledStock));
+    }
+
+    private void assertStock(String skuCode, long saleStock, long saledStock) {
+        Map<String, String> value = redisCache.hGetAll(CacheSupport.buildProductStockKey(skuCode));
+        assertEquals(String.valueOf(saleStock), value.get(CacheSupport.SALE_STOCK));
+        assertEquals(String.valueOf(saledStock), value.get(CacheSupport.SALED_STOCK));
+    }
+}
@@ -0,0 +1,389 @@
+package com.ruyuan.eshop.inventory.tcc;
+
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.ruyuan.eshop.inventory.dao.TccFenceLogDAO;
+import com.ruyuan.eshop.inventory.enums.TccFenceStatusEnum;
+import com.ruyuan.eshop.inventory.mapper.TccFenceLogMapper;
+import io.seata.rm.tcc.api.BusinessActionContext;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * TCC事务防护测试，防护日志表使用H2内存库
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = TccFenceHandlerTest.Config.class)
+public class TccFenceHandlerTest {
+
+    private static final String XID = "192.168.1.10:8091:1021121945762025";
+
+    private static final long INIT_STOCK = 1000;
+
+    @Autowired
+    private TccFenceHandler tccFenceHandler;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CommitFailingTransactionManager transactionManager;
+
+    @Before
+    public void setUp() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS tcc_fence_log");
+        jdbcTemplate.execute("CREATE TABLE tcc_fence_log ("
+                + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "xid VARCHAR(128) NOT NULL, "
+                + "branch_id BIGINT NOT NULL, "
+                + "action_name VARCHAR(64) NOT NULL, "
+                + "status TINYINT NOT NULL, "
+                + "gmt_create DATETIME NOT NULL, "
+                + "gmt_modified DATETIME NOT NULL, "
+                + "UNIQUE KEY uk_xid_branch_id (xid, branch_id))");
+        jdbcTemplate.execute("DROP TABLE IF EXISTS stock");
+        jdbcTemplate.execute("CREATE TABLE stock (id INT PRIMARY KEY, sale_stock BIGINT NOT NULL)");
+        jdbcTemplate.update("INSERT INTO stock VALUES (1, ?)", INIT_STOCK);
+        transactionManager.commitFailure = null;
+    }
+
+    @Test
+    public void shouldCommitOnceAfterTry() {
+        BusinessActionContext context = context(1L);
+        assertTrue(tccFenceHandler.prepareFence(context, this::deductOne));
+
+        AtomicInteger commitCount = new AtomicInteger();
+        assertTrue(tccFenceHandler.commitFence(context, commitCount::incrementAndGet));
+        assertTrue(tccFenceHandler.commitFence(context, commitCount::incrementAndGet));
+
+        assertEquals(1, commitCount.get());
+        assertEquals(TccFenceStatusEnum.COMMITTED.getCode(), status(1L));
+        assertEquals(INIT_STOCK - 1, stock());
+    }
+
+    @Test
+    public void shouldIgnoreDuplicateTry() {
+        BusinessActionContext context = context(1L);
+        assertTrue(tccFenceHandler.prepareFence(context, this::deductOne));
+        assertTrue(tccFenceHandler.prepareFence(context, this::deductOne));
+
+        assertEquals(INIT_STOCK - 1, stock());
+    }
+
+    @Test
+    public void shouldRollbackTriedBranchOnce() {
+        BusinessActionContext context = context(1L);
+        assertTrue(tccFenceHandler.prepareFence(context, this::deductOne));
+
+        assertTrue(tccFenceHandler.rollbackFence(context, this::restoreOne));
+        assertTrue(tccFenceHandler.rollbackFence(context, this::restoreOne));
+
+        assertEquals(TccFenceStatusEnum.ROLLBACKED.getCode(), status(1L));
+        assertEquals(INIT_STOCK, stock());
+    }
+
+    @Test
+    public void shouldNotRetryCommitAfterRollback() {
+        BusinessActionContext context = context(1L);
+        assertTrue(tccFenceHandler.prepareFence(context, this::deductOne));
+        assertTrue(tccFenceHandler.rollbackFence(context, this::restoreOne));
+
+        // 回滚后到达的提交返回true，TC不再重试，也不执行提交操作
+        AtomicInteger commitCount = new AtomicInteger();
+        assertTrue(tccFenceHandler.commitFence(context, commitCount::incrementAndGet));
+        assertEquals(0, commitCount.get());
+        assertEquals(TccFenceStatusEnum.ROLLBACKED.getCode(), status(1L));
+        assertEquals(INIT_STOCK, stock());
+    }
+
+    @Test
+    public void shouldRejectSuspendedTryAfterEmptyRollback() {
+        BusinessActionContext context = context(1L);
+        AtomicInteger rollbackCount = new AtomicInteger();
+        assertTrue(tccFenceHandler.rollbackFence(context, rollbackCount::incrementAndGet));
+        assertEquals(0, rollbackCount.get());
+        assertEquals(TccFenceStatusEnum.SUSPENDED.getCode(), status(1L));
+
+        assertFalse(tccFenceHandler.prepareFence(context, this::deductOne));
+        assertEquals(INIT_STOCK, stock());
+    }
+
+    @Test
+    public void shouldRollbackLocalTransactionWhenTryFails() {
+        BusinessActionContext context = context(1L);
+        assertFalse(tccFenceHandler.prepareFence(context, () -> {
+            deductOne();
+            return false;
+        }));
+
+        assertEquals(INIT_STOCK, stock());
+        assertNull(status(1L));
+
+        // try没有留下记录，之后的回滚按空回滚处理
+        AtomicInteger rollbackCount = new AtomicInteger();
+        assertTrue(tccFenceHandler.rollbackFence(context, rollbackCount::incrementAndGet));
+        assertEquals(0, rollbackCount.get());
+    }
+
+    @Test
+    public void shouldCompensateWhenTryCommitFails() {
+        // 业务操作不在本地事务里，模拟redis库存
+        AtomicLong redisStock = new AtomicLong(INIT_STOCK);
+        BusinessActionContext context = context(1L);
+        transactionManager.commitFailure = CommitFailure.ROLLED_BACK;
+
+        try {
+            tccFenceHandler.prepareFence(context, () -> redisStock.decrementAndGet() >= 0, redisStock::incrementAndGet);
+            fail("commit should fail");
+        } catch (TransactionSystemException expected) {
+            // 提交失败抛给seata，全局事务回滚
+        }
+        assertEquals(INIT_STOCK, redisStock.get());
+        assertNull(status(1L));
+
+        // 防护日志没有落库，二阶段回滚按空回滚处理，不会再还原一次
+        assertTrue(tccFenceHandler.rollbackFence(context, redisStock::incrementAndGet));
+        assertEquals(INIT_STOCK, redisStock.get());
+    }
+
+    @Test
+    public void shouldNotCompensateWhenFenceCommittedDespiteCommitError() {
+        AtomicLong redisStock = new AtomicLong(INIT_STOCK);
+        BusinessActionContext context = context(1L);
+        transactionManager.commitFailure = CommitFailure.COMMITTED;
+
+        assertTrue(tccFenceHandler.prepareFence(context, () -> redisStock.decrementAndGet() >= 0,
+                redisStock::incrementAndGet));
+        assertEquals(INIT_STOCK - 1, redisStock.get());
+        assertEquals(TccFenceStatusEnum.TRIED.getCode(), status(1L));
+
+        assertTrue(tccFenceHandler.rollbackFence(context, redisStock::incrementAndGet));
+        assertEquals(INIT_STOCK, redisStock.get());
+    }
+
+    @Test
+    public void shouldKeepStockConsistentWhenTryAndRollbackRace() throws Exception {
+        int branches = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        List<Future<?>> futures = new ArrayList<>();
+        for (long branchId = 1; branchId <= branches; branchId++) {
+            BusinessActionContext context = context(branchId);
+            CountDownLatch start = new CountDownLatch(1);
+            futures.add(pool.submit(() -> {
+                await(start);
+                return tccFenceHandler.prepareFence(context, this::deductOne);
+            }));
+            futures.add(pool.submit(() -> {
+                await(start);
+                return tccFenceHandler.rollbackFence(context, this::restoreOne);
+            }));
+            start.countDown();
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        // 无论try和rollback谁先到达，最终都不会占用库存，也不会留下等待二阶段的记录
+        assertEquals(INIT_STOCK, stock());
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM tcc_fence_log WHERE status = ?", Integer.class, TccFenceStatusEnum.TRIED.getCode()));
+        assertEquals(Integer.valueOf(branches), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM tcc_fence_log", Integer.class));
+    }
+
+    @Test
+    public void shouldCommitOnceUnderConcurrentRetries() throws Exception {
+        BusinessActionContext context = context(1L);
+        assertTrue(tccFenceHandler.prepareFence(context, this::deductOne));
+
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger commitCount = new AtomicInteger();
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(pool.submit(() -> {
+                await(start);
+                return tccFenceHandler.commitFence(context, commitCount::incrementAndGet);
+            }));
+        }
+        start.countDown();
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get(30, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        assertEquals(1, commitCount.get());
+    }
+
+    @Test
+    public void shouldPurgeFinishedLogsInBatches() {
+        for (long branchId = 1; branchId <= 25; branchId++) {
+            BusinessActionContext context = context(branchId);
+            tccFenceHandler.prepareFence(context, () -> true);
+            if (branchId <= 20) {
+                tccFenceHandler.commitFence(context, () -> {
+                });
+            }
+        }
+        jdbcTemplate.update("UPDATE tcc_fence_log SET gmt_modified = DATEADD('DAY', -2, gmt_modified)");
+
+        Date before = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+        assertEquals(8, tccFenceHandler.deleteFinishedFenceLog(before, 8));
+        assertEquals(8, tccFenceHandler.deleteFinishedFenceLog(before, 8));
+        assertEquals(4, tccFenceHandler.deleteFinishedFenceLog(before, 8));
+        assertEquals(0, tccFenceHandler.deleteFinishedFenceLog(before, 8));
+
+        // 还在等待二阶段的记录不清理
+        assertEquals(Integer.valueOf(5), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM tcc_fence_log", Integer.class));
+    }
+
+    private boolean deductOne() {
+        return jdbcTemplate.update("UPDATE stock SET sale_stock = sale_stock - 1 WHERE id = 1 AND sale_stock > 0") > 0;
+    }
+
+    private void restoreOne() {
+        jdbcTemplate.update("UPDATE stock SET sale_stock = sale_stock + 1 WHERE id = 1");
+    }
+
+    private long stock() {
+        return jdbcTemplate.queryForObject("SELECT sale_stock FROM stock WHERE id = 1", Long.class);
+    }
+
+    private Integer status(long branchId) {
+        List<Integer> statuses = jdbcTemplate.queryForList(
+                "SELECT status FROM tcc_fence_log WHERE xid = ? AND branch_id = ?", Integer.class, XID, branchId);
+        return statuses.isEmpty() ? null : statuses.get(0);
+    }
+
+    private BusinessActionContext context(long branchId) {
+        BusinessActionContext context = new BusinessActionContext();
+        context.setXid(XID);
+        context.setBranchId(branchId);
+        context.setActionName("lockMysqlStockTccService");
+        context.setActionContext(Collections.emptyMap());
+        return context;
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 模拟本地事务提交异常
+     */
+    private enum CommitFailure {
+
+        /**
+         * 提交失败，事务已回滚
+         */
+        ROLLED_BACK,
+
+        /**
+         * 事务已提交，但提交时报错（比如提交后连接断开）
+         */
+        COMMITTED
+    }
+
+    /**
+     * 可以让下一次提交报错的事务管理器
+     */
+    static class CommitFailingTransactionManager extends DataSourceTransactionManager {
+
+        private volatile CommitFailure commitFailure;
+
+        CommitFailingTransactionManager(DataSource dataSource) {
+            super(dataSource);
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+            CommitFailure failure = commitFailure;
+            if (failure == null) {
+                super.doCommit(status);
+                return;
+            }
+            commitFailure = null;
+            if (failure == CommitFailure.ROLLED_BACK) {
+                super.doRollback(status);
+            } else {
+                super.doCommit(status);
+            }
+            throw new TransactionSystemException("commit failed");
+        }
+    }
+
+    @Configuration
+    @Import({TccFenceLogDAO.class, TccFenceHandler.class})
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return JdbcConnectionPool.create(
+                    "jdbc:h2:mem:tcc_fence;DB_CLOSE_DELAY=-1;MODE=MySQL;LOCK_TIMEOUT=10000", "sa", "");
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+            factoryBean.setDataSource(dataSource);
+            factoryBean.setMapperLocations(new ClassPathResource("mapper/TccFenceLogMapper.xml"));
+            return factoryBean.getObject();
+        }
+
+        @Bean
+        public MapperFactoryBean<TccFenceLogMapper> tccFenceLogMapper(SqlSessionFactory sqlSessionFactory) {
+            MapperFactoryBean<TccFenceLogMapper> factoryBean = new MapperFactoryBean<>(TccFenceLogMapper.class);
+            factoryBean.setSqlSessionFactory(sqlSessionFactory);
+            return factoryBean;
+        }
+
+        @Bean
+        public CommitFailingTransactionManager transactionManager(DataSource dataSource) {
+            return new CommitFailingTransactionManager(dataSource);
+        }
+
+        @Bean
+        public TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+            return new TransactionTemplate(transactionManager);
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
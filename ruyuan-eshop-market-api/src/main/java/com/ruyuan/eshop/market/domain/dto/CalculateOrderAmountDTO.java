@@ -24,6 +24,11 @@ public class CalculateOrderAmountDTO implements Serializable {
      */
     private List<OrderAmountDetailDTO> orderAmountDetail;
 
+    /**
+     * 本次算价使用的用户优惠券，未使用优惠券时为空
+     */
+    private UserCouponDTO userCoupon;
+
     /**
      * 营销计算出来的费用信息
      */
@@ -2,12 +2,14 @@ package com.ruyuan.eshop.market;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * @author zhonghuashishan
  * @version 1.0
  */
 @SpringBootApplication
+@EnableScheduling
 public class MarketApplication {
 
     public static void main(String[] args) {
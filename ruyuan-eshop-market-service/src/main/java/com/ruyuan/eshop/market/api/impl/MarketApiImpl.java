@@ -1,8 +1,6 @@
 package com.ruyuan.eshop.market.api.impl;
 
-import com.ruyuan.eshop.common.constants.RedisLockKeyConstants;
 import com.ruyuan.eshop.common.core.JsonResult;
-import com.ruyuan.eshop.common.redis.RedisLock;
 import com.ruyuan.eshop.market.api.MarketApi;
 import com.ruyuan.eshop.market.domain.dto.CalculateOrderAmountDTO;
 import com.ruyuan.eshop.market.domain.dto.UserCouponDTO;
@@ -11,7 +9,6 @@ import com.ruyuan.eshop.market.domain.request.CalculateOrderAmountRequest;
 import com.ruyuan.eshop.market.domain.request.LockUserCouponRequest;
 import com.ruyuan.eshop.market.domain.request.ReleaseUserCouponRequest;
 import com.ruyuan.eshop.market.exception.MarketBizException;
-import com.ruyuan.eshop.market.exception.MarketErrorCodeEnum;
 import com.ruyuan.eshop.market.service.CouponService;
 import com.ruyuan.eshop.market.service.MarketService;
 import lombok.extern.slf4j.Slf4j;
@@ -32,9 +29,6 @@ public class MarketApiImpl implements MarketApi {
     @Autowired
     private MarketService marketService;
 
-    @Autowired
-    private RedisLock redisLock;
-
     @Override
     public JsonResult<UserCouponDTO> getUserCoupon(UserCouponQuery userCouponQuery) {
         try {
@@ -65,18 +59,11 @@ public class MarketApiImpl implements MarketApi {
 
 
     /**
-     * 回退用户使用的优惠券
+     * 回退用户使用的优惠券，释放是条件更新，重复或并发释放都是安全的，不需要加锁
      */
     @Override
     public JsonResult<Boolean> releaseUserCoupon(ReleaseUserCouponRequest releaseUserCouponRequest) {
         log.info("开始执行回滚优惠券,couponId:{}", releaseUserCouponRequest.getCouponId());
-        //  分布式锁
-        String couponId = releaseUserCouponRequest.getCouponId();
-        String key = RedisLockKeyConstants.RELEASE_COUPON_KEY + couponId;
-        boolean lock = redisLock.tryLock(key);
-        if (!lock) {
-            throw new MarketBizException(MarketErrorCodeEnum.RELEASE_COUPON_FAILED);
-        }
         try {
             //  执行释放优惠券
             Boolean result = couponService.releaseUserCoupon(releaseUserCouponRequest);
@@ -87,8 +74,6 @@ public class MarketApiImpl implements MarketApi {
         } catch (Exception e) {
             log.error("system error", e);
             return JsonResult.buildError(e.getMessage());
-        } finally {
-            redisLock.unlock(key);
         }
     }
 
@@ -0,0 +1,96 @@
+package com.ruyuan.eshop.market.cache;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.ruyuan.eshop.market.dao.CouponConfigDAO;
+import com.ruyuan.eshop.market.domain.entity.CouponConfigDO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 优惠券配置缓存，按couponConfigId查找
+ * <p>
+ * 本地有界缓存，写入后{@link #expireSeconds}秒过期。同一个配置同时缺失时只有一个请求查询数据库，
+ * 不存在的配置也缓存，避免无效的优惠券反复查询数据库。
+ * 优惠券配置由运营后台直接写库，本服务没有写入入口，配置修改后最多{@link #expireSeconds}秒内可能读到旧数据
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Component
+public class CouponConfigCache {
+
+    @Autowired
+    private CouponConfigDAO couponConfigDAO;
+
+    /**
+     * 最多缓存的优惠券配置个数
+     */
+    @Value("${market.coupon-config-cache.maximum-size:10000}")
+    private long maximumSize = 10000;
+
+    /**
+     * 写入后的过期秒数，也是其他机器修改配置后本机读到旧数据的最长时间
+     */
+    @Value("${market.coupon-config-cache.expire-seconds:60}")
+    private long expireSeconds = 60;
+
+    private Ticker ticker = Ticker.systemTicker();
+
+    private Cache<String, Optional<CouponConfigDO>> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 查询优惠券配置
+     *
+     * @param couponConfigId 优惠券配置ID
+     * @return 配置不存在时为null
+     */
+    public CouponConfigDO getByCouponConfigId(String couponConfigId) {
+        if (couponConfigId == null) {
+            return null;
+        }
+        try {
+            return cache.get(couponConfigId,
+                    () -> Optional.ofNullable(couponConfigDAO.getByCouponConfigId(couponConfigId))).orElse(null);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 命中统计，loadCount是查询数据库的次数
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * 当前缓存的配置个数，包括缓存的不存在的配置
+     */
+    public long size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,125 @@
+package com.ruyuan.eshop.market.cache;
+
+import com.ruyuan.eshop.common.utils.LoggerFormat;
+import com.ruyuan.eshop.market.dao.FreightTemplateDAO;
+import com.ruyuan.eshop.market.domain.entity.FreightTemplateDO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 运费模板缓存，按区域ID查找
+ * <p>
+ * 运费模板很少变化，启动时一次加载全部模板，之后定时重新加载：新的模板表构建完成后整体替换引用，读的时候不需要加锁。
+ * 全部模板都在内存里，区域不在表里就是没有配置模板，不用再查数据库。
+ * 本服务没有写运费模板的入口，模板修改后最多一个加载周期内可能用旧运费计算。启动时就加载失败则直接查询数据库
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class FreightTemplateCache {
+
+    @Autowired
+    private FreightTemplateDAO freightTemplateDAO;
+
+    /**
+     * regionId -> 运费模板，还没有加载成功时为null
+     */
+    private volatile Map<String, FreightTemplateDO> templates;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder dbQueries = new LongAdder();
+
+    private final LongAdder reloads = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    /**
+     * 按区域ID查找运费模板
+     *
+     * @param regionId 区域ID
+     * @return 区域没有配置运费模板时为null
+     */
+    public FreightTemplateDO getByRegionId(String regionId) {
+        Map<String, FreightTemplateDO> current = templates;
+        if (current == null) {
+            dbQueries.increment();
+            return freightTemplateDAO.getByRegionId(regionId);
+        }
+        FreightTemplateDO freightTemplateDO = regionId == null ? null : current.get(regionId);
+        if (freightTemplateDO != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return freightTemplateDO;
+    }
+
+    /**
+     * 重新加载全部运费模板，加载失败时保留上一次的结果
+     */
+    @Scheduled(initialDelayString = "${market.freight-template.reload-interval-millis:60000}",
+            fixedDelayString = "${market.freight-template.reload-interval-millis:60000}")
+    public synchronized void reload() {
+        try {
+            List<FreightTemplateDO> freightTemplateDOList = freightTemplateDAO.list();
+            dbQueries.increment();
+            Map<String, FreightTemplateDO> loaded = new HashMap<>(freightTemplateDOList.size() * 2);
+            for (FreightTemplateDO freightTemplateDO : freightTemplateDOList) {
+                loaded.put(freightTemplateDO.getRegionId(), freightTemplateDO);
+            }
+            templates = Collections.unmodifiableMap(loaded);
+            reloads.increment();
+            log.info("{}", LoggerFormat.build()
+                    .remark("加载运费模板")
+                    .data("size", loaded.size()));
+        } catch (Exception e) {
+            log.error("加载运费模板失败", e);
+        }
+    }
+
+    /**
+     * 命中统计，hits/misses是按区域查找的次数，misses表示区域没有配置模板
+     */
+    public Stats stats() {
+        Map<String, FreightTemplateDO> current = templates;
+        return new Stats(current == null ? 0 : current.size(), hits.sum(), misses.sum(),
+                dbQueries.sum(), reloads.sum());
+    }
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Stats {
+
+        private final int size;
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long dbQueries;
+
+        private final long reloads;
+    }
+}
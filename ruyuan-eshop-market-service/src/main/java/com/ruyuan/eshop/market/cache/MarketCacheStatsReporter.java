@@ -0,0 +1,47 @@
+package com.ruyuan.eshop.market.cache;
+
+import com.google.common.cache.CacheStats;
+import com.ruyuan.eshop.common.utils.LoggerFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 定时打印本地缓存的命中统计，统计值是启动以来的累计值，按日志里前后两次的差值看一段时间内的命中率和查库次数
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class MarketCacheStatsReporter {
+
+    @Autowired
+    private FreightTemplateCache freightTemplateCache;
+
+    @Autowired
+    private CouponConfigCache couponConfigCache;
+
+    @Scheduled(initialDelayString = "${market.cache-stats.log-interval-millis:60000}",
+            fixedDelayString = "${market.cache-stats.log-interval-millis:60000}")
+    public void report() {
+        FreightTemplateCache.Stats freightTemplateStats = freightTemplateCache.stats();
+        log.info("{}", LoggerFormat.build()
+                .remark("运费模板缓存统计")
+                .data("size", freightTemplateStats.getSize())
+                .data("hits", freightTemplateStats.getHits())
+                .data("misses", freightTemplateStats.getMisses())
+                .data("dbQueries", freightTemplateStats.getDbQueries())
+                .data("reloads", freightTemplateStats.getReloads()));
+
+        CacheStats couponConfigStats = couponConfigCache.stats();
+        log.info("{}", LoggerFormat.build()
+                .remark("优惠券配置缓存统计")
+                .data("size", couponConfigCache.size())
+                .data("hits", couponConfigStats.hitCount())
+                .data("misses", couponConfigStats.missCount())
+                .data("dbQueries", couponConfigStats.loadCount())
+                .data("evictions", couponConfigStats.evictionCount()));
+    }
+}
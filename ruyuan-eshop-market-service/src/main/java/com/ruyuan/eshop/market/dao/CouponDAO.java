@@ -2,11 +2,16 @@ package com.ruyuan.eshop.market.dao;
 
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.ruyuan.eshop.common.dao.BaseDAO;
 import com.ruyuan.eshop.market.domain.entity.CouponDO;
+import com.ruyuan.eshop.market.enums.CouponUsedStatusEnum;
 import com.ruyuan.eshop.market.mapper.CouponMapper;
 import org.springframework.stereotype.Repository;
 
+import java.util.Date;
+import java.util.List;
+
 /**
  * 优惠券领取记录管理DAO组件
  *
@@ -28,4 +33,70 @@ public class CouponDAO extends BaseDAO<CouponMapper, CouponDO> {
                 .eq("coupon_id", couponId);
         return getOne(queryWrapper);
     }
+
+    /**
+     * 锁定优惠券，只有未使用的优惠券才会被更新
+     * 同一张优惠券并发锁定时只有一个请求能更新成功
+     *
+     * @param userId
+     * @param couponId
+     * @param usedTime 使用时间
+     * @return 是否锁定成功，优惠券不存在或已经使用时返回false
+     */
+    public boolean lockUserCoupon(String userId, String couponId, Date usedTime) {
+        UpdateWrapper<CouponDO> updateWrapper = new UpdateWrapper<>();
+        updateWrapper.set("is_used", CouponUsedStatusEnum.USED.getCode())
+                .set("used_time", usedTime)
+                .set("gmt_modified", usedTime)
+                .eq("user_id", userId)
+                .eq("coupon_id", couponId)
+                .eq("is_used", CouponUsedStatusEnum.UN_USED.getCode());
+        return baseMapper.update(null, updateWrapper) > 0;
+    }
+
+    /**
+     * 释放优惠券，只有已使用的优惠券才会被更新
+     *
+     * @param userId
+     * @param couponId
+     * @return 是否释放成功，优惠券不存在或未使用时返回false
+     */
+    public boolean releaseUserCoupon(String userId, String couponId) {
+        UpdateWrapper<CouponDO> updateWrapper = new UpdateWrapper<>();
+        updateWrapper.set("is_used", CouponUsedStatusEnum.UN_USED.getCode())
+                .set("used_time", null)
+                .set("gmt_modified", new Date())
+                .eq("user_id", userId)
+                .eq("coupon_id", couponId)
+                .eq("is_used", CouponUsedStatusEnum.USED.getCode());
+        return baseMapper.update(null, updateWrapper) > 0;
+    }
+
+    /**
+     * 批量释放优惠券，一条update释放多个订单的优惠券，只有已使用的优惠券才会被更新
+     *
+     * @param couponList 要释放的优惠券，只用到userId和couponId
+     * @return 实际释放的优惠券数量
+     */
+    public int releaseUserCoupons(List<CouponDO> couponList) {
+        if (couponList.isEmpty()) {
+            return 0;
+        }
+        UpdateWrapper<CouponDO> updateWrapper = new UpdateWrapper<>();
+        updateWrapper.set("is_used", CouponUsedStatusEnum.UN_USED.getCode())
+                .set("used_time", null)
+                .set("gmt_modified", new Date())
+                .eq("is_used", CouponUsedStatusEnum.USED.getCode())
+                .and(wrapper -> {
+                    for (int i = 0; i < couponList.size(); i++) {
+                        CouponDO couponDO = couponList.get(i);
+                        if (i > 0) {
+                            wrapper.or();
+                        }
+                        wrapper.nested(coupon -> coupon.eq("user_id", couponDO.getUserId())
+                                .eq("coupon_id", couponDO.getCouponId()));
+                    }
+                });
+        return baseMapper.update(null, updateWrapper);
+    }
 }
@@ -31,6 +31,8 @@ public class ConsumerConfig {
         DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(RocketMqConstant.RELEASE_PROPERTY_CONSUMER_GROUP);
         consumer.setNamesrvAddr(rocketMQProperties.getNameServer());
         consumer.subscribe(RocketMqConstant.CANCEL_RELEASE_PROPERTY_TOPIC, "*");
+        // 一次消费多条消息，批量释放优惠券
+        consumer.setConsumeMessageBatchMaxSize(32);
         consumer.registerMessageListener(releasePropertyListener);
         consumer.start();
         return consumer;
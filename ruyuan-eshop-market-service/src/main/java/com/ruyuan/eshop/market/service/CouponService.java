@@ -5,6 +5,8 @@ import com.ruyuan.eshop.market.domain.query.UserCouponQuery;
 import com.ruyuan.eshop.market.domain.request.LockUserCouponRequest;
 import com.ruyuan.eshop.market.domain.request.ReleaseUserCouponRequest;
 
+import java.util.List;
+
 
 /**
  * 优惠券管理service接口
@@ -33,4 +35,12 @@ public interface CouponService {
      * 释放用户优惠券
      */
     Boolean releaseUserCoupon(ReleaseUserCouponRequest releaseUserCouponRequest);
+
+    /**
+     * 批量释放用户优惠券
+     *
+     * @param releaseUserCouponRequestList
+     * @return 实际释放的优惠券数量
+     */
+    Integer releaseUserCoupons(List<ReleaseUserCouponRequest> releaseUserCouponRequestList);
 }
@@ -2,7 +2,7 @@ package com.ruyuan.eshop.market.service.impl;
 
 import com.alibaba.fastjson.JSONObject;
 import com.ruyuan.eshop.common.utils.ParamCheckUtil;
-import com.ruyuan.eshop.market.dao.CouponConfigDAO;
+import com.ruyuan.eshop.market.cache.CouponConfigCache;
 import com.ruyuan.eshop.market.dao.CouponDAO;
 import com.ruyuan.eshop.market.domain.dto.UserCouponDTO;
 import com.ruyuan.eshop.market.domain.entity.CouponConfigDO;
@@ -10,7 +10,6 @@ import com.ruyuan.eshop.market.domain.entity.CouponDO;
 import com.ruyuan.eshop.market.domain.query.UserCouponQuery;
 import com.ruyuan.eshop.market.domain.request.LockUserCouponRequest;
 import com.ruyuan.eshop.market.domain.request.ReleaseUserCouponRequest;
-import com.ruyuan.eshop.market.enums.CouponUsedStatusEnum;
 import com.ruyuan.eshop.market.exception.MarketBizException;
 import com.ruyuan.eshop.market.exception.MarketErrorCodeEnum;
 import com.ruyuan.eshop.market.service.CouponService;
@@ -19,7 +18,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * 优惠券管理service组件
@@ -31,7 +32,7 @@ import java.util.Date;
 public class CouponServiceImpl implements CouponService {
 
     @Autowired
-    private CouponConfigDAO couponConfigDAO;
+    private CouponConfigCache couponConfigCache;
 
     @Autowired
     private CouponDAO couponDAO;
@@ -52,7 +53,7 @@ public class CouponServiceImpl implements CouponService {
         String couponConfigId = couponDO.getCouponConfigId();
 
         // 判断优惠券活动配置信息是否存在
-        CouponConfigDO couponConfigDO = couponConfigDAO.getByCouponConfigId(couponConfigId);
+        CouponConfigDO couponConfigDO = couponConfigCache.getByCouponConfigId(couponConfigId);
         if (couponConfigDO == null) {
             throw new MarketBizException(MarketErrorCodeEnum.USER_COUPON_CONFIG_IS_NULL);
         }
@@ -85,17 +86,15 @@ public class CouponServiceImpl implements CouponService {
 
         String userId = lockUserCouponRequest.getUserId();
         String couponId = lockUserCouponRequest.getCouponId();
-        CouponDO couponDO = couponDAO.getUserCoupon(userId, couponId);
-        if (couponDO == null) {
-            throw new MarketBizException(MarketErrorCodeEnum.USER_COUPON_IS_NULL);
-        }
-        // 判断优惠券是否已经使用了
-        if (CouponUsedStatusEnum.USED.getCode().equals(couponDO.getUsed())) {
+        // 条件更新：只有未使用的优惠券才会被锁定，并发重复提交时只有一个请求能锁定成功
+        if (!couponDAO.lockUserCoupon(userId, couponId, new Date())) {
+            // 锁定失败时再查一次，区分优惠券不存在和已经使用
+            CouponDO couponDO = couponDAO.getUserCoupon(userId, couponId);
+            if (couponDO == null) {
+                throw new MarketBizException(MarketErrorCodeEnum.USER_COUPON_IS_NULL);
+            }
             throw new MarketBizException(MarketErrorCodeEnum.USER_COUPON_IS_USED);
         }
-        couponDO.setUsed(CouponUsedStatusEnum.USED.getCode());
-        couponDO.setUsedTime(new Date());
-        couponDAO.updateById(couponDO);
         log.info("lockUserCoupon->response={}", true);
         return true;
     }
@@ -114,19 +113,37 @@ public class CouponServiceImpl implements CouponService {
 
     /**
      * 释放用户优惠券
+     * <p>
+     * 条件更新：只有已使用的优惠券才会被释放，重复释放时直接返回成功
+     * </p>
      */
     @Override
     public Boolean releaseUserCoupon(ReleaseUserCouponRequest releaseUserCouponRequest) {
         String userId = releaseUserCouponRequest.getUserId();
         String couponId = releaseUserCouponRequest.getCouponId();
-        CouponDO couponAchieve = couponDAO.getUserCoupon(userId, couponId);
-        if (CouponUsedStatusEnum.UN_USED.getCode().equals(couponAchieve.getUsed())) {
+        if (!couponDAO.releaseUserCoupon(userId, couponId)) {
             log.info("当前用户未使用优惠券,不用回退,userId:{},couponId:{}", userId, couponId);
-            return true;
         }
-        couponAchieve.setUsed(CouponUsedStatusEnum.UN_USED.getCode());
-        couponAchieve.setUsedTime(null);
-        couponDAO.updateById(couponAchieve);
         return true;
     }
+
+    /**
+     * 批量释放用户优惠券
+     *
+     * @param releaseUserCouponRequestList
+     * @return 实际释放的优惠券数量
+     */
+    @Override
+    public Integer releaseUserCoupons(List<ReleaseUserCouponRequest> releaseUserCouponRequestList) {
+        List<CouponDO> couponList = new ArrayList<>(releaseUserCouponRequestList.size());
+        for (ReleaseUserCouponRequest releaseUserCouponRequest : releaseUserCouponRequestList) {
+            CouponDO couponDO = new CouponDO();
+            couponDO.setUserId(releaseUserCouponRequest.getUserId());
+            couponDO.setCouponId(releaseUserCouponRequest.getCouponId());
+            couponList.add(couponDO);
+        }
+        int released = couponDAO.releaseUserCoupons(couponList);
+        log.info("批量释放优惠券,request size:{},released:{}", couponList.size(), released);
+        return released;
+    }
 }
@@ -3,11 +3,14 @@ package com.ruyuan.eshop.market.service.impl;
 import com.ruyuan.eshop.common.enums.AmountTypeEnum;
 import com.ruyuan.eshop.common.utils.LoggerFormat;
 import com.ruyuan.eshop.common.utils.ParamCheckUtil;
+import com.ruyuan.eshop.market.cache.CouponConfigCache;
+import com.ruyuan.eshop.market.cache.FreightTemplateCache;
 import com.ruyuan.eshop.market.constants.MarketConstant;
 import com.ruyuan.eshop.market.convert.MarketConverter;
 import com.ruyuan.eshop.market.dao.CouponDAO;
-import com.ruyuan.eshop.market.dao.FreightTemplateDAO;
 import com.ruyuan.eshop.market.domain.dto.CalculateOrderAmountDTO;
+import com.ruyuan.eshop.market.domain.dto.UserCouponDTO;
+import com.ruyuan.eshop.market.domain.entity.CouponConfigDO;
 import com.ruyuan.eshop.market.domain.entity.CouponDO;
 import com.ruyuan.eshop.market.domain.entity.FreightTemplateDO;
 import com.ruyuan.eshop.market.domain.request.CalculateOrderAmountRequest;
@@ -38,7 +41,10 @@ public class MarketServiceImpl implements MarketService {
     private CouponDAO couponDAO;
 
     @Autowired
-    private FreightTemplateDAO freightTemplateDAO;
+    private CouponConfigCache couponConfigCache;
+
+    @Autowired
+    private FreightTemplateCache freightTemplateCache;
 
     @Autowired
     private MarketConverter marketConverter;
@@ -74,10 +80,9 @@ public class MarketServiceImpl implements MarketService {
      */
     @Override
     public CalculateOrderAmountDTO calculateOrderAmount(CalculateOrderAmountRequest calculateOrderAmountRequest) {
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("calculateOrderAmount->request")
-                .data("request", calculateOrderAmountRequest)
-                .finish());
+                .data("request", calculateOrderAmountRequest));
 
         // 检查入参
         this.checkCalculateOrderAmountRequest(calculateOrderAmountRequest);
@@ -89,10 +94,13 @@ public class MarketServiceImpl implements MarketService {
 
         // 优惠券抵扣金额
         Integer discountAmount = 0;
+        UserCouponDTO userCouponDTO = null;
         if (StringUtils.isNotEmpty(couponId)) {
             // 锁定优惠券
             CouponDO couponDO = getCouponAchieve(userId, couponId);
             discountAmount = couponDO.getAmount();
+            // 随算价结果一起返回，订单生成优惠券快照时不用再查一次
+            userCouponDTO = buildUserCoupon(couponDO);
         }
 
         // 原订单费用信息
@@ -205,11 +213,11 @@ public class MarketServiceImpl implements MarketService {
         CalculateOrderAmountDTO calculateOrderAmountDTO = new CalculateOrderAmountDTO();
         calculateOrderAmountDTO.setOrderAmountList(orderAmountList);
         calculateOrderAmountDTO.setOrderAmountDetail(orderAmountDetailDTOList);
+        calculateOrderAmountDTO.setUserCoupon(userCouponDTO);
 
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("calculateOrderAmount->response")
-                .data("response", calculateOrderAmountDTO)
-                .finish());
+                .data("response", calculateOrderAmountDTO));
         return calculateOrderAmountDTO;
     }
 
@@ -252,6 +260,31 @@ public class MarketServiceImpl implements MarketService {
         return couponDO;
     }
 
+    /**
+     * 组装用户优惠券信息，优惠券配置不存在时返回null
+     *
+     * @param couponDO
+     * @return
+     */
+    private UserCouponDTO buildUserCoupon(CouponDO couponDO) {
+        CouponConfigDO couponConfigDO = couponConfigCache.getByCouponConfigId(couponDO.getCouponConfigId());
+        if (couponConfigDO == null) {
+            return null;
+        }
+        UserCouponDTO userCouponDTO = new UserCouponDTO();
+        userCouponDTO.setUserId(couponDO.getUserId());
+        userCouponDTO.setCouponConfigId(couponDO.getCouponConfigId());
+        userCouponDTO.setCouponId(couponDO.getCouponId());
+        userCouponDTO.setName(couponConfigDO.getName());
+        userCouponDTO.setType(couponConfigDO.getType());
+        userCouponDTO.setAmount(couponConfigDO.getAmount());
+        userCouponDTO.setConditionAmount(couponConfigDO.getConditionAmount());
+        userCouponDTO.setValidStartTime(couponConfigDO.getValidStartTime());
+        userCouponDTO.setValidEndTime(couponConfigDO.getValidEndTime());
+        userCouponDTO.setUsed(couponDO.getUsed());
+        return userCouponDTO;
+    }
+
     /**
      * 组装订单条目费用明细
      *
@@ -302,7 +335,7 @@ public class MarketServiceImpl implements MarketService {
         Integer conditionAmount;
 
         // 查找运费模板
-        FreightTemplateDO freightTemplateDO = freightTemplateDAO.getByRegionId(regionId);
+        FreightTemplateDO freightTemplateDO = freightTemplateCache.getByRegionId(regionId);
         if (freightTemplateDO != null) {
             shippingAmount = freightTemplateDO.getShippingAmount();
             conditionAmount = freightTemplateDO.getConditionAmount();
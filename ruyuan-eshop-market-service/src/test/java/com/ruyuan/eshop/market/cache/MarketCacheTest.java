@@ -0,0 +1,394 @@
+package com.ruyuan.eshop.market.cache;
+
+import com.baomidou.mybatisplus.core.config.GlobalConfig;
+import com.baomidou.mybatisplus.core.toolkit.GlobalConfigUtils;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.google.common.base.Ticker;
+import com.ruyuan.eshop.common.enums.AmountTypeEnum;
+import com.ruyuan.eshop.market.config.MybatisPlusConfig;
+import com.ruyuan.eshop.market.convert.MarketConverterImpl;
+import com.ruyuan.eshop.market.dao.CouponConfigDAO;
+import com.ruyuan.eshop.market.dao.CouponDAO;
+import com.ruyuan.eshop.market.dao.FreightTemplateDAO;
+import com.ruyuan.eshop.market.domain.dto.CalculateOrderAmountDTO;
+import com.ruyuan.eshop.market.domain.dto.UserCouponDTO;
+import com.ruyuan.eshop.market.domain.query.UserCouponQuery;
+import com.ruyuan.eshop.market.domain.request.CalculateOrderAmountRequest;
+import com.ruyuan.eshop.market.mapper.CouponConfigMapper;
+import com.ruyuan.eshop.market.mapper.CouponMapper;
+import com.ruyuan.eshop.market.mapper.FreightTemplateMapper;
+import com.ruyuan.eshop.market.service.impl.CouponServiceImpl;
+import com.ruyuan.eshop.market.service.impl.MarketServiceImpl;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * 运费模板、优惠券配置缓存测试：在H2上统计每张表实际执行的查询次数
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = MarketCacheTest.Config.class)
+public class MarketCacheTest {
+
+    private static final String COUPON_CONFIG_ID = "2001001";
+
+    @Autowired
+    private QueryCounter queryCounter;
+
+    @Autowired
+    private FakeTicker ticker;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MarketServiceImpl marketService;
+
+    @Autowired
+    private CouponServiceImpl couponService;
+
+    @Autowired
+    private FreightTemplateCache freightTemplateCache;
+
+    @Autowired
+    private CouponConfigCache couponConfigCache;
+
+    @Before
+    public void setUp() {
+        // 每个用例使用新的缓存
+        couponConfigCache.init();
+        queryCounter.reset();
+    }
+
+    @Test
+    public void shouldCalculateShippingWithoutQueryingFreightTemplates() {
+        freightTemplateCache.reload();
+        assertEquals(1, queryCounter.count("market_freight_template"));
+        FreightTemplateCache.Stats before = freightTemplateCache.stats();
+
+        for (int i = 0; i < 500; i++) {
+            // 配置了模板的区域：运费8元，满100元免运费
+            assertEquals(Integer.valueOf(5000 + 800), realPayAmount(calculate("110100", 5000)));
+            assertEquals(Integer.valueOf(10000), realPayAmount(calculate("110100", 10000)));
+            // 没有配置模板的区域使用默认运费
+            assertEquals(Integer.valueOf(3000 + 500), realPayAmount(calculate("990000", 3000)));
+            assertEquals(Integer.valueOf(4900), realPayAmount(calculate(null, 4900)));
+        }
+
+        assertEquals(1, queryCounter.count("market_freight_template"));
+        FreightTemplateCache.Stats after = freightTemplateCache.stats();
+        assertEquals(1000, after.getHits() - before.getHits());
+        assertEquals(1000, after.getMisses() - before.getMisses());
+        assertEquals(before.getDbQueries(), after.getDbQueries());
+        assertEquals(2, after.getSize());
+    }
+
+    @Test
+    public void shouldPickUpFreightTemplateChangesOnReload() {
+        jdbcTemplate.update("UPDATE market_freight_template SET shipping_amount = 1200 WHERE region_id = '110100'");
+        try {
+            // 下一次定时加载之前还是旧模板
+            assertEquals(Integer.valueOf(800), freightTemplateCache.getByRegionId("110100").getShippingAmount());
+            freightTemplateCache.reload();
+            assertEquals(Integer.valueOf(1200), freightTemplateCache.getByRegionId("110100").getShippingAmount());
+            assertEquals(1, queryCounter.count("market_freight_template"));
+        } finally {
+            jdbcTemplate.update("UPDATE market_freight_template SET shipping_amount = 800 WHERE region_id = '110100'");
+            freightTemplateCache.reload();
+        }
+    }
+
+    @Test
+    public void shouldQueryCouponConfigOncePerTtl() {
+        long loadsBefore = couponConfigCache.stats().loadCount();
+        for (int i = 0; i < 100; i++) {
+            UserCouponDTO userCoupon = couponService.getUserCoupon(userCouponQuery("100", "1001001"));
+            assertEquals("测试优惠券", userCoupon.getName());
+            assertEquals(Integer.valueOf(500), userCoupon.getAmount());
+        }
+        assertEquals(100, queryCounter.count("market_coupon"));
+        assertEquals(1, queryCounter.count("market_coupon_config"));
+        assertEquals(1, couponConfigCache.stats().loadCount() - loadsBefore);
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(59));
+        couponService.getUserCoupon(userCouponQuery("101", "1001002"));
+        assertEquals(1, queryCounter.count("market_coupon_config"));
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(2));
+        couponService.getUserCoupon(userCouponQuery("101", "1001002"));
+        assertEquals(2, queryCounter.count("market_coupon_config"));
+    }
+
+    @Test
+    public void shouldShareCouponConfigBetweenPriceCalculationAndCouponQuery() {
+        CalculateOrderAmountRequest request = calculateRequest("110100", 5000);
+        request.setCouponId("1001003");
+        request.setUserId("102");
+        CalculateOrderAmountDTO calculateOrderAmountDTO = marketService.calculateOrderAmount(request);
+        assertEquals(COUPON_CONFIG_ID, calculateOrderAmountDTO.getUserCoupon().getCouponConfigId());
+        assertEquals(Integer.valueOf(5000 - 500 + 800), realPayAmount(calculateOrderAmountDTO));
+
+        couponService.getUserCoupon(userCouponQuery("102", "1001003"));
+        assertEquals(1, queryCounter.count("market_coupon_config"));
+        assertEquals(2, queryCounter.count("market_coupon"));
+    }
+
+    @Test
+    public void shouldCacheMissingCouponConfigUntilExpired() {
+        assertNull(couponConfigCache.getByCouponConfigId("2009999"));
+        assertNull(couponConfigCache.getByCouponConfigId("2009999"));
+        assertEquals(1, queryCounter.count("market_coupon_config"));
+
+        jdbcTemplate.update("INSERT INTO market_coupon_config (coupon_config_id, name, type, amount, condition_amount,"
+                + " valid_start_time, valid_end_time, give_out_count, received_count, give_out_type, status, gmt_create, gmt_modified)"
+                + " VALUES ('2009999', '新优惠券', 1, 300, 0, NOW(), NOW(), 10, 0, 1, 2, NOW(), NOW())");
+        try {
+            assertNull(couponConfigCache.getByCouponConfigId("2009999"));
+            ticker.advance(TimeUnit.SECONDS.toNanos(61));
+            assertEquals("新优惠券", couponConfigCache.getByCouponConfigId("2009999").getName());
+            assertEquals(2, queryCounter.count("market_coupon_config"));
+        } finally {
+            jdbcTemplate.update("DELETE FROM market_coupon_config WHERE coupon_config_id = '2009999'");
+        }
+    }
+
+    private CalculateOrderAmountDTO calculate(String regionId, int amount) {
+        return marketService.calculateOrderAmount(calculateRequest(regionId, amount));
+    }
+
+    private CalculateOrderAmountRequest calculateRequest(String regionId, int amount) {
+        CalculateOrderAmountRequest.OrderItemRequest orderItemRequest = new CalculateOrderAmountRequest.OrderItemRequest();
+        orderItemRequest.setProductType(1);
+        orderItemRequest.setSkuCode("skuCode001");
+        orderItemRequest.setSalePrice(amount);
+        orderItemRequest.setSaleQuantity(1);
+
+        CalculateOrderAmountRequest.OrderAmountRequest originPayAmount = new CalculateOrderAmountRequest.OrderAmountRequest();
+        originPayAmount.setAmountType(AmountTypeEnum.ORIGIN_PAY_AMOUNT.getCode());
+        originPayAmount.setAmount(amount);
+        CalculateOrderAmountRequest.OrderAmountRequest realPayAmount = new CalculateOrderAmountRequest.OrderAmountRequest();
+        realPayAmount.setAmountType(AmountTypeEnum.REAL_PAY_AMOUNT.getCode());
+        realPayAmount.setAmount(amount);
+
+        CalculateOrderAmountRequest request = new CalculateOrderAmountRequest();
+        request.setOrderId("1021121945762025");
+        request.setUserId("100");
+        request.setRegionId(regionId);
+        request.setOrderItemRequestList(Collections.singletonList(orderItemRequest));
+        request.setOrderAmountRequestList(Arrays.asList(originPayAmount, realPayAmount));
+        return request;
+    }
+
+    private static Integer realPayAmount(CalculateOrderAmountDTO calculateOrderAmountDTO) {
+        for (CalculateOrderAmountDTO.OrderAmountDTO orderAmountDTO : calculateOrderAmountDTO.getOrderAmountList()) {
+            if (AmountTypeEnum.REAL_PAY_AMOUNT.getCode().equals(orderAmountDTO.getAmountType())) {
+                return orderAmountDTO.getAmount();
+            }
+        }
+        return null;
+    }
+
+    private static UserCouponQuery userCouponQuery(String userId, String couponId) {
+        UserCouponQuery userCouponQuery = new UserCouponQuery();
+        userCouponQuery.setUserId(userId);
+        userCouponQuery.setCouponId(couponId);
+        return userCouponQuery;
+    }
+
+    /**
+     * 按表统计执行的查询语句
+     */
+    @Intercepts(@Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class}))
+    static class QueryCounter implements Interceptor {
+
+        private static final Pattern FROM_TABLE = Pattern.compile("^\\s*SELECT\\b.*?\\bFROM\\s+(\\w+)",
+                Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+        private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            String sql = ((StatementHandler) invocation.getTarget()).getBoundSql().getSql();
+            Matcher matcher = FROM_TABLE.matcher(sql);
+            if (matcher.find()) {
+                counts.computeIfAbsent(matcher.group(1).toLowerCase(), key -> new LongAdder()).increment();
+            }
+            return invocation.proceed();
+        }
+
+        long count(String table) {
+            LongAdder count = counts.get(table);
+            return count == null ? 0 : count.sum();
+        }
+
+        void reset() {
+            counts.clear();
+        }
+    }
+
+    static class FakeTicker extends Ticker {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        void advance(long delta) {
+            nanos.addAndGet(delta);
+        }
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            DataSource dataSource = JdbcConnectionPool.create(
+                    "jdbc:h2:mem:market_cache;DB_CLOSE_DELAY=-1;MODE=MySQL", "sa", "");
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.execute("CREATE TABLE market_coupon (id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                    + " coupon_id VARCHAR(50), coupon_config_id VARCHAR(50) NOT NULL, user_id VARCHAR(50) NOT NULL,"
+                    + " is_used TINYINT NOT NULL, used_time DATETIME, amount INT NOT NULL,"
+                    + " gmt_create DATETIME NOT NULL, gmt_modified DATETIME NOT NULL)");
+            jdbcTemplate.execute("CREATE TABLE market_coupon_config (id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                    + " coupon_config_id VARCHAR(50) NOT NULL, name VARCHAR(1024) NOT NULL, type TINYINT NOT NULL,"
+                    + " amount INT NOT NULL, condition_amount INT NOT NULL, valid_start_time DATETIME NOT NULL,"
+                    + " valid_end_time DATETIME NOT NULL, give_out_count BIGINT NOT NULL, received_count BIGINT NOT NULL,"
+                    + " give_out_type TINYINT NOT NULL, status TINYINT NOT NULL,"
+                    + " gmt_create DATETIME NOT NULL, gmt_modified DATETIME NOT NULL)");
+            jdbcTemplate.execute("CREATE TABLE market_freight_template (id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                    + " template_id VARCHAR(50) NOT NULL, name VARCHAR(50) NOT NULL, region_id VARCHAR(50) NOT NULL UNIQUE,"
+                    + " shipping_amount INT NOT NULL, condition_amount INT NOT NULL,"
+                    + " gmt_create DATETIME NOT NULL, gmt_modified DATETIME NOT NULL)");
+            for (int i = 0; i < 3; i++) {
+                jdbcTemplate.update("INSERT INTO market_coupon VALUES (?, ?, '2001001', ?, 0, NULL, 500, NOW(), NOW())",
+                        i + 1, "100100" + (i + 1), String.valueOf(100 + i));
+            }
+            jdbcTemplate.update("INSERT INTO market_coupon_config VALUES (2, '2001001', '测试优惠券', 2, 500, 1000,"
+                    + " '2021-11-01 12:24:29', '2024-06-30 12:24:35', 1000, 1, 1, 2, NOW(), NOW())");
+            jdbcTemplate.update("INSERT INTO market_freight_template VALUES (1, 'T001', '北京', '110100', 800, 10000, NOW(), NOW())");
+            jdbcTemplate.update("INSERT INTO market_freight_template VALUES (2, 'T002', '上海', '310100', 1000, 20000, NOW(), NOW())");
+            return dataSource;
+        }
+
+        @Bean
+        public QueryCounter queryCounter() {
+            return new QueryCounter();
+        }
+
+        @Bean
+        public FakeTicker ticker() {
+            return new FakeTicker();
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource, QueryCounter queryCounter) throws Exception {
+            MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+            factoryBean.setDataSource(dataSource);
+            factoryBean.setPlugins(queryCounter);
+            GlobalConfig globalConfig = GlobalConfigUtils.defaults();
+            globalConfig.setMetaObjectHandler(new MybatisPlusConfig().metaObjectHandler());
+            factoryBean.setGlobalConfig(globalConfig);
+            return factoryBean.getObject();
+        }
+
+        @Bean
+        public MapperFactoryBean<CouponMapper> couponMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(CouponMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<CouponConfigMapper> couponConfigMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(CouponConfigMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<FreightTemplateMapper> freightTemplateMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(FreightTemplateMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public CouponDAO couponDAO() {
+            return new CouponDAO();
+        }
+
+        @Bean
+        public CouponConfigDAO couponConfigDAO() {
+            return new CouponConfigDAO();
+        }
+
+        @Bean
+        public FreightTemplateDAO freightTemplateDAO() {
+            return new FreightTemplateDAO();
+        }
+
+        @Bean
+        public FreightTemplateCache freightTemplateCache() {
+            return new FreightTemplateCache();
+        }
+
+        @Bean
+        public CouponConfigCache couponConfigCache(FakeTicker ticker) {
+            CouponConfigCache couponConfigCache = new CouponConfigCache();
+            ReflectionTestUtils.setField(couponConfigCache, "ticker", ticker);
+            return couponConfigCache;
+        }
+
+        @Bean
+        public MarketConverterImpl marketConverter() {
+            return new MarketConverterImpl();
+        }
+
+        @Bean
+        public MarketServiceImpl marketService() {
+            return new MarketServiceImpl();
+        }
+
+        @Bean
+        public CouponServiceImpl couponService() {
+            return new CouponServiceImpl();
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        private static <T> MapperFactoryBean<T> mapper(Class<T> mapperInterface, SqlSessionFactory sqlSessionFactory) {
+            MapperFactoryBean<T> factoryBean = new MapperFactoryBean<>(mapperInterface);
+            factoryBean.setSqlSessionFactory(sqlSessionFactory);
+            return factoryBean;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.ruyuan.eshop.market.service.impl;
+
+import com.baomidou.mybatisplus.core.config.GlobalConfig;
+import com.baomidou.mybatisplus.core.toolkit.GlobalConfigUtils;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.ruyuan.eshop.market.config.MybatisPlusConfig;
+import com.ruyuan.eshop.market.dao.CouponDAO;
+import com.ruyuan.eshop.market.domain.request.LockUserCouponRequest;
+import com.ruyuan.eshop.market.domain.request.ReleaseUserCouponRequest;
+import com.ruyuan.eshop.market.exception.MarketBizException;
+import com.ruyuan.eshop.market.exception.MarketErrorCodeEnum;
+import com.ruyuan.eshop.market.mapper.CouponMapper;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 优惠券锁定、释放测试：在H2上验证条件更新，并发锁定同一张优惠券时只有一个请求成功
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = CouponServiceImplTest.Config.class)
+public class CouponServiceImplTest {
+
+    private static final int COUPON_COUNT = 10;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CouponDAO couponDAO;
+
+    private CouponServiceImpl couponService;
+
+    @Before
+    public void setUp() {
+        couponService = new CouponServiceImpl();
+        ReflectionTestUtils.setField(couponService, "couponDAO", couponDAO);
+        jdbcTemplate.update("UPDATE market_coupon SET is_used = 0, used_time = NULL");
+    }
+
+    @Test
+    public void shouldLetOnlyOneConcurrentLockerWin() throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int coupon = 1; coupon <= COUPON_COUNT; coupon++) {
+                String userId = userId(coupon);
+                String couponId = couponId(coupon);
+                CountDownLatch start = new CountDownLatch(1);
+                AtomicInteger locked = new AtomicInteger();
+                AtomicInteger rejected = new AtomicInteger();
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        try {
+                            if (couponService.lockUserCoupon(lockRequest(userId, couponId))) {
+                                locked.incrementAndGet();
+                            }
+                        } catch (MarketBizException e) {
+                            assertEquals(MarketErrorCodeEnum.USER_COUPON_IS_USED.getErrorCode(), e.getErrorCode());
+                            rejected.incrementAndGet();
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+                assertEquals(couponId, 1, locked.get());
+                assertEquals(couponId, threads - 1, rejected.get());
+                assertEquals(Integer.valueOf(1), isUsed(couponId));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldRejectLockingUnknownCoupon() {
+        try {
+            couponService.lockUserCoupon(lockRequest("100", "9999999"));
+            fail();
+        } catch (MarketBizException e) {
+            assertEquals(MarketErrorCodeEnum.USER_COUPON_IS_NULL.getErrorCode(), e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void shouldReleaseOnlyUsedCoupon() {
+        // 未使用的优惠券释放直接成功，不修改记录
+        assertTrue(couponService.releaseUserCoupon(releaseRequest(userId(1), couponId(1))));
+        assertEquals(Integer.valueOf(0), isUsed(couponId(1)));
+
+        assertTrue(couponService.lockUserCoupon(lockRequest(userId(1), couponId(1))));
+        assertNotNull(jdbcTemplate.queryForObject("SELECT used_time FROM market_coupon WHERE coupon_id = ?",
+                Object.class, couponId(1)));
+        assertTrue(couponService.releaseUserCoupon(releaseRequest(userId(1), couponId(1))));
+        assertEquals(Integer.valueOf(0), isUsed(couponId(1)));
+        assertNull(jdbcTemplate.queryForObject("SELECT used_time FROM market_coupon WHERE coupon_id = ?",
+                Object.class, couponId(1)));
+
+        // 释放后可以再次锁定
+        assertTrue(couponService.lockUserCoupon(lockRequest(userId(1), couponId(1))));
+        // 用户和优惠券不匹配时不释放
+        assertTrue(couponService.releaseUserCoupon(releaseRequest(userId(2), couponId(1))));
+        assertEquals(Integer.valueOf(1), isUsed(couponId(1)));
+    }
+
+    @Test
+    public void shouldReleaseCouponsOfManyOrdersAtOnce() {
+        List<ReleaseUserCouponRequest> requests = new ArrayList<>();
+        for (int coupon = 1; coupon <= 6; coupon++) {
+            assertTrue(couponService.lockUserCoupon(lockRequest(userId(coupon), couponId(coupon))));
+            requests.add(releaseRequest(userId(coupon), couponId(coupon)));
+        }
+        assertTrue(couponService.lockUserCoupon(lockRequest(userId(7), couponId(7))));
+        // 未使用的、不存在的、重复的都不计入
+        requests.add(releaseRequest(userId(8), couponId(8)));
+        requests.add(releaseRequest("100", "9999999"));
+        requests.add(releaseRequest(userId(1), couponId(1)));
+
+        assertEquals(Integer.valueOf(6), couponService.releaseUserCoupons(requests));
+        for (int coupon = 1; coupon <= 6; coupon++) {
+            assertEquals(Integer.valueOf(0), isUsed(couponId(coupon)));
+        }
+        assertEquals(Integer.valueOf(1), isUsed(couponId(7)));
+        // 重复消费同一批消息时不再释放
+        assertEquals(Integer.valueOf(0), couponService.releaseUserCoupons(requests));
+        assertEquals(Integer.valueOf(0), couponService.releaseUserCoupons(new ArrayList<>()));
+        assertEquals(Integer.valueOf(1), couponService.releaseUserCoupons(
+                Arrays.asList(releaseRequest(userId(7), couponId(7)))));
+    }
+
+    private Integer isUsed(String couponId) {
+        return jdbcTemplate.queryForObject("SELECT is_used FROM market_coupon WHERE coupon_id = ?",
+                Integer.class, couponId);
+    }
+
+    private static String userId(int coupon) {
+        return String.valueOf(100 + coupon);
+    }
+
+    private static String couponId(int coupon) {
+        return String.valueOf(1001000 + coupon);
+    }
+
+    private static LockUserCouponRequest lockRequest(String userId, String couponId) {
+        LockUserCouponRequest lockUserCouponRequest = new LockUserCouponRequest();
+        lockUserCouponRequest.setUserId(userId);
+        lockUserCouponRequest.setCouponId(couponId);
+        return lockUserCouponRequest;
+    }
+
+    private static ReleaseUserCouponRequest releaseRequest(String userId, String couponId) {
+        ReleaseUserCouponRequest releaseUserCouponRequest = new ReleaseUserCouponRequest();
+        releaseUserCouponRequest.setUserId(userId);
+        releaseUserCouponRequest.setCouponId(couponId);
+        return releaseUserCouponRequest;
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            DataSource dataSource = JdbcConnectionPool.create(
+                    "jdbc:h2:mem:coupon_lock;DB_CLOSE_DELAY=-1;MODE=MySQL", "sa", "");
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.execute("CREATE TABLE market_coupon (id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                    + " coupon_id VARCHAR(50), coupon_config_id VARCHAR(50) NOT NULL, user_id VARCHAR(50) NOT NULL,"
+                    + " is_used TINYINT NOT NULL, used_time DATETIME, amount INT NOT NULL,"
+                    + " gmt_create DATETIME NOT NULL, gmt_modified DATETIME NOT NULL)");
+            for (int coupon = 1; coupon <= COUPON_COUNT; coupon++) {
+                jdbcTemplate.update("INSERT INTO market_coupon VALUES (?, ?, '2001001', ?, 0, NULL, 500, NOW(), NOW())",
+                        coupon, couponId(coupon), userId(coupon));
+            }
+            return dataSource;
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+            factoryBean.setDataSource(dataSource);
+            GlobalConfig globalConfig = GlobalConfigUtils.defaults();
+            globalConfig.setMetaObjectHandler(new MybatisPlusConfig().metaObjectHandler());
+            factoryBean.setGlobalConfig(globalConfig);
+            return factoryBean.getObject();
+        }
+
+        @Bean
+        public MapperFactoryBean<CouponMapper> couponMapper(SqlSessionFactory sqlSessionFactory) {
+            MapperFactoryBean<CouponMapper> factoryBean = new MapperFactoryBean<>(CouponMapper.class);
+            factoryBean.setSqlSessionFactory(sqlSessionFactory);
+            return factoryBean;
+        }
+
+        @Bean
+        public CouponDAO couponDAO() {
+            return new CouponDAO();
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
@@ -89,4 +89,17 @@ public class OrderQuery implements Serializable {
      * 每页条数
      */
     private Integer pageSize = 20;
+
+    /**
+     * 是否按游标翻页，开启后忽略页码，按(创建时间, 主键)倒序从游标位置往后取一页
+     */
+    private Boolean cursorPaging = false;
+    /**
+     * 翻页游标，传上一页返回的nextCursor，查询第一页时为空
+     */
+    private String cursor;
+    /**
+     * 游标翻页时是否统计总条数，统计到上限后不再继续，返回估算值
+     */
+    private Boolean needTotal = false;
 }
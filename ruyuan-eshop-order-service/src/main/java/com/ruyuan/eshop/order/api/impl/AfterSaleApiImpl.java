@@ -26,19 +26,16 @@ import com.ruyuan.eshop.order.enums.AfterSaleStatusEnum;
 import com.ruyuan.eshop.order.exception.OrderBizException;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
 import com.ruyuan.eshop.order.mq.producer.DefaultProducer;
+import com.ruyuan.eshop.order.mq.producer.TransactionMessageHandler;
 import com.ruyuan.eshop.order.service.OrderAfterSaleService;
 import com.ruyuan.eshop.order.service.OrderLackService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.dubbo.config.annotation.DubboService;
 import org.apache.rocketmq.client.producer.LocalTransactionState;
-import org.apache.rocketmq.client.producer.TransactionListener;
-import org.apache.rocketmq.client.producer.TransactionMQProducer;
 import org.apache.rocketmq.client.producer.TransactionSendResult;
-import org.apache.rocketmq.common.message.Message;
-import org.apache.rocketmq.common.message.MessageExt;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.nio.charset.StandardCharsets;
+import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -74,6 +71,38 @@ public class AfterSaleApiImpl implements AfterSaleApi {
     @Autowired
     private AfterSaleRefundDAO afterSaleRefundDAO;
 
+    /**
+     * 客服审核通过释放权益资产事务消息处理器
+     */
+    private static final String CUSTOMER_AUDIT_PASS_TRANSACTION_HANDLER = "CUSTOMER_AUDIT_PASS";
+
+    @PostConstruct
+    public void registerTransactionHandler() {
+        defaultProducer.registerTransactionHandler(CUSTOMER_AUDIT_PASS_TRANSACTION_HANDLER, new TransactionMessageHandler() {
+            @Override
+            public LocalTransactionState executeLocalTransaction(String afterSaleId, Object arg) {
+                try {
+                    //  更新 审核通过 售后信息
+                    orderAfterSaleService.receiveCustomerAuditAccept((CustomerAuditAssembleRequest) arg);
+                    return LocalTransactionState.COMMIT_MESSAGE;
+                } catch (Exception e) {
+                    log.error("system error", e);
+                    return LocalTransactionState.ROLLBACK_MESSAGE;
+                }
+            }
+
+            @Override
+            public LocalTransactionState checkLocalTransaction(String afterSaleId) {
+                Integer customerAuditAfterSaleStatus = orderAfterSaleService
+                        .findCustomerAuditAfterSaleStatus(Long.valueOf(afterSaleId));
+                if (AfterSaleStatusEnum.REVIEW_PASS.getCode().equals(customerAuditAfterSaleStatus)) {
+                    return LocalTransactionState.COMMIT_MESSAGE;
+                }
+                return LocalTransactionState.ROLLBACK_MESSAGE;
+            }
+        });
+    }
+
     /**
      * 取消订单/超时未支付取消
      */
@@ -149,37 +178,11 @@ public class AfterSaleApiImpl implements AfterSaleApi {
             }
             //  4、组装释放库存参数
             AuditPassReleaseAssetsRequest auditPassReleaseAssetsRequest = buildAuditPassReleaseAssets(afterSaleItemDO, customerAuditAssembleResult, orderId);
-            //  5、组装事务MQ消息
-            TransactionMQProducer producer = defaultProducer.getProducer();
-            producer.setTransactionListener(new TransactionListener() {
-                @Override
-                public LocalTransactionState executeLocalTransaction(Message msg, Object arg) {
-                    try {
-                        //  更新 审核通过 售后信息
-                        orderAfterSaleService.receiveCustomerAuditAccept(customerAuditAssembleResult);
-                        return LocalTransactionState.COMMIT_MESSAGE;
-                    } catch (Exception e) {
-                        log.error("system error", e);
-                        return LocalTransactionState.ROLLBACK_MESSAGE;
-                    }
-                }
-
-                @Override
-                public LocalTransactionState checkLocalTransaction(MessageExt msg) {
-                    Integer customerAuditAfterSaleStatus = orderAfterSaleService
-                            .findCustomerAuditAfterSaleStatus(customerAuditAssembleResult.getAfterSaleId());
-                    if (AfterSaleStatusEnum.REVIEW_PASS.getCode().equals(customerAuditAfterSaleStatus)) {
-                        return LocalTransactionState.COMMIT_MESSAGE;
-                    }
-                    return LocalTransactionState.ROLLBACK_MESSAGE;
-                }
-            });
-
             try {
-                Message message = new Message(RocketMqConstant.CUSTOMER_AUDIT_PASS_RELEASE_ASSETS_TOPIC,
-                        JSONObject.toJSONString(auditPassReleaseAssetsRequest).getBytes(StandardCharsets.UTF_8));
-                // 6、发送事务MQ消息 客服审核通过后释放权益资产
-                TransactionSendResult result = producer.sendMessageInTransaction(message, auditPassReleaseAssetsRequest);
+                // 5、发送事务MQ消息 客服审核通过后释放权益资产，本地事务更新审核通过的售后信息
+                TransactionSendResult result = defaultProducer.sendTransactionMessage(
+                        RocketMqConstant.CUSTOMER_AUDIT_PASS_RELEASE_ASSETS_TOPIC, JSONObject.toJSONString(auditPassReleaseAssetsRequest),
+                        CUSTOMER_AUDIT_PASS_TRANSACTION_HANDLER, String.valueOf(afterSaleId), customerAuditAssembleResult);
                 if (!result.getLocalTransactionState().equals(LocalTransactionState.COMMIT_MESSAGE)) {
                     throw new OrderBizException(OrderErrorCodeEnum.SEND_AUDIT_PASS_RELEASE_ASSETS_FAILED);
                 }
@@ -67,14 +67,12 @@ public class OrderApiImpl implements OrderApi {
             CreateOrderDTO createOrderDTO = orderService.createOrder(createOrderRequest);
             return JsonResult.buildSuccess(createOrderDTO);
         } catch (OrderBizException e) {
-            log.error(LoggerFormat.build()
-                    .remark("biz error")
-                    .finish(), e);
+            log.error("{}", LoggerFormat.build()
+                    .remark("biz error"), e);
             return JsonResult.buildError(e.getErrorCode(), e.getErrorMsg());
         } catch (Exception e) {
-            log.error(LoggerFormat.build()
-                    .remark("system error")
-                    .finish(), e);
+            log.error("{}", LoggerFormat.build()
+                    .remark("system error"), e);
             return JsonResult.buildError(e.getMessage());
         }
     }
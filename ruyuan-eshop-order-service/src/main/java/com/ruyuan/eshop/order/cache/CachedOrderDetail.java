@@ -0,0 +1,33 @@
+package com.ruyuan.eshop.order.cache;
+
+import com.ruyuan.eshop.order.domain.dto.OrderDetailDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 缓存里的订单详情
+ * <p>
+ * 只缓存订单相关的8张表，缺品退款信息来自售后单，售后单状态变化时不会失效订单详情缓存，
+ * 所以只缓存订单是否缺品，缺品订单的缺品退款信息每次实时查询
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CachedOrderDetail {
+
+    /**
+     * 订单详情，不包含缺品退款信息
+     */
+    private OrderDetailDTO orderDetail;
+
+    /**
+     * 订单是否缺品
+     */
+    private Boolean lacked;
+
+}
@@ -0,0 +1,23 @@
+package com.ruyuan.eshop.order.cache;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.List;
+
+/**
+ * 订单变更事件，写订单相关表后发布，订单详情缓存收到后按订单号失效，订单列表读模型收到后按订单号刷新
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Getter
+public class OrderChangedEvent extends ApplicationEvent {
+
+    private final List<String> orderIdList;
+
+    public OrderChangedEvent(Object source, List<String> orderIdList) {
+        super(source);
+        this.orderIdList = orderIdList;
+    }
+}
@@ -0,0 +1,140 @@
+package com.ruyuan.eshop.order.cache;
+
+import io.seata.core.context.RootContext;
+import io.seata.tm.api.transaction.TransactionHookAdapter;
+import io.seata.tm.api.transaction.TransactionHookManager;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 订单详情缓存
+ * <p>
+ * 按订单号缓存订单详情，缓存未命中时回源数据库，并按读取时的版本号回填redis。
+ * 写订单相关表时DAO发布{@link OrderChangedEvent}，事务提交后把版本号加1，
+ * 回源期间发生过失效的结果不会写入缓存。在seata全局事务中还会在全局事务结束后再失效一次，
+ * 全局回滚恢复的数据不会被提交后、回滚前回填的缓存覆盖。
+ * 不存在的订单不缓存；redis不可用时直接查询数据库
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class OrderDetailCache {
+
+    @Autowired
+    private OrderDetailRedisCache orderDetailRedisCache;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder loads = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * 查询订单详情
+     *
+     * @param orderId 订单号
+     * @param loader  从数据库查询订单详情，订单不存在时返回null
+     * @return 订单详情，每次返回新的对象，调用方可以修改
+     */
+    public CachedOrderDetail get(String orderId, Supplier<CachedOrderDetail> loader) {
+        OrderDetailCacheEntry entry;
+        try {
+            entry = orderDetailRedisCache.get(orderId);
+        } catch (Exception e) {
+            errors.increment();
+            log.warn("查询订单详情缓存失败，直接查询数据库, orderId={}", orderId, e);
+            return load(loader);
+        }
+        if (entry.getValue() != null) {
+            hits.increment();
+            return entry.getValue();
+        }
+
+        misses.increment();
+        CachedOrderDetail orderDetail = load(loader);
+        if (orderDetail != null) {
+            try {
+                orderDetailRedisCache.putIfVersion(orderId, new OrderDetailCacheEntry(entry.getVersion(), orderDetail));
+            } catch (Exception e) {
+                errors.increment();
+                log.warn("回填订单详情缓存失败, orderId={}", orderId, e);
+            }
+        }
+        return orderDetail;
+    }
+
+    /**
+     * 失效订单详情缓存
+     *
+     * @param orderIdList 订单号
+     */
+    public void invalidate(Collection<String> orderIdList) {
+        try {
+            orderDetailRedisCache.invalidate(orderIdList);
+            invalidations.add(orderIdList.size());
+        } catch (Exception e) {
+            errors.increment();
+            log.error("失效订单详情缓存失败, orderIds={}", orderIdList, e);
+        }
+    }
+
+    /**
+     * 事务提交后失效，不在事务中时立即失效
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOrderChanged(OrderChangedEvent event) {
+        List<String> orderIdList = event.getOrderIdList();
+        invalidate(orderIdList);
+        if (RootContext.inGlobalTransaction()) {
+            TransactionHookManager.registerHook(new TransactionHookAdapter() {
+                @Override
+                public void afterCompletion() {
+                    invalidate(orderIdList);
+                }
+            });
+        }
+    }
+
+    /**
+     * 命中统计
+     */
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), loads.sum(), invalidations.sum(), errors.sum());
+    }
+
+    private CachedOrderDetail load(Supplier<CachedOrderDetail> loader) {
+        loads.increment();
+        return loader.get();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Stats {
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long loads;
+
+        private final long invalidations;
+
+        private final long errors;
+    }
+}
@@ -0,0 +1,26 @@
+package com.ruyuan.eshop.order.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 带版本号的订单详情缓存条目
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Getter
+@AllArgsConstructor
+public class OrderDetailCacheEntry {
+
+    /**
+     * 读取时redis里该订单的版本号，每次失效加1
+     */
+    private final long version;
+
+    /**
+     * 订单详情，为null表示redis里只有版本号（已失效）
+     */
+    private final CachedOrderDetail value;
+
+}
@@ -0,0 +1,117 @@
+package com.ruyuan.eshop.order.cache;
+
+import com.alibaba.fastjson.JSONObject;
+import com.ruyuan.eshop.common.redis.RedisCache;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订单详情的redis缓存
+ * <p>
+ * 每个订单一个hash：version是版本号，value是订单详情的json（fastjson默认不输出null字段）。
+ * 写订单时版本号加1并删掉value，只留下版本号；回填时只有版本号和读取时一致才写入，
+ * 失效之前从数据库读到的旧数据不会覆盖回去
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Component
+public class OrderDetailRedisCache {
+
+    static final String ORDER_DETAIL_CACHE_KEY = "ORDER_DETAIL_CACHE:";
+
+    private static final String VERSION = "version";
+
+    private static final String VALUE = "value";
+
+    /**
+     * 回填：KEYS[1]为订单详情缓存key，ARGV[1]为读取时的版本号，ARGV[2]为json，ARGV[3]为过期秒数
+     */
+    private static final RedisScript<Long> PUT_IF_VERSION = new DefaultRedisScript<>(
+            "local version = redis.call('hget', KEYS[1], '" + VERSION + "') "
+                    + "if (version or '0') ~= ARGV[1] then "
+                    + "    return 0 "
+                    + "end "
+                    + "redis.call('hmset', KEYS[1], '" + VERSION + "', ARGV[1], '" + VALUE + "', ARGV[2]) "
+                    + "redis.call('expire', KEYS[1], ARGV[3]) "
+                    + "return 1", Long.class);
+
+    /**
+     * 批量失效：KEYS为订单详情缓存key，ARGV[1]为版本号的保留秒数
+     */
+    private static final RedisScript<Long> INVALIDATE = new DefaultRedisScript<>(
+            "for i, key in ipairs(KEYS) do "
+                    + "    redis.call('hincrby', key, '" + VERSION + "', 1) "
+                    + "    redis.call('hdel', key, '" + VALUE + "') "
+                    + "    redis.call('expire', key, ARGV[1]) "
+                    + "end "
+                    + "return #KEYS", Long.class);
+
+    @Autowired
+    private RedisCache redisCache;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    /**
+     * 读取订单详情
+     *
+     * @param orderId 订单号
+     * @return 缓存条目，redis里没有这个key时版本号为0、value为null
+     */
+    public OrderDetailCacheEntry get(String orderId) {
+        Map<String, String> fields = redisCache.hGetAll(key(orderId));
+        if (fields == null) {
+            fields = Collections.emptyMap();
+        }
+        String version = fields.get(VERSION);
+        String value = fields.get(VALUE);
+        return new OrderDetailCacheEntry(
+                version == null ? 0L : Long.parseLong(version),
+                value == null ? null : JSONObject.parseObject(value, CachedOrderDetail.class));
+    }
+
+    /**
+     * 回填订单详情，版本号和读取时不一致（期间被失效过）时不写入
+     *
+     * @param orderId 订单号
+     * @param entry   读取时的版本号和从数据库查到的订单详情
+     * @return 是否写入
+     */
+    public boolean putIfVersion(String orderId, OrderDetailCacheEntry entry) {
+        Long written = redisCache.execute(PUT_IF_VERSION, Collections.singletonList(key(orderId)),
+                String.valueOf(entry.getVersion()), JSONObject.toJSONString(entry.getValue()),
+                String.valueOf(orderProperties.getDetailCacheExpireSeconds()));
+        return written != null && written > 0;
+    }
+
+    /**
+     * 批量失效，版本号加1
+     *
+     * @param orderIdList 订单号
+     */
+    public void invalidate(Collection<String> orderIdList) {
+        if (orderIdList.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(orderIdList.size());
+        for (String orderId : orderIdList) {
+            keys.add(key(orderId));
+        }
+        redisCache.execute(INVALIDATE, keys, String.valueOf(orderProperties.getDetailCacheExpireSeconds()));
+    }
+
+    private static String key(String orderId) {
+        return ORDER_DETAIL_CACHE_KEY + orderId;
+    }
+}
@@ -33,12 +33,11 @@ public class LogAopConfig {
         String declaringTypeName = point.getSignature().getDeclaringTypeName();
         String signatureName = point.getSignature().getName();
         String argStr = argsToString(point.getArgs());
-        logger.info(LoggerFormat.build()
+        logger.info("{}", LoggerFormat.build()
                 .remark("开始调用")
                 .data("declaringTypeName", declaringTypeName)
                 .data("signatureName", signatureName)
-                .data("argStr", argStr)
-                .finish());
+                .data("argStr", argStr));
         Object response = null;
         LocalDateTime startTime = LocalDateTime.now();
         LocalDateTime endTime = null;
@@ -48,28 +47,25 @@ public class LogAopConfig {
             //执行该方法
             response = point.proceed();
         } catch (Exception e) {
-            logger.info(LoggerFormat.build()
-                    .remark("请求异常")
-                    .finish(), e);
+            logger.info("{}", LoggerFormat.build()
+                    .remark("请求异常"), e);
             endTime = LocalDateTime.now();
             interval = Duration.between(startTime, endTime).toMillis();
-            logger.info(LoggerFormat.build()
+            logger.info("{}", LoggerFormat.build()
                     .remark("结束请求")
                     .data("declaringTypeName", declaringTypeName)
                     .data("signatureName", signatureName)
-                    .data("响应时间", interval + "毫秒")
-                    .finish());
+                    .data("响应时间", interval + "毫秒"));
             throw e;
         }
         endTime = LocalDateTime.now();
         interval = Duration.between(startTime, endTime).toMillis();
-        logger.info(LoggerFormat.build()
+        logger.info("{}", LoggerFormat.build()
                 .remark("结束请求")
                 .data("declaringTypeName", declaringTypeName)
                 .data("signatureName", signatureName)
                 .data("响应时间", interval + "毫秒")
-                .data("响应内容", argsToString(response))
-                .finish());
+                .data("响应内容", argsToString(response)));
 
         return response;
     }
@@ -1,9 +1,13 @@
 package com.ruyuan.eshop.order.config;
 
+import com.ruyuan.eshop.common.constants.RocketMqConstant;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * @author zhonghuashishan
  * @version 1.0
@@ -18,6 +22,293 @@ public class OrderProperties {
      */
     private Integer expireTime = 30 * 60 * 1000;
 
+    /**
+     * 生单前置并行调用线程池核心线程数
+     */
+    private Integer createOrderCorePoolSize = 32;
+
+    /**
+     * 生单前置并行调用线程池最大线程数
+     */
+    private Integer createOrderMaxPoolSize = 128;
+
+    /**
+     * 生单前置并行调用线程池队列长度
+     */
+    private Integer createOrderQueueCapacity = 1000;
+
+    /**
+     * 生单前置并行调用（风控、商品、查重、算价）整体超时时间 单位毫秒
+     */
+    private Long createOrderPrepareTimeout = 3000L;
+
+    /**
+     * 未支付订单超时索引分片数量，上线后不能修改，否则已登记的订单会找不到所在分片
+     */
+    private Integer expireIndexShardCount = 16;
+
+    /**
+     * 超时关单任务每次从一个分片取出的订单数量
+     */
+    private Integer expireCancelBatchSize = 200;
+
+    /**
+     * 超时关单线程池线程数
+     */
+    private Integer expireCancelPoolSize = 8;
+
+    /**
+     * 超时关单线程池队列长度
+     */
+    private Integer expireCancelQueueCapacity = 200;
+
+    /**
+     * 超时关单失败后重新登记的延迟时间 单位毫秒
+     */
+    private Long expireCancelRetryDelay = 60 * 1000L;
+
+    /**
+     * 超时关单认领订单的租约时长 单位毫秒，认领后没有在租约内关单或移除的订单会再次到期
+     */
+    private Long expireCancelLeaseMillis = 5 * 60 * 1000L;
+
+    /**
+     * 分片扫描订单时每批读取的订单数
+     */
+    private Integer scanChunkSize = 500;
+
+    /**
+     * 分片扫描线程池线程数
+     */
+    private Integer scanPoolSize = 4;
+
+    /**
+     * 分片扫描时同时在处理中的最大批数，超过后暂停读库
+     */
+    private Integer scanMaxInFlightChunks = 8;
+
+    /**
+     * 订单快照异步写入队列长度，队列打满时由提交线程同步写入
+     */
+    private Integer snapshotQueueCapacity = 10000;
+
+    /**
+     * 订单快照每批写入的最大条数，攒够就立即写入
+     */
+    private Integer snapshotBatchSize = 200;
+
+    /**
+     * 订单快照攒批的最长等待时间 单位毫秒，不够一批时到时间也会写入
+     */
+    private Long snapshotFlushInterval = 200L;
+
+    /**
+     * 订单快照本地WAL文件目录，服务重启时回放未写入数据库的快照
+     */
+    private String snapshotWalDir = "./data/order-snapshot-wal";
+
+    /**
+     * 订单快照单个WAL文件的大小上限 单位字节，超过后切换新文件
+     */
+    private Long snapshotWalSegmentSize = 16 * 1024 * 1024L;
+
+    /**
+     * 订单快照每次追加WAL后是否刷盘，开启后机器掉电也不丢，但提交延迟更高
+     */
+    private Boolean snapshotWalFsync = false;
+
+    /**
+     * 订单详情缓存过期时间 单位秒，失效后留下的版本号也保留这么久
+     */
+    private Integer detailCacheExpireSeconds = 600;
+
+    /**
+     * 订单详情并行查询线程池线程数
+     */
+    private Integer detailLoadPoolSize = 32;
+
+    /**
+     * 订单详情并行查询线程池队列长度
+     */
+    private Integer detailLoadQueueCapacity = 1000;
+
+    /**
+     * 订单列表游标翻页时总条数的统计上限，超过后返回的总条数为估算值
+     */
+    private Integer listCountLimit = 10000;
+
+    /**
+     * 是否开启订单列表读模型，开启后启动时从数据库加载订单到内存索引，订单列表按页码查询时不再连表查库
+     */
+    private Boolean searchReadModelEnabled = false;
+
+    /**
+     * 订单列表读模型重建时每批加载的订单数
+     */
+    private Integer searchRebuildBatchSize = 1000;
+
+    /**
+     * 订单列表读模型刷新线程池队列长度
+     */
+    private Integer searchRefreshQueueCapacity = 10000;
+
+    /**
+     * 异步发送消息攒批的最长等待时间 单位毫秒，从一个topic的第一条消息开始计时
+     */
+    private Long producerBatchLingerMillis = 5L;
+
+    /**
+     * 异步发送消息每批的最大条数，攒够就立即发送
+     */
+    private Integer producerBatchMaxSize = 32;
+
+    /**
+     * 异步发送消息每批消息体的最大字节数，broker单次批量发送上限是4M
+     */
+    private Integer producerBatchMaxBytes = 1024 * 1024;
+
+    /**
+     * 异步发送消息线程池线程数，不同topic的批次并行发送
+     */
+    private Integer producerSendPoolSize = 8;
+
+    /**
+     * 异步发送消息线程池队列长度，队列打满时由提交线程自己发送
+     */
+    private Integer producerSendQueueCapacity = 1000;
+
+    /**
+     * 订单消息的编码方式 json或binary，消费者按消息属性解码，先升级所有消费者再切换成binary
+     */
+    private String messageCodec = "json";
+
+    /**
+     * 是否启动发件箱投递线程
+     */
+    private Boolean outboxRelayEnabled = true;
+
+    /**
+     * 发件箱投递线程每轮领取的最大消息数
+     */
+    private Integer outboxClaimBatchSize = 200;
+
+    /**
+     * 发件箱消息领取后的占用时间 单位毫秒，投递线程挂掉后到期由其他线程重新领取
+     */
+    private Long outboxLeaseMillis = 30 * 1000L;
+
+    /**
+     * 发件箱没有可投递消息时的轮询间隔 单位毫秒
+     */
+    private Long outboxPollInterval = 200L;
+
+    /**
+     * 发件箱消息投递失败后第一次重试的间隔 单位毫秒，之后每次失败翻倍
+     */
+    private Long outboxRetryBaseMillis = 1000L;
+
+    /**
+     * 发件箱消息投递失败后重试间隔的上限 单位毫秒
+     */
+    private Long outboxRetryMaxMillis = 5 * 60 * 1000L;
+
+    /**
+     * Seata全局事务里写入的发件箱消息，全局事务提交前不投递，提交钩子没执行时到这个时间后再投递 单位毫秒，
+     * 要大于全局事务超时时间
+     */
+    private Long outboxGlobalTransactionHoldMillis = 2 * 60 * 1000L;
+
+    /**
+     * 投递成功的发件箱消息保留时间 单位小时，过期后由投递线程分批删除
+     */
+    private Integer outboxRetentionHours = 72;
+
+    /**
+     * 标注了@IdempotentConsumer的消费者是否按消息唯一ID去重
+     */
+    private Boolean consumeIdempotentEnabled = true;
+
+    /**
+     * 消费记录的保留时间 单位小时，不小于broker上消息的保留时间，过期后同一条消息会被再次消费
+     */
+    private Integer consumedRetentionHours = 72;
+
+    /**
+     * 消息开始消费后的占用时间 单位毫秒，期间重投的同一条消息稍后再消费，消费线程挂掉后到期可以重新消费
+     */
+    private Long consumingLeaseMillis = 60 * 1000L;
+
+    /**
+     * 本机缓存的已消费消息个数，命中时不查库直接跳过
+     */
+    private Integer consumedLocalCacheSize = 100000;
+
+    /**
+     * 按topic配置的消息消费者参数，key是topic，没有配置的topic使用默认参数
+     * 支付完成、实际退款、释放资产的消息默认按批消费
+     */
+    private Map<String, ConsumerProperties> consumers = defaultConsumers();
+
+    /**
+     * 查询topic的消费者参数
+     *
+     * @param topic topic
+     * @return 消费者参数
+     */
+    public ConsumerProperties getConsumer(String topic) {
+        ConsumerProperties consumerProperties = consumers.get(topic);
+        return consumerProperties == null ? new ConsumerProperties() : consumerProperties;
+    }
+
+    private static Map<String, ConsumerProperties> defaultConsumers() {
+        Map<String, ConsumerProperties> consumers = new HashMap<>(8);
+        consumers.put(RocketMqConstant.PAID_ORDER_SUCCESS_TOPIC, batchConsumer());
+        consumers.put(RocketMqConstant.ACTUAL_REFUND_TOPIC, batchConsumer());
+        consumers.put(RocketMqConstant.RELEASE_ASSETS_TOPIC, batchConsumer());
+        return consumers;
+    }
+
+    private static ConsumerProperties batchConsumer() {
+        ConsumerProperties consumerProperties = new ConsumerProperties();
+        consumerProperties.setConsumeThreadMin(32);
+        consumerProperties.setConsumeThreadMax(32);
+        consumerProperties.setConsumeMessageBatchMaxSize(16);
+        consumerProperties.setPullBatchSize(64);
+        return consumerProperties;
+    }
+
+    /**
+     * 消息消费者参数
+     */
+    @Data
+    public static class ConsumerProperties {
+
+        /**
+         * 消费线程数，消费线程池的队列是无界的，实际只会用到这么多线程
+         */
+        private Integer consumeThreadMin = 20;
+
+        /**
+         * 最大消费线程数，不能小于consumeThreadMin
+         */
+        private Integer consumeThreadMax = 20;
+
+        /**
+         * 每次回调消费的最大消息数
+         */
+        private Integer consumeMessageBatchMaxSize = 1;
+
+        /**
+         * 每次从broker拉取的最大消息数
+         */
+        private Integer pullBatchSize = 32;
+
+        /**
+         * 最大重试次数，-1表示使用rocketmq默认的16次
+         */
+        private Integer maxReconsumeTimes = -1;
+    }
+
 
     public static final Integer ORDER_EXPIRE_TIME = 30 * 60 * 1000;
 
@@ -0,0 +1,119 @@
+package com.ruyuan.eshop.order.config;
+
+import com.alibaba.ttl.threadpool.TtlExecutors;
+import com.ruyuan.eshop.order.service.impl.CreateOrderPrepareStage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单服务线程池配置
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Configuration
+public class OrderThreadPoolConfig {
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    /**
+     * 生单前置并行调用线程池
+     * 有界队列 + CallerRunsPolicy，队列打满时由请求线程自己执行，退化为串行调用
+     * 使用TTL包装，保证TransmittableThreadLocal上下文能传递到池内线程
+     */
+    @Bean(name = "createOrderExecutor", destroyMethod = "shutdown")
+    public ExecutorService createOrderExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                orderProperties.getCreateOrderCorePoolSize(),
+                orderProperties.getCreateOrderMaxPoolSize(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(orderProperties.getCreateOrderQueueCapacity()),
+                new CustomizableThreadFactory("CREATE_ORDER_PREPARE_"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        return TtlExecutors.getTtlExecutorService(executor);
+    }
+
+    /**
+     * 订单编号号段预加载线程池
+     * 同一时刻最多只有一个预加载任务，单线程即可
+     */
+    @Bean(name = "orderNoSegmentExecutor", destroyMethod = "shutdown")
+    public ExecutorService orderNoSegmentExecutor() {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1),
+                new CustomizableThreadFactory("ORDER_NO_SEGMENT_PREFETCH_"));
+    }
+
+    /**
+     * 超时关单线程池
+     * 有界队列 + CallerRunsPolicy，队列打满时由任务线程自己关单，不会一次性堆积大量待关单订单
+     */
+    @Bean(name = "orderExpireCancelExecutor", destroyMethod = "shutdown")
+    public ExecutorService orderExpireCancelExecutor() {
+        return new ThreadPoolExecutor(
+                orderProperties.getExpireCancelPoolSize(),
+                orderProperties.getExpireCancelPoolSize(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(orderProperties.getExpireCancelQueueCapacity()),
+                new CustomizableThreadFactory("ORDER_EXPIRE_CANCEL_"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 分片扫描订单线程池
+     * 扫描时由ShardedCursorScanner控制同时处理的批数，队列长度和批数上限一致，不会被拒绝
+     */
+    @Bean(name = "orderScanExecutor", destroyMethod = "shutdown")
+    public ExecutorService orderScanExecutor() {
+        return new ThreadPoolExecutor(
+                orderProperties.getScanPoolSize(),
+                orderProperties.getScanPoolSize(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(orderProperties.getScanMaxInFlightChunks()),
+                new CustomizableThreadFactory("ORDER_SCAN_"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 订单详情并行查询线程池
+     * 有界队列 + CallerRunsPolicy，队列打满时由请求线程自己查询，退化为串行查询
+     */
+    @Bean(name = "orderDetailLoadExecutor", destroyMethod = "shutdown")
+    public ExecutorService orderDetailLoadExecutor() {
+        return new ThreadPoolExecutor(
+                orderProperties.getDetailLoadPoolSize(),
+                orderProperties.getDetailLoadPoolSize(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(orderProperties.getDetailLoadQueueCapacity()),
+                new CustomizableThreadFactory("ORDER_DETAIL_LOAD_"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 订单列表读模型刷新线程池
+     * 单线程按提交顺序刷新；队列打满时由写订单的线程自己刷新
+     */
+    @Bean(name = "orderSearchRefreshExecutor", destroyMethod = "shutdown")
+    public ExecutorService orderSearchRefreshExecutor() {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(orderProperties.getSearchRefreshQueueCapacity()),
+                new CustomizableThreadFactory("ORDER_SEARCH_REFRESH_"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 生单前置并行调用阶段
+     */
+    @Bean
+    public CreateOrderPrepareStage createOrderPrepareStage() {
+        return new CreateOrderPrepareStage(createOrderExecutor(), orderProperties.getCreateOrderPrepareTimeout());
+    }
+}
@@ -1,6 +1,5 @@
 package com.ruyuan.eshop.order.controller;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.ruyuan.eshop.common.constants.RocketMqConstant;
 import com.ruyuan.eshop.common.core.JsonResult;
@@ -222,8 +221,7 @@ public class OrderTestController {
         log.info("orderId={}", orderId);
         PaidOrderSuccessMessage message = new PaidOrderSuccessMessage();
         message.setOrderId(orderId);
-        String msgJson = JSON.toJSONString(message);
-        defaultProducer.sendMessage(RocketMqConstant.PAID_ORDER_SUCCESS_TOPIC, msgJson, "订单已完成支付", null, orderId);
+        defaultProducer.sendEncodedMessage(RocketMqConstant.PAID_ORDER_SUCCESS_TOPIC, message, "订单已完成支付", null, orderId);
         return JsonResult.buildSuccess(true);
     }
 
@@ -0,0 +1,48 @@
+package com.ruyuan.eshop.order.dao;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.ruyuan.eshop.common.dao.BaseDAO;
+import com.ruyuan.eshop.order.cache.OrderChangedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+/**
+ * 订单相关表的DAO基类
+ * 写订单相关表后发布{@link OrderChangedEvent}，订单详情缓存据此失效，订单列表读模型据此刷新
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public abstract class AbstractOrderDAO<M extends BaseMapper<T>, T> extends BaseDAO<M, T> {
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    /**
+     * 发布订单变更事件，没有写入任何数据时不发布
+     *
+     * @param changed 是否写入了数据
+     * @param orderId 订单号
+     */
+    protected void publishOrderChanged(boolean changed, String orderId) {
+        publishOrderChanged(changed, Collections.singletonList(orderId));
+    }
+
+    /**
+     * 发布订单变更事件，没有写入任何数据时不发布，重复的订单号只保留一个
+     *
+     * @param changed  是否写入了数据
+     * @param orderIds 订单号
+     */
+    protected void publishOrderChanged(boolean changed, Collection<String> orderIds) {
+        if (!changed || orderIds.isEmpty()) {
+            return;
+        }
+        applicationEventPublisher.publishEvent(new OrderChangedEvent(this, new ArrayList<>(new LinkedHashSet<>(orderIds))));
+    }
+}
@@ -30,6 +30,18 @@ public class AfterSaleItemDAO extends BaseDAO<AfterSaleItemMapper, AfterSaleItem
         return list(queryWrapper);
     }
 
+    /**
+     * 根据多个售后单号查询售后单条目记录
+     *
+     * @param afterSaleIds
+     * @return
+     */
+    public List<AfterSaleItemDO> listByAfterSaleIds(List<Long> afterSaleIds) {
+        LambdaQueryWrapper<AfterSaleItemDO> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.in(AfterSaleItemDO::getAfterSaleId, afterSaleIds);
+        return list(queryWrapper);
+    }
+
     /**
      * 根据订单号查询售后单条目
      *
@@ -8,6 +8,7 @@ import com.ruyuan.eshop.order.mapper.AfterSaleLogMapper;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -31,6 +32,20 @@ public class AfterSaleLogDAO extends BaseDAO<AfterSaleLogMapper, AfterSaleLogDO>
         return list(queryWrapper);
     }
 
+    /**
+     * 根据多个售后单号查询售后单变更记录
+     * after_sale_id是字符串列，按字符串传参才能走索引
+     *
+     * @param afterSaleIds
+     * @return
+     */
+    public List<AfterSaleLogDO> listByAfterSaleIds(List<Long> afterSaleIds) {
+        LambdaQueryWrapper<AfterSaleLogDO> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.in(AfterSaleLogDO::getAfterSaleId,
+                afterSaleIds.stream().map(String::valueOf).collect(Collectors.toList()));
+        return list(queryWrapper);
+    }
+
     /**
      * 根据售后单号查询售后单变更记录
      *
@@ -8,6 +8,7 @@ import com.ruyuan.eshop.order.mapper.AfterSaleRefundMapper;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -31,6 +32,20 @@ public class AfterSaleRefundDAO extends BaseDAO<AfterSaleRefundMapper, AfterSale
         return list(queryWrapper);
     }
 
+    /**
+     * 根据多个售后单号查询售后单支付记录
+     * after_sale_id是字符串列，按字符串传参才能走索引
+     *
+     * @param afterSaleIds
+     * @return
+     */
+    public List<AfterSaleRefundDO> listByAfterSaleIds(List<Long> afterSaleIds) {
+        LambdaQueryWrapper<AfterSaleRefundDO> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.in(AfterSaleRefundDO::getAfterSaleId,
+                afterSaleIds.stream().map(String::valueOf).collect(Collectors.toList()));
+        return list(queryWrapper);
+    }
+
     /**
      * 更新售后退款状态
      */
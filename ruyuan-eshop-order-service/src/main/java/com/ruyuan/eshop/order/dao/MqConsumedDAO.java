@@ -0,0 +1,109 @@
+package com.ruyuan.eshop.order.dao;
+
+import com.ruyuan.eshop.common.dao.BaseDAO;
+import com.ruyuan.eshop.order.domain.entity.MqConsumedDO;
+import com.ruyuan.eshop.order.mapper.MqConsumedMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * 消息消费记录 DAO
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Repository
+public class MqConsumedDAO extends BaseDAO<MqConsumedMapper, MqConsumedDO> {
+
+    @Autowired
+    private MqConsumedMapper mqConsumedMapper;
+
+    /**
+     * 查询一批消息的消费记录
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @return 消费记录
+     */
+    public List<MqConsumedDO> listByMsgKeys(String consumerGroup, Collection<String> msgKeys) {
+        if (msgKeys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return mqConsumedMapper.listByMsgKeys(consumerGroup, msgKeys);
+    }
+
+    /**
+     * 一条语句写入一批消费中的记录，依赖唯一索引保证同一条消息只有一个消费线程写入成功，已经有记录的消息忽略
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @param expireTime    消费中的到期时间
+     * @param leaseToken    本次写入的标识，写入成功的记录带着这个标识
+     * @return 写入条数
+     */
+    public int insertConsuming(String consumerGroup, Collection<String> msgKeys, Date expireTime, String leaseToken) {
+        if (msgKeys.isEmpty()) {
+            return 0;
+        }
+        return mqConsumedMapper.insertIgnoreConsuming(consumerGroup, msgKeys, expireTime, leaseToken);
+    }
+
+    /**
+     * 接管一条已经到期的消费记录
+     *
+     * @param mqConsumedDO  查询到的消费记录
+     * @param newExpireTime 消费中的到期时间
+     * @param leaseToken    接管方的标识
+     * @return 接管成功返回true，记录已经被其他消费线程改过返回false
+     */
+    public boolean takeOver(MqConsumedDO mqConsumedDO, Date newExpireTime, String leaseToken) {
+        return mqConsumedMapper.takeOver(mqConsumedDO.getId(), mqConsumedDO.getStatus(),
+                mqConsumedDO.getExpireTime(), newExpireTime, leaseToken) > 0;
+    }
+
+    /**
+     * 一条语句标记一批消息已消费，只更新还带着本次标识的记录
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @param leaseToken    拿到消费权时的标识
+     * @param expireTime    消费记录到期时间
+     */
+    public void markConsumed(String consumerGroup, Collection<String> msgKeys, String leaseToken, Date expireTime) {
+        if (msgKeys.isEmpty()) {
+            return;
+        }
+        mqConsumedMapper.markConsumed(consumerGroup, msgKeys, leaseToken, expireTime);
+    }
+
+    /**
+     * 删除一批消费失败的消费中记录，只删除还带着本次标识的记录
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @param leaseToken    拿到消费权时的标识
+     */
+    public void deleteConsuming(String consumerGroup, Collection<String> msgKeys, String leaseToken) {
+        if (msgKeys.isEmpty()) {
+            return;
+        }
+        mqConsumedMapper.deleteConsuming(consumerGroup, msgKeys, leaseToken);
+    }
+
+    /**
+     * 删除一批已经到期的消费记录
+     *
+     * @param now   当前时间
+     * @param limit 最多删除条数
+     * @return 删除条数
+     */
+    public int deleteExpired(Date now, int limit) {
+        return mqConsumedMapper.deleteExpired(now, limit);
+    }
+}
@@ -0,0 +1,49 @@
+package com.ruyuan.eshop.order.dao;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.ruyuan.eshop.common.dao.BaseDAO;
+import com.ruyuan.eshop.order.domain.entity.OrderAutoNoSegmentDO;
+import com.ruyuan.eshop.order.mapper.OrderAutoNoSegmentMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * <p>
+ * 订单编号号段表 DAO
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Repository
+public class OrderAutoNoSegmentDAO extends BaseDAO<OrderAutoNoSegmentMapper, OrderAutoNoSegmentDO> {
+
+    @Autowired
+    private OrderAutoNoSegmentMapper orderAutoNoSegmentMapper;
+
+    /**
+     * 申请一个新号段并返回更新后的号段信息
+     * update和select在同一个独立事务里，保证读到的是本次更新后的max_id
+     *
+     * @param bizTag 业务标识
+     * @return
+     */
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRES_NEW)
+    public OrderAutoNoSegmentDO updateMaxIdAndGet(String bizTag) {
+        orderAutoNoSegmentMapper.updateMaxId(bizTag);
+        return getByBizTag(bizTag);
+    }
+
+    /**
+     * 根据业务标识查询号段
+     *
+     * @param bizTag 业务标识
+     * @return
+     */
+    public OrderAutoNoSegmentDO getByBizTag(String bizTag) {
+        LambdaQueryWrapper<OrderAutoNoSegmentDO> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.eq(OrderAutoNoSegmentDO::getBizTag, bizTag);
+        return getOne(queryWrapper);
+    }
+}
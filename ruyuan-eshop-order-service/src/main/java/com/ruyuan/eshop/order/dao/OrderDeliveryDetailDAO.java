@@ -3,13 +3,13 @@ package com.ruyuan.eshop.order.dao;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.core.toolkit.StringUtils;
-import com.ruyuan.eshop.common.dao.BaseDAO;
 import com.ruyuan.eshop.order.domain.entity.OrderDeliveryDetailDO;
 import com.ruyuan.eshop.order.domain.request.AdjustDeliveryAddressRequest;
 import com.ruyuan.eshop.order.mapper.OrderDeliveryDetailMapper;
 import org.springframework.stereotype.Repository;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -20,7 +20,7 @@ import java.util.Objects;
  * @author zhonghuashishan
  */
 @Repository
-public class OrderDeliveryDetailDAO extends BaseDAO<OrderDeliveryDetailMapper, OrderDeliveryDetailDO> {
+public class OrderDeliveryDetailDAO extends AbstractOrderDAO<OrderDeliveryDetailMapper, OrderDeliveryDetailDO> {
 
     /**
      * 根据订单号查询订单配送信息
@@ -34,12 +34,25 @@ public class OrderDeliveryDetailDAO extends BaseDAO<OrderDeliveryDetailMapper, O
         return baseMapper.selectOne(queryWrapper);
     }
 
+    /**
+     * 根据多个订单号查询订单配送信息
+     *
+     * @param orderIds
+     * @return
+     */
+    public List<OrderDeliveryDetailDO> listByOrderIds(List<String> orderIds) {
+        LambdaQueryWrapper<OrderDeliveryDetailDO> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.in(OrderDeliveryDetailDO::getOrderId, orderIds);
+        return list(queryWrapper);
+    }
+
     /**
      * 更新配送地址信息
      *
+     * @param deliveryDetail
      * @param request
      */
-    public boolean updateDeliveryAddress(Long id, Integer modifyAddressCount, AdjustDeliveryAddressRequest request) {
+    public boolean updateDeliveryAddress(OrderDeliveryDetailDO deliveryDetail, AdjustDeliveryAddressRequest request) {
         LambdaUpdateWrapper<OrderDeliveryDetailDO> updateWrapper = new LambdaUpdateWrapper<>();
         updateWrapper
                 .set(StringUtils.isNotBlank(request.getProvince()), OrderDeliveryDetailDO::getProvince, request.getProvince())
@@ -49,56 +62,64 @@ public class OrderDeliveryDetailDAO extends BaseDAO<OrderDeliveryDetailMapper, O
                 .set(StringUtils.isNotBlank(request.getDetailAddress()), OrderDeliveryDetailDO::getDetailAddress, request.getDetailAddress())
                 .set(Objects.nonNull(request.getLat()), OrderDeliveryDetailDO::getLat, request.getLat())
                 .set(Objects.nonNull(request.getLon()), OrderDeliveryDetailDO::getLon, request.getLon())
-                .set(OrderDeliveryDetailDO::getModifyAddressCount, modifyAddressCount + 1)
-                .eq(OrderDeliveryDetailDO::getId, id);
-        return update(updateWrapper);
+                .set(OrderDeliveryDetailDO::getModifyAddressCount, deliveryDetail.getModifyAddressCount() + 1)
+                .eq(OrderDeliveryDetailDO::getId, deliveryDetail.getId());
+        boolean updated = update(updateWrapper);
+        publishOrderChanged(updated, deliveryDetail.getOrderId());
+        return updated;
     }
 
     /**
      * 更新出库时间
      *
-     * @param id
+     * @param deliveryDetail
      * @param outStockTime
      * @return
      */
-    public boolean updateOutStockTime(Long id, Date outStockTime) {
+    public boolean updateOutStockTime(OrderDeliveryDetailDO deliveryDetail, Date outStockTime) {
         LambdaUpdateWrapper<OrderDeliveryDetailDO> updateWrapper = new LambdaUpdateWrapper<>();
         updateWrapper
                 .set(OrderDeliveryDetailDO::getOutStockTime, outStockTime)
-                .eq(OrderDeliveryDetailDO::getId, id);
-        return update(updateWrapper);
+                .eq(OrderDeliveryDetailDO::getId, deliveryDetail.getId());
+        boolean updated = update(updateWrapper);
+        publishOrderChanged(updated, deliveryDetail.getOrderId());
+        return updated;
     }
 
     /**
      * 更新配送员信息
      *
-     * @param id
+     * @param deliveryDetail
      * @return
      */
-    public boolean updateDeliverer(Long id, String delivererNo, String delivererName, String delivererPhone) {
+    public boolean updateDeliverer(OrderDeliveryDetailDO deliveryDetail, String delivererNo, String delivererName, String delivererPhone) {
         LambdaUpdateWrapper<OrderDeliveryDetailDO> updateWrapper = new LambdaUpdateWrapper<>();
         updateWrapper
                 .set(OrderDeliveryDetailDO::getDelivererNo, delivererNo)
                 .set(OrderDeliveryDetailDO::getDelivererName, delivererName)
                 .set(OrderDeliveryDetailDO::getDelivererPhone, delivererPhone)
-                .eq(OrderDeliveryDetailDO::getId, id);
-        return update(updateWrapper);
+                .eq(OrderDeliveryDetailDO::getId, deliveryDetail.getId());
+        boolean updated = update(updateWrapper);
+        publishOrderChanged(updated, deliveryDetail.getOrderId());
+        return updated;
     }
 
 
     /**
      * 更新签收时间
      *
-     * @param id
+     * @param deliveryDetail
      * @param signedTime
      * @return
      */
-    public boolean updateSignedTime(Long id, Date signedTime) {
+    public boolean updateSignedTime(OrderDeliveryDetailDO deliveryDetail, Date signedTime) {
         LambdaUpdateWrapper<OrderDeliveryDetailDO> updateWrapper = new LambdaUpdateWrapper<>();
         updateWrapper
                 .set(OrderDeliveryDetailDO::getSignedTime, signedTime)
-                .eq(OrderDeliveryDetailDO::getId, id);
-        return update(updateWrapper);
+                .eq(OrderDeliveryDetailDO::getId, deliveryDetail.getId());
+        boolean updated = update(updateWrapper);
+        publishOrderChanged(updated, deliveryDetail.getOrderId());
+        return updated;
     }
 
 }
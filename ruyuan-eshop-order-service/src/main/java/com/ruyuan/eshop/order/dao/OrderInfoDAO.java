@@ -6,9 +6,7 @@ import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
-import com.ruyuan.eshop.common.dao.BaseDAO;
 import com.ruyuan.eshop.common.enums.DeleteStatusEnum;
-import com.ruyuan.eshop.common.enums.OrderStatusEnum;
 import com.ruyuan.eshop.order.domain.dto.OrderExtJsonDTO;
 import com.ruyuan.eshop.order.domain.dto.OrderListDTO;
 import com.ruyuan.eshop.order.domain.dto.OrderListQueryDTO;
@@ -17,7 +15,11 @@ import com.ruyuan.eshop.order.mapper.OrderInfoMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -30,7 +32,7 @@ import java.util.stream.Collectors;
  */
 @Repository
 @Slf4j
-public class OrderInfoDAO extends BaseDAO<OrderInfoMapper, OrderInfoDO> {
+public class OrderInfoDAO extends AbstractOrderDAO<OrderInfoMapper, OrderInfoDO> {
 
     @Autowired
     private OrderInfoMapper orderInfoMapper;
@@ -47,16 +49,33 @@ public class OrderInfoDAO extends BaseDAO<OrderInfoMapper, OrderInfoDO> {
         return list(queryWrapper);
     }
 
+    /**
+     * 按主键顺序分批扫描订单
+     *
+     * @param lastId 上一批最后一个订单的主键，第一批传0
+     * @param limit  每批条数
+     * @return
+     */
+    public List<OrderInfoDO> listByIdAfter(Long lastId, int limit) {
+        LambdaQueryWrapper<OrderInfoDO> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.gt(OrderInfoDO::getId, lastId)
+                .orderByAsc(OrderInfoDO::getId)
+                .last("LIMIT " + limit);
+        return list(queryWrapper);
+    }
+
     /**
      * 软删除订单
      *
-     * @param ids 订单主键id
+     * @param orders 订单
      */
-    public void softRemoveOrders(List<Long> ids) {
+    public void softRemoveOrders(List<OrderInfoDO> orders) {
+        List<Long> ids = orders.stream().map(OrderInfoDO::getId).collect(Collectors.toList());
         LambdaUpdateWrapper<OrderInfoDO> updateWrapper = new LambdaUpdateWrapper<>();
         updateWrapper.set(OrderInfoDO::getDeleteStatus, DeleteStatusEnum.YES.getCode())
                 .in(OrderInfoDO::getId, ids);
-        this.update(updateWrapper);
+        boolean removed = this.update(updateWrapper);
+        publishOrderChanged(removed, orders.stream().map(OrderInfoDO::getOrderId).collect(Collectors.toList()));
     }
 
     /**
@@ -81,7 +100,9 @@ public class OrderInfoDAO extends BaseDAO<OrderInfoMapper, OrderInfoDO> {
     public boolean updateByOrderId(OrderInfoDO orderInfoDO, String orderId) {
         LambdaUpdateWrapper<OrderInfoDO> updateWrapper = new LambdaUpdateWrapper<>();
         updateWrapper.eq(OrderInfoDO::getOrderId, orderId);
-        return update(orderInfoDO, updateWrapper);
+        boolean updated = update(orderInfoDO, updateWrapper);
+        publishOrderChanged(updated, orderId);
+        return updated;
     }
 
 
@@ -95,7 +116,9 @@ public class OrderInfoDAO extends BaseDAO<OrderInfoMapper, OrderInfoDO> {
     public boolean updateBatchByOrderIds(OrderInfoDO orderInfoDO, List<String> orderIds) {
         LambdaUpdateWrapper<OrderInfoDO> updateWrapper = new LambdaUpdateWrapper<>();
         updateWrapper.in(OrderInfoDO::getOrderId, orderIds);
-        return update(orderInfoDO, updateWrapper);
+        boolean updated = update(orderInfoDO, updateWrapper);
+        publishOrderChanged(updated, orderIds);
+        return updated;
     }
 
     /**
@@ -133,6 +156,45 @@ public class OrderInfoDAO extends BaseDAO<OrderInfoMapper, OrderInfoDO> {
         return orderInfoMapper.listByPage(page, query);
     }
 
+    /**
+     * 游标翻页查询订单列表
+     * 先只查order_info定位这一页订单的主键，再为这些订单连表查询订单条目，
+     * 翻到多深都只扫描一页的数据，也不需要count
+     *
+     * @param query 查询条件，游标为空时查询第一页
+     * @param limit 最多查询的订单数
+     * @return 按(创建时间, 主键)倒序的订单，只有主键和创建时间
+     */
+    public List<OrderInfoDO> listIdsByCursor(OrderListQueryDTO query, int limit) {
+        return orderInfoMapper.listIdsByCursor(query, limit);
+    }
+
+    /**
+     * 按主键查询订单列表
+     *
+     * @param ids   订单主键
+     * @param query 查询条件
+     * @return 按(创建时间, 主键)倒序，每个订单条目一行
+     */
+    public List<OrderListDTO> listByIds(List<Long> ids, OrderListQueryDTO query) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return orderInfoMapper.listByIds(ids, query);
+    }
+
+    /**
+     * 统计满足条件的订单数，最多统计到limit条
+     *
+     * @param query 查询条件
+     * @param limit 统计上限
+     * @return
+     */
+    public long countByCursorQuery(OrderListQueryDTO query, int limit) {
+        Long count = orderInfoMapper.countByCursorQuery(query, limit);
+        return count == null ? 0L : count;
+    }
+
     /**
      * 更新订单扩展信息
      *
@@ -144,13 +206,17 @@ public class OrderInfoDAO extends BaseDAO<OrderInfoMapper, OrderInfoDO> {
         LambdaUpdateWrapper<OrderInfoDO> updateWrapper = new LambdaUpdateWrapper<>();
         updateWrapper.set(OrderInfoDO::getExtJson, extJsonStr)
                 .eq(OrderInfoDO::getOrderId, orderId);
-        return this.update(updateWrapper);
+        boolean updated = this.update(updateWrapper);
+        publishOrderChanged(updated, orderId);
+        return updated;
     }
 
     public boolean updateOrderInfo(OrderInfoDO orderInfoDO) {
         UpdateWrapper<OrderInfoDO> updateWrapper = new UpdateWrapper<>();
         updateWrapper.eq("order_id", orderInfoDO.getOrderId());
-        return update(orderInfoDO, updateWrapper);
+        boolean updated = update(orderInfoDO, updateWrapper);
+        publishOrderChanged(updated, orderInfoDO.getOrderId());
+        return updated;
     }
 
     public boolean updateOrderStatus(String orderId, Integer fromStatus, Integer toStatus) {
@@ -160,17 +226,75 @@ public class OrderInfoDAO extends BaseDAO<OrderInfoMapper, OrderInfoDO> {
                 .eq(OrderInfoDO::getOrderId, orderId)
                 .eq(OrderInfoDO::getOrderStatus, fromStatus);
 
-        return update(updateWrapper);
+        boolean updated = update(updateWrapper);
+        publishOrderChanged(updated, orderId);
+        return updated;
     }
 
     /**
-     * 扫描所有未支付订单
+     * 按订单号批量更新订单状态，只更新当前状态是fromStatus的订单，一条语句完成
      *
+     * @param fromStatus 更新前的状态
+     * @param toStatus   更新后的状态
+     * @param orderIds   订单号
+     * @return 实际更新的订单数，小于订单号个数说明有订单状态已经变了
+     */
+    public int updateStatusByOrderIds(Integer fromStatus, Integer toStatus, List<String> orderIds) {
+        LambdaUpdateWrapper<OrderInfoDO> updateWrapper = new LambdaUpdateWrapper<>();
+        updateWrapper.set(OrderInfoDO::getOrderStatus, toStatus)
+                .in(OrderInfoDO::getOrderId, orderIds)
+                .eq(OrderInfoDO::getOrderStatus, fromStatus);
+
+        int rows = orderInfoMapper.update(null, updateWrapper);
+        publishOrderChanged(rows > 0, orderIds);
+        return rows;
+    }
+
+    /**
+     * 按订单号批量更新订单的支付方式和支付时间，一条语句完成
+     *
+     * @param payType  支付方式
+     * @param payTime  支付时间
+     * @param orderIds 订单号
+     * @return 实际更新的订单数
+     */
+    public int updatePaymentByOrderIds(Integer payType, Date payTime, List<String> orderIds) {
+        LambdaUpdateWrapper<OrderInfoDO> updateWrapper = new LambdaUpdateWrapper<>();
+        updateWrapper.set(OrderInfoDO::getPayType, payType)
+                .set(OrderInfoDO::getPayTime, payTime)
+                .in(OrderInfoDO::getOrderId, orderIds);
+
+        int rows = orderInfoMapper.update(null, updateWrapper);
+        publishOrderChanged(rows > 0, orderIds);
+        return rows;
+    }
+
+    /**
+     * 根据主键更新订单，实体里需要带订单号
+     *
+     * @param entity
      * @return
      */
-    public List<OrderInfoDO> listAllUnPaid() {
-        LambdaQueryWrapper<OrderInfoDO> queryWrapper = new LambdaQueryWrapper<>();
-        queryWrapper.in(OrderInfoDO::getOrderStatus, OrderStatusEnum.unPaidStatus());
-        return list(queryWrapper);
+    @Override
+    public boolean updateById(OrderInfoDO entity) {
+        boolean updated = super.updateById(entity);
+        publishOrderChanged(updated, entity.getOrderId());
+        return updated;
+    }
+
+    /**
+     * 根据主键批量更新订单，实体里需要带订单号
+     *
+     * @param entityList
+     * @param batchSize
+     * @return
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public boolean updateBatchById(Collection<OrderInfoDO> entityList, int batchSize) {
+        boolean updated = super.updateBatchById(entityList, batchSize);
+        publishOrderChanged(updated, entityList.stream().map(OrderInfoDO::getOrderId).collect(Collectors.toList()));
+        return updated;
     }
+
 }
@@ -30,6 +30,18 @@ public class OrderItemDAO extends BaseDAO<OrderItemMapper, OrderItemDO> {
         return list(queryWrapper);
     }
 
+    /**
+     * 根据多个订单号查询订单条目
+     *
+     * @param orderIds
+     * @return
+     */
+    public List<OrderItemDO> listByOrderIds(List<String> orderIds) {
+        LambdaQueryWrapper<OrderItemDO> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.in(OrderItemDO::getOrderId, orderIds);
+        return list(queryWrapper);
+    }
+
     /**
      * 按订单号与产品类型查询订单条目
      *
@@ -1,12 +1,15 @@
 package com.ruyuan.eshop.order.dao;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.ruyuan.eshop.common.dao.BaseDAO;
 import com.ruyuan.eshop.order.domain.entity.OrderOperateLogDO;
 import com.ruyuan.eshop.order.mapper.OrderOperateLogMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -16,7 +19,8 @@ import java.util.List;
  * @author zhonghuashishan
  */
 @Repository
-public class OrderOperateLogDAO extends BaseDAO<OrderOperateLogMapper, OrderOperateLogDO> {
+public class OrderOperateLogDAO extends AbstractOrderDAO<OrderOperateLogMapper, OrderOperateLogDO> {
+
     /**
      * 根据订单号查询订单操作日志
      *
@@ -29,4 +33,58 @@ public class OrderOperateLogDAO extends BaseDAO<OrderOperateLogMapper, OrderOper
         return list(queryWrapper);
     }
 
+    /**
+     * 新增订单操作日志
+     *
+     * @param entity
+     * @return
+     */
+    @Override
+    public boolean save(OrderOperateLogDO entity) {
+        boolean saved = super.save(entity);
+        publishOrderChanged(saved, entity.getOrderId());
+        return saved;
+    }
+
+    /**
+     * 批量新增订单操作日志
+     *
+     * @param entityList
+     * @param batchSize
+     * @return
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public boolean saveBatch(Collection<OrderOperateLogDO> entityList, int batchSize) {
+        boolean saved = super.saveBatch(entityList, batchSize);
+        publishOrderChanged(saved, entityList.stream().map(OrderOperateLogDO::getOrderId).collect(Collectors.toList()));
+        return saved;
+    }
+
+    /**
+     * 一条多行INSERT批量新增订单操作日志，不管多少条日志都只执行一条语句
+     *
+     * @param orderOperateLogDOList
+     * @return 新增的行数
+     */
+    public int insertBatch(List<OrderOperateLogDO> orderOperateLogDOList) {
+        if (orderOperateLogDOList == null || orderOperateLogDOList.isEmpty()) {
+            return 0;
+        }
+        // 自定义的INSERT不走MyBatis-Plus的自动填充，这里补上创建、更新时间
+        Date now = new Date();
+        for (OrderOperateLogDO orderOperateLogDO : orderOperateLogDOList) {
+            if (orderOperateLogDO.getGmtCreate() == null) {
+                orderOperateLogDO.setGmtCreate(now);
+            }
+            if (orderOperateLogDO.getGmtModified() == null) {
+                orderOperateLogDO.setGmtModified(now);
+            }
+        }
+        int rows = baseMapper.insertBatch(orderOperateLogDOList);
+        publishOrderChanged(rows > 0, orderOperateLogDOList.stream().map(OrderOperateLogDO::getOrderId)
+                .collect(Collectors.toList()));
+        return rows;
+    }
+
 }
@@ -0,0 +1,197 @@
+package com.ruyuan.eshop.order.dao;
+
+import com.ruyuan.eshop.common.dao.BaseDAO;
+import com.ruyuan.eshop.common.message.codec.MessageCodec;
+import com.ruyuan.eshop.common.message.codec.MessageCodecs;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.domain.entity.OrderOutboxDO;
+import com.ruyuan.eshop.order.enums.OutboxStatusEnum;
+import com.ruyuan.eshop.order.mapper.OrderOutboxMapper;
+import io.seata.core.context.RootContext;
+import io.seata.tm.api.transaction.TransactionHookAdapter;
+import io.seata.tm.api.transaction.TransactionHookManager;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * 订单消息发件箱 DAO
+ * </p>
+ * <p>
+ * 订单状态变更时要发的消息先写进发件箱，和状态变更在同一个本地事务里提交，由投递线程发送到MQ。
+ * Seata全局事务里写入的消息在本地分支提交后就能读到，全局事务提交前先不投递，避免全局回滚时消息已经发出去。
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Slf4j
+@Repository
+public class OrderOutboxDAO extends BaseDAO<OrderOutboxMapper, OrderOutboxDO> {
+
+    @Autowired
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    /**
+     * 按配置的编码方式生成一条发件箱消息，写入前不会发送
+     *
+     * @param orderId        订单号，同一个订单的消息按写入顺序投递
+     * @param topic          topic
+     * @param tags           tags
+     * @param keys           keys
+     * @param payload        消息对象
+     * @param delayTimeLevel 延迟级别，小于等于0表示不延迟
+     * @return 发件箱消息
+     */
+    public OrderOutboxDO build(String orderId, String topic, String tags, String keys, Object payload,
+                               Integer delayTimeLevel) {
+        MessageCodec codec = MessageCodecs.select(orderProperties.getMessageCodec(), payload);
+        OrderOutboxDO orderOutboxDO = new OrderOutboxDO();
+        orderOutboxDO.setOrderId(orderId);
+        orderOutboxDO.setTopic(topic);
+        orderOutboxDO.setTags(tags);
+        orderOutboxDO.setMsgKeys(keys);
+        orderOutboxDO.setMsgId(MessageClientIDSetter.createUniqID());
+        orderOutboxDO.setCodec(codec.name());
+        orderOutboxDO.setBody(codec.encode(payload));
+        orderOutboxDO.setDelayTimeLevel(delayTimeLevel == null || delayTimeLevel < 0 ? 0 : delayTimeLevel);
+        orderOutboxDO.setStatus(OutboxStatusEnum.PENDING.getCode());
+        orderOutboxDO.setRetryCount(0);
+        long now = System.currentTimeMillis();
+        orderOutboxDO.setNextRetryTime(new Date(RootContext.inGlobalTransaction()
+                ? now + orderProperties.getOutboxGlobalTransactionHoldMillis() : now));
+        return orderOutboxDO;
+    }
+
+    /**
+     * 写入一条发件箱消息，必须在订单状态变更的事务里调用
+     *
+     * @param orderOutboxDO 发件箱消息
+     */
+    public void append(OrderOutboxDO orderOutboxDO) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("order outbox must be written in a transaction, orderId:"
+                    + orderOutboxDO.getOrderId());
+        }
+        save(orderOutboxDO);
+        releaseAfterGlobalCommit(Collections.singletonList(orderOutboxDO));
+    }
+
+    /**
+     * 全局事务里写入的消息，在全局事务提交后立即可以投递；不在全局事务里时什么也不做
+     *
+     * @param orderOutboxDOList 已写入的发件箱消息
+     */
+    public void releaseAfterGlobalCommit(List<OrderOutboxDO> orderOutboxDOList) {
+        if (orderOutboxDOList.isEmpty() || !RootContext.inGlobalTransaction()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(orderOutboxDOList.size());
+        orderOutboxDOList.forEach(orderOutboxDO -> ids.add(orderOutboxDO.getId()));
+        TransactionHookManager.registerHook(new TransactionHookAdapter() {
+            @Override
+            public void afterCommit() {
+                try {
+                    orderOutboxMapper.releaseHeld(ids, new Date());
+                } catch (Exception e) {
+                    // 到了暂缓时间后投递线程照样会投递
+                    log.warn("release held order outbox error, ids:{}", ids, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 领取一批待投递消息：先按主键顺序查出可以领取的主键，再带着领取条件更新占用，最后查出自己领取到的消息
+     *
+     * @param leaseOwner 投递线程标识
+     * @param limit      最多领取条数
+     * @return 领取到的消息，按主键排序
+     */
+    public List<OrderOutboxDO> claim(String leaseOwner, int limit) {
+        Date now = new Date();
+        List<Long> ids = orderOutboxMapper.listClaimableIds(now, limit);
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Date leaseExpireTime = new Date(now.getTime() + orderProperties.getOutboxLeaseMillis());
+        if (orderOutboxMapper.claim(ids, leaseOwner, leaseExpireTime, now) == 0) {
+            return Collections.emptyList();
+        }
+        return orderOutboxMapper.listClaimed(ids, leaseOwner);
+    }
+
+    /**
+     * 查询订单的待投递消息主键，按主键排序
+     *
+     * @param orderIds 订单号
+     * @return 只带主键和订单号的发件箱消息
+     */
+    public List<OrderOutboxDO> listPendingIdsByOrderIds(List<String> orderIds) {
+        if (orderIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return orderOutboxMapper.listPendingIdsByOrderIds(orderIds);
+    }
+
+    /**
+     * 一条语句标记一批消息已投递
+     *
+     * @param ids 消息主键
+     */
+    public void markDelivered(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        orderOutboxMapper.markDelivered(ids, new Date());
+    }
+
+    /**
+     * 一条语句记录一批消息投递失败，到下次投递时间前不会被领取
+     *
+     * @param ids           消息主键
+     * @param leaseOwner    投递线程标识
+     * @param nextRetryTime 下次投递时间
+     * @param lastError     失败原因
+     */
+    public void markFailed(List<Long> ids, String leaseOwner, Date nextRetryTime, String lastError) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        orderOutboxMapper.markFailed(ids, leaseOwner, nextRetryTime, lastError);
+    }
+
+    /**
+     * 释放领取到但这一轮没有投递的消息，其他投递线程可以立即领取
+     *
+     * @param ids        消息主键
+     * @param leaseOwner 投递线程标识
+     */
+    public void releaseLease(List<Long> ids, String leaseOwner) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        orderOutboxMapper.releaseLease(ids, leaseOwner);
+    }
+
+    /**
+     * 删除一批投递成功超过保留时间的消息
+     *
+     * @param before 投递时间早于这个时间的删除
+     * @param limit  最多删除条数
+     * @return 删除条数
+     */
+    public int deleteDelivered(Date before, int limit) {
+        return orderOutboxMapper.deleteDelivered(before, limit);
+    }
+}
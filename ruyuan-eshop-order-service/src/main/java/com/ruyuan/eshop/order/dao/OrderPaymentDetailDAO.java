@@ -3,7 +3,6 @@ package com.ruyuan.eshop.order.dao;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
-import com.ruyuan.eshop.common.dao.BaseDAO;
 import com.ruyuan.eshop.order.domain.entity.OrderPaymentDetailDO;
 import com.ruyuan.eshop.order.mapper.OrderPaymentDetailMapper;
 import org.springframework.stereotype.Repository;
@@ -18,7 +17,7 @@ import java.util.List;
  * @author zhonghuashishan
  */
 @Repository
-public class OrderPaymentDetailDAO extends BaseDAO<OrderPaymentDetailMapper, OrderPaymentDetailDO> {
+public class OrderPaymentDetailDAO extends AbstractOrderDAO<OrderPaymentDetailMapper, OrderPaymentDetailDO> {
 
     /**
      * 根据订单号查询支付明细
@@ -59,7 +58,9 @@ public class OrderPaymentDetailDAO extends BaseDAO<OrderPaymentDetailMapper, Ord
     public boolean updateByOrderId(OrderPaymentDetailDO orderPaymentDetailDO, String orderId) {
         UpdateWrapper<OrderPaymentDetailDO> updateWrapper = new UpdateWrapper<>();
         updateWrapper.eq("order_id", orderId);
-        return update(orderPaymentDetailDO, updateWrapper);
+        boolean updated = update(orderPaymentDetailDO, updateWrapper);
+        publishOrderChanged(updated, orderId);
+        return updated;
     }
 
     /**
@@ -70,6 +71,21 @@ public class OrderPaymentDetailDAO extends BaseDAO<OrderPaymentDetailMapper, Ord
     public void updateBatchByOrderIds(OrderPaymentDetailDO orderPaymentDetailDO, List<String> orderIds) {
         UpdateWrapper<OrderPaymentDetailDO> updateWrapper = new UpdateWrapper<>();
         updateWrapper.in("order_id", orderIds);
-        update(orderPaymentDetailDO, updateWrapper);
+        boolean updated = update(orderPaymentDetailDO, updateWrapper);
+        publishOrderChanged(updated, orderIds);
     }
+
+    /**
+     * 根据主键更新支付明细，实体里需要带订单号
+     *
+     * @param entity
+     * @return
+     */
+    @Override
+    public boolean updateById(OrderPaymentDetailDO entity) {
+        boolean updated = super.updateById(entity);
+        publishOrderChanged(updated, entity.getOrderId());
+        return updated;
+    }
+
 }
@@ -1,12 +1,14 @@
 package com.ruyuan.eshop.order.dao;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.ruyuan.eshop.common.dao.BaseDAO;
 import com.ruyuan.eshop.order.domain.entity.OrderSnapshotDO;
 import com.ruyuan.eshop.order.mapper.OrderSnapshotMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -16,7 +18,7 @@ import java.util.List;
  * @author zhonghuashishan
  */
 @Repository
-public class OrderSnapshotDAO extends BaseDAO<OrderSnapshotMapper, OrderSnapshotDO> {
+public class OrderSnapshotDAO extends AbstractOrderDAO<OrderSnapshotMapper, OrderSnapshotDO> {
 
     /**
      * 根据订单号查询订单快照
@@ -30,4 +32,32 @@ public class OrderSnapshotDAO extends BaseDAO<OrderSnapshotMapper, OrderSnapshot
         return list(queryWrapper);
     }
 
+    /**
+     * 根据订单号批量查询已存在的快照类型，只查订单号和快照类型两列
+     *
+     * @param orderIds
+     * @return
+     */
+    public List<OrderSnapshotDO> listTypesByOrderIds(List<String> orderIds) {
+        LambdaQueryWrapper<OrderSnapshotDO> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.select(OrderSnapshotDO::getOrderId, OrderSnapshotDO::getSnapshotType)
+                .in(OrderSnapshotDO::getOrderId, orderIds);
+        return list(queryWrapper);
+    }
+
+    /**
+     * 批量新增订单快照
+     *
+     * @param entityList
+     * @param batchSize
+     * @return
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public boolean saveBatch(Collection<OrderSnapshotDO> entityList, int batchSize) {
+        boolean saved = super.saveBatch(entityList, batchSize);
+        publishOrderChanged(saved, entityList.stream().map(OrderSnapshotDO::getOrderId).collect(Collectors.toList()));
+        return saved;
+    }
+
 }
@@ -0,0 +1,438 @@
+package com.ruyuan.eshop.order.dao;
+
+import com.ruyuan.eshop.common.utils.JsonUtil;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.domain.entity.OrderSnapshotDO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 订单快照异步写入
+ * <p>
+ * 快照只用于事后查询，不需要和订单在同一个事务里写入。提交线程只把快照放进有界队列，
+ * 由后台线程攒够一批或者到了等待时间后，把快照内容序列化成JSON、追加到本地WAL文件，再批量写库；
+ * 队列打满或者已经停止时由提交线程同步写入。
+ * </p>
+ * <p>
+ * 一批写库成功后才从WAL里确认，WAL文件里的快照全部确认后清空文件。服务崩溃后未确认的快照留在WAL里，
+ * 下次启动时回放，回放前按订单号和快照类型去掉库里已经存在的快照，重复回放不会写出重复数据。
+ * 还在队列里、没来得及追加到WAL的快照，最多一个等待时间的量，进程崩溃时会丢失。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Repository
+public class OrderSnapshotWriter {
+
+    private static final String WAL_FILE_PREFIX = "snapshot-";
+
+    private static final String WAL_FILE_SUFFIX = ".wal";
+
+    /**
+     * 一批快照写库失败时的重试次数，重试完还失败就留在WAL里等重启回放
+     */
+    private static final int FLUSH_RETRY_TIMES = 3;
+
+    /**
+     * 后台线程单次等待队列的最长时间
+     */
+    private static final long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 回放时每批写入的条数
+     */
+    private static final int REPLAY_BATCH_SIZE = 500;
+
+    @Autowired
+    private OrderSnapshotDAO orderSnapshotDAO;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    /**
+     * WAL追加、确认、切换文件都在这把锁里进行
+     */
+    private final Object walLock = new Object();
+
+    private BlockingQueue<OrderSnapshotDO> queue;
+
+    private File walDir;
+
+    private WalSegment currentSegment;
+
+    private long nextSegmentSeq;
+
+    private volatile boolean running;
+
+    private Thread flushThread;
+
+    /**
+     * 回放上次未写入的快照，然后启动后台写入线程
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        walDir = new File(orderProperties.getSnapshotWalDir());
+        if (!walDir.isDirectory() && !walDir.mkdirs()) {
+            throw new IOException("create snapshot wal dir failed: " + walDir.getAbsolutePath());
+        }
+
+        List<File> walFiles = listWalFiles();
+        for (File walFile : walFiles) {
+            replay(walFile);
+        }
+        nextSegmentSeq = walFiles.isEmpty() ? 1 : parseSeq(walFiles.get(walFiles.size() - 1)) + 1;
+
+        queue = new ArrayBlockingQueue<>(orderProperties.getSnapshotQueueCapacity());
+        synchronized (walLock) {
+            currentSegment = openSegment();
+        }
+        running = true;
+        flushThread = new Thread(this::runFlushLoop, "ORDER_SNAPSHOT_FLUSH");
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    /**
+     * 停止后台线程，把队列里剩下的快照写完
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (flushThread != null) {
+            flushThread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        List<OrderSnapshotDO> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += orderProperties.getSnapshotBatchSize()) {
+            int to = Math.min(from + orderProperties.getSnapshotBatchSize(), remaining.size());
+            flush(remaining.subList(from, to));
+        }
+        synchronized (walLock) {
+            currentSegment.close();
+            if (currentSegment.pending == 0) {
+                currentSegment.delete();
+            }
+        }
+    }
+
+    /**
+     * 提交订单快照，放进队列后立即返回
+     *
+     * @param orderSnapshotDOList 订单快照，snapshotJson为空时由写入线程把snapshotContent序列化成JSON
+     */
+    public void submit(List<OrderSnapshotDO> orderSnapshotDOList) {
+        if (orderSnapshotDOList == null || orderSnapshotDOList.isEmpty()) {
+            return;
+        }
+
+        List<OrderSnapshotDO> rejected = new ArrayList<>();
+        for (OrderSnapshotDO orderSnapshotDO : orderSnapshotDOList) {
+            if (!running || !queue.offer(orderSnapshotDO)) {
+                rejected.add(orderSnapshotDO);
+            }
+        }
+        // 队列打满或者已经停止，由提交线程自己写入
+        if (!rejected.isEmpty()) {
+            flush(rejected);
+        }
+    }
+
+    private void runFlushLoop() {
+        int batchSize = orderProperties.getSnapshotBatchSize();
+        long flushInterval = orderProperties.getSnapshotFlushInterval();
+        List<OrderSnapshotDO> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                OrderSnapshotDO first = queue.poll(MAX_POLL_NANOS, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 从第一条开始计时，攒够一批或者到时间就写入；每次最多等待MAX_POLL_NANOS，停止时能及时退出
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+                while (batch.size() < batchSize && running) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    OrderSnapshotDO next = queue.poll(Math.min(remaining, MAX_POLL_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("flush order snapshot error", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 序列化快照内容，追加到WAL后批量写库，写库成功后确认
+     */
+    private void flush(List<OrderSnapshotDO> orderSnapshotDOList) {
+        for (OrderSnapshotDO orderSnapshotDO : orderSnapshotDOList) {
+            if (orderSnapshotDO.getSnapshotJson() == null && orderSnapshotDO.getSnapshotContent() != null) {
+                orderSnapshotDO.setSnapshotJson(JsonUtil.object2Json(orderSnapshotDO.getSnapshotContent()));
+            }
+        }
+
+        WalSegment segment;
+        try {
+            segment = append(orderSnapshotDOList);
+        } catch (IOException e) {
+            // WAL写不进去时直接写库，重试完还失败的快照会丢失
+            log.error("append order snapshot wal error, write without wal, orderId:{}",
+                    orderSnapshotDOList.get(0).getOrderId(), e);
+            insertWithRetry(orderSnapshotDOList);
+            return;
+        }
+        if (insertWithRetry(orderSnapshotDOList)) {
+            acknowledge(segment, orderSnapshotDOList.size());
+        }
+    }
+
+    private boolean insertWithRetry(List<OrderSnapshotDO> orderSnapshotDOList) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                // 重试时上一次可能已经提交成功，先去掉已经存在的快照
+                List<OrderSnapshotDO> toInsert = attempt == 1 ? orderSnapshotDOList : filterExisting(orderSnapshotDOList);
+                if (!toInsert.isEmpty()) {
+                    orderSnapshotDAO.saveBatch(toInsert);
+                }
+                return true;
+            } catch (Exception e) {
+                if (attempt >= FLUSH_RETRY_TIMES) {
+                    log.error("write order snapshot failed, keep in wal for replay, count:{}",
+                            orderSnapshotDOList.size(), e);
+                    return false;
+                }
+                log.warn("write order snapshot failed, attempt:{}", attempt, e);
+                try {
+                    Thread.sleep(100L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * 追加到当前WAL文件，一批快照写在一起
+     */
+    private WalSegment append(List<OrderSnapshotDO> orderSnapshotDOList) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (OrderSnapshotDO orderSnapshotDO : orderSnapshotDOList) {
+            lines.append(JsonUtil.object2Json(orderSnapshotDO)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        int length = buffer.remaining();
+
+        synchronized (walLock) {
+            WalSegment segment = currentSegment;
+            while (buffer.hasRemaining()) {
+                segment.channel.write(buffer);
+            }
+            if (Boolean.TRUE.equals(orderProperties.getSnapshotWalFsync())) {
+                segment.channel.force(false);
+            }
+            segment.size += length;
+            segment.pending += orderSnapshotDOList.size();
+            if (segment.size >= orderProperties.getSnapshotWalSegmentSize()) {
+                rotate();
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * 确认已经写库的快照，旧文件全部确认后删除，当前文件全部确认后清空
+     */
+    private void acknowledge(WalSegment segment, int count) {
+        synchronized (walLock) {
+            segment.pending -= count;
+            if (segment.pending != 0) {
+                return;
+            }
+            if (segment.closed) {
+                segment.delete();
+            } else if (segment.size > 0) {
+                truncate(segment);
+            }
+        }
+    }
+
+    private void truncate(WalSegment segment) {
+        try {
+            segment.channel.truncate(0);
+            segment.size = 0;
+        } catch (IOException e) {
+            log.warn("truncate order snapshot wal error, file:{}", segment.file.getName(), e);
+        }
+    }
+
+    private void rotate() throws IOException {
+        WalSegment previous = currentSegment;
+        currentSegment = openSegment();
+        previous.close();
+        if (previous.pending == 0) {
+            previous.delete();
+        }
+    }
+
+    private WalSegment openSegment() throws IOException {
+        File file = new File(walDir, WAL_FILE_PREFIX + String.format("%020d", nextSegmentSeq++) + WAL_FILE_SUFFIX);
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new WalSegment(file, channel);
+    }
+
+    /**
+     * 回放一个WAL文件，全部写入后删除；写入失败的文件保留到下次启动
+     */
+    private void replay(File walFile) {
+        try {
+            List<OrderSnapshotDO> orderSnapshotDOList = readWal(walFile);
+            int replayed = 0;
+            for (int from = 0; from < orderSnapshotDOList.size(); from += REPLAY_BATCH_SIZE) {
+                List<OrderSnapshotDO> batch = orderSnapshotDOList.subList(from,
+                        Math.min(from + REPLAY_BATCH_SIZE, orderSnapshotDOList.size()));
+                List<OrderSnapshotDO> toInsert = filterExisting(batch);
+                if (!toInsert.isEmpty()) {
+                    orderSnapshotDAO.saveBatch(toInsert);
+                }
+                replayed += toInsert.size();
+            }
+            Files.delete(walFile.toPath());
+            log.info("replay order snapshot wal, file:{}, total:{}, replayed:{}",
+                    walFile.getName(), orderSnapshotDOList.size(), replayed);
+        } catch (Exception e) {
+            log.error("replay order snapshot wal error, file:{}", walFile.getName(), e);
+        }
+    }
+
+    private List<OrderSnapshotDO> readWal(File walFile) throws IOException {
+        List<OrderSnapshotDO> orderSnapshotDOList = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(walFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                // 崩溃时最后一行可能只写了一半
+                OrderSnapshotDO orderSnapshotDO = JsonUtil.json2Object(line, OrderSnapshotDO.class);
+                if (orderSnapshotDO == null || orderSnapshotDO.getOrderId() == null) {
+                    log.warn("skip broken order snapshot wal line, file:{}", walFile.getName());
+                    continue;
+                }
+                orderSnapshotDO.setId(null);
+                orderSnapshotDOList.add(orderSnapshotDO);
+            }
+        }
+        return orderSnapshotDOList;
+    }
+
+    /**
+     * 去掉库里已经存在的快照，一个订单每种快照类型只有一条
+     */
+    private List<OrderSnapshotDO> filterExisting(List<OrderSnapshotDO> orderSnapshotDOList) {
+        List<String> orderIds = orderSnapshotDOList.stream()
+                .map(OrderSnapshotDO::getOrderId)
+                .distinct()
+                .collect(Collectors.toList());
+        Set<String> existing = orderSnapshotDAO.listTypesByOrderIds(orderIds).stream()
+                .map(this::snapshotKey)
+                .collect(Collectors.toSet());
+        return orderSnapshotDOList.stream()
+                .filter(orderSnapshotDO -> !existing.contains(snapshotKey(orderSnapshotDO)))
+                .collect(Collectors.toList());
+    }
+
+    private String snapshotKey(OrderSnapshotDO orderSnapshotDO) {
+        return orderSnapshotDO.getOrderId() + ":" + orderSnapshotDO.getSnapshotType();
+    }
+
+    private List<File> listWalFiles() {
+        File[] files = walDir.listFiles((dir, name) -> name.startsWith(WAL_FILE_PREFIX) && name.endsWith(WAL_FILE_SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> walFiles = new ArrayList<>(Arrays.asList(files));
+        walFiles.sort(Comparator.comparing(File::getName));
+        return walFiles;
+    }
+
+    private long parseSeq(File walFile) {
+        String name = walFile.getName();
+        return Long.parseLong(name.substring(WAL_FILE_PREFIX.length(), name.length() - WAL_FILE_SUFFIX.length()));
+    }
+
+    /**
+     * 一个WAL文件，size和pending都在walLock里读写
+     */
+    private static class WalSegment {
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        private long size;
+
+        /**
+         * 已经写入WAL但还没有写库成功的快照数量
+         */
+        private int pending;
+
+        private boolean closed;
+
+        WalSegment(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        void close() {
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("close order snapshot wal error, file:{}", file.getName(), e);
+            }
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                log.warn("delete order snapshot wal error, file:{}", file.getName(), e);
+            }
+        }
+    }
+}
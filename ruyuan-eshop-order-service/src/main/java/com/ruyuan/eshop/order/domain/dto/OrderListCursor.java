@@ -0,0 +1,70 @@
+package com.ruyuan.eshop.order.domain.dto;
+
+import com.ruyuan.eshop.order.exception.OrderBizException;
+import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * <p>
+ * 订单列表翻页游标
+ * 订单列表按(创建时间, 主键)倒序，游标记录上一页最后一个订单的创建时间和主键，
+ * 下一页从它后面开始查，不用再扫描前面的数据
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Data
+@AllArgsConstructor
+public class OrderListCursor {
+
+    private static final String SEPARATOR = ",";
+
+    /**
+     * 上一页最后一个订单的创建时间
+     */
+    private Date gmtCreate;
+
+    /**
+     * 上一页最后一个订单的主键
+     */
+    private Long id;
+
+    /**
+     * 编码成返回给调用方的游标
+     *
+     * @return 游标
+     */
+    public String encode() {
+        String raw = gmtCreate.getTime() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析调用方传入的游标
+     *
+     * @param cursor 游标
+     * @return 游标为空时返回null，表示查询第一页
+     */
+    public static OrderListCursor decode(String cursor) {
+        if (StringUtils.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split(SEPARATOR);
+            if (parts.length != 2) {
+                throw new OrderBizException(OrderErrorCodeEnum.ORDER_LIST_CURSOR_INVALID);
+            }
+            return new OrderListCursor(new Date(Long.parseLong(parts[0])), Long.parseLong(parts[1]));
+        } catch (IllegalArgumentException e) {
+            throw new OrderBizException(OrderErrorCodeEnum.ORDER_LIST_CURSOR_INVALID);
+        }
+    }
+}
@@ -87,4 +87,13 @@ public class OrderListQueryDTO {
      */
     private Integer pageSize = 20;
 
+    /**
+     * 游标：上一页最后一个订单的创建时间
+     */
+    private Date cursorGmtCreate;
+    /**
+     * 游标：上一页最后一个订单的主键
+     */
+    private Long cursorId;
+
 }
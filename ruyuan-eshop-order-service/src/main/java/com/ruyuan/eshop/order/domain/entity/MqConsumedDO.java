@@ -0,0 +1,64 @@
+package com.ruyuan.eshop.order.domain.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * <p>
+ * 消息消费记录
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Data
+@TableName("mq_consumed")
+public class MqConsumedDO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键ID
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 消费者组
+     */
+    private String consumerGroup;
+
+    /**
+     * 消息唯一ID
+     */
+    private String msgKey;
+
+    /**
+     * 消费状态
+     */
+    private Integer status;
+
+    /**
+     * 到期时间，消费中到期后可以重新消费，已消费到期后记录删除
+     */
+    private Date expireTime;
+
+    /**
+     * 写入消费中记录的标识，批量写入后按它找出本次写入成功的记录
+     */
+    private String leaseToken;
+
+    /**
+     * 创建时间
+     */
+    @TableField(fill = FieldFill.INSERT)
+    private Date gmtCreate;
+
+    /**
+     * 更新时间
+     */
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private Date gmtModified;
+}
@@ -0,0 +1,55 @@
+package com.ruyuan.eshop.order.domain.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * <p>
+ * 订单编号号段表
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Data
+@TableName("order_auto_no_segment")
+public class OrderAutoNoSegmentDO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键ID
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 业务标识
+     */
+    private String bizTag;
+
+    /**
+     * 已分配出去的最大序列号
+     */
+    private Long maxId;
+
+    /**
+     * 每次申请的号段长度
+     */
+    private Integer step;
+
+    /**
+     * 创建时间
+     */
+    @TableField(fill = FieldFill.INSERT)
+    private Date gmtCreate;
+
+    /**
+     * 更新时间
+     */
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private Date gmtModified;
+
+}
@@ -0,0 +1,115 @@
+package com.ruyuan.eshop.order.domain.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * <p>
+ * 订单消息发件箱
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Data
+@TableName("order_outbox")
+public class OrderOutboxDO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键ID，同一个订单的消息按主键顺序投递
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 订单编号
+     */
+    private String orderId;
+
+    /**
+     * 消息topic
+     */
+    private String topic;
+
+    /**
+     * 消息tags
+     */
+    private String tags;
+
+    /**
+     * 消息keys
+     */
+    private String msgKeys;
+
+    /**
+     * 消息唯一ID，重复投递时不变
+     */
+    private String msgId;
+
+    /**
+     * 消息体编码方式
+     */
+    private String codec;
+
+    /**
+     * 消息体
+     */
+    private byte[] body;
+
+    /**
+     * 延迟级别，0表示不延迟
+     */
+    private Integer delayTimeLevel;
+
+    /**
+     * 投递状态 0:待投递 1:已投递
+     */
+    private Integer status;
+
+    /**
+     * 投递失败次数
+     */
+    private Integer retryCount;
+
+    /**
+     * 最早可以投递的时间
+     */
+    private Date nextRetryTime;
+
+    /**
+     * 领取这条消息的投递线程
+     */
+    private String leaseOwner;
+
+    /**
+     * 领取到期时间
+     */
+    private Date leaseExpireTime;
+
+    /**
+     * 最近一次投递失败原因
+     */
+    private String lastError;
+
+    /**
+     * 投递成功时间
+     */
+    private Date deliveredTime;
+
+    /**
+     * 创建时间
+     */
+    @TableField(fill = FieldFill.INSERT)
+    private Date gmtCreate;
+
+    /**
+     * 更新时间
+     */
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private Date gmtModified;
+
+}
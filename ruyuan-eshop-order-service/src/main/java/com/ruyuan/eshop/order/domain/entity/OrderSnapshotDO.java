@@ -1,6 +1,7 @@
 package com.ruyuan.eshop.order.domain.entity;
 
 import com.baomidou.mybatisplus.annotation.*;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 
 import java.io.Serializable;
@@ -51,4 +52,11 @@ public class OrderSnapshotDO implements Serializable {
      */
     private String snapshotJson;
 
+    /**
+     * 订单快照内容对象，异步写入时由写入线程序列化成snapshotJson，不落库
+     */
+    @JsonIgnore
+    @TableField(exist = false)
+    private transient Object snapshotContent;
+
 }
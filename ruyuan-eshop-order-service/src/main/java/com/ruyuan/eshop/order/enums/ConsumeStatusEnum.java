@@ -0,0 +1,30 @@
+package com.ruyuan.eshop.order.enums;
+
+/**
+ * 消息消费状态枚举
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public enum ConsumeStatusEnum {
+
+    CONSUMING(0, "消费中"),
+    CONSUMED(1, "已消费");
+
+    private Integer code;
+
+    private String msg;
+
+    ConsumeStatusEnum(Integer code, String msg) {
+        this.code = code;
+        this.msg = msg;
+    }
+
+    public Integer getCode() {
+        return code;
+    }
+
+    public String getMsg() {
+        return msg;
+    }
+}
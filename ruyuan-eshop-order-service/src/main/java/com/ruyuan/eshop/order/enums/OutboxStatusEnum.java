@@ -0,0 +1,30 @@
+package com.ruyuan.eshop.order.enums;
+
+/**
+ * 发件箱消息投递状态枚举
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public enum OutboxStatusEnum {
+
+    PENDING(0, "待投递"),
+    DELIVERED(1, "已投递");
+
+    private Integer code;
+
+    private String msg;
+
+    OutboxStatusEnum(Integer code, String msg) {
+        this.code = code;
+        this.msg = msg;
+    }
+
+    public Integer getCode() {
+        return code;
+    }
+
+    public String getMsg() {
+        return msg;
+    }
+}
@@ -128,12 +128,16 @@ public enum OrderErrorCodeEnum implements BaseErrorCodeEnum {
     CANCEL_ORDER_PROCESS_FAILED("105099", "取消订单过程执行失败"),
     REFUND_MONEY_RELEASE_COUPON_FAILED("105100", "实际退款释放优惠券失败"),
     SEND_AUDIT_PASS_RELEASE_ASSETS_FAILED("105101", "发送审核通过释放资产topic失败"),
+    CREATE_ORDER_PREPARE_TIMEOUT("105102", "生单前置检查超时"),
+    CREATE_ORDER_PREPARE_ERROR("105103", "生单前置检查失败"),
+    ORDER_NO_SEGMENT_LOAD_ERROR("105104", "申请订单编号号段失败"),
 
     /**
      * 通用异常
      */
     COLLECTION_PARAM_CANNOT_BEYOND_MAX_SIZE("108001", "[{0}]大小不能超过{1}"),
     ENUM_PARAM_MUST_BE_IN_ALLOWABLE_VALUE("108002", "[{0}]的取值必须为{1}"),
+    ORDER_LIST_CURSOR_INVALID("108003", "翻页游标不合法"),
     DELIVERY_TYPE_ERROR("105080", "配送类型错误"),
     ;
 
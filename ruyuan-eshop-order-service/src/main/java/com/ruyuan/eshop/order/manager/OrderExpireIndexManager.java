@@ -0,0 +1,59 @@
+package com.ruyuan.eshop.order.manager;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 未支付订单超时索引manager组件
+ * <p>
+ * 按订单号hash分片，每个分片是一个以超时时间为score的redis有序集合，
+ * 定时任务只取出已到期的订单，任务耗时只和到期订单数量有关，和未支付订单总量无关
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public interface OrderExpireIndexManager {
+
+    /**
+     * 登记订单的支付超时时间
+     *
+     * @param orderId    订单号
+     * @param expireTime 支付超时时间
+     */
+    void register(String orderId, Date expireTime);
+
+    /**
+     * 关单失败后重新登记，延迟一段时间后再次到期
+     *
+     * @param orderId     订单号
+     * @param delayMillis 延迟时间 单位毫秒
+     */
+    void registerDelay(String orderId, long delayMillis);
+
+    /**
+     * 移除订单，订单支付或取消后不再需要超时关单
+     *
+     * @param orderId 订单号
+     */
+    void remove(String orderId);
+
+    /**
+     * 认领一个分片中已到期的订单，每个到期订单在租约内只会被一个调用方认领到
+     * 认领只把订单的超时时间推后一个租约时长，不会移除订单，关单完成或订单已支付、已取消后再调用remove移除；
+     * 认领方在关单前宕机时，租约到期后订单再次到期，由下次任务重新认领
+     *
+     * @param shard 分片下标
+     * @param limit 最多认领的数量
+     * @return 认领到的订单号
+     */
+    List<String> claimExpired(int shard, int limit);
+
+    /**
+     * 分片数量
+     *
+     * @return
+     */
+    int getShardCount();
+
+}
@@ -33,7 +33,8 @@ public interface OrderManager {
      * @param createOrderRequest
      * @param productSkuList
      * @param calculateOrderAmountDTO
+     * @return 主订单
      */
-    void createOrder(CreateOrderRequest createOrderRequest, List<ProductSkuDTO> productSkuList, CalculateOrderAmountDTO calculateOrderAmountDTO);
+    OrderInfoDO createOrder(CreateOrderRequest createOrderRequest, List<ProductSkuDTO> productSkuList, CalculateOrderAmountDTO calculateOrderAmountDTO);
 
 }
\ No newline at end of file
@@ -1,9 +1,11 @@
 package com.ruyuan.eshop.order.manager.impl;
 
+import com.ruyuan.eshop.common.constants.RocketMqConstant;
 import com.ruyuan.eshop.common.enums.AfterSaleTypeDetailEnum;
 import com.ruyuan.eshop.common.enums.AfterSaleTypeEnum;
 import com.ruyuan.eshop.common.enums.OrderOperateTypeEnum;
 import com.ruyuan.eshop.common.enums.OrderStatusEnum;
+import com.ruyuan.eshop.common.message.ActualRefundMessage;
 import com.ruyuan.eshop.common.utils.RandomUtil;
 import com.ruyuan.eshop.fulfill.domain.request.CancelFulfillRequest;
 import com.ruyuan.eshop.order.converter.OrderConverter;
@@ -20,6 +22,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -60,13 +63,32 @@ public class AfterSaleManagerImpl implements AfterSaleManager {
     @Autowired
     private OrderConverter orderConverter;
 
+    @Autowired
+    private OrderOutboxDAO orderOutboxDAO;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     @Override
     @GlobalTransactional(rollbackFor = Exception.class)
     public void cancelOrderFulfillmentAndUpdateOrderStatus(CancelOrderAssembleRequest cancelOrderAssembleRequest) {
         // 履约取消
         cancelFulfill(cancelOrderAssembleRequest);
-        // 更新订单状态和记录订单操作日志
-        updateOrderStatusAndSaveOperationLog(cancelOrderAssembleRequest);
+        // 更新订单状态、记录订单操作日志、写入释放权益资产消息，在同一个本地事务里提交
+        transactionTemplate.execute(status -> {
+            updateOrderStatusAndSaveOperationLog(cancelOrderAssembleRequest);
+            appendReleaseAssetsOutbox(cancelOrderAssembleRequest);
+            return null;
+        });
+    }
+
+    /**
+     * 释放权益资产消息写入发件箱，全局事务提交后投递
+     */
+    private void appendReleaseAssetsOutbox(CancelOrderAssembleRequest cancelOrderAssembleRequest) {
+        String orderId = cancelOrderAssembleRequest.getOrderId();
+        orderOutboxDAO.append(orderOutboxDAO.build(orderId, RocketMqConstant.RELEASE_ASSETS_TOPIC, null, orderId,
+                cancelOrderAssembleRequest, -1));
     }
 
     /**
@@ -118,7 +140,7 @@ public class AfterSaleManagerImpl implements AfterSaleManager {
     }
 
     /**
-     * 取消订单操作 记录售后信息
+     * 取消订单操作 记录售后信息，实际退款消息在同一个事务里写入发件箱
      */
     @Transactional(rollbackFor = Exception.class)
     @Override
@@ -146,6 +168,14 @@ public class AfterSaleManagerImpl implements AfterSaleManager {
         //  4、新增售后支付表
         AfterSaleRefundDO afterSaleRefundDO = insertAfterSaleRefundTable(orderInfoDTO, afterSaleId, afterSaleInfoDO);
         cancelOrderAssembleRequest.setAfterSaleRefundId(afterSaleRefundDO.getId());
+
+        //  5、实际退款消息写入发件箱
+        ActualRefundMessage actualRefundMessage = new ActualRefundMessage();
+        actualRefundMessage.setOrderId(orderId);
+        actualRefundMessage.setLastReturnGoods(cancelOrderAssembleRequest.isLastReturnGoods());
+        actualRefundMessage.setAfterSaleId(Long.valueOf(afterSaleId));
+        orderOutboxDAO.append(orderOutboxDAO.build(orderId, RocketMqConstant.ACTUAL_REFUND_TOPIC, null, afterSaleId,
+                actualRefundMessage, -1));
     }
 
     private void insertCancelOrderAfterSaleInfoTable(OrderInfoDO orderInfoDO, Integer cancelOrderAfterSaleStatus,
@@ -0,0 +1,75 @@
+package com.ruyuan.eshop.order.manager.impl;
+
+import com.ruyuan.eshop.common.utils.DateFormatUtil;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 按天缓存的日期前缀
+ * <p>
+ * 同一天内直接返回缓存好的字符串，不创建任何对象；时间走出缓存的那一天后才重新格式化。
+ * 缓存的一天用不可变对象表示，通过volatile字段发布，多个线程同时跨天时各自算出的结果相同，谁覆盖谁都不影响正确性。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public class DailyDatePrefix {
+
+    private final DateTimeFormatter formatter;
+
+    private final Clock clock;
+
+    private volatile Day current;
+
+    public DailyDatePrefix(String pattern, Clock clock) {
+        this.formatter = DateFormatUtil.ofPattern(pattern).withZone(clock.getZone());
+        this.clock = clock;
+        this.current = compute(clock.millis());
+    }
+
+    /**
+     * 获取当前时间所在那一天的日期前缀
+     *
+     * @return 日期前缀
+     */
+    public String get() {
+        long now = clock.millis();
+        Day day = current;
+        if (now < day.startMillis || now >= day.endMillis) {
+            day = compute(now);
+            current = day;
+        }
+        return day.prefix;
+    }
+
+    private Day compute(long millis) {
+        ZoneId zone = clock.getZone();
+        LocalDate date = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+        long startMillis = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        long endMillis = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return new Day(formatter.format(date), startMillis, endMillis);
+    }
+
+    /**
+     * 缓存的一天，[startMillis, endMillis)
+     */
+    private static class Day {
+
+        private final String prefix;
+
+        private final long startMillis;
+
+        private final long endMillis;
+
+        Day(String prefix, long startMillis, long endMillis) {
+            this.prefix = prefix;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.ruyuan.eshop.order.manager.impl;
+
+import com.ruyuan.eshop.common.redis.RedisCache;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.manager.OrderExpireIndexManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 未支付订单超时索引，redis有序集合实现
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Service
+public class OrderExpireIndexManagerImpl implements OrderExpireIndexManager {
+
+    /**
+     * 超时索引key前缀，后面拼接分片下标
+     */
+    static final String ORDER_EXPIRE_INDEX_KEY = "ORDER_EXPIRE_INDEX:";
+
+    /**
+     * 取出score小于等于当前时间的订单并把score改为租约到期时间，两步在一个脚本里执行，避免多个执行器重复认领同一笔订单
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CLAIM_EXPIRED_SCRIPT = new DefaultRedisScript<>(
+            "local orderIds = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]);"
+                    + "for i = 1, #orderIds do"
+                    + "   redis.call('zadd', KEYS[1], ARGV[3], orderIds[i]);"
+                    + "end;"
+                    + "return orderIds;", List.class);
+
+    @Autowired
+    private RedisCache redisCache;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    private Clock clock = Clock.systemDefaultZone();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void register(String orderId, Date expireTime) {
+        redisCache.getRedisTemplate().opsForZSet().add(buildKey(orderId), orderId, expireTime.getTime());
+    }
+
+    @Override
+    public void registerDelay(String orderId, long delayMillis) {
+        register(orderId, new Date(clock.millis() + delayMillis));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void remove(String orderId) {
+        redisCache.getRedisTemplate().opsForZSet().remove(buildKey(orderId), orderId);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> claimExpired(int shard, int limit) {
+        long now = clock.millis();
+        List<String> orderIds = redisCache.execute(CLAIM_EXPIRED_SCRIPT,
+                Collections.singletonList(ORDER_EXPIRE_INDEX_KEY + shard),
+                String.valueOf(now), String.valueOf(limit),
+                String.valueOf(now + orderProperties.getExpireCancelLeaseMillis()));
+        return orderIds == null ? Collections.emptyList() : orderIds;
+    }
+
+    @Override
+    public int getShardCount() {
+        return orderProperties.getExpireIndexShardCount();
+    }
+
+    private String buildKey(String orderId) {
+        //解决取模可能为负数的情况
+        int shard = (orderId.hashCode() & Integer.MAX_VALUE) % getShardCount();
+        return ORDER_EXPIRE_INDEX_KEY + shard;
+    }
+}
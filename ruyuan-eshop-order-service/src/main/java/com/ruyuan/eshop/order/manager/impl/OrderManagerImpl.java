@@ -2,15 +2,17 @@ package com.ruyuan.eshop.order.manager.impl;
 
 import com.ruyuan.eshop.address.domain.dto.AddressDTO;
 import com.ruyuan.eshop.address.domain.query.AddressQuery;
+import com.ruyuan.eshop.common.constants.RocketDelayedLevel;
+import com.ruyuan.eshop.common.constants.RocketMqConstant;
 import com.ruyuan.eshop.common.enums.AmountTypeEnum;
 import com.ruyuan.eshop.common.enums.OrderOperateTypeEnum;
 import com.ruyuan.eshop.common.enums.OrderStatusEnum;
-import com.ruyuan.eshop.common.utils.JsonUtil;
+import com.ruyuan.eshop.common.message.PaidOrderSuccessMessage;
+import com.ruyuan.eshop.common.message.PayOrderTimeoutDelayMessage;
 import com.ruyuan.eshop.common.utils.LoggerFormat;
 import com.ruyuan.eshop.inventory.domain.request.DeductProductStockRequest;
 import com.ruyuan.eshop.market.domain.dto.CalculateOrderAmountDTO;
 import com.ruyuan.eshop.market.domain.dto.UserCouponDTO;
-import com.ruyuan.eshop.market.domain.query.UserCouponQuery;
 import com.ruyuan.eshop.market.domain.request.LockUserCouponRequest;
 import com.ruyuan.eshop.order.builder.FullOrderData;
 import com.ruyuan.eshop.order.builder.NewOrderBuilder;
@@ -20,9 +22,12 @@ import com.ruyuan.eshop.order.dao.*;
 import com.ruyuan.eshop.order.domain.entity.*;
 import com.ruyuan.eshop.order.domain.request.CreateOrderRequest;
 import com.ruyuan.eshop.order.domain.request.PayCallbackRequest;
+import com.ruyuan.eshop.order.enums.OrderCancelTypeEnum;
 import com.ruyuan.eshop.order.enums.OrderNoTypeEnum;
 import com.ruyuan.eshop.order.enums.PayStatusEnum;
 import com.ruyuan.eshop.order.enums.SnapshotTypeEnum;
+import com.ruyuan.eshop.order.exception.OrderBizException;
+import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
 import com.ruyuan.eshop.order.manager.OrderManager;
 import com.ruyuan.eshop.order.manager.OrderNoManager;
 import com.ruyuan.eshop.order.remote.AddressRemote;
@@ -30,7 +35,10 @@ import com.ruyuan.eshop.order.remote.InventoryRemote;
 import com.ruyuan.eshop.order.remote.MarketRemote;
 import com.ruyuan.eshop.order.service.impl.NewOrderDataHolder;
 import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
+import io.seata.core.context.RootContext;
 import io.seata.spring.annotation.GlobalTransactional;
+import io.seata.tm.api.transaction.TransactionHookAdapter;
+import io.seata.tm.api.transaction.TransactionHookManager;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -54,9 +62,6 @@ public class OrderManagerImpl implements OrderManager {
     @Autowired
     private OrderInfoDAO orderInfoDAO;
 
-    @Autowired
-    private OrderItemDAO orderItemDAO;
-
     @Autowired
     private OrderPaymentDetailDAO orderPaymentDetailDAO;
 
@@ -64,19 +69,16 @@ public class OrderManagerImpl implements OrderManager {
     private OrderOperateLogDAO orderOperateLogDAO;
 
     @Autowired
-    private OrderAmountDAO orderAmountDAO;
-
-    @Autowired
-    private OrderAmountDetailDAO orderAmountDetailDAO;
+    private OrderProperties orderProperties;
 
     @Autowired
-    private OrderDeliveryDetailDAO orderDeliveryDetailDAO;
+    private OrderAggregateWriter orderAggregateWriter;
 
     @Autowired
-    private OrderSnapshotDAO orderSnapshotDAO;
+    private OrderSnapshotWriter orderSnapshotWriter;
 
     @Autowired
-    private OrderProperties orderProperties;
+    private OrderOutboxDAO orderOutboxDAO;
 
     /**
      * 营销服务
@@ -104,6 +106,9 @@ public class OrderManagerImpl implements OrderManager {
 
     /**
      * 支付回调更新订单状态
+     * 不管有多少个子订单，订单状态、支付明细、操作日志都各用一条语句批量更新，语句数固定。
+     * 更新订单状态时带上更新前的状态，订单状态已经被改掉（比如已取消）时抛异常回滚，不会把订单状态改回已支付
+     * "订单已完成支付"消息在同一个事务里写入发件箱，订单状态更新成功才会投递
      *
      * @param payCallbackRequest
      * @param orderInfoDO
@@ -116,86 +121,76 @@ public class OrderManagerImpl implements OrderManager {
         // 主单信息
         String orderId = payCallbackRequest.getOrderId();
         Integer preOrderStatus = orderInfoDO.getOrderStatus();
-        orderInfoDO.setOrderStatus(OrderStatusEnum.PAID.getCode());
-        orderInfoDAO.updateById(orderInfoDO);
 
-        // 主单支付信息
-        orderPaymentDetailDO.setPayStatus(PayStatusEnum.PAID.getCode());
-        orderPaymentDetailDAO.updateById(orderPaymentDetailDO);
-
-        // 新增订单状态变更日志
-        OrderOperateLogDO orderOperateLogDO = new OrderOperateLogDO();
-        orderOperateLogDO.setOrderId(orderId);
-        orderOperateLogDO.setOperateType(OrderOperateTypeEnum.PAID_ORDER.getCode());
-        orderOperateLogDO.setPreStatus(preOrderStatus);
-        orderOperateLogDO.setCurrentStatus(orderInfoDO.getOrderStatus());
-        orderOperateLogDO.setRemark("订单支付回调操作"
-                + orderOperateLogDO.getPreStatus() + "-"
-                + orderOperateLogDO.getCurrentStatus());
-        orderOperateLogDAO.save(orderOperateLogDO);
+        List<String> paidOrderIds = new ArrayList<>();
+        paidOrderIds.add(orderId);
+        List<OrderOperateLogDO> orderOperateLogDOList = new ArrayList<>();
+        orderOperateLogDOList.add(buildPaidOperateLog(orderId, preOrderStatus, OrderStatusEnum.PAID.getCode(),
+                "订单支付回调操作"));
 
         // 判断是否存在子订单
         List<OrderInfoDO> subOrderInfoDOList = orderInfoDAO.listByParentOrderId(orderId);
-        if (subOrderInfoDOList != null && !subOrderInfoDOList.isEmpty()) {
-            // 先将主订单状态设置为无效订单
-            Integer newPreOrderStatus = orderInfoDO.getOrderStatus();
+        if (subOrderInfoDOList == null || subOrderInfoDOList.isEmpty()) {
+            updateOrderStatus(preOrderStatus, OrderStatusEnum.PAID.getCode(), paidOrderIds);
+            orderInfoDO.setOrderStatus(OrderStatusEnum.PAID.getCode());
+        } else {
+            // 有子订单时主订单最终是无效订单，直接更新为无效订单，日志仍然记录已支付和无效两次变更
+            updateOrderStatus(preOrderStatus, OrderStatusEnum.INVALID.getCode(), paidOrderIds);
             orderInfoDO.setOrderStatus(OrderStatusEnum.INVALID.getCode());
-            orderInfoDAO.updateById(orderInfoDO);
-
-            // 新增订单状态变更日志
-            OrderOperateLogDO newOrderOperateLogDO = new OrderOperateLogDO();
-            newOrderOperateLogDO.setOrderId(orderId);
-            newOrderOperateLogDO.setOperateType(OrderOperateTypeEnum.PAID_ORDER.getCode());
-            newOrderOperateLogDO.setPreStatus(newPreOrderStatus);
-            newOrderOperateLogDO.setCurrentStatus(OrderStatusEnum.INVALID.getCode());
-            orderOperateLogDO.setRemark("订单支付回调操作，主订单状态变更"
-                    + newOrderOperateLogDO.getPreStatus() + "-"
-                    + newOrderOperateLogDO.getCurrentStatus());
-            orderOperateLogDAO.save(newOrderOperateLogDO);
-
-            // 再更新子订单的状态
-            List<OrderInfoDO> tempSubOrderInfoDOList = new ArrayList<>();
-            List<String> tempSubOrderIdList = new ArrayList<>();
-            List<OrderOperateLogDO> tempSubOrderOperateLogDOList = new ArrayList<>();
-            for (OrderInfoDO subOrderInfo : subOrderInfoDOList) {
-                Integer subPreOrderStatus = subOrderInfo.getOrderStatus();
-                subOrderInfo.setOrderStatus(OrderStatusEnum.PAID.getCode());
-                tempSubOrderInfoDOList.add(subOrderInfo);
+            orderOperateLogDOList.add(buildPaidOperateLog(orderId, OrderStatusEnum.PAID.getCode(),
+                    OrderStatusEnum.INVALID.getCode(), "订单支付回调操作，主订单状态变更"));
 
-                // 子订单的支付明细
+            // 子订单和主订单一起生成，状态和主订单一致，一条语句更新全部子订单
+            List<String> subOrderIds = new ArrayList<>();
+            for (OrderInfoDO subOrderInfo : subOrderInfoDOList) {
                 String subOrderId = subOrderInfo.getOrderId();
-                tempSubOrderIdList.add(subOrderId);
-
-                // 订单状态变更日志
-                OrderOperateLogDO subOrderOperateLogDO = new OrderOperateLogDO();
-                subOrderOperateLogDO.setOrderId(subOrderId);
-                subOrderOperateLogDO.setOperateType(OrderOperateTypeEnum.PAID_ORDER.getCode());
-                subOrderOperateLogDO.setPreStatus(subPreOrderStatus);
-                subOrderOperateLogDO.setCurrentStatus(OrderStatusEnum.PAID.getCode());
-                orderOperateLogDO.setRemark("订单支付回调操作，子订单状态变更"
-                        + subOrderOperateLogDO.getPreStatus() + "-"
-                        + subOrderOperateLogDO.getCurrentStatus());
-                tempSubOrderOperateLogDOList.add(subOrderOperateLogDO);
+                subOrderIds.add(subOrderId);
+                orderOperateLogDOList.add(buildPaidOperateLog(subOrderId, subOrderInfo.getOrderStatus(),
+                        OrderStatusEnum.PAID.getCode(), "订单支付回调操作，子订单状态变更"));
             }
+            updateOrderStatus(preOrderStatus, OrderStatusEnum.PAID.getCode(), subOrderIds);
+            paidOrderIds.addAll(subOrderIds);
+        }
 
-            // 更新子订单
-            if (!tempSubOrderInfoDOList.isEmpty()) {
-                orderInfoDAO.updateBatchById(tempSubOrderInfoDOList);
-            }
+        // 主单和子订单的支付明细
+        OrderPaymentDetailDO paidPaymentDetailDO = new OrderPaymentDetailDO();
+        paidPaymentDetailDO.setPayStatus(PayStatusEnum.PAID.getCode());
+        orderPaymentDetailDAO.updateBatchByOrderIds(paidPaymentDetailDO, paidOrderIds);
+        orderPaymentDetailDO.setPayStatus(PayStatusEnum.PAID.getCode());
 
-            // 更新子订单的支付明细
-            if (!tempSubOrderIdList.isEmpty()) {
-                OrderPaymentDetailDO subOrderPaymentDetailDO = new OrderPaymentDetailDO();
-                subOrderPaymentDetailDO.setPayStatus(PayStatusEnum.PAID.getCode());
-                orderPaymentDetailDAO.updateBatchByOrderIds(subOrderPaymentDetailDO, tempSubOrderIdList);
-            }
+        // 新增订单状态变更日志
+        orderOperateLogDAO.insertBatch(orderOperateLogDOList);
 
-            // 新增订单状态变更日志
-            if (!tempSubOrderOperateLogDOList.isEmpty()) {
-                orderOperateLogDAO.saveBatch(tempSubOrderOperateLogDOList);
-            }
+        // 订单已完成支付消息，触发订单进行履约
+        PaidOrderSuccessMessage paidOrderSuccessMessage = new PaidOrderSuccessMessage();
+        paidOrderSuccessMessage.setOrderId(orderId);
+        orderOutboxDAO.append(orderOutboxDAO.build(orderId, RocketMqConstant.PAID_ORDER_SUCCESS_TOPIC, null, orderId,
+                paidOrderSuccessMessage, -1));
+    }
+
+    /**
+     * 带状态条件更新订单状态，有订单没更新到说明状态已经变了
+     */
+    private void updateOrderStatus(Integer fromStatus, Integer toStatus, List<String> orderIds) {
+        int rows = orderInfoDAO.updateStatusByOrderIds(fromStatus, toStatus, orderIds);
+        if (rows != orderIds.size()) {
+            log.warn("订单状态已变更，支付回调不更新订单状态, orderIds={}, fromStatus={}, toStatus={}, rows={}",
+                    orderIds, fromStatus, toStatus, rows);
+            throw new OrderBizException(OrderErrorCodeEnum.ORDER_STATUS_CHANGED);
         }
+    }
 
+    /**
+     * 支付回调的订单状态变更日志
+     */
+    private OrderOperateLogDO buildPaidOperateLog(String orderId, Integer preStatus, Integer currentStatus, String remark) {
+        OrderOperateLogDO orderOperateLogDO = new OrderOperateLogDO();
+        orderOperateLogDO.setOrderId(orderId);
+        orderOperateLogDO.setOperateType(OrderOperateTypeEnum.PAID_ORDER.getCode());
+        orderOperateLogDO.setPreStatus(preStatus);
+        orderOperateLogDO.setCurrentStatus(currentStatus);
+        orderOperateLogDO.setRemark(remark + preStatus + "-" + currentStatus);
+        return orderOperateLogDO;
     }
 
     /**
@@ -204,10 +199,11 @@ public class OrderManagerImpl implements OrderManager {
      * @param createOrderRequest
      * @param productSkuList
      * @param calculateOrderAmountDTO
+     * @return 主订单
      */
     @Override
     @GlobalTransactional(rollbackFor = Exception.class)
-    public void createOrder(CreateOrderRequest createOrderRequest, List<ProductSkuDTO> productSkuList, CalculateOrderAmountDTO calculateOrderAmountDTO) {
+    public OrderInfoDO createOrder(CreateOrderRequest createOrderRequest, List<ProductSkuDTO> productSkuList, CalculateOrderAmountDTO calculateOrderAmountDTO) {
         // 锁定优惠券
         lockUserCoupon(createOrderRequest);
 
@@ -215,7 +211,7 @@ public class OrderManagerImpl implements OrderManager {
         deductProductStock(createOrderRequest);
 
         // 生成订单到数据库
-        addNewOrder(createOrderRequest, productSkuList, calculateOrderAmountDTO);
+        return addNewOrder(createOrderRequest, productSkuList, calculateOrderAmountDTO);
     }
 
 
@@ -249,8 +245,10 @@ public class OrderManagerImpl implements OrderManager {
 
     /**
      * 新增订单数据到数据库
+     *
+     * @return 主订单
      */
-    private void addNewOrder(CreateOrderRequest createOrderRequest, List<ProductSkuDTO> productSkuList, CalculateOrderAmountDTO calculateOrderAmountDTO) {
+    private OrderInfoDO addNewOrder(CreateOrderRequest createOrderRequest, List<ProductSkuDTO> productSkuList, CalculateOrderAmountDTO calculateOrderAmountDTO) {
         String orderId = createOrderRequest.getOrderId();
         // 封装新订单数据
         NewOrderDataHolder newOrderDataHolder = new NewOrderDataHolder();
@@ -274,86 +272,55 @@ public class OrderManagerImpl implements OrderManager {
             }
         }
 
-        // 保存订单到数据库
-        // 订单信息
-        List<OrderInfoDO> orderInfoDOList = newOrderDataHolder.getOrderInfoDOList();
-        if (!orderInfoDOList.isEmpty()) {
-            log.info(LoggerFormat.build()
-                    .remark("保存订单信息")
-                    .data("orderId", orderId)
-                    .finish());
-            orderInfoDAO.saveBatch(orderInfoDOList);
-        }
-
-        // 订单条目
-        List<OrderItemDO> orderItemDOList = newOrderDataHolder.getOrderItemDOList();
-        if (!orderItemDOList.isEmpty()) {
-            log.info(LoggerFormat.build()
-                    .remark("保存订单条目")
-                    .data("orderId", orderId)
-                    .finish());
-            orderItemDAO.saveBatch(orderItemDOList);
-        }
-
-        // 订单配送信息
-        List<OrderDeliveryDetailDO> orderDeliveryDetailDOList = newOrderDataHolder.getOrderDeliveryDetailDOList();
-        if (!orderDeliveryDetailDOList.isEmpty()) {
-            log.info(LoggerFormat.build()
-                    .remark("保存订单配送信息")
-                    .data("orderId", orderId)
-                    .finish());
-            orderDeliveryDetailDAO.saveBatch(orderDeliveryDetailDOList);
-        }
-
-        // 订单支付信息
-        List<OrderPaymentDetailDO> orderPaymentDetailDOList = newOrderDataHolder.getOrderPaymentDetailDOList();
-        if (!orderPaymentDetailDOList.isEmpty()) {
-            log.info(LoggerFormat.build()
-                    .remark("保存订单支付信息")
-                    .data("orderId", orderId)
-                    .finish());
-            orderPaymentDetailDAO.saveBatch(orderPaymentDetailDOList);
-        }
-
-        // 订单费用信息
-        List<OrderAmountDO> orderAmountDOList = newOrderDataHolder.getOrderAmountDOList();
-        if (!orderAmountDOList.isEmpty()) {
-            log.info(LoggerFormat.build()
-                    .remark("保存订单费用信息")
-                    .data("orderId", orderId)
-                    .finish());
-            orderAmountDAO.saveBatch(orderAmountDOList);
-        }
-
-        // 订单费用明细
-        List<OrderAmountDetailDO> orderAmountDetailDOList = newOrderDataHolder.getOrderAmountDetailDOList();
-        if (!orderAmountDetailDOList.isEmpty()) {
-            log.info(LoggerFormat.build()
-                    .remark("保存订单费用明细")
-                    .data("orderId", orderId)
-                    .finish());
-            orderAmountDetailDAO.saveBatch(orderAmountDetailDOList);
-        }
+        // 保存订单到数据库，8张表的数据合并成每张表一条多行insert，一次写入
+        log.info("{}", LoggerFormat.build()
+                .remark("保存订单数据")
+                .data("orderId", orderId)
+                .data("orderCount", newOrderDataHolder.getOrderInfoDOList().size())
+                .data("orderItemCount", newOrderDataHolder.getOrderItemDOList().size()));
+        // 订单快照不跟订单一起写入，全局事务提交后交给异步写入组件批量落库
+        List<OrderSnapshotDO> orderSnapshotDOList = newOrderDataHolder.getOrderSnapshotDOList();
+        newOrderDataHolder.setOrderSnapshotDOList(new ArrayList<>());
+        // 支付超时延迟消息和订单在同一个本地事务里写入发件箱，全局事务提交后投递
+        newOrderDataHolder.getOrderOutboxDOList().add(buildPayOrderTimeoutOutbox(createOrderRequest));
+        orderAggregateWriter.write(newOrderDataHolder);
+        orderOutboxDAO.releaseAfterGlobalCommit(newOrderDataHolder.getOrderOutboxDOList());
+        submitOrderSnapshotAfterCommit(orderSnapshotDOList);
+        return fullMasterOrderData.getOrderInfoDO();
+    }
 
-        // 订单状态变更日志信息
-        List<OrderOperateLogDO> orderOperateLogDOList = newOrderDataHolder.getOrderOperateLogDOList();
-        if (!orderOperateLogDOList.isEmpty()) {
-            log.info(LoggerFormat.build()
-                    .remark("保存订单状态变更日志信息")
-                    .data("orderId", orderId)
-                    .finish());
-            orderOperateLogDAO.saveBatch(orderOperateLogDOList);
-        }
+    /**
+     * 支付订单超时延迟消息，用于支付超时自动关单
+     * 延迟从投递线程发出消息时开始算，比订单的支付截止时间晚投递耗时（平时是毫秒级，发送失败退避时会到分钟级）；
+     * 消息只会晚到不会早到，消费时按订单的支付截止时间判断是否关单，晚到期间由过期订单索引的定时扫描关单
+     */
+    private OrderOutboxDO buildPayOrderTimeoutOutbox(CreateOrderRequest createOrderRequest) {
+        String orderId = createOrderRequest.getOrderId();
+        PayOrderTimeoutDelayMessage message = new PayOrderTimeoutDelayMessage();
+        message.setOrderId(orderId);
+        message.setBusinessIdentifier(createOrderRequest.getBusinessIdentifier());
+        message.setCancelType(OrderCancelTypeEnum.TIMEOUT_CANCELED.getCode());
+        message.setUserId(createOrderRequest.getUserId());
+        message.setOrderType(createOrderRequest.getOrderType());
+        message.setOrderStatus(OrderStatusEnum.CREATED.getCode());
+        return orderOutboxDAO.build(orderId, RocketMqConstant.PAY_ORDER_TIMEOUT_DELAY_TOPIC, null, orderId,
+                message, RocketDelayedLevel.DELAYED_30m);
+    }
 
-        // 订单快照数据
-        List<OrderSnapshotDO> orderSnapshotDOList = newOrderDataHolder.getOrderSnapshotDOList();
-        if (!orderSnapshotDOList.isEmpty()) {
-            log.info(LoggerFormat.build()
-                    .remark("保存订单快照数据")
-                    .data("orderId", orderId)
-                    .finish());
-            orderSnapshotDAO.saveBatch(orderSnapshotDOList);
+    /**
+     * 全局事务提交后再提交订单快照，生单回滚时不会留下快照
+     */
+    private void submitOrderSnapshotAfterCommit(List<OrderSnapshotDO> orderSnapshotDOList) {
+        if (!RootContext.inGlobalTransaction()) {
+            orderSnapshotWriter.submit(orderSnapshotDOList);
+            return;
         }
+        TransactionHookManager.registerHook(new TransactionHookAdapter() {
+            @Override
+            public void afterCommit() {
+                orderSnapshotWriter.submit(orderSnapshotDOList);
+            }
+        });
     }
 
     /**
@@ -392,30 +359,27 @@ public class OrderManagerImpl implements OrderManager {
         String remark = "创建订单操作0-10";
         orderOperateLogDO.setRemark(remark);
 
-        // 补全订单商品快照信息
+        // 补全订单商品快照信息，只挂上快照内容，JSON序列化在快照写入线程里进行
         List<OrderSnapshotDO> orderSnapshotDOList = fullOrderData.getOrderSnapshotDOList();
         for (OrderSnapshotDO orderSnapshotDO : orderSnapshotDOList) {
             // 优惠券信息
             if (orderSnapshotDO.getSnapshotType().equals(SnapshotTypeEnum.ORDER_COUPON.getCode())) {
+                // 直接使用算价时营销服务返回的优惠券信息，不再单独查询
                 String couponId = orderInfoDO.getCouponId();
-                String userId = orderInfoDO.getUserId();
-                UserCouponQuery userCouponQuery = new UserCouponQuery();
-                userCouponQuery.setCouponId(couponId);
-                userCouponQuery.setUserId(userId);
-                UserCouponDTO userCouponDTO = marketRemote.getUserCoupon(userCouponQuery);
+                UserCouponDTO userCouponDTO = calculateOrderAmountDTO.getUserCoupon();
                 if (userCouponDTO != null) {
-                    orderSnapshotDO.setSnapshotJson(JsonUtil.object2Json(userCouponDTO));
+                    orderSnapshotDO.setSnapshotContent(userCouponDTO);
                 } else {
-                    orderSnapshotDO.setSnapshotJson(JsonUtil.object2Json(couponId));
+                    orderSnapshotDO.setSnapshotContent(couponId);
                 }
             }
             // 订单费用信息
             else if (orderSnapshotDO.getSnapshotType().equals(SnapshotTypeEnum.ORDER_AMOUNT.getCode())) {
-                orderSnapshotDO.setSnapshotJson(JsonUtil.object2Json(orderAmountDOList));
+                orderSnapshotDO.setSnapshotContent(orderAmountDOList);
             }
             // 订单条目信息
             else if (orderSnapshotDO.getSnapshotType().equals(SnapshotTypeEnum.ORDER_ITEM.getCode())) {
-                orderSnapshotDO.setSnapshotJson(JsonUtil.object2Json(orderItemDOList));
+                orderSnapshotDO.setSnapshotContent(orderItemDOList);
             }
         }
 
@@ -620,9 +584,9 @@ public class OrderManagerImpl implements OrderManager {
             subOrderSnapshotDO.setId(null);
             subOrderSnapshotDO.setOrderId(subOrderId);
             if (SnapshotTypeEnum.ORDER_AMOUNT.getCode().equals(orderSnapshotDO.getSnapshotType())) {
-                subOrderSnapshotDO.setSnapshotJson(JsonUtil.object2Json(subOrderAmountList));
+                subOrderSnapshotDO.setSnapshotContent(subOrderAmountList);
             } else if (SnapshotTypeEnum.ORDER_ITEM.getCode().equals(orderSnapshotDO.getSnapshotType())) {
-                subOrderSnapshotDO.setSnapshotJson(JsonUtil.object2Json(subOrderItemDOList));
+                subOrderSnapshotDO.setSnapshotContent(subOrderItemDOList);
             }
             subOrderSnapshotDOList.add(subOrderSnapshotDO);
         }
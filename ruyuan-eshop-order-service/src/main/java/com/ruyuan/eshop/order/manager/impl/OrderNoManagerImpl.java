@@ -1,17 +1,18 @@
 package com.ruyuan.eshop.order.manager.impl;
 
-import com.ruyuan.eshop.common.utils.DateFormatUtil;
 import com.ruyuan.eshop.common.utils.NumberUtil;
-import com.ruyuan.eshop.order.domain.entity.OrderAutoNoDO;
+import com.ruyuan.eshop.order.dao.OrderAutoNoSegmentDAO;
 import com.ruyuan.eshop.order.enums.OrderNoTypeEnum;
 import com.ruyuan.eshop.order.exception.OrderBizException;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
 import com.ruyuan.eshop.order.manager.OrderNoManager;
-import com.ruyuan.eshop.order.mapper.OrderAutoNoMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
-import java.util.Date;
+import javax.annotation.PostConstruct;
+import java.time.Clock;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author zhonghuashishan
@@ -20,8 +21,35 @@ import java.util.Date;
 @Service
 public class OrderNoManagerImpl implements OrderNoManager {
 
+    /**
+     * 订单编号号段的业务标识
+     */
+    private static final String ORDER_AUTO_NO_BIZ_TAG = "order_auto_no";
+
+    /**
+     * 订单号中间6位日期的格式
+     */
+    private static final String DATE_KEY_PATTERN = "yyMMdd";
+
+    @Autowired
+    private OrderAutoNoSegmentDAO orderAutoNoSegmentDAO;
+
     @Autowired
-    private OrderAutoNoMapper orderAutoNoMapper;
+    @Qualifier("orderNoSegmentExecutor")
+    private ExecutorService orderNoSegmentExecutor;
+
+    private Clock clock = Clock.systemDefaultZone();
+
+    private SegmentIdAllocator segmentIdAllocator;
+
+    private DailyDatePrefix dateKeyPrefix;
+
+    @PostConstruct
+    public void init() {
+        segmentIdAllocator = new SegmentIdAllocator(
+                () -> orderAutoNoSegmentDAO.updateMaxIdAndGet(ORDER_AUTO_NO_BIZ_TAG), orderNoSegmentExecutor);
+        dateKeyPrefix = new DailyDatePrefix(DATE_KEY_PATTERN, clock);
+    }
 
     /**
      * 19位，2位是业务类型，比如10开头是正向，20开头是逆向，然后中间6位是日期，然后中间8位是序列号，最后3位是用户ID后三位
@@ -51,24 +79,22 @@ public class OrderNoManagerImpl implements OrderNoManager {
     }
 
     /**
-     * 生成订单号的中间6位日期
+     * 生成订单号的中间6位日期，同一天内复用缓存的字符串
      *
      * @return
      */
     private String getDateTimeKey() {
-        return DateFormatUtil.format(new Date(), "yyMMdd");
+        return dateKeyPrefix.get();
     }
 
     /**
      * 生成订单号中间的8位序列号
+     * 序列号从内存号段中分配，号段用完才访问一次数据库
      *
      * @return
      */
     private String getAutoNoKey() {
-
-        OrderAutoNoDO orderAutoNoDO = new OrderAutoNoDO();
-        orderAutoNoMapper.insert(orderAutoNoDO);
-        Long autoNo = orderAutoNoDO.getId();
+        long autoNo = segmentIdAllocator.nextId();
         return String.valueOf(NumberUtil.genNo(autoNo, 8));
     }
 
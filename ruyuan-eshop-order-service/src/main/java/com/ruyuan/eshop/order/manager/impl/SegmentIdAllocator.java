@@ -0,0 +1,207 @@
+package com.ruyuan.eshop.order.manager.impl;
+
+import com.ruyuan.eshop.order.domain.entity.OrderAutoNoSegmentDO;
+import com.ruyuan.eshop.order.exception.OrderBizException;
+import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 双buffer号段序列号分配器（参考Leaf-segment）
+ * <p>
+ * 每次从数据库申请一个号段(max_id - step, max_id]，在内存里用AtomicLong发号；
+ * 当前号段消耗超过10%时异步预加载下一个号段，当前号段用完直接切换，
+ * 发号过程不访问数据库。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+public class SegmentIdAllocator {
+
+    /**
+     * 当前号段剩余量低于该比例时预加载下一个号段
+     */
+    private static final double PREFETCH_IDLE_RATIO = 0.9;
+
+    /**
+     * 等待预加载线程的最大自旋次数
+     */
+    private static final int MAX_SPIN_ROUNDS = 10000;
+
+    /**
+     * 申请新号段，返回更新后的max_id和step
+     */
+    private final Supplier<OrderAutoNoSegmentDO> segmentLoader;
+
+    /**
+     * 预加载下一个号段的线程池
+     */
+    private final Executor prefetchExecutor;
+
+    private final Segment[] segments = {new Segment(), new Segment()};
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicBoolean prefetching = new AtomicBoolean(false);
+
+    private volatile int currentPos = 0;
+
+    private volatile boolean nextReady = false;
+
+    private volatile boolean initialized = false;
+
+    public SegmentIdAllocator(Supplier<OrderAutoNoSegmentDO> segmentLoader, Executor prefetchExecutor) {
+        this.segmentLoader = segmentLoader;
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    /**
+     * 获取下一个序列号
+     *
+     * @return 序列号
+     */
+    public long nextId() {
+        if (!initialized) {
+            init();
+        }
+        while (true) {
+            lock.readLock().lock();
+            try {
+                Segment segment = segments[currentPos];
+                if (!nextReady && segment.getIdle() < PREFETCH_IDLE_RATIO * segment.step
+                        && prefetching.compareAndSet(false, true)) {
+                    submitPrefetch();
+                }
+                long value = segment.value.getAndIncrement();
+                if (value <= segment.max) {
+                    return value;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            // 当前号段已用完，等待预加载完成后切换
+            waitForPrefetch();
+            lock.writeLock().lock();
+            try {
+                Segment segment = segments[currentPos];
+                long value = segment.value.getAndIncrement();
+                if (value <= segment.max) {
+                    return value;
+                }
+                if (!nextReady) {
+                    if (!prefetching.compareAndSet(false, true)) {
+                        // 又有预加载线程启动了，释放锁重新等待
+                        continue;
+                    }
+                    // 预加载失败或尚未开始，同步加载下一个号段兜底
+                    try {
+                        loadSegment(segments[nextPos()]);
+                    } finally {
+                        prefetching.set(false);
+                    }
+                }
+                currentPos = nextPos();
+                nextReady = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private synchronized void init() {
+        if (initialized) {
+            return;
+        }
+        loadSegment(segments[currentPos]);
+        initialized = true;
+    }
+
+    private void submitPrefetch() {
+        try {
+            prefetchExecutor.execute(this::prefetchNextSegment);
+        } catch (RejectedExecutionException e) {
+            // 提交失败时复位标记，号段用完时会走同步加载兜底
+            log.error("submit order no segment prefetch task error", e);
+            prefetching.set(false);
+        }
+    }
+
+    private void prefetchNextSegment() {
+        Segment next = segments[nextPos()];
+        boolean loaded = false;
+        try {
+            loadSegment(next);
+            loaded = true;
+        } catch (Exception e) {
+            log.error("prefetch order no segment error", e);
+        } finally {
+            if (loaded) {
+                lock.writeLock().lock();
+                try {
+                    nextReady = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            prefetching.set(false);
+        }
+    }
+
+    private void loadSegment(Segment segment) {
+        OrderAutoNoSegmentDO segmentDO = segmentLoader.get();
+        if (segmentDO == null || segmentDO.getMaxId() == null || segmentDO.getStep() == null) {
+            throw new OrderBizException(OrderErrorCodeEnum.ORDER_NO_SEGMENT_LOAD_ERROR);
+        }
+        long max = segmentDO.getMaxId();
+        int step = segmentDO.getStep();
+        segment.max = max;
+        segment.step = step;
+        segment.value.set(max - step + 1);
+    }
+
+    private void waitForPrefetch() {
+        int rounds = 0;
+        while (prefetching.get()) {
+            if (++rounds > MAX_SPIN_ROUNDS) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                rounds = 0;
+            }
+        }
+    }
+
+    private int nextPos() {
+        return (currentPos + 1) % 2;
+    }
+
+    /**
+     * 号段，发号区间为[value, max]
+     */
+    private static class Segment {
+
+        private final AtomicLong value = new AtomicLong(0);
+
+        private volatile long max = -1;
+
+        private volatile int step = 0;
+
+        private long getIdle() {
+            return max - value.get() + 1;
+        }
+    }
+}
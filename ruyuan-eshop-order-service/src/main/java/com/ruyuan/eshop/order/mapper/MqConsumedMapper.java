@@ -0,0 +1,91 @@
+package com.ruyuan.eshop.order.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.ruyuan.eshop.order.domain.entity.MqConsumedDO;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * 消息消费记录 Mapper 接口
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Mapper
+public interface MqConsumedMapper extends BaseMapper<MqConsumedDO> {
+
+    /**
+     * 查询一批消息的消费记录
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @return
+     */
+    List<MqConsumedDO> listByMsgKeys(@Param("consumerGroup") String consumerGroup,
+                                     @Param("msgKeys") Collection<String> msgKeys);
+
+    /**
+     * 写入一批消费中的记录，唯一索引冲突的消息忽略
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @param expireTime    消费中的到期时间
+     * @param leaseToken    本次写入的标识
+     * @return 写入条数
+     */
+    int insertIgnoreConsuming(@Param("consumerGroup") String consumerGroup,
+                              @Param("msgKeys") Collection<String> msgKeys,
+                              @Param("expireTime") Date expireTime,
+                              @Param("leaseToken") String leaseToken);
+
+    /**
+     * 接管一条已经到期的消费记录，记录在查询后被其他消费线程改过时不会更新
+     *
+     * @param id             主键
+     * @param status         查询到的消费状态
+     * @param expireTime     查询到的到期时间
+     * @param newExpireTime  新的到期时间
+     * @param leaseToken     接管方的标识，后续标记已消费、放弃消费权时按这个标识匹配
+     * @return 更新条数
+     */
+    int takeOver(@Param("id") Long id, @Param("status") Integer status, @Param("expireTime") Date expireTime,
+                 @Param("newExpireTime") Date newExpireTime, @Param("leaseToken") String leaseToken);
+
+    /**
+     * 标记一批消息已消费
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @param leaseToken    拿到消费权时的标识，记录已经被其他消费线程接管时不会更新
+     * @param expireTime    消费记录到期时间
+     * @return
+     */
+    int markConsumed(@Param("consumerGroup") String consumerGroup, @Param("msgKeys") Collection<String> msgKeys,
+                     @Param("leaseToken") String leaseToken, @Param("expireTime") Date expireTime);
+
+    /**
+     * 删除一批消费中的记录，消息重投后可以立即重新消费
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @param leaseToken    拿到消费权时的标识，记录已经被其他消费线程接管时不会删除
+     * @return
+     */
+    int deleteConsuming(@Param("consumerGroup") String consumerGroup, @Param("msgKeys") Collection<String> msgKeys,
+                        @Param("leaseToken") String leaseToken);
+
+    /**
+     * 删除已经到期的消费记录
+     *
+     * @param now   当前时间
+     * @param limit 最多删除条数
+     * @return 删除条数
+     */
+    int deleteExpired(@Param("now") Date now, @Param("limit") int limit);
+
+}
@@ -0,0 +1,26 @@
+package com.ruyuan.eshop.order.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.ruyuan.eshop.order.domain.entity.OrderAutoNoSegmentDO;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * <p>
+ * 订单编号号段表 Mapper 接口
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Mapper
+public interface OrderAutoNoSegmentMapper extends BaseMapper<OrderAutoNoSegmentDO> {
+
+    /**
+     * 申请一个新号段，max_id按步长递增
+     *
+     * @param bizTag 业务标识
+     * @return
+     */
+    int updateMaxId(@Param("bizTag") String bizTag);
+
+}
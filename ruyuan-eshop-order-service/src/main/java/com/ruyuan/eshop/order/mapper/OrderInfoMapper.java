@@ -8,6 +8,8 @@ import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.List;
+
 
 /**
  * <p>
@@ -27,4 +29,31 @@ public interface OrderInfoMapper extends BaseMapper<OrderInfoDO> {
      */
     Page<OrderListDTO> listByPage(Page<OrderListDTO> page, @Param("query") OrderListQueryDTO query);
 
+    /**
+     * 订单游标翻页，查询游标后面一页订单的主键和创建时间
+     *
+     * @param query 查询条件
+     * @param limit 最多返回条数
+     * @return
+     */
+    List<OrderInfoDO> listIdsByCursor(@Param("query") OrderListQueryDTO query, @Param("limit") int limit);
+
+    /**
+     * 按主键查询订单列表，每个订单条目一行
+     *
+     * @param ids   订单主键
+     * @param query 查询条件，只用到订单条目上的条件
+     * @return
+     */
+    List<OrderListDTO> listByIds(@Param("ids") List<Long> ids, @Param("query") OrderListQueryDTO query);
+
+    /**
+     * 统计订单条数，最多统计到limit条
+     *
+     * @param query 查询条件
+     * @param limit 统计上限
+     * @return
+     */
+    Long countByCursorQuery(@Param("query") OrderListQueryDTO query, @Param("limit") int limit);
+
 }
@@ -3,6 +3,9 @@ package com.ruyuan.eshop.order.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.ruyuan.eshop.order.domain.entity.OrderOperateLogDO;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -14,4 +17,11 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface OrderOperateLogMapper extends BaseMapper<OrderOperateLogDO> {
 
+    /**
+     * 多行INSERT批量新增订单操作日志
+     *
+     * @param list
+     * @return
+     */
+    int insertBatch(@Param("list") List<OrderOperateLogDO> list);
 }
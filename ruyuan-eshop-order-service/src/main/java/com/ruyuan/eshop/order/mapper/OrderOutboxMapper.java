@@ -0,0 +1,107 @@
+package com.ruyuan.eshop.order.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.ruyuan.eshop.order.domain.entity.OrderOutboxDO;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * 订单消息发件箱 Mapper 接口
+ * </p>
+ *
+ * @author zhonghuashishan
+ */
+@Mapper
+public interface OrderOutboxMapper extends BaseMapper<OrderOutboxDO> {
+
+    /**
+     * 按主键顺序查询可以领取的待投递消息主键，同一订单前面有不能领取的待投递消息时不返回
+     *
+     * @param now   当前时间
+     * @param limit 最多返回条数
+     * @return
+     */
+    List<Long> listClaimableIds(@Param("now") Date now, @Param("limit") int limit);
+
+    /**
+     * 领取待投递消息，已经被其他投递线程领取且没有到期的不会被领取
+     *
+     * @param ids             消息主键
+     * @param leaseOwner      投递线程标识
+     * @param leaseExpireTime 领取到期时间
+     * @param now             当前时间
+     * @return 领取到的条数
+     */
+    int claim(@Param("ids") List<Long> ids, @Param("leaseOwner") String leaseOwner,
+              @Param("leaseExpireTime") Date leaseExpireTime, @Param("now") Date now);
+
+    /**
+     * 查询自己领取到的待投递消息
+     *
+     * @param ids        消息主键
+     * @param leaseOwner 投递线程标识
+     * @return
+     */
+    List<OrderOutboxDO> listClaimed(@Param("ids") List<Long> ids, @Param("leaseOwner") String leaseOwner);
+
+    /**
+     * 按主键顺序查询订单的待投递消息，只返回主键和订单号
+     *
+     * @param orderIds 订单号
+     * @return
+     */
+    List<OrderOutboxDO> listPendingIdsByOrderIds(@Param("orderIds") List<String> orderIds);
+
+    /**
+     * 标记消息已投递
+     *
+     * @param ids           消息主键
+     * @param deliveredTime 投递时间
+     * @return
+     */
+    int markDelivered(@Param("ids") List<Long> ids, @Param("deliveredTime") Date deliveredTime);
+
+    /**
+     * 记录一批消息投递失败，释放领取
+     *
+     * @param ids           消息主键，失败次数相同，下次投递时间相同
+     * @param leaseOwner    投递线程标识
+     * @param nextRetryTime 下次投递时间
+     * @param lastError     失败原因
+     * @return
+     */
+    int markFailed(@Param("ids") List<Long> ids, @Param("leaseOwner") String leaseOwner,
+                   @Param("nextRetryTime") Date nextRetryTime, @Param("lastError") String lastError);
+
+    /**
+     * 释放领取到但没有投递的消息
+     *
+     * @param ids        消息主键
+     * @param leaseOwner 投递线程标识
+     * @return
+     */
+    int releaseLease(@Param("ids") List<Long> ids, @Param("leaseOwner") String leaseOwner);
+
+    /**
+     * 全局事务提交后，全局事务里写入的消息立即可以投递
+     *
+     * @param ids 消息主键
+     * @param now 当前时间
+     * @return
+     */
+    int releaseHeld(@Param("ids") List<Long> ids, @Param("now") Date now);
+
+    /**
+     * 删除投递成功超过保留时间的消息
+     *
+     * @param before 投递时间早于这个时间的删除
+     * @param limit  最多删除条数
+     * @return
+     */
+    int deleteDelivered(@Param("before") Date before, @Param("limit") int limit);
+
+}
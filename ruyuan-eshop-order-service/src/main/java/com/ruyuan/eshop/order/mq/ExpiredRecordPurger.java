@@ -0,0 +1,80 @@
+package com.ruyuan.eshop.order.mq;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 定期分批删除到期记录
+ * <p>
+ * 距离上次清理超过清理间隔才执行，多个线程同时到期时只有一个线程执行。每批删除固定条数，删满一批说明可能还有，
+ * 继续删下一批，最多删除指定批数，避免一次占用调用线程太久。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+public class ExpiredRecordPurger {
+
+    /**
+     * 清理间隔
+     */
+    private static final long PURGE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * 每批删除的条数
+     */
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    /**
+     * 日志里的记录名称
+     */
+    private final String recordName;
+
+    /**
+     * 每次清理最多删除的批数
+     */
+    private final int maxBatches;
+
+    private final AtomicLong lastPurgeTime = new AtomicLong();
+
+    /**
+     * @param recordName 日志里的记录名称
+     * @param maxBatches 每次清理最多删除的批数
+     */
+    public ExpiredRecordPurger(String recordName, int maxBatches) {
+        this.recordName = recordName;
+        this.maxBatches = maxBatches;
+    }
+
+    /**
+     * 到了清理间隔时分批删除，删除失败只记日志，下个间隔再删
+     *
+     * @param now         当前时间
+     * @param deleteBatch 删除一批，参数是这批最多删除的条数，返回删除条数
+     */
+    public void purgeIfDue(long now, IntUnaryOperator deleteBatch) {
+        long last = lastPurgeTime.get();
+        if (now - last < PURGE_INTERVAL_MILLIS || !lastPurgeTime.compareAndSet(last, now)) {
+            return;
+        }
+        int total = 0;
+        try {
+            for (int i = 0; i < maxBatches; i++) {
+                int deleted = deleteBatch.applyAsInt(PURGE_BATCH_SIZE);
+                total += deleted;
+                if (deleted < PURGE_BATCH_SIZE) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("purge {} error", recordName, e);
+        }
+        if (total > 0) {
+            log.info("purge {}, deleted:{}", recordName, total);
+        }
+    }
+}
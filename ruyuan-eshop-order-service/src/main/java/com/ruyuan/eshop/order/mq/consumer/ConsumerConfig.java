@@ -1,13 +1,18 @@
 package com.ruyuan.eshop.order.mq.consumer;
 
 import com.ruyuan.eshop.common.constants.RocketMqConstant;
+import com.ruyuan.eshop.order.config.OrderProperties;
 import com.ruyuan.eshop.order.mq.consumer.listener.*;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.MessageListener;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerOrderly;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.spring.autoconfigure.RocketMQProperties;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotationUtils;
 
 import static com.ruyuan.eshop.common.constants.RocketMqConstant.*;
 
@@ -21,6 +26,12 @@ public class ConsumerConfig {
     @Autowired
     private RocketMQProperties rocketMQProperties;
 
+    @Autowired
+    private OrderProperties orderProperties;
+
+    @Autowired
+    private MessageIdempotentStore messageIdempotentStore;
+
     /**
      * 订单完成支付消息消费者
      *
@@ -31,23 +42,13 @@ public class ConsumerConfig {
     @Bean("paidOrderSuccessConsumer")
     public DefaultMQPushConsumer paidOrderSuccessConsumer(PaidOrderSuccessListener paidOrderSuccessListener)
             throws MQClientException {
-        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(PAID_ORDER_SUCCESS_CONSUMER_GROUP);
-        consumer.setNamesrvAddr(rocketMQProperties.getNameServer());
-        consumer.subscribe(PAID_ORDER_SUCCESS_TOPIC, "*");
-        consumer.registerMessageListener(paidOrderSuccessListener);
-        consumer.start();
-        return consumer;
+        return createConsumer(PAID_ORDER_SUCCESS_CONSUMER_GROUP, PAID_ORDER_SUCCESS_TOPIC, paidOrderSuccessListener);
     }
 
     @Bean("actualRefundConsumer")
     public DefaultMQPushConsumer actualRefundConsumer(ActualRefundListener actualRefundListener)
             throws MQClientException {
-        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(ACTUAL_REFUND_CONSUMER_GROUP);
-        consumer.setNamesrvAddr(rocketMQProperties.getNameServer());
-        consumer.subscribe(ACTUAL_REFUND_TOPIC, "*");
-        consumer.registerMessageListener(actualRefundListener);
-        consumer.start();
-        return consumer;
+        return createConsumer(ACTUAL_REFUND_CONSUMER_GROUP, ACTUAL_REFUND_TOPIC, actualRefundListener);
     }
 
     /**
@@ -60,13 +61,8 @@ public class ConsumerConfig {
     @Bean("cancelRefundConsumer")
     public DefaultMQPushConsumer cancelRefundConsumer(CancelRefundListener cancelRefundListener)
             throws MQClientException {
-        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(RocketMqConstant.REQUEST_CONSUMER_GROUP);
-        consumer.setNamesrvAddr(rocketMQProperties.getNameServer());
-
-        consumer.subscribe(RocketMqConstant.CANCEL_REFUND_REQUEST_TOPIC, "*");
-        consumer.registerMessageListener(cancelRefundListener);
-        consumer.start();
-        return consumer;
+        return createConsumer(RocketMqConstant.REQUEST_CONSUMER_GROUP, RocketMqConstant.CANCEL_REFUND_REQUEST_TOPIC,
+                cancelRefundListener);
     }
 
     /**
@@ -79,12 +75,8 @@ public class ConsumerConfig {
     @Bean("orderWmsShipResultConsumer")
     public DefaultMQPushConsumer orderWmsShipResultConsumer(OrderWmsShipResultListener orderWmsShipResultListener)
             throws MQClientException {
-        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(RocketMqConstant.ORDER_WMS_SHIP_RESULT_CONSUMER_GROUP);
-        consumer.setNamesrvAddr(rocketMQProperties.getNameServer());
-        consumer.subscribe(RocketMqConstant.ORDER_WMS_SHIP_RESULT_TOPIC, "*");
-        consumer.registerMessageListener(orderWmsShipResultListener);
-        consumer.start();
-        return consumer;
+        return createConsumer(RocketMqConstant.ORDER_WMS_SHIP_RESULT_CONSUMER_GROUP,
+                RocketMqConstant.ORDER_WMS_SHIP_RESULT_TOPIC, orderWmsShipResultListener);
     }
 
     /**
@@ -97,13 +89,7 @@ public class ConsumerConfig {
     @Bean("payOrderTimeoutConsumer")
     public DefaultMQPushConsumer payOrderTimeoutConsumer(PayOrderTimeoutListener payOrderTimeoutListener)
             throws MQClientException {
-        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(PAY_ORDER_TIMEOUT_DELAY_CONSUMER_GROUP);
-        consumer.setNamesrvAddr(rocketMQProperties.getNameServer());
-        consumer.subscribe(PAY_ORDER_TIMEOUT_DELAY_TOPIC, "*");
-        consumer.registerMessageListener(payOrderTimeoutListener);
-        consumer.start();
-        return consumer;
-
+        return createConsumer(PAY_ORDER_TIMEOUT_DELAY_CONSUMER_GROUP, PAY_ORDER_TIMEOUT_DELAY_TOPIC, payOrderTimeoutListener);
     }
 
     /**
@@ -116,12 +102,7 @@ public class ConsumerConfig {
     @Bean("releaseAssetsConsumer")
     public DefaultMQPushConsumer releaseAssetsConsumer(ReleaseAssetsListener releaseAssetsListener)
             throws MQClientException {
-        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(RELEASE_ASSETS_CONSUMER_GROUP);
-        consumer.setNamesrvAddr(rocketMQProperties.getNameServer());
-        consumer.subscribe(RELEASE_ASSETS_TOPIC, "*");
-        consumer.registerMessageListener(releaseAssetsListener);
-        consumer.start();
-        return consumer;
+        return createConsumer(RELEASE_ASSETS_CONSUMER_GROUP, RELEASE_ASSETS_TOPIC, releaseAssetsListener);
     }
 
     /**
@@ -130,12 +111,45 @@ public class ConsumerConfig {
     @Bean("auditPassReleaseAssetsConsumer")
     public DefaultMQPushConsumer auditPassReleaseAssetsConsumer(AuditPassReleaseAssetsListener auditPassReleaseAssetsListener)
             throws MQClientException {
-        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(CUSTOMER_AUDIT_PASS_RELEASE_ASSETS_CONSUMER_GROUP);
+        return createConsumer(CUSTOMER_AUDIT_PASS_RELEASE_ASSETS_CONSUMER_GROUP, CUSTOMER_AUDIT_PASS_RELEASE_ASSETS_TOPIC,
+                auditPassReleaseAssetsListener);
+    }
+
+    /**
+     * 创建并启动消费者，线程数、批量大小、重试次数按topic取OrderProperties里的配置，
+     * 标注了@IdempotentConsumer的监听器按消息唯一ID去重
+     */
+    private DefaultMQPushConsumer createConsumer(String consumerGroup, String topic,
+                                                 MessageListener messageListener)
+            throws MQClientException {
+        OrderProperties.ConsumerProperties consumerProperties = orderProperties.getConsumer(topic);
+        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(consumerGroup);
         consumer.setNamesrvAddr(rocketMQProperties.getNameServer());
-        consumer.subscribe(CUSTOMER_AUDIT_PASS_RELEASE_ASSETS_TOPIC, "*");
-        consumer.registerMessageListener(auditPassReleaseAssetsListener);
+        consumer.setConsumeThreadMin(consumerProperties.getConsumeThreadMin());
+        consumer.setConsumeThreadMax(Math.max(consumerProperties.getConsumeThreadMin(),
+                consumerProperties.getConsumeThreadMax()));
+        consumer.setConsumeMessageBatchMaxSize(consumerProperties.getConsumeMessageBatchMaxSize());
+        consumer.setPullBatchSize(consumerProperties.getPullBatchSize());
+        consumer.setMaxReconsumeTimes(consumerProperties.getMaxReconsumeTimes());
+        consumer.subscribe(topic, "*");
+        consumer.registerMessageListener(idempotent(consumerGroup, messageListener));
         consumer.start();
         return consumer;
     }
 
-}
\ No newline at end of file
+    /**
+     * 标注了@IdempotentConsumer的监听器包一层按消息唯一ID去重的监听器
+     */
+    private MessageListener idempotent(String consumerGroup, MessageListener messageListener) {
+        if (!Boolean.TRUE.equals(orderProperties.getConsumeIdempotentEnabled())
+                || AnnotationUtils.findAnnotation(messageListener.getClass(), IdempotentConsumer.class) == null) {
+            return messageListener;
+        }
+        if (messageListener instanceof MessageListenerOrderly) {
+            return new IdempotentOrderlyListener(consumerGroup, (MessageListenerOrderly) messageListener,
+                    messageIdempotentStore);
+        }
+        return new IdempotentConcurrentlyListener(consumerGroup, (MessageListenerConcurrently) messageListener,
+                messageIdempotentStore);
+    }
+}
@@ -0,0 +1,110 @@
+package com.ruyuan.eshop.order.mq.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.util.*;
+
+/**
+ * 并发消费的去重监听器
+ * <p>
+ * 一批消息先拿消费权：已消费的跳过，拿到的交给被包装的监听器处理，其他线程正在消费的从这条消息开始稍后重投。
+ * 同一批里重复投递的消息（消息唯一ID相同）只交给被包装的监听器一次。
+ * 被包装的监听器通过ackIndex只确认了一部分消息时，确认的消息标记已消费，没确认的放弃消费权，
+ * 再按原来这批消息的位置重新计算ackIndex。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+public class IdempotentConcurrentlyListener implements MessageListenerConcurrently {
+
+    private final String consumerGroup;
+
+    private final MessageListenerConcurrently delegate;
+
+    private final MessageIdempotentStore messageIdempotentStore;
+
+    public IdempotentConcurrentlyListener(String consumerGroup, MessageListenerConcurrently delegate,
+                                          MessageIdempotentStore messageIdempotentStore) {
+        this.consumerGroup = consumerGroup;
+        this.delegate = delegate;
+        this.messageIdempotentStore = messageIdempotentStore;
+    }
+
+    @Override
+    public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> list, ConsumeConcurrentlyContext context) {
+        List<String> msgKeys = new ArrayList<>(list.size());
+        list.forEach(messageExt -> msgKeys.add(MessageIdempotentStore.msgKeyOf(messageExt)));
+        MessageIdempotentStore.Acquisition acquisition = messageIdempotentStore.tryAcquire(consumerGroup, msgKeys);
+
+        List<MessageExt> acquired = new ArrayList<>(list.size());
+        // 拿到消费权的消息在原来这批消息里的位置
+        List<Integer> acquiredIndexes = new ArrayList<>(list.size());
+        Set<String> seenKeys = new HashSet<>(list.size());
+        int firstUnackedIndex = Integer.MAX_VALUE;
+        for (int i = 0; i < list.size(); i++) {
+            String msgKey = msgKeys.get(i);
+            if (!seenKeys.add(msgKey)) {
+                continue;
+            }
+            MessageIdempotentStore.State state = acquisition.stateOf(msgKey);
+            if (state == MessageIdempotentStore.State.ACQUIRED) {
+                acquired.add(list.get(i));
+                acquiredIndexes.add(i);
+            } else if (state == MessageIdempotentStore.State.CONSUMED) {
+                log.info("skip consumed message, consumerGroup={}, msgKey={}", consumerGroup, msgKey);
+            } else {
+                firstUnackedIndex = Math.min(firstUnackedIndex, i);
+            }
+        }
+
+        if (!acquired.isEmpty()) {
+            int ackedCount = consumeAcquired(acquired, context);
+            List<String> ackedKeys = new ArrayList<>(ackedCount);
+            List<String> unackedKeys = new ArrayList<>(acquired.size() - ackedCount);
+            for (int i = 0; i < acquired.size(); i++) {
+                (i < ackedCount ? ackedKeys : unackedKeys).add(MessageIdempotentStore.msgKeyOf(acquired.get(i)));
+            }
+            messageIdempotentStore.markConsumed(consumerGroup, ackedKeys, acquisition.getLeaseToken());
+            messageIdempotentStore.release(consumerGroup, unackedKeys, acquisition.getLeaseToken());
+            if (ackedCount < acquired.size()) {
+                firstUnackedIndex = Math.min(firstUnackedIndex, acquiredIndexes.get(ackedCount));
+            }
+        }
+
+        if (firstUnackedIndex == Integer.MAX_VALUE) {
+            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+        }
+        if (firstUnackedIndex == 0) {
+            return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+        }
+        context.setAckIndex(firstUnackedIndex - 1);
+        return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+    }
+
+    /**
+     * 交给被包装的监听器处理
+     *
+     * @return 确认消费成功的消息条数，从第一条开始算
+     */
+    private int consumeAcquired(List<MessageExt> acquired, ConsumeConcurrentlyContext context) {
+        ConsumeConcurrentlyContext delegateContext = new ConsumeConcurrentlyContext(context.getMessageQueue());
+        ConsumeConcurrentlyStatus status;
+        try {
+            status = delegate.consumeMessage(acquired, delegateContext);
+        } catch (Exception e) {
+            log.error("consumer error, consumerGroup={}", consumerGroup, e);
+            return 0;
+        }
+        context.setDelayLevelWhenNextConsume(delegateContext.getDelayLevelWhenNextConsume());
+        if (status != ConsumeConcurrentlyStatus.CONSUME_SUCCESS) {
+            return 0;
+        }
+        return (int) Math.min(acquired.size(), (long) delegateContext.getAckIndex() + 1);
+    }
+}
@@ -0,0 +1,16 @@
+package com.ruyuan.eshop.order.mq.consumer;
+
+import java.lang.annotation.*;
+
+/**
+ * 标注在消息监听器上，创建消费者时包一层按消息唯一ID去重的监听器，已经消费过的消息在业务处理前跳过
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ * @see MessageIdempotentStore
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface IdempotentConsumer {
+}
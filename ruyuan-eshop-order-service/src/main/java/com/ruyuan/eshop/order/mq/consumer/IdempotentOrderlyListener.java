@@ -0,0 +1,86 @@
+package com.ruyuan.eshop.order.mq.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerOrderly;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.util.*;
+
+/**
+ * 顺序消费的去重监听器
+ * <p>
+ * 已消费的消息跳过，其余消息交给被包装的监听器处理。有消息正在被其他线程消费时整批暂停稍后再消费，保证顺序；
+ * 被包装的监听器暂停队列时放弃整批消息的消费权。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+public class IdempotentOrderlyListener implements MessageListenerOrderly {
+
+    private final String consumerGroup;
+
+    private final MessageListenerOrderly delegate;
+
+    private final MessageIdempotentStore messageIdempotentStore;
+
+    public IdempotentOrderlyListener(String consumerGroup, MessageListenerOrderly delegate,
+                                     MessageIdempotentStore messageIdempotentStore) {
+        this.consumerGroup = consumerGroup;
+        this.delegate = delegate;
+        this.messageIdempotentStore = messageIdempotentStore;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public ConsumeOrderlyStatus consumeMessage(List<MessageExt> list, ConsumeOrderlyContext context) {
+        List<String> msgKeys = new ArrayList<>(list.size());
+        list.forEach(messageExt -> msgKeys.add(MessageIdempotentStore.msgKeyOf(messageExt)));
+        MessageIdempotentStore.Acquisition acquisition = messageIdempotentStore.tryAcquire(consumerGroup, msgKeys);
+
+        List<MessageExt> acquired = new ArrayList<>(list.size());
+        List<String> acquiredKeys = new ArrayList<>(list.size());
+        Set<String> seenKeys = new HashSet<>(list.size());
+        boolean consuming = false;
+        for (int i = 0; i < list.size(); i++) {
+            String msgKey = msgKeys.get(i);
+            if (!seenKeys.add(msgKey)) {
+                continue;
+            }
+            MessageIdempotentStore.State state = acquisition.stateOf(msgKey);
+            if (state == MessageIdempotentStore.State.ACQUIRED) {
+                acquired.add(list.get(i));
+                acquiredKeys.add(msgKey);
+            } else if (state == MessageIdempotentStore.State.CONSUMED) {
+                log.info("skip consumed message, consumerGroup={}, msgKey={}", consumerGroup, msgKey);
+            } else {
+                consuming = true;
+            }
+        }
+        if (consuming) {
+            messageIdempotentStore.release(consumerGroup, acquiredKeys, acquisition.getLeaseToken());
+            return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT;
+        }
+        if (acquired.isEmpty()) {
+            return ConsumeOrderlyStatus.SUCCESS;
+        }
+
+        ConsumeOrderlyStatus status;
+        try {
+            status = delegate.consumeMessage(acquired, context);
+        } catch (Exception e) {
+            log.error("consumer error, consumerGroup={}", consumerGroup, e);
+            messageIdempotentStore.release(consumerGroup, acquiredKeys, acquisition.getLeaseToken());
+            return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT;
+        }
+        if (status == ConsumeOrderlyStatus.SUCCESS || status == ConsumeOrderlyStatus.COMMIT) {
+            messageIdempotentStore.markConsumed(consumerGroup, acquiredKeys, acquisition.getLeaseToken());
+        } else {
+            messageIdempotentStore.release(consumerGroup, acquiredKeys, acquisition.getLeaseToken());
+        }
+        return status;
+    }
+}
@@ -0,0 +1,276 @@
+package com.ruyuan.eshop.order.mq.consumer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.MqConsumedDAO;
+import com.ruyuan.eshop.order.domain.entity.MqConsumedDO;
+import com.ruyuan.eshop.order.enums.ConsumeStatusEnum;
+import com.ruyuan.eshop.order.mq.ExpiredRecordPurger;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 消息消费去重
+ * <p>
+ * 按(消费者组, 消息唯一ID)记录消费状态：开始消费前先写一条"消费中"的记录，唯一索引保证同一条消息同时只有一个消费线程
+ * 拿到；消费成功后改成"已消费"，保留到期前重投的消息直接跳过；消费失败删除记录，重投后重新消费。
+ * 消费线程挂掉时"消费中"的记录到期后可以被重新接管，接管时换成接管方的标识，原来的消费线程之后再标记已消费或放弃消费权
+ * 只按自己的标识匹配，不会改动接管方的记录。
+ * </p>
+ * <p>
+ * 本机消费成功的消息同时记在本地缓存里，本机收到重投时不查库。本地缓存只记确定已消费的消息，不会误判跳过没消费过的消息。
+ * 消费记录表读写失败时不去重，直接消费，由业务逻辑自身的幂等兜底。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class MessageIdempotentStore {
+
+    /**
+     * 每次清理最多删除的批数，清理在消费线程里执行，避免一次占用太久
+     */
+    private static final int PURGE_MAX_BATCHES = 20;
+
+    /**
+     * 消息的消费状态
+     */
+    public enum State {
+
+        /**
+         * 拿到了消费权，消费后要调用markConsumed或release
+         */
+        ACQUIRED,
+
+        /**
+         * 已经消费过，直接跳过
+         */
+        CONSUMED,
+
+        /**
+         * 其他消费线程正在消费，稍后重投
+         */
+        CONSUMING
+    }
+
+    /**
+     * 一次尝试拿消费权的结果
+     */
+    @Getter
+    public static class Acquisition {
+
+        /**
+         * 本次拿消费权的标识，新写入和接管的记录都带着这个标识，标记已消费、放弃消费权时传回来
+         */
+        private final String leaseToken;
+
+        /**
+         * 消息唯一ID -> 消费状态
+         */
+        private final Map<String, State> states;
+
+        private Acquisition(String leaseToken, Map<String, State> states) {
+            this.leaseToken = leaseToken;
+            this.states = states;
+        }
+
+        public State stateOf(String msgKey) {
+            return states.get(msgKey);
+        }
+    }
+
+    @Autowired
+    private MqConsumedDAO mqConsumedDAO;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    /**
+     * 当前时间，测试里替换
+     */
+    private LongSupplier clock = System::currentTimeMillis;
+
+    /**
+     * 本机已消费的消息 -> 消费记录到期时间
+     */
+    private Cache<String, Long> consumedCache;
+
+    /**
+     * 清理到期的消费记录
+     */
+    private final ExpiredRecordPurger expiredPurger = new ExpiredRecordPurger("expired consumed record",
+            PURGE_MAX_BATCHES);
+
+    @PostConstruct
+    public void init() {
+        consumedCache = CacheBuilder.newBuilder()
+                .maximumSize(orderProperties.getConsumedLocalCacheSize())
+                .build();
+    }
+
+    /**
+     * 消息的去重key，取消息唯一ID（生产者重试、broker重投、发件箱重复投递时不变），老消息没有时取broker消息ID
+     *
+     * @param messageExt 消息
+     * @return 去重key
+     */
+    public static String msgKeyOf(MessageExt messageExt) {
+        String uniqId = MessageClientIDSetter.getUniqID(messageExt);
+        return uniqId != null ? uniqId : messageExt.getMsgId();
+    }
+
+    /**
+     * 尝试拿到一批消息的消费权，先查本地缓存，再一次查出其余消息的消费记录，没有记录的一条语句批量写入
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @return 本次的标识和每条消息的消费状态
+     */
+    public Acquisition tryAcquire(String consumerGroup, Collection<String> msgKeys) {
+        long now = clock.getAsLong();
+        String leaseToken = UUID.randomUUID().toString();
+        Map<String, State> states = new HashMap<>(msgKeys.size());
+        Acquisition acquisition = new Acquisition(leaseToken, states);
+        Set<String> unknownKeys = new LinkedHashSet<>();
+        for (String msgKey : msgKeys) {
+            Long expireTime = consumedCache.getIfPresent(cacheKey(consumerGroup, msgKey));
+            if (expireTime != null && expireTime > now) {
+                states.put(msgKey, State.CONSUMED);
+            } else {
+                unknownKeys.add(msgKey);
+            }
+        }
+        if (unknownKeys.isEmpty()) {
+            return acquisition;
+        }
+
+        expiredPurger.purgeIfDue(now, limit -> mqConsumedDAO.deleteExpired(new Date(now), limit));
+        Date leaseExpireTime = new Date(now + orderProperties.getConsumingLeaseMillis());
+        try {
+            Map<String, MqConsumedDO> records = new HashMap<>(unknownKeys.size());
+            for (MqConsumedDO mqConsumedDO : mqConsumedDAO.listByMsgKeys(consumerGroup, unknownKeys)) {
+                records.put(mqConsumedDO.getMsgKey(), mqConsumedDO);
+            }
+            List<String> newKeys = new ArrayList<>(unknownKeys.size());
+            for (String msgKey : unknownKeys) {
+                if (!records.containsKey(msgKey)) {
+                    newKeys.add(msgKey);
+                }
+            }
+            acquireNew(consumerGroup, newKeys, leaseExpireTime, leaseToken, states, records);
+            for (MqConsumedDO mqConsumedDO : records.values()) {
+                states.put(mqConsumedDO.getMsgKey(),
+                        stateOf(consumerGroup, mqConsumedDO, now, leaseExpireTime, leaseToken));
+            }
+        } catch (Exception e) {
+            log.warn("query consumed record error, consume without dedup, consumerGroup={}", consumerGroup, e);
+            for (String msgKey : unknownKeys) {
+                states.putIfAbsent(msgKey, State.ACQUIRED);
+            }
+        }
+        return acquisition;
+    }
+
+    /**
+     * 标记一批消息已消费，保留到期前重投的消息直接跳过；到期后被其他消费线程接管的记录不会改动
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @param leaseToken    tryAcquire返回的标识
+     */
+    public void markConsumed(String consumerGroup, Collection<String> msgKeys, String leaseToken) {
+        if (msgKeys.isEmpty()) {
+            return;
+        }
+        long expireTime = clock.getAsLong() + TimeUnit.HOURS.toMillis(orderProperties.getConsumedRetentionHours());
+        try {
+            mqConsumedDAO.markConsumed(consumerGroup, msgKeys, leaseToken, new Date(expireTime));
+        } catch (Exception e) {
+            // 消费中的记录到期后重投的消息会再消费一次
+            log.warn("mark consumed error, consumerGroup={}, msgKeys={}", consumerGroup, msgKeys, e);
+            return;
+        }
+        for (String msgKey : msgKeys) {
+            consumedCache.put(cacheKey(consumerGroup, msgKey), expireTime);
+        }
+    }
+
+    /**
+     * 放弃一批消息的消费权，重投后可以立即重新消费；到期后被其他消费线程接管的记录不会删除
+     *
+     * @param consumerGroup 消费者组
+     * @param msgKeys       消息唯一ID
+     * @param leaseToken    tryAcquire返回的标识
+     */
+    public void release(String consumerGroup, Collection<String> msgKeys, String leaseToken) {
+        if (msgKeys.isEmpty()) {
+            return;
+        }
+        try {
+            mqConsumedDAO.deleteConsuming(consumerGroup, msgKeys, leaseToken);
+        } catch (Exception e) {
+            // 消费中的记录到期后可以重新消费
+            log.warn("release consuming error, consumerGroup={}, msgKeys={}", consumerGroup, msgKeys, e);
+        }
+    }
+
+    /**
+     * 没有消费记录的消息一条语句写入消费中的记录，全部写入成功时都拿到了消费权；
+     * 部分没写入说明查询后被其他消费线程抢先写入，重新查一次，带着本次标识的记录是自己写入的，其余按查到的记录判断
+     */
+    private void acquireNew(String consumerGroup, List<String> newKeys, Date leaseExpireTime, String leaseToken,
+                            Map<String, State> states, Map<String, MqConsumedDO> records) {
+        if (newKeys.isEmpty()) {
+            return;
+        }
+        if (mqConsumedDAO.insertConsuming(consumerGroup, newKeys, leaseExpireTime, leaseToken) == newKeys.size()) {
+            newKeys.forEach(msgKey -> states.put(msgKey, State.ACQUIRED));
+            return;
+        }
+        for (MqConsumedDO mqConsumedDO : mqConsumedDAO.listByMsgKeys(consumerGroup, newKeys)) {
+            if (leaseToken.equals(mqConsumedDO.getLeaseToken())) {
+                states.put(mqConsumedDO.getMsgKey(), State.ACQUIRED);
+            } else {
+                records.put(mqConsumedDO.getMsgKey(), mqConsumedDO);
+            }
+        }
+        // 抢先写入的记录已经被删除，当作正在消费，稍后重投
+        for (String msgKey : newKeys) {
+            if (!states.containsKey(msgKey) && !records.containsKey(msgKey)) {
+                states.put(msgKey, State.CONSUMING);
+            }
+        }
+    }
+
+    /**
+     * 已有消费记录的消息：没到期按记录的状态，到期后带着查询到的状态接管，记录换成本次的标识
+     */
+    private State stateOf(String consumerGroup, MqConsumedDO mqConsumedDO, long now, Date leaseExpireTime,
+                          String leaseToken) {
+        if (mqConsumedDO.getExpireTime().getTime() > now) {
+            if (ConsumeStatusEnum.CONSUMED.getCode().equals(mqConsumedDO.getStatus())) {
+                consumedCache.put(cacheKey(consumerGroup, mqConsumedDO.getMsgKey()),
+                        mqConsumedDO.getExpireTime().getTime());
+                return State.CONSUMED;
+            }
+            return State.CONSUMING;
+        }
+        return mqConsumedDAO.takeOver(mqConsumedDO, leaseExpireTime, leaseToken) ? State.ACQUIRED : State.CONSUMING;
+    }
+
+    private static String cacheKey(String consumerGroup, String msgKey) {
+        return consumerGroup + ':' + msgKey;
+    }
+}
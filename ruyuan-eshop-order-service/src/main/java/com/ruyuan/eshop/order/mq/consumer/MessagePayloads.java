@@ -0,0 +1,29 @@
+package com.ruyuan.eshop.order.mq.consumer;
+
+import com.ruyuan.eshop.common.message.codec.MessageCodec;
+import com.ruyuan.eshop.common.message.codec.MessageCodecs;
+import org.apache.rocketmq.common.message.MessageExt;
+
+/**
+ * 消息体解码
+ * 按消息属性里的编码方式解码，没有这个属性的老消息按JSON解码
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public final class MessagePayloads {
+
+    private MessagePayloads() {
+    }
+
+    /**
+     * 解码消息体
+     *
+     * @param messageExt 消息
+     * @param clazz      消息类型
+     * @return 消息对象
+     */
+    public static <T> T decode(MessageExt messageExt, Class<T> clazz) {
+        return MessageCodecs.decode(messageExt.getUserProperty(MessageCodec.PROPERTY_CODEC), messageExt.getBody(), clazz);
+    }
+}
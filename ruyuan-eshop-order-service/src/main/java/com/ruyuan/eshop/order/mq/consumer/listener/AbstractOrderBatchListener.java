@@ -0,0 +1,179 @@
+package com.ruyuan.eshop.order.mq.consumer.listener;
+
+import com.ruyuan.eshop.order.mq.consumer.MessagePayloads;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 按批消费订单消息
+ * <p>
+ * 一次回调里的消息按订单号分组，每个订单只回调一次，同一订单的锁、查库等操作在一批消息里只做一次。
+ * 批内重复投递的消息由{@link com.ruyuan.eshop.order.mq.consumer.IdempotentConsumer}的去重包装过滤，子类需要加上这个注解。
+ * </p>
+ * <p>
+ * 逐个订单处理前先回调{@link #prefetch(List)}，按这批消息的订单号批量查库，查出来的数据按订单号传给{@link #consumeOrder}
+ * </p>
+ * <p>
+ * 一批消息里的订单先全部通过{@link #consumeOrderAsync}提交，再统一等待结果，
+ * 子类覆盖{@link #consumeOrderAsync}可以让不同订单的发送消息等IO操作重叠执行
+ * </p>
+ * <p>
+ * 某个订单处理失败时，通过ackIndex只确认这个订单第一条消息之前的消息，之后的消息由broker重投，
+ * 重投时已经处理成功的订单会再回调一次，子类的处理逻辑需要幂等
+ * </p>
+ *
+ * @param <T> 消息类型
+ * @param <P> 按订单号预取的数据类型，不预取时用{@link Void}
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+public abstract class AbstractOrderBatchListener<T, P> implements MessageListenerConcurrently {
+
+    /**
+     * 消息类型
+     */
+    private final Class<T> messageClass;
+
+    protected AbstractOrderBatchListener(Class<T> messageClass) {
+        this.messageClass = messageClass;
+    }
+
+    @Override
+    public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> list, ConsumeConcurrentlyContext consumeConcurrentlyContext) {
+        // 订单号 -> 订单的消息，按第一条消息的顺序排列
+        Map<String, List<T>> messagesByOrderId = new LinkedHashMap<>();
+        // 订单号 -> 订单第一条消息在这批消息里的位置
+        Map<String, Integer> firstIndexByOrderId = new HashMap<>(list.size());
+        int firstFailedIndex = Integer.MAX_VALUE;
+
+        for (int i = 0; i < list.size(); i++) {
+            MessageExt messageExt = list.get(i);
+            T message;
+            String orderId;
+            try {
+                message = decode(messageExt);
+                orderId = orderIdOf(message);
+            } catch (Exception e) {
+                log.error("parse message error, msgId={}", messageExt.getMsgId(), e);
+                firstFailedIndex = Math.min(firstFailedIndex, i);
+                continue;
+            }
+            messagesByOrderId.computeIfAbsent(orderId, key -> new ArrayList<>()).add(message);
+            firstIndexByOrderId.putIfAbsent(orderId, i);
+        }
+
+        for (String failedOrderId : consumeOrders(messagesByOrderId)) {
+            firstFailedIndex = Math.min(firstFailedIndex, firstIndexByOrderId.get(failedOrderId));
+        }
+
+        if (firstFailedIndex == Integer.MAX_VALUE) {
+            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+        }
+        if (firstFailedIndex == 0) {
+            return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+        }
+        // 只确认失败位置之前的消息，之后的消息重投
+        consumeConcurrentlyContext.setAckIndex(firstFailedIndex - 1);
+        return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+    }
+
+    /**
+     * 提交这批消息里的全部订单后再等待处理结果，返回处理失败的订单号
+     *
+     * @param messagesByOrderId 订单号 -> 订单的消息
+     * @return 处理失败的订单号
+     */
+    private Set<String> consumeOrders(Map<String, List<T>> messagesByOrderId) {
+        Set<String> failedOrderIds = new HashSet<>();
+        Map<String, P> prefetched;
+        try {
+            prefetched = prefetch(new ArrayList<>(messagesByOrderId.keySet()));
+        } catch (Exception e) {
+            log.error("prefetch error, orderIds={}", messagesByOrderId.keySet(), e);
+            return new HashSet<>(messagesByOrderId.keySet());
+        }
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>(messagesByOrderId.size());
+        for (Map.Entry<String, List<T>> entry : messagesByOrderId.entrySet()) {
+            CompletableFuture<Void> future;
+            try {
+                future = consumeOrderAsync(entry.getKey(), entry.getValue(), prefetched.get(entry.getKey()));
+            } catch (Exception e) {
+                future = failedFuture(e);
+            }
+            futures.put(entry.getKey(), future);
+        }
+        for (Map.Entry<String, CompletableFuture<Void>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().join();
+            } catch (Exception e) {
+                log.error("consumer error, orderId={}", entry.getKey(), e);
+                failedOrderIds.add(entry.getKey());
+            }
+        }
+        return failedOrderIds;
+    }
+
+    /**
+     * 按这批消息的订单号批量查库，默认不预取
+     *
+     * @param orderIds 这批消息的订单号
+     * @return 订单号 -> 预取的数据，没有查到的订单不放
+     */
+    protected Map<String, P> prefetch(List<String> orderIds) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * 解码消息，按消息属性里的编码方式解码
+     *
+     * @param messageExt 消息
+     * @return 消息对象
+     */
+    protected T decode(MessageExt messageExt) {
+        return MessagePayloads.decode(messageExt, messageClass);
+    }
+
+    /**
+     * 消息所属的订单号
+     */
+    protected abstract String orderIdOf(T message);
+
+    /**
+     * 提交一个订单在这批消息里的全部消息，默认在当前线程调用{@link #consumeOrder}同步处理
+     *
+     * @param orderId    订单号
+     * @param messages   订单的消息，按投递顺序
+     * @param prefetched {@link #prefetch(List)}预取的订单数据，没有查到时为null
+     * @return 订单处理完成后完成，处理失败时异常结束
+     */
+    protected CompletableFuture<Void> consumeOrderAsync(String orderId, List<T> messages, P prefetched) {
+        try {
+            consumeOrder(orderId, messages, prefetched);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return failedFuture(e);
+        }
+    }
+
+    /**
+     * 处理一个订单在这批消息里的全部消息
+     *
+     * @param orderId    订单号
+     * @param messages   订单的消息，按投递顺序
+     * @param prefetched {@link #prefetch(List)}预取的订单数据，没有查到时为null
+     */
+    protected abstract void consumeOrder(String orderId, List<T> messages, P prefetched) throws Exception;
+
+    private static CompletableFuture<Void> failedFuture(Exception e) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
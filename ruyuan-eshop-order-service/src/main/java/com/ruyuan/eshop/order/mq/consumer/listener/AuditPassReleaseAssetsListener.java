@@ -7,6 +7,7 @@ import com.ruyuan.eshop.inventory.domain.request.ReleaseProductStockRequest;
 import com.ruyuan.eshop.order.converter.OrderConverter;
 import com.ruyuan.eshop.order.domain.dto.ReleaseProductStockDTO;
 import com.ruyuan.eshop.order.domain.request.AuditPassReleaseAssetsRequest;
+import com.ruyuan.eshop.order.mq.consumer.MessagePayloads;
 import com.ruyuan.eshop.order.mq.producer.DefaultProducer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
@@ -40,9 +41,8 @@ public class AuditPassReleaseAssetsListener implements MessageListenerConcurrent
         try {
             for (MessageExt messageExt : list) {
                 // 1、消费到释放资产message
-                String message = new String(messageExt.getBody());
-                log.info("AuditPassReleaseAssetsListener message:{}", message);
-                AuditPassReleaseAssetsRequest auditPassReleaseAssetsRequest = JSONObject.parseObject(message, AuditPassReleaseAssetsRequest.class);
+                AuditPassReleaseAssetsRequest auditPassReleaseAssetsRequest = MessagePayloads.decode(messageExt, AuditPassReleaseAssetsRequest.class);
+                log.info("AuditPassReleaseAssetsListener message:{}", auditPassReleaseAssetsRequest);
 
                 // 2、发送释放库存MQ
                 ReleaseProductStockDTO releaseProductStockDTO = auditPassReleaseAssetsRequest.getReleaseProductStockDTO();
@@ -52,8 +52,8 @@ public class AuditPassReleaseAssetsListener implements MessageListenerConcurrent
 
                 // 3、发送实际退款
                 ActualRefundMessage actualRefundMessage = auditPassReleaseAssetsRequest.getActualRefundMessage();
-                defaultProducer.sendMessage(RocketMqConstant.ACTUAL_REFUND_TOPIC,
-                        JSONObject.toJSONString(actualRefundMessage), "客服审核通过实际退款", null, null);
+                defaultProducer.sendEncodedMessage(RocketMqConstant.ACTUAL_REFUND_TOPIC,
+                        actualRefundMessage, "客服审核通过实际退款", null, null);
 
             }
             return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
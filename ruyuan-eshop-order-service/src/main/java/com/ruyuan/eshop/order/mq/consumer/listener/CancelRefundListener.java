@@ -1,10 +1,11 @@
 package com.ruyuan.eshop.order.mq.consumer.listener;
 
-import com.alibaba.fastjson.JSONObject;
 import com.ruyuan.eshop.common.core.JsonResult;
 import com.ruyuan.eshop.order.domain.request.CancelOrderAssembleRequest;
 import com.ruyuan.eshop.order.exception.OrderBizException;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import com.ruyuan.eshop.order.mq.consumer.IdempotentConsumer;
+import com.ruyuan.eshop.order.mq.consumer.MessagePayloads;
 import com.ruyuan.eshop.order.service.OrderAfterSaleService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
@@ -22,6 +23,7 @@ import java.util.List;
  */
 @Slf4j
 @Component
+@IdempotentConsumer
 public class CancelRefundListener implements MessageListenerConcurrently {
 
     @Autowired
@@ -31,9 +33,8 @@ public class CancelRefundListener implements MessageListenerConcurrently {
     public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> list, ConsumeConcurrentlyContext consumeConcurrentlyContext) {
         try {
             for (MessageExt messageExt : list) {
-                String message = new String(messageExt.getBody());
-                CancelOrderAssembleRequest cancelOrderAssembleRequest = JSONObject.parseObject(message, CancelOrderAssembleRequest.class);
-                log.info("CancelRefundConsumer message:{}", message);
+                CancelOrderAssembleRequest cancelOrderAssembleRequest = MessagePayloads.decode(messageExt, CancelOrderAssembleRequest.class);
+                log.info("CancelRefundConsumer message:{}", cancelOrderAssembleRequest);
 
                 //  执行 取消订单/超时未支付取消 前的操作
                 JsonResult<Boolean> jsonResult = orderAfterSaleService.processCancelOrder(cancelOrderAssembleRequest);
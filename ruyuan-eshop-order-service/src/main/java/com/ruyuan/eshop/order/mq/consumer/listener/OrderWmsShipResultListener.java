@@ -12,6 +12,8 @@ import com.ruyuan.eshop.fulfill.domain.event.OrderSignedWmsEvent;
 import com.ruyuan.eshop.order.converter.WmsShipDtoConverter;
 import com.ruyuan.eshop.order.domain.dto.WmsShipDTO;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import com.ruyuan.eshop.order.mq.consumer.IdempotentConsumer;
+import com.ruyuan.eshop.order.mq.consumer.MessagePayloads;
 import com.ruyuan.eshop.order.service.OrderFulFillService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
@@ -31,6 +33,7 @@ import java.util.List;
  */
 @Slf4j
 @Component
+@IdempotentConsumer
 public class OrderWmsShipResultListener implements MessageListenerOrderly {
 
     @Autowired
@@ -48,10 +51,8 @@ public class OrderWmsShipResultListener implements MessageListenerOrderly {
         try {
 
             for (MessageExt messageExt : list) {
-                String message = new String(messageExt.getBody());
-
-                log.info("received orderWmsShopResult  message:{}", message);
-                orderEvent = JSONObject.parseObject(message, OrderEvent.class);
+                orderEvent = MessagePayloads.decode(messageExt, OrderEvent.class);
+                log.info("received orderWmsShopResult  message:{}", orderEvent);
 
                 //1、解析消息
                 WmsShipDTO wmsShipDTO = buildWmsShip(orderEvent);
@@ -11,23 +11,21 @@ import com.ruyuan.eshop.order.dao.OrderInfoDAO;
 import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
 import com.ruyuan.eshop.order.exception.OrderBizException;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import com.ruyuan.eshop.order.mq.consumer.IdempotentConsumer;
 import com.ruyuan.eshop.order.mq.producer.DefaultProducer;
+import com.ruyuan.eshop.order.mq.producer.TransactionMessageHandler;
 import com.ruyuan.eshop.order.service.OrderFulFillService;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
-import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
-import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
 import org.apache.rocketmq.client.producer.LocalTransactionState;
-import org.apache.rocketmq.client.producer.TransactionListener;
-import org.apache.rocketmq.client.producer.TransactionMQProducer;
-import org.apache.rocketmq.common.message.Message;
-import org.apache.rocketmq.common.message.MessageExt;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.nio.charset.StandardCharsets;
+import javax.annotation.PostConstruct;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.ruyuan.eshop.common.constants.RocketMqConstant.TRIGGER_ORDER_FULFILL_TOPIC;
 
@@ -39,7 +37,8 @@ import static com.ruyuan.eshop.common.constants.RocketMqConstant.TRIGGER_ORDER_F
  */
 @Slf4j
 @Component
-public class PaidOrderSuccessListener implements MessageListenerConcurrently {
+@IdempotentConsumer
+public class PaidOrderSuccessListener extends AbstractOrderBatchListener<PaidOrderSuccessMessage, OrderInfoDO> {
 
     @Autowired
     private OrderInfoDAO orderInfoDAO;
@@ -53,77 +52,86 @@ public class PaidOrderSuccessListener implements MessageListenerConcurrently {
     @Autowired
     private DefaultProducer defaultProducer;
 
-    @Override
-    public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> list, ConsumeConcurrentlyContext consumeConcurrentlyContext) {
-        try {
+    /**
+     * 触发订单履约事务消息处理器
+     */
+    private static final String FULFILL_ORDER_TRANSACTION_HANDLER = "FULFILL_ORDER";
 
-            for (MessageExt messageExt : list) {
-                String message = new String(messageExt.getBody());
-                PaidOrderSuccessMessage paidOrderSuccessMessage = JSON.parseObject(message, PaidOrderSuccessMessage.class);
-                String orderId = paidOrderSuccessMessage.getOrderId();
-                log.info("触发订单履约，orderId:{}", orderId);
+    public PaidOrderSuccessListener() {
+        super(PaidOrderSuccessMessage.class);
+    }
 
-                OrderInfoDO order = orderInfoDAO.getByOrderId(orderId);
-                if (Objects.isNull(order)) {
-                    throw new OrderBizException(OrderErrorCodeEnum.ORDER_INFO_IS_NULL);
-                }
+    @PostConstruct
+    public void registerTransactionHandler() {
+        defaultProducer.registerTransactionHandler(FULFILL_ORDER_TRANSACTION_HANDLER, new TransactionMessageHandler() {
 
-                //1、加分布式锁+里面的履约前置状态校验防止消息重复消费
-                String key = RedisLockKeyConstants.ORDER_FULFILL_KEY + orderId;
-                if (!redisLock.tryLock(key)) {
-                    log.error("order has not acquired lock，cannot fulfill, orderId={}", orderId);
-                    throw new BaseBizException(OrderErrorCodeEnum.ORDER_FULFILL_ERROR);
+            @Override
+            public LocalTransactionState executeLocalTransaction(String orderId, Object arg) {
+                try {
+                    orderFulFillService.triggerOrderFulFill(orderId);
+                    return LocalTransactionState.COMMIT_MESSAGE;
+                } catch (BaseBizException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.error("system error", e);
+                    return LocalTransactionState.ROLLBACK_MESSAGE;
                 }
+            }
 
-                try {
-                    //2、进行订单履约逻辑
-                    TransactionMQProducer producer = defaultProducer.getProducer();
-                    producer.setTransactionListener(new TransactionListener() {
-
-                        @Override
-                        public LocalTransactionState executeLocalTransaction(Message message, Object o) {
-                            try {
-                                orderFulFillService.triggerOrderFulFill(orderId);
-                                return LocalTransactionState.COMMIT_MESSAGE;
-                            } catch (BaseBizException e) {
-                                throw e;
-                            } catch (Exception e) {
-                                log.error("system error", e);
-                                return LocalTransactionState.ROLLBACK_MESSAGE;
-                            }
-
-                        }
-
-                        @Override
-                        public LocalTransactionState checkLocalTransaction(MessageExt messageExt) {
-                            // 检查订单是否"已履约"状态
-                            OrderInfoDO orderInfoDO = orderInfoDAO.getByOrderId(orderId);
-                            if (orderInfoDO != null
-                                    && OrderStatusEnum.FULFILL.getCode().equals(orderInfoDO.getOrderStatus())) {
-                                return LocalTransactionState.COMMIT_MESSAGE;
-                            }
-                            return LocalTransactionState.ROLLBACK_MESSAGE;
-                        }
-                    });
-
-                    ReceiveFulfillRequest receiveFulfillRequest = orderFulFillService.buildReceiveFulFillRequest(order);
-
-                    String topic = TRIGGER_ORDER_FULFILL_TOPIC;
-                    byte[] body = JSON.toJSONString(receiveFulfillRequest).getBytes(StandardCharsets.UTF_8);
-                    Message mq = new Message(topic, null, orderId, body);
-                    producer.sendMessageInTransaction(mq, order);
-
-                } finally {
-                    redisLock.unlock(key);
+            @Override
+            public LocalTransactionState checkLocalTransaction(String orderId) {
+                // 检查订单是否"已履约"状态
+                OrderInfoDO orderInfoDO = orderInfoDAO.getByOrderId(orderId);
+                if (orderInfoDO != null
+                        && OrderStatusEnum.FULFILL.getCode().equals(orderInfoDO.getOrderStatus())) {
+                    return LocalTransactionState.COMMIT_MESSAGE;
                 }
+                return LocalTransactionState.ROLLBACK_MESSAGE;
             }
-            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
-        } catch (Exception e) {
-            log.error("consumer error", e);
-            //本地业务逻辑执行失败，触发消息重新消费
-            return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+        });
+    }
+
+    @Override
+    protected String orderIdOf(PaidOrderSuccessMessage message) {
+        return message.getOrderId();
+    }
+
+    /**
+     * 一批消息里的订单一次查出来
+     */
+    @Override
+    protected Map<String, OrderInfoDO> prefetch(List<String> orderIds) {
+        return orderInfoDAO.listByOrderIds(orderIds).stream()
+                .collect(Collectors.toMap(OrderInfoDO::getOrderId, Function.identity(), (a, b) -> a));
+    }
+
+    /**
+     * 同一订单的多条消息是重复消息，每个订单只触发一次履约
+     */
+    @Override
+    protected void consumeOrder(String orderId, List<PaidOrderSuccessMessage> messages, OrderInfoDO order) throws Exception {
+        log.info("触发订单履约，orderId:{}", orderId);
+        if (Objects.isNull(order)) {
+            throw new OrderBizException(OrderErrorCodeEnum.ORDER_INFO_IS_NULL);
         }
 
+        //1、加分布式锁+里面的履约前置状态校验防止消息重复消费
+        String key = RedisLockKeyConstants.ORDER_FULFILL_KEY + orderId;
+        if (!redisLock.tryLock(key)) {
+            log.error("order has not acquired lock，cannot fulfill, orderId={}", orderId);
+            throw new BaseBizException(OrderErrorCodeEnum.ORDER_FULFILL_ERROR);
+        }
+
+        try {
+            //2、进行订单履约逻辑
+            ReceiveFulfillRequest receiveFulfillRequest = orderFulFillService.buildReceiveFulFillRequest(order);
+
+            defaultProducer.sendTransactionMessage(TRIGGER_ORDER_FULFILL_TOPIC,
+                    JSON.toJSONString(receiveFulfillRequest), FULFILL_ORDER_TRANSACTION_HANDLER, orderId, order);
+
+        } finally {
+            redisLock.unlock(key);
+        }
     }
 
-}
\ No newline at end of file
+}
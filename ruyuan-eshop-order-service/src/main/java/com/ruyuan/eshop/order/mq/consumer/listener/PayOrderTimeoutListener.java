@@ -1,11 +1,12 @@
 package com.ruyuan.eshop.order.mq.consumer.listener;
 
-import com.alibaba.fastjson.JSON;
 import com.ruyuan.eshop.common.enums.OrderStatusEnum;
 import com.ruyuan.eshop.common.message.PayOrderTimeoutDelayMessage;
 import com.ruyuan.eshop.order.dao.OrderInfoDAO;
 import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
 import com.ruyuan.eshop.order.domain.request.CancelOrderRequest;
+import com.ruyuan.eshop.order.mq.consumer.IdempotentConsumer;
+import com.ruyuan.eshop.order.mq.consumer.MessagePayloads;
 import com.ruyuan.eshop.order.service.OrderAfterSaleService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
@@ -26,6 +27,7 @@ import java.util.List;
  */
 @Slf4j
 @Component
+@IdempotentConsumer
 public class PayOrderTimeoutListener implements MessageListenerConcurrently {
 
     @Autowired
@@ -38,8 +40,7 @@ public class PayOrderTimeoutListener implements MessageListenerConcurrently {
     public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> list, ConsumeConcurrentlyContext consumeConcurrentlyContext) {
         try {
             for (MessageExt messageExt : list) {
-                String message = new String(messageExt.getBody());
-                PayOrderTimeoutDelayMessage payOrderTimeoutDelayMessage = JSON.parseObject(message, PayOrderTimeoutDelayMessage.class);
+                PayOrderTimeoutDelayMessage payOrderTimeoutDelayMessage = MessagePayloads.decode(messageExt, PayOrderTimeoutDelayMessage.class);
                 // 消费延迟消息，执行关单逻辑
                 CancelOrderRequest cancelOrderRequest = new CancelOrderRequest();
                 cancelOrderRequest.setOrderId(payOrderTimeoutDelayMessage.getOrderId());
@@ -10,17 +10,18 @@ import com.ruyuan.eshop.order.dao.OrderItemDAO;
 import com.ruyuan.eshop.order.domain.dto.OrderInfoDTO;
 import com.ruyuan.eshop.order.domain.entity.OrderItemDO;
 import com.ruyuan.eshop.order.domain.request.CancelOrderAssembleRequest;
+import com.ruyuan.eshop.order.mq.consumer.IdempotentConsumer;
 import com.ruyuan.eshop.order.mq.producer.DefaultProducer;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
-import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
-import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
-import org.apache.rocketmq.common.message.MessageExt;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * 监听 释放资产消息
@@ -30,7 +31,8 @@ import java.util.List;
  */
 @Slf4j
 @Component
-public class ReleaseAssetsListener implements MessageListenerConcurrently {
+@IdempotentConsumer
+public class ReleaseAssetsListener extends AbstractOrderBatchListener<CancelOrderAssembleRequest, List<OrderItemDO>> {
 
     @Autowired
     private DefaultProducer defaultProducer;
@@ -38,39 +40,70 @@ public class ReleaseAssetsListener implements MessageListenerConcurrently {
     @Autowired
     private OrderItemDAO orderItemDAO;
 
+    public ReleaseAssetsListener() {
+        super(CancelOrderAssembleRequest.class);
+    }
+
+    @Override
+    protected String orderIdOf(CancelOrderAssembleRequest message) {
+        return message.getOrderInfoDTO().getOrderId();
+    }
+
+    /**
+     * 一批消息里的订单条目一次查出来
+     */
+    @Override
+    protected Map<String, List<OrderItemDO>> prefetch(List<String> orderIds) {
+        return orderItemDAO.listByOrderIds(orderIds).stream()
+                .collect(Collectors.groupingBy(OrderItemDO::getOrderId));
+    }
+
+    /**
+     * 订单只会取消一次，同一订单的多条消息是重复消息，只处理第一条
+     * 只发出消息不等待结果，一批消息里所有订单的消息都发出后再统一等待，发往同一topic的消息可以合并成批量发送
+     */
     @Override
-    public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> list, ConsumeConcurrentlyContext consumeConcurrentlyContext) {
-        try {
-            for (MessageExt messageExt : list) {
-                // 1、消费到释放资产message
-                String message = new String(messageExt.getBody());
-                log.info("ReleaseAssetsListener message:{}", message);
-                CancelOrderAssembleRequest cancelOrderAssembleRequest = JSONObject.parseObject(message, CancelOrderAssembleRequest.class);
-                OrderInfoDTO orderInfoDTO = cancelOrderAssembleRequest.getOrderInfoDTO();
-
-                // 2、发送取消订单退款请求MQ
-                if (orderInfoDTO.getOrderStatus() > OrderStatusEnum.CREATED.getCode()) {
-                    defaultProducer.sendMessage(RocketMqConstant.CANCEL_REFUND_REQUEST_TOPIC,
-                            JSONObject.toJSONString(cancelOrderAssembleRequest), "取消订单退款", null, orderInfoDTO.getOrderId());
-                }
-
-                // 3、发送释放库存MQ
-                ReleaseProductStockRequest releaseProductStockRequest = buildReleaseProductStock(orderInfoDTO, orderItemDAO);
-                defaultProducer.sendMessage(RocketMqConstant.CANCEL_RELEASE_INVENTORY_TOPIC,
-                        JSONObject.toJSONString(releaseProductStockRequest), "取消订单释放库存", null, orderInfoDTO.getOrderId());
-
-                // 4、发送释放优惠券MQ
-                if (!Strings.isNullOrEmpty(orderInfoDTO.getCouponId())) {
-                    ReleaseUserCouponRequest releaseUserCouponRequest = buildReleaseUserCoupon(orderInfoDTO);
-                    defaultProducer.sendMessage(RocketMqConstant.CANCEL_RELEASE_PROPERTY_TOPIC,
-                            JSONObject.toJSONString(releaseUserCouponRequest), "取消订单释放优惠券", null, orderInfoDTO.getOrderId());
-                }
-            }
-            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
-        } catch (Exception e) {
-            log.error("consumer error", e);
-            return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+    protected CompletableFuture<Void> consumeOrderAsync(String orderId, List<CancelOrderAssembleRequest> messages,
+                                                        List<OrderItemDO> orderItemDOList) {
+        messages.forEach(message -> log.info("ReleaseAssetsListener message:{}", message));
+        return releaseAssets(messages.get(0), orderItemDOList != null ? orderItemDOList : Collections.emptyList());
+    }
+
+    @Override
+    protected void consumeOrder(String orderId, List<CancelOrderAssembleRequest> messages, List<OrderItemDO> orderItemDOList) {
+        consumeOrderAsync(orderId, messages, orderItemDOList).join();
+    }
+
+    /**
+     * 退款、释放库存、释放优惠券三条消息并行发送
+     * 发送失败时不写本地暂存，这批消息返回重试；重试时已经发出的消息会再发一次，和消息重复投递一样由下游处理
+     *
+     * @return 三条消息都发送成功后完成，任一条发送失败时异常结束
+     */
+    private CompletableFuture<Void> releaseAssets(CancelOrderAssembleRequest cancelOrderAssembleRequest,
+                                                  List<OrderItemDO> orderItemDOList) {
+        // 1、消费到释放资产message
+        OrderInfoDTO orderInfoDTO = cancelOrderAssembleRequest.getOrderInfoDTO();
+        List<CompletableFuture<Void>> sendFutures = new ArrayList<>(3);
+
+        // 2、发送取消订单退款请求MQ
+        if (orderInfoDTO.getOrderStatus() > OrderStatusEnum.CREATED.getCode()) {
+            sendFutures.add(defaultProducer.sendAsync(RocketMqConstant.CANCEL_REFUND_REQUEST_TOPIC,
+                    JSONObject.toJSONString(cancelOrderAssembleRequest), "取消订单退款", null, orderInfoDTO.getOrderId()));
+        }
+
+        // 3、发送释放库存MQ
+        ReleaseProductStockRequest releaseProductStockRequest = buildReleaseProductStock(orderInfoDTO, orderItemDOList);
+        sendFutures.add(defaultProducer.sendAsync(RocketMqConstant.CANCEL_RELEASE_INVENTORY_TOPIC,
+                JSONObject.toJSONString(releaseProductStockRequest), "取消订单释放库存", null, orderInfoDTO.getOrderId()));
+
+        // 4、发送释放优惠券MQ
+        if (!Strings.isNullOrEmpty(orderInfoDTO.getCouponId())) {
+            ReleaseUserCouponRequest releaseUserCouponRequest = buildReleaseUserCoupon(orderInfoDTO);
+            sendFutures.add(defaultProducer.sendAsync(RocketMqConstant.CANCEL_RELEASE_PROPERTY_TOPIC,
+                    JSONObject.toJSONString(releaseUserCouponRequest), "取消订单释放优惠券", null, orderInfoDTO.getOrderId()));
         }
+        return CompletableFuture.allOf(sendFutures.toArray(new CompletableFuture[0]));
     }
 
     /**
@@ -89,13 +122,11 @@ public class ReleaseAssetsListener implements MessageListenerConcurrently {
     /**
      * 组装释放库存数据
      */
-    private ReleaseProductStockRequest buildReleaseProductStock(OrderInfoDTO orderInfoDTO, OrderItemDAO orderItemDAO) {
-        String orderId = orderInfoDTO.getOrderId();
+    private ReleaseProductStockRequest buildReleaseProductStock(OrderInfoDTO orderInfoDTO, List<OrderItemDO> orderItemDOList) {
         List<ReleaseProductStockRequest.OrderItemRequest> orderItemRequestList = new ArrayList<>();
 
-        //  查询订单条目
+        //  订单条目
         ReleaseProductStockRequest.OrderItemRequest orderItemRequest;
-        List<OrderItemDO> orderItemDOList = orderItemDAO.listByOrderId(orderId);
         for (OrderItemDO orderItemDO : orderItemDOList) {
             orderItemRequest = new ReleaseProductStockRequest.OrderItemRequest();
             orderItemRequest.setSkuCode(orderItemDO.getSkuCode());
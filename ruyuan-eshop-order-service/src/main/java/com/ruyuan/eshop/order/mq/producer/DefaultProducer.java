@@ -1,13 +1,14 @@
 package com.ruyuan.eshop.order.mq.producer;
 
-import com.alibaba.fastjson.JSON;
 import com.ruyuan.eshop.common.constants.RocketMqConstant;
-import com.ruyuan.eshop.common.message.TraceableMessage;
-import com.ruyuan.eshop.common.utils.MdcUtil;
+import com.ruyuan.eshop.common.message.codec.MessageCodec;
+import com.ruyuan.eshop.common.message.codec.MessageCodecs;
+import com.ruyuan.eshop.order.config.OrderProperties;
 import com.ruyuan.eshop.order.exception.OrderBizException;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.MQProducer;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.client.producer.SendStatus;
 import org.apache.rocketmq.client.producer.TransactionMQProducer;
@@ -17,7 +18,9 @@ import org.apache.rocketmq.spring.autoconfigure.RocketMQProperties;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author zhonghuashishan
@@ -29,13 +32,41 @@ public class DefaultProducer {
 
     private final TransactionMQProducer producer;
 
+    /**
+     * 共享生产者上唯一的事务监听器，按消息属性分发到各业务的处理器
+     */
+    private final TransactionMessageDispatcher transactionMessageDispatcher = new TransactionMessageDispatcher();
+
+    /**
+     * 异步发送消息的攒批器
+     */
+    private final MessageBatcher messageBatcher;
+
+    /**
+     * 对象消息的编码方式，配置的编码方式不支持的消息类型使用JSON
+     */
+    private final String messageCodec;
+
     @Autowired
-    public DefaultProducer(RocketMQProperties rocketMQProperties) {
+    public DefaultProducer(RocketMQProperties rocketMQProperties, OrderProperties orderProperties) {
         producer = new TransactionMQProducer(RocketMqConstant.ORDER_DEFAULT_PRODUCER_GROUP);
         producer.setNamesrvAddr(rocketMQProperties.getNameServer());
+        producer.setTransactionListener(transactionMessageDispatcher);
+        messageBatcher = new MessageBatcher(producer, orderProperties);
+        messageCodec = orderProperties.getMessageCodec();
         start();
     }
 
+    /**
+     * 使用外部创建好的生产者和攒批器，不负责启动
+     */
+    DefaultProducer(TransactionMQProducer producer, MessageBatcher messageBatcher, String messageCodec) {
+        this.producer = producer;
+        this.producer.setTransactionListener(transactionMessageDispatcher);
+        this.messageBatcher = messageBatcher;
+        this.messageCodec = messageCodec;
+    }
+
     /**
      * 对象在使用之前必须要调用一次，只能初始化一次
      */
@@ -49,11 +80,25 @@ public class DefaultProducer {
 
     /**
      * 一般在应用上下文，使用上下文监听器，进行关闭
+     * 先发送完攒批中的异步消息，再关闭生产者
      */
+    @PreDestroy
     public void shutdown() {
+        try {
+            this.messageBatcher.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         this.producer.shutdown();
     }
 
+    /**
+     * 底层的生产者，发件箱投递线程用它直接批量发送
+     */
+    MQProducer getMQProducer() {
+        return producer;
+    }
+
     /**
      * 发送消息
      *
@@ -72,6 +117,31 @@ public class DefaultProducer {
      */
     public void sendMessage(String topic, String message, Integer delayTimeLevel, String type, String tags, String keys) {
         Message msg = new Message(topic, tags, keys, message.getBytes(StandardCharsets.UTF_8));
+        send(msg, delayTimeLevel, type, message);
+    }
+
+    /**
+     * 按配置的编码方式发送对象消息
+     *
+     * @param topic   topic
+     * @param message 消息对象
+     */
+    public void sendEncodedMessage(String topic, Object message, String type, String tags, String keys) {
+        sendEncodedMessage(topic, message, -1, type, tags, keys);
+    }
+
+    /**
+     * 按配置的编码方式发送对象消息，编码方式写在消息属性里，消费者据此解码
+     *
+     * @param topic   topic
+     * @param message 消息对象
+     */
+    public void sendEncodedMessage(String topic, Object message, Integer delayTimeLevel, String type, String tags, String keys) {
+        Message msg = encode(topic, tags, keys, message);
+        send(msg, delayTimeLevel, type, message);
+    }
+
+    private void send(Message msg, Integer delayTimeLevel, String type, Object message) {
         try {
             if (delayTimeLevel > 0) {
                 msg.setDelayTimeLevel(delayTimeLevel);
@@ -88,16 +158,99 @@ public class DefaultProducer {
         }
     }
 
-    public TransactionSendResult sendMessageInTransaction(String topic, Object messageContent)
-            throws MQClientException {
-        String traceId = MdcUtil.getTraceId();
-        TraceableMessage m = new TraceableMessage(traceId, messageContent.getClass(), messageContent);
-        byte[] body = JSON.toJSONString(m).getBytes(StandardCharsets.UTF_8);
-        Message message = new Message(topic, body);
-        return producer.sendMessageInTransaction(message, messageContent);
+    private Message encode(String topic, String tags, String keys, Object message) {
+        MessageCodec codec = MessageCodecs.select(messageCodec, message);
+        Message msg = new Message(topic, tags, keys, codec.encode(message));
+        msg.putUserProperty(MessageCodec.PROPERTY_CODEC, codec.name());
+        return msg;
     }
 
-    public TransactionMQProducer getProducer() {
-        return producer;
+    /**
+     * 异步发送消息
+     *
+     * @param topic   topic
+     * @param message 消息
+     * @return 消息发送成功后完成，发送失败时异常结束
+     */
+    public CompletableFuture<Void> sendAsync(String topic, String message, String type, String tags, String keys) {
+        return sendAsync(topic, message, -1, type, tags, keys);
+    }
+
+    /**
+     * 异步发送消息
+     * 同一个topic短时间内的消息合并成一批发送，不同topic的消息并行发送；发送失败时由调用方重试，
+     * 比如消费者里触发的发送由消费者返回重试，不能在消息还没发出去时确认消费
+     *
+     * @param topic   topic
+     * @param message 消息
+     * @return 消息发送成功后完成，发送失败时异常结束
+     */
+    public CompletableFuture<Void> sendAsync(String topic, String message, Integer delayTimeLevel, String type, String tags, String keys) {
+        Message msg = new Message(topic, tags, keys, message.getBytes(StandardCharsets.UTF_8));
+        if (delayTimeLevel > 0) {
+            msg.setDelayTimeLevel(delayTimeLevel);
+        }
+        return messageBatcher.submit(msg).whenComplete((result, e) -> {
+            if (e == null) {
+                log.info("发送MQ消息成功, type:{}, message:{}", type, message);
+            } else {
+                log.error("发送MQ消息失败, type:{}, message:{}", type, message, e);
+            }
+        });
+    }
+
+    /**
+     * 注册事务消息处理器，一般在业务bean初始化时注册
+     *
+     * @param handlerKey 处理器标识
+     * @param handler    处理器
+     */
+    public void registerTransactionHandler(String handlerKey, TransactionMessageHandler handler) {
+        transactionMessageDispatcher.register(handlerKey, handler);
+    }
+
+    /**
+     * 发送事务消息
+     * 本地事务和回查都由handlerKey对应的处理器执行，bizKey同时作为消息的keys，回查时据此定位业务数据
+     *
+     * @param topic      topic
+     * @param payload    消息内容
+     * @param handlerKey 处理器标识
+     * @param bizKey     业务标识
+     * @param arg        传给本地事务的参数
+     * @return 发送结果
+     */
+    public TransactionSendResult sendTransactionMessage(String topic, String payload, String handlerKey,
+                                                        String bizKey, Object arg) throws MQClientException {
+        if (!transactionMessageDispatcher.contains(handlerKey)) {
+            throw new IllegalStateException("transaction message handler not registered: " + handlerKey);
+        }
+        Message message = new Message(topic, null, bizKey, payload.getBytes(StandardCharsets.UTF_8));
+        return sendInTransaction(message, handlerKey, bizKey, arg);
+    }
+
+    /**
+     * 按配置的编码方式发送对象事务消息
+     *
+     * @param topic      topic
+     * @param payload    消息对象
+     * @param handlerKey 处理器标识
+     * @param bizKey     业务标识
+     * @param arg        传给本地事务的参数
+     * @return 发送结果
+     */
+    public TransactionSendResult sendEncodedTransactionMessage(String topic, Object payload, String handlerKey,
+                                                               String bizKey, Object arg) throws MQClientException {
+        if (!transactionMessageDispatcher.contains(handlerKey)) {
+            throw new IllegalStateException("transaction message handler not registered: " + handlerKey);
+        }
+        return sendInTransaction(encode(topic, null, bizKey, payload), handlerKey, bizKey, arg);
+    }
+
+    private TransactionSendResult sendInTransaction(Message message, String handlerKey, String bizKey,
+                                                    Object arg) throws MQClientException {
+        message.putUserProperty(TransactionMessageDispatcher.PROPERTY_HANDLER_KEY, handlerKey);
+        message.putUserProperty(TransactionMessageDispatcher.PROPERTY_BIZ_KEY, bizKey);
+        return producer.sendMessageInTransaction(message, arg);
     }
 }
@@ -0,0 +1,304 @@
+package com.ruyuan.eshop.order.mq.producer;
+
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.exception.OrderBizException;
+import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.producer.MQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 按topic攒批异步发送消息
+ * <p>
+ * 同一个topic在等待时间内提交的消息合成一批，通过 producer.send(Collection) 一次发送，攒够条数或字节数时立即发送；
+ * 不同topic的批次在线程池里并行发送，提交线程不等待broker响应。延迟消息不能批量发送，单条提交到线程池。
+ * </p>
+ * <p>
+ * 一批消息发送失败时整批的future异常结束，由调用方重试，比如消费者返回重试，不能在消息还没发出去时确认消费。
+ * </p>
+ * <p>
+ * 提交在读锁里检查关闭状态并入队，关闭在写锁里置位，关闭之后不会再有消息进入攒批；关闭时等不到发送结果的消息，future异常结束。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+public class MessageBatcher {
+
+    private final MQProducer producer;
+
+    private final long lingerMillis;
+
+    private final int maxBatchSize;
+
+    private final int maxBatchBytes;
+
+    /**
+     * topic -> 攒批中的消息
+     */
+    private final ConcurrentMap<String, TopicBatch> topicBatches = new ConcurrentHashMap<>();
+
+    /**
+     * 攒批计时
+     */
+    private final ScheduledExecutorService scheduler;
+
+    private final ExecutorService sendExecutor;
+
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private volatile boolean closed;
+
+    public MessageBatcher(MQProducer producer, OrderProperties orderProperties) {
+        this(producer, orderProperties, newScheduler(), newSendExecutor(orderProperties));
+    }
+
+    /**
+     * 使用外部创建的线程池，关闭时一并关闭
+     */
+    MessageBatcher(MQProducer producer, OrderProperties orderProperties,
+                   ScheduledExecutorService scheduler, ExecutorService sendExecutor) {
+        this.producer = producer;
+        this.lingerMillis = orderProperties.getProducerBatchLingerMillis();
+        this.maxBatchSize = orderProperties.getProducerBatchMaxSize();
+        this.maxBatchBytes = orderProperties.getProducerBatchMaxBytes();
+        this.scheduler = scheduler;
+        this.sendExecutor = sendExecutor;
+    }
+
+    /**
+     * 提交一条消息
+     *
+     * @param message 消息
+     * @return 消息发送成功后完成，发送失败时异常结束
+     */
+    public CompletableFuture<Void> submit(Message message) {
+        // 提交时生成消息唯一ID，生产者内部重试时不变
+        MessageClientIDSetter.setUniqID(message);
+        PendingMessage pendingMessage = new PendingMessage(message);
+        List<PendingMessage> full = null;
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("message batcher closed");
+            }
+            if (message.getDelayTimeLevel() > 0) {
+                full = Collections.singletonList(pendingMessage);
+            } else {
+                TopicBatch topicBatch = topicBatches.computeIfAbsent(message.getTopic(), topic -> new TopicBatch());
+                synchronized (topicBatch) {
+                    topicBatch.messages.add(pendingMessage);
+                    topicBatch.bytes += message.getBody().length;
+                    if (topicBatch.messages.size() >= maxBatchSize || topicBatch.bytes >= maxBatchBytes) {
+                        full = topicBatch.drain();
+                    } else if (topicBatch.messages.size() == 1) {
+                        long generation = topicBatch.generation;
+                        scheduler.schedule(() -> flushIfLingered(topicBatch, generation), lingerMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+            if (full != null) {
+                sendExecutor.execute(new SendTask(full));
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return pendingMessage.future;
+    }
+
+    /**
+     * 停止接收消息，发送完攒批中的消息后关闭线程池，等不到发送结果的消息异常结束
+     */
+    public void close() throws InterruptedException {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        scheduler.shutdownNow();
+        for (TopicBatch topicBatch : topicBatches.values()) {
+            List<PendingMessage> batch;
+            synchronized (topicBatch) {
+                batch = topicBatch.drain();
+            }
+            if (!batch.isEmpty()) {
+                sendAndComplete(batch);
+            }
+        }
+        sendExecutor.shutdown();
+        if (sendExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+            return;
+        }
+        List<Runnable> leftoverTasks = sendExecutor.shutdownNow();
+        log.warn("message batcher closed with unsent messages, tasks:{}", leftoverTasks.size());
+        for (Runnable task : leftoverTasks) {
+            if (task instanceof SendTask) {
+                completeExceptionally(((SendTask) task).batch);
+            }
+        }
+    }
+
+    /**
+     * 到了等待时间还是同一批消息时发送，已经因为攒够而发送的批次不再处理
+     */
+    private void flushIfLingered(TopicBatch topicBatch, long generation) {
+        List<PendingMessage> batch;
+        synchronized (topicBatch) {
+            if (topicBatch.generation != generation) {
+                return;
+            }
+            batch = topicBatch.drain();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sendExecutor.execute(new SendTask(batch));
+        } catch (RejectedExecutionException e) {
+            // 关闭时会取走攒批中的消息，这里只是兜底
+            completeExceptionally(batch);
+        }
+    }
+
+    private void sendAndComplete(List<PendingMessage> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingMessage pendingMessage : batch) {
+            messages.add(pendingMessage.message);
+        }
+        try {
+            send(messages);
+        } catch (Exception e) {
+            log.warn("send mq message failed, topic:{}, count:{}, error:{}",
+                    messages.get(0).getTopic(), messages.size(), e.getMessage());
+            completeExceptionally(batch);
+            return;
+        }
+        for (PendingMessage pendingMessage : batch) {
+            pendingMessage.future.complete(null);
+        }
+    }
+
+    private void completeExceptionally(List<PendingMessage> batch) {
+        for (PendingMessage pendingMessage : batch) {
+            pendingMessage.future.completeExceptionally(new OrderBizException(OrderErrorCodeEnum.SEND_MQ_FAILED));
+        }
+    }
+
+    /**
+     * 同一个topic的多条非延迟消息批量发送，其余单条发送
+     */
+    private void send(List<Message> messages) throws Exception {
+        if (messages.size() == 1 || !batchable(messages)) {
+            for (Message message : messages) {
+                checkSendResult(producer.send(message));
+            }
+            return;
+        }
+        checkSendResult(producer.send(messages));
+    }
+
+    private boolean batchable(List<Message> messages) {
+        String topic = messages.get(0).getTopic();
+        for (Message message : messages) {
+            if (!topic.equals(message.getTopic()) || message.getDelayTimeLevel() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkSendResult(SendResult sendResult) {
+        if (sendResult == null || SendStatus.SEND_OK != sendResult.getSendStatus()) {
+            throw new IllegalStateException("send mq message not ok, status:"
+                    + (sendResult == null ? null : sendResult.getSendStatus()));
+        }
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        CustomizableThreadFactory schedulerThreadFactory = new CustomizableThreadFactory("ORDER_MQ_BATCH_SCHEDULER_");
+        schedulerThreadFactory.setDaemon(true);
+        return Executors.newSingleThreadScheduledExecutor(schedulerThreadFactory);
+    }
+
+    private static ExecutorService newSendExecutor(OrderProperties orderProperties) {
+        CustomizableThreadFactory sendThreadFactory = new CustomizableThreadFactory("ORDER_MQ_BATCH_SEND_");
+        sendThreadFactory.setDaemon(true);
+        return new ThreadPoolExecutor(
+                orderProperties.getProducerSendPoolSize(),
+                orderProperties.getProducerSendPoolSize(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(orderProperties.getProducerSendQueueCapacity()),
+                sendThreadFactory,
+                // 队列满时由提交线程发送；关闭后拒绝，由调用方让消息异常结束
+                (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("message batcher closed");
+                    }
+                    task.run();
+                });
+    }
+
+    /**
+     * 发送一批消息的任务，关闭时据此找出没来得及发送的消息
+     */
+    private class SendTask implements Runnable {
+
+        private final List<PendingMessage> batch;
+
+        SendTask(List<PendingMessage> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            sendAndComplete(batch);
+        }
+    }
+
+    /**
+     * 一个topic攒批中的消息，在自身的锁里读写
+     */
+    private static class TopicBatch {
+
+        private List<PendingMessage> messages = new ArrayList<>();
+
+        private long bytes;
+
+        /**
+         * 每取走一批加一，计时任务据此判断自己等的那一批是否还在
+         */
+        private long generation;
+
+        List<PendingMessage> drain() {
+            List<PendingMessage> batch = messages;
+            messages = new ArrayList<>();
+            bytes = 0;
+            generation++;
+            return batch;
+        }
+    }
+
+    private static class PendingMessage {
+
+        private final Message message;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingMessage(Message message) {
+            this.message = message;
+        }
+    }
+}
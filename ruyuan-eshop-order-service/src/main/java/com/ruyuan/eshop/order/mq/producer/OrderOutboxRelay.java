@@ -0,0 +1,333 @@
+package com.ruyuan.eshop.order.mq.producer;
+
+import com.ruyuan.eshop.common.message.codec.MessageCodec;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.OrderOutboxDAO;
+import com.ruyuan.eshop.order.domain.entity.OrderOutboxDO;
+import com.ruyuan.eshop.order.mq.ExpiredRecordPurger;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.producer.MQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单消息发件箱投递
+ * <p>
+ * 后台线程按主键顺序领取发件箱里的待投递消息：领取时带着占用条件更新占用人和到期时间，多个服务实例同时领取时
+ * 一条消息只会被一个实例领到；实例挂掉后占用到期，消息由其他实例重新领取。
+ * </p>
+ * <p>
+ * 同一个订单的消息按主键顺序投递：只投递从这个订单最早一条待投递消息开始、连续被自己领取到的消息，
+ * 每一轮每个订单只发一条，同一轮里同一个topic的非延迟消息合成一批发送。一条消息发送失败后这个订单后面的消息
+ * 这次都不发，失败的消息按失败次数指数退避后再投递。发送成功的消息最后用一条语句标记已投递，
+ * 标记前服务崩溃时消息会被再投递一次，消息唯一ID不变，消费端据此去重。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class OrderOutboxRelay {
+
+    /**
+     * 失败原因字段长度
+     */
+    private static final int MAX_ERROR_LENGTH = 255;
+
+    @Autowired
+    private DefaultProducer defaultProducer;
+
+    @Autowired
+    private OrderOutboxDAO orderOutboxDAO;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    /**
+     * 本实例的投递线程标识
+     */
+    private final String leaseOwner = UUID.randomUUID().toString();
+
+    private volatile boolean running;
+
+    private Thread relayThread;
+
+    /**
+     * 清理投递成功超过保留时间的消息，在投递线程里执行，停止时不再删下一批
+     */
+    private final ExpiredRecordPurger deliveredPurger = new ExpiredRecordPurger("delivered order outbox",
+            Integer.MAX_VALUE);
+
+    /**
+     * 启动后台投递线程
+     */
+    @PostConstruct
+    public void start() {
+        if (!Boolean.TRUE.equals(orderProperties.getOutboxRelayEnabled())) {
+            log.info("order outbox relay disabled");
+            return;
+        }
+        running = true;
+        relayThread = new Thread(this::runRelayLoop, "ORDER_OUTBOX_RELAY");
+        relayThread.setDaemon(true);
+        relayThread.start();
+    }
+
+    /**
+     * 停止后台投递线程，正在投递的一轮完成后退出，没投递的消息留在发件箱里
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (relayThread != null) {
+            relayThread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private void runRelayLoop() {
+        while (running) {
+            int sent = 0;
+            try {
+                sent = relayOnce();
+                purgeDelivered();
+            } catch (Throwable e) {
+                log.error("relay order outbox error", e);
+            }
+            // 这一轮发出了消息说明可能还有积压，立即领取下一批；一条都没发出时等一会，避免反复领取同一批发不出去的消息
+            if (sent == 0) {
+                try {
+                    Thread.sleep(orderProperties.getOutboxPollInterval());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 领取并投递一批消息
+     *
+     * @return 发送成功的消息条数
+     */
+    int relayOnce() {
+        List<OrderOutboxDO> claimed = orderOutboxDAO.claim(leaseOwner, orderProperties.getOutboxClaimBatchSize());
+        if (claimed.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, Deque<OrderOutboxDO>> sendableByOrder = sendableByOrder(claimed);
+        List<Long> deliveredIds = new ArrayList<>();
+        // 失败次数 -> 这一轮失败的消息，失败次数相同的下次投递时间相同，一条语句更新
+        Map<Integer, FailedMessages> failedByRetryCount = new TreeMap<>();
+        while (!sendableByOrder.isEmpty()) {
+            // 每个订单取排在最前面的一条，上一条发送成功后才发下一条
+            List<OrderOutboxDO> wave = new ArrayList<>(sendableByOrder.size());
+            for (Deque<OrderOutboxDO> orderMessages : sendableByOrder.values()) {
+                wave.add(orderMessages.peekFirst());
+            }
+            Set<String> failedOrderIds = send(wave, deliveredIds, failedByRetryCount);
+
+            Iterator<Map.Entry<String, Deque<OrderOutboxDO>>> iterator = sendableByOrder.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Deque<OrderOutboxDO>> entry = iterator.next();
+                entry.getValue().pollFirst();
+                if (failedOrderIds.contains(entry.getKey()) || entry.getValue().isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        orderOutboxDAO.markDelivered(deliveredIds);
+        markFailed(failedByRetryCount);
+
+        // 排在别人领取的消息后面、或者排在失败消息后面的，这一轮不投递，释放给下一轮
+        Set<Long> handledIds = new HashSet<>(deliveredIds);
+        failedByRetryCount.values().forEach(failed -> handledIds.addAll(failed.ids));
+        List<Long> unsentIds = new ArrayList<>();
+        for (OrderOutboxDO orderOutboxDO : claimed) {
+            if (!handledIds.contains(orderOutboxDO.getId())) {
+                unsentIds.add(orderOutboxDO.getId());
+            }
+        }
+        orderOutboxDAO.releaseLease(unsentIds, leaseOwner);
+        return deliveredIds.size();
+    }
+
+    /**
+     * 每个订单可以投递的消息：从这个订单最早一条待投递消息开始、连续被自己领取到的消息
+     */
+    private Map<String, Deque<OrderOutboxDO>> sendableByOrder(List<OrderOutboxDO> claimed) {
+        Map<String, List<OrderOutboxDO>> claimedByOrder = new LinkedHashMap<>();
+        for (OrderOutboxDO orderOutboxDO : claimed) {
+            claimedByOrder.computeIfAbsent(orderOutboxDO.getOrderId(), key -> new ArrayList<>()).add(orderOutboxDO);
+        }
+        Map<String, List<Long>> pendingIdsByOrder = new HashMap<>(claimedByOrder.size());
+        for (OrderOutboxDO pending : orderOutboxDAO.listPendingIdsByOrderIds(new ArrayList<>(claimedByOrder.keySet()))) {
+            pendingIdsByOrder.computeIfAbsent(pending.getOrderId(), key -> new ArrayList<>()).add(pending.getId());
+        }
+
+        Map<String, Deque<OrderOutboxDO>> sendableByOrder = new LinkedHashMap<>();
+        for (Map.Entry<String, List<OrderOutboxDO>> entry : claimedByOrder.entrySet()) {
+            List<Long> pendingIds = pendingIdsByOrder.getOrDefault(entry.getKey(), Collections.emptyList());
+            Deque<OrderOutboxDO> sendable = new ArrayDeque<>();
+            for (OrderOutboxDO orderOutboxDO : entry.getValue()) {
+                if (sendable.size() >= pendingIds.size()
+                        || !pendingIds.get(sendable.size()).equals(orderOutboxDO.getId())) {
+                    break;
+                }
+                sendable.addLast(orderOutboxDO);
+            }
+            if (!sendable.isEmpty()) {
+                sendableByOrder.put(entry.getKey(), sendable);
+            }
+        }
+        return sendableByOrder;
+    }
+
+    /**
+     * 发送一轮消息，同一个topic的非延迟消息按批发送，延迟消息单条发送
+     *
+     * @return 有消息发送失败的订单
+     */
+    private Set<String> send(List<OrderOutboxDO> wave, List<Long> deliveredIds,
+                             Map<Integer, FailedMessages> failedByRetryCount) {
+        Map<String, List<OrderOutboxDO>> batchesByTopic = new LinkedHashMap<>();
+        List<List<OrderOutboxDO>> chunks = new ArrayList<>();
+        for (OrderOutboxDO orderOutboxDO : wave) {
+            if (orderOutboxDO.getDelayTimeLevel() > 0) {
+                chunks.add(Collections.singletonList(orderOutboxDO));
+            } else {
+                batchesByTopic.computeIfAbsent(orderOutboxDO.getTopic(), key -> new ArrayList<>()).add(orderOutboxDO);
+            }
+        }
+        for (List<OrderOutboxDO> topicBatch : batchesByTopic.values()) {
+            chunks.addAll(split(topicBatch));
+        }
+
+        Set<String> failedOrderIds = new HashSet<>();
+        MQProducer producer = defaultProducer.getMQProducer();
+        for (List<OrderOutboxDO> chunk : chunks) {
+            try {
+                if (chunk.size() == 1) {
+                    checkSendResult(producer.send(toMessage(chunk.get(0))));
+                } else {
+                    List<Message> messages = new ArrayList<>(chunk.size());
+                    chunk.forEach(orderOutboxDO -> messages.add(toMessage(orderOutboxDO)));
+                    checkSendResult(producer.send(messages));
+                }
+                chunk.forEach(orderOutboxDO -> deliveredIds.add(orderOutboxDO.getId()));
+            } catch (Exception e) {
+                log.warn("relay order outbox failed, topic:{}, count:{}, error:{}",
+                        chunk.get(0).getTopic(), chunk.size(), e.getMessage());
+                for (OrderOutboxDO orderOutboxDO : chunk) {
+                    failedByRetryCount.computeIfAbsent(orderOutboxDO.getRetryCount(), key -> new FailedMessages(e))
+                            .ids.add(orderOutboxDO.getId());
+                    failedOrderIds.add(orderOutboxDO.getOrderId());
+                }
+            }
+        }
+        return failedOrderIds;
+    }
+
+    /**
+     * 按批量发送的条数和字节数上限拆分
+     */
+    private List<List<OrderOutboxDO>> split(List<OrderOutboxDO> topicBatch) {
+        List<List<OrderOutboxDO>> chunks = new ArrayList<>();
+        List<OrderOutboxDO> chunk = new ArrayList<>();
+        long bytes = 0;
+        for (OrderOutboxDO orderOutboxDO : topicBatch) {
+            if (!chunk.isEmpty() && (chunk.size() >= orderProperties.getProducerBatchMaxSize()
+                    || bytes + orderOutboxDO.getBody().length > orderProperties.getProducerBatchMaxBytes())) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                bytes = 0;
+            }
+            chunk.add(orderOutboxDO);
+            bytes += orderOutboxDO.getBody().length;
+        }
+        chunks.add(chunk);
+        return chunks;
+    }
+
+    private Message toMessage(OrderOutboxDO orderOutboxDO) {
+        Message message = new Message(orderOutboxDO.getTopic(), orderOutboxDO.getTags(), orderOutboxDO.getMsgKeys(),
+                orderOutboxDO.getBody());
+        message.putUserProperty(MessageCodec.PROPERTY_CODEC, orderOutboxDO.getCodec());
+        // 重复投递时消息ID保持不变
+        MessageAccessor.putProperty(message, MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX, orderOutboxDO.getMsgId());
+        if (orderOutboxDO.getDelayTimeLevel() > 0) {
+            message.setDelayTimeLevel(orderOutboxDO.getDelayTimeLevel());
+        }
+        return message;
+    }
+
+    private void checkSendResult(SendResult sendResult) {
+        if (sendResult == null || SendStatus.SEND_OK != sendResult.getSendStatus()) {
+            throw new IllegalStateException("send mq message not ok, status:"
+                    + (sendResult == null ? null : sendResult.getSendStatus()));
+        }
+    }
+
+    /**
+     * 按失败次数指数退避，间隔不超过上限，失败次数相同的消息一条语句更新
+     */
+    private void markFailed(Map<Integer, FailedMessages> failedByRetryCount) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, FailedMessages> entry : failedByRetryCount.entrySet()) {
+            FailedMessages failed = entry.getValue();
+            try {
+                orderOutboxDAO.markFailed(failed.ids, leaseOwner, new Date(now + retryDelay(entry.getKey())),
+                        failed.error);
+            } catch (Exception markError) {
+                // 占用到期后会被重新领取
+                log.error("mark order outbox failed error, ids:{}", failed.ids, markError);
+            }
+        }
+    }
+
+    long retryDelay(int retryCount) {
+        long base = orderProperties.getOutboxRetryBaseMillis();
+        long max = orderProperties.getOutboxRetryMaxMillis();
+        int shift = Math.min(retryCount, 30);
+        return Math.min(base << shift, max);
+    }
+
+    /**
+     * 定期分批删除投递成功超过保留时间的消息
+     */
+    private void purgeDelivered() {
+        long now = System.currentTimeMillis();
+        Date before = new Date(now - TimeUnit.HOURS.toMillis(orderProperties.getOutboxRetentionHours()));
+        deliveredPurger.purgeIfDue(now, limit -> running ? orderOutboxDAO.deleteDelivered(before, limit) : 0);
+    }
+
+    /**
+     * 失败次数相同的一组发送失败的消息
+     */
+    private static class FailedMessages {
+
+        private final List<Long> ids = new ArrayList<>();
+
+        /**
+         * 这一组第一次失败的原因
+         */
+        private final String error;
+
+        private FailedMessages(Exception e) {
+            String message = String.valueOf(e.getMessage());
+            this.error = message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.ruyuan.eshop.order.mq.producer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.producer.LocalTransactionState;
+import org.apache.rocketmq.client.producer.TransactionListener;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 事务消息分发监听器
+ * <p>
+ * 生产者启动时注册一次，按消息上的handlerKey属性找到处理器，
+ * 每条消息都带着自己的处理器和业务标识，并发发送事务消息时不会串到别的请求的回调上。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+public class TransactionMessageDispatcher implements TransactionListener {
+
+    /**
+     * 处理器标识的消息属性
+     */
+    public static final String PROPERTY_HANDLER_KEY = "TX_HANDLER_KEY";
+
+    /**
+     * 业务标识的消息属性
+     */
+    public static final String PROPERTY_BIZ_KEY = "TX_BIZ_KEY";
+
+    private final Map<String, TransactionMessageHandler> handlers = new ConcurrentHashMap<>();
+
+    /**
+     * 注册处理器，同一个handlerKey只能注册一次
+     */
+    public void register(String handlerKey, TransactionMessageHandler handler) {
+        TransactionMessageHandler exist = handlers.putIfAbsent(handlerKey, handler);
+        if (exist != null) {
+            throw new IllegalStateException("duplicate transaction message handler: " + handlerKey);
+        }
+    }
+
+    public boolean contains(String handlerKey) {
+        return handlers.containsKey(handlerKey);
+    }
+
+    @Override
+    public LocalTransactionState executeLocalTransaction(Message msg, Object arg) {
+        String handlerKey = msg.getUserProperty(PROPERTY_HANDLER_KEY);
+        TransactionMessageHandler handler = handlerKey == null ? null : handlers.get(handlerKey);
+        if (handler == null) {
+            // 本地事务还没执行，直接回滚半消息
+            log.error("transaction message handler not found, topic:{}, handlerKey:{}", msg.getTopic(), handlerKey);
+            return LocalTransactionState.ROLLBACK_MESSAGE;
+        }
+        return handler.executeLocalTransaction(msg.getUserProperty(PROPERTY_BIZ_KEY), arg);
+    }
+
+    @Override
+    public LocalTransactionState checkLocalTransaction(MessageExt msg) {
+        String handlerKey = msg.getUserProperty(PROPERTY_HANDLER_KEY);
+        TransactionMessageHandler handler = handlerKey == null ? null : handlers.get(handlerKey);
+        if (handler == null) {
+            // 处理器可能还没注册完，交给broker稍后再回查
+            log.error("transaction message handler not found, msgId:{}, topic:{}, handlerKey:{}",
+                    msg.getMsgId(), msg.getTopic(), handlerKey);
+            return LocalTransactionState.UNKNOW;
+        }
+        return handler.checkLocalTransaction(msg.getUserProperty(PROPERTY_BIZ_KEY));
+    }
+}
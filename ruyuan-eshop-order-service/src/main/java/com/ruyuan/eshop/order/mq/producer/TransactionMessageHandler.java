@@ -0,0 +1,34 @@
+package com.ruyuan.eshop.order.mq.producer;
+
+import org.apache.rocketmq.client.producer.LocalTransactionState;
+
+/**
+ * 事务消息本地事务处理器
+ * <p>
+ * 按handlerKey注册到{@link DefaultProducer}，由统一的事务监听器根据消息属性分发，
+ * 不要再往共享的TransactionMQProducer上设置监听器。
+ * 回查时只有业务标识可用，checkLocalTransaction不能依赖发送时的局部变量。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+public interface TransactionMessageHandler {
+
+    /**
+     * 执行本地事务，在发送线程中同步调用
+     *
+     * @param bizKey 业务标识
+     * @param arg    发送时传入的参数
+     * @return 本地事务状态
+     */
+    LocalTransactionState executeLocalTransaction(String bizKey, Object arg);
+
+    /**
+     * 回查本地事务状态
+     *
+     * @param bizKey 业务标识
+     * @return 本地事务状态
+     */
+    LocalTransactionState checkLocalTransaction(String bizKey);
+}
@@ -1,20 +1,28 @@
 package com.ruyuan.eshop.order.schedule;
 
 
+import com.ruyuan.eshop.common.dao.ShardedCursorScanner;
+import com.ruyuan.eshop.common.enums.OrderStatusEnum;
+import com.ruyuan.eshop.common.utils.LoggerFormat;
 import com.ruyuan.eshop.order.config.OrderProperties;
 import com.ruyuan.eshop.order.dao.OrderInfoDAO;
 import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
 import com.ruyuan.eshop.order.domain.request.CancelOrderRequest;
 import com.ruyuan.eshop.order.enums.OrderCancelTypeEnum;
+import com.ruyuan.eshop.order.manager.OrderExpireIndexManager;
 import com.ruyuan.eshop.order.service.OrderAfterSaleService;
 import com.xxl.job.core.context.XxlJobHelper;
 import com.xxl.job.core.handler.annotation.XxlJob;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 /**
  * 自动取消超时订单任务
@@ -25,6 +33,11 @@ import java.util.Optional;
 @Component
 public class AutoCancelExpiredOrderTask {
 
+    /**
+     * 任务参数，根据数据库中的未支付订单重建超时索引
+     */
+    static final String REBUILD_PARAM = "rebuild";
+
     /**
      * 订单管理DAO组件
      */
@@ -37,6 +50,17 @@ public class AutoCancelExpiredOrderTask {
     @Autowired
     private OrderProperties orderProperties;
 
+    @Autowired
+    private OrderExpireIndexManager orderExpireIndexManager;
+
+    @Autowired
+    @Qualifier("orderExpireCancelExecutor")
+    private ExecutorService orderExpireCancelExecutor;
+
+    @Autowired
+    @Qualifier("orderScanExecutor")
+    private ExecutorService orderScanExecutor;
+
     /**
      * 执行任务逻辑
      */
@@ -47,53 +71,92 @@ public class AutoCancelExpiredOrderTask {
         int totalShardNum = Optional.ofNullable(XxlJobHelper.getShardTotal()).orElse(0);
         String param = XxlJobHelper.getJobParam();
 
-        // 扫描当前时间 - 订单超时时间 -> 前的一小段时间范围(时间范围用配置中心配置)
-        // 比如当前时间11:40，订单超时时间是30分钟，扫描11:09:00 -> 11:10:00这一分钟的未支付订单，
-        // 缺点：有一个订单超过了30 + 1 = 31分钟，都没有被处理(取消)，这笔订单就永久待支付
-        for (OrderInfoDO order : orderInfoDAO.listAllUnPaid()) {
+        if (REBUILD_PARAM.equals(param)) {
+            rebuildExpireIndex(shardIndex, totalShardNum);
+        }
+        int canceled = cancelExpiredOrders(shardIndex, totalShardNum);
+        log.info("{}", LoggerFormat.build()
+                .remark("AutoCancelExpiredOrderTask finished")
+                .data("shardIndex", shardIndex)
+                .data("totalShardNum", totalShardNum)
+                .data("canceled", canceled));
+        XxlJobHelper.handleSuccess();
+    }
 
-            if(totalShardNum<=0) {
-                //不进行分片
-                doExecute(order);
+    /**
+     * 从超时索引中认领当前执行器负责的分片里已到期的订单，提交到关单线程池
+     * 超时索引的分片数量固定，执行器按 索引分片 % 执行器总数 认领分片
+     * 订单关单成功后才从索引中移除，执行器中途宕机时订单在租约到期后会被重新认领
+     *
+     * @return 处理的到期订单数量
+     */
+    int cancelExpiredOrders(int shardIndex, int totalShardNum) {
+        int batchSize = orderProperties.getExpireCancelBatchSize();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int shard = 0; shard < orderExpireIndexManager.getShardCount(); shard++) {
+            if (totalShardNum > 0 && shard % totalShardNum != shardIndex) {
+                continue;
             }
-            else {
-                //分片
-                int hash = hash(order.getOrderId()) % totalShardNum;
-                if(hash == shardIndex) {
-                    doExecute(order);
+            List<String> orderIds;
+            do {
+                orderIds = orderExpireIndexManager.claimExpired(shard, batchSize);
+                for (String orderId : orderIds) {
+                    futures.add(CompletableFuture.runAsync(() -> doExecute(orderId), orderExpireCancelExecutor));
                 }
-            }
+            } while (orderIds.size() >= batchSize);
         }
-        XxlJobHelper.handleSuccess();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        return futures.size();
     }
 
-    private void doExecute(OrderInfoDO order) {
-        if (new Date().getTime() -
-                order.getExpireTime().getTime() >= orderProperties.getExpireTime()) {
-            // 超过30min未支付
-            CancelOrderRequest request = new CancelOrderRequest();
-            request.setOrderId(order.getOrderId());
-            request.setUserId(order.getUserId());
-            request.setBusinessIdentifier(order.getBusinessIdentifier());
-            request.setOrderType(order.getOrderType());
-            request.setCancelType(OrderCancelTypeEnum.TIMEOUT_CANCELED.getCode());
-            request.setOrderStatus(order.getOrderStatus());
-            try {
-                orderAfterSaleService.cancelOrder(request);
-            } catch (Exception e) {
-                log.error("AutoCancelExpiredOrderTask execute error:", e);
-            }
+    private void doExecute(String orderId) {
+        OrderInfoDO order = orderInfoDAO.getByOrderId(orderId);
+        if (order == null || !OrderStatusEnum.unPaidStatus().contains(order.getOrderStatus())) {
+            // 订单已支付或已取消
+            orderExpireIndexManager.remove(orderId);
+            return;
+        }
+        // 超过30min未支付
+        CancelOrderRequest request = new CancelOrderRequest();
+        request.setOrderId(order.getOrderId());
+        request.setUserId(order.getUserId());
+        request.setBusinessIdentifier(order.getBusinessIdentifier());
+        request.setOrderType(order.getOrderType());
+        request.setCancelType(OrderCancelTypeEnum.TIMEOUT_CANCELED.getCode());
+        request.setOrderStatus(order.getOrderStatus());
+        try {
+            orderAfterSaleService.cancelOrder(request);
+        } catch (Exception e) {
+            log.error("AutoCancelExpiredOrderTask execute error:", e);
+            // 关单失败，延迟一段时间后重新关单
+            orderExpireIndexManager.registerDelay(orderId, orderProperties.getExpireCancelRetryDelay());
+            return;
         }
+        orderExpireIndexManager.remove(orderId);
     }
 
     /**
-     * hash
+     * 根据数据库中的未支付订单重建超时索引，用于索引上线或redis数据丢失后补数据
+     * 分片条件在SQL里按订单号的CRC32取模，每个执行器只扫描自己分片的订单，按主键分批读取
      *
-     * @param orderId
-     * @return
+     * @return 登记的订单数量
      */
-    private int hash(String orderId) {
-        //解决取模可能为负数的情况
-        return orderId.hashCode() & Integer.MAX_VALUE;
+    long rebuildExpireIndex(int shardIndex, int totalShardNum) throws InterruptedException {
+        ShardedCursorScanner<OrderInfoDO> scanner = new ShardedCursorScanner<>(orderInfoDAO,
+                "id", OrderInfoDO::getId, "CRC32(order_id)",
+                orderProperties.getScanChunkSize(), orderScanExecutor, orderProperties.getScanMaxInFlightChunks());
+        long count = scanner.scan(shardIndex, totalShardNum,
+                queryWrapper -> queryWrapper.in("order_status", OrderStatusEnum.unPaidStatus()),
+                orders -> {
+                    for (OrderInfoDO order : orders) {
+                        orderExpireIndexManager.register(order.getOrderId(), order.getExpireTime());
+                    }
+                });
+        log.info("{}", LoggerFormat.build()
+                .remark("rebuild order expire index")
+                .data("shardIndex", shardIndex)
+                .data("totalShardNum", totalShardNum)
+                .data("count", count));
+        return count;
     }
 }
@@ -0,0 +1,97 @@
+package com.ruyuan.eshop.order.search;
+
+import lombok.Data;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 订单列表读模型中的一个订单
+ * 把订单列表查询用到的order_info、order_item、order_payment_detail、order_delivery_detail字段合到一起
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Data
+public class OrderListRow {
+
+    /**
+     * 订单主键
+     */
+    private Long id;
+
+    private Integer businessIdentifier;
+
+    private String orderId;
+
+    private String parentOrderId;
+
+    private String businessOrderId;
+
+    private Integer orderType;
+
+    private Integer orderStatus;
+
+    private String sellerId;
+
+    private String userId;
+
+    private Integer payType;
+
+    private String couponId;
+
+    private Date payTime;
+
+    private Integer payAmount;
+
+    private String userRemark;
+
+    private Integer commentStatus;
+
+    private Integer deleteStatus;
+
+    private Date gmtCreate;
+
+    /**
+     * 订单条目，按主键升序
+     */
+    private List<Item> items;
+
+    /**
+     * 支付明细的交易流水号
+     */
+    private List<String> tradeNos;
+
+    /**
+     * 配送信息
+     */
+    private List<Delivery> deliveries;
+
+    /**
+     * 订单条目
+     */
+    @Data
+    public static class Item {
+
+        private Long id;
+
+        private String productImg;
+
+        private String productName;
+
+        private String skuCode;
+
+        private Integer saleQuantity;
+    }
+
+    /**
+     * 配送信息
+     */
+    @Data
+    public static class Delivery {
+
+        private String receiverName;
+
+        private String receiverPhone;
+    }
+}
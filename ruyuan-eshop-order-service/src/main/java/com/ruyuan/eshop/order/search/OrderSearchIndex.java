@@ -0,0 +1,374 @@
+package com.ruyuan.eshop.order.search;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.ruyuan.eshop.order.domain.dto.OrderListDTO;
+import com.ruyuan.eshop.order.domain.dto.OrderListQueryDTO;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 订单列表内存索引
+ * <p>
+ * 每个订单分配一个文档号，业务线、订单类型、订单状态、买家、卖家、sku各建一份倒排索引，值是文档号位图；
+ * 创建时间按小时分桶，每个桶也是一个文档号位图。
+ * 查询时先把条件对应的位图求交集，再从最新的时间桶往前取，只对落在当前页的桶按(创建时间, 主键)排序，
+ * 其余条件在候选订单上逐个判断。
+ * </p>
+ * <p>
+ * 返回的行和OrderInfoMapper.listByPage一致：每个订单条目一行，没有条目的订单返回一行空条目，
+ * 按页码分页的是行而不是订单。已删除的订单不进索引。
+ * 非线程安全，由{@link OrderSearchReadModel}加锁访问
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+class OrderSearchIndex {
+
+    private static final long BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final Comparator<OrderListRow> NEWEST_FIRST = Comparator
+            .comparing(OrderListRow::getGmtCreate).thenComparing(OrderListRow::getId).reversed();
+
+    /**
+     * 文档号 -> 订单，删除后留空位，文档号回收复用
+     */
+    private final List<OrderListRow> rows = new ArrayList<>();
+
+    private final Map<String, Integer> docIds = new HashMap<>();
+
+    private final Deque<Integer> freeDocIds = new ArrayDeque<>();
+
+    private final BitSet allDocs = new BitSet();
+
+    private final Map<Integer, BitSet> businessIdentifierIndex = new HashMap<>();
+
+    private final Map<Integer, BitSet> orderTypeIndex = new HashMap<>();
+
+    private final Map<Integer, BitSet> orderStatusIndex = new HashMap<>();
+
+    private final Map<String, BitSet> userIdIndex = new HashMap<>();
+
+    private final Map<String, BitSet> sellerIdIndex = new HashMap<>();
+
+    private final Map<String, BitSet> skuCodeIndex = new HashMap<>();
+
+    /**
+     * 创建时间所在的小时 -> 文档号
+     */
+    private final TreeMap<Long, BitSet> timeBuckets = new TreeMap<>();
+
+    /**
+     * 写入订单，已存在时替换，已删除的订单直接移除
+     */
+    void put(OrderListRow row) {
+        remove(row.getOrderId());
+        if (row.getDeleteStatus() == null || row.getDeleteStatus() != 0) {
+            return;
+        }
+        int docId = freeDocIds.isEmpty() ? rows.size() : freeDocIds.pop();
+        if (docId == rows.size()) {
+            rows.add(row);
+        } else {
+            rows.set(docId, row);
+        }
+        docIds.put(row.getOrderId(), docId);
+        allDocs.set(docId);
+        addPosting(businessIdentifierIndex, row.getBusinessIdentifier(), docId);
+        addPosting(orderTypeIndex, row.getOrderType(), docId);
+        addPosting(orderStatusIndex, row.getOrderStatus(), docId);
+        addPosting(userIdIndex, row.getUserId(), docId);
+        addPosting(sellerIdIndex, row.getSellerId(), docId);
+        for (OrderListRow.Item item : row.getItems()) {
+            addPosting(skuCodeIndex, item.getSkuCode(), docId);
+        }
+        addPosting(timeBuckets, bucket(row.getGmtCreate()), docId);
+    }
+
+    /**
+     * 移除订单
+     */
+    void remove(String orderId) {
+        Integer docId = docIds.remove(orderId);
+        if (docId == null) {
+            return;
+        }
+        OrderListRow row = rows.get(docId);
+        allDocs.clear(docId);
+        removePosting(businessIdentifierIndex, row.getBusinessIdentifier(), docId);
+        removePosting(orderTypeIndex, row.getOrderType(), docId);
+        removePosting(orderStatusIndex, row.getOrderStatus(), docId);
+        removePosting(userIdIndex, row.getUserId(), docId);
+        removePosting(sellerIdIndex, row.getSellerId(), docId);
+        for (OrderListRow.Item item : row.getItems()) {
+            removePosting(skuCodeIndex, item.getSkuCode(), docId);
+        }
+        removePosting(timeBuckets, bucket(row.getGmtCreate()), docId);
+        rows.set(docId, null);
+        freeDocIds.push(docId);
+    }
+
+    /**
+     * 索引中的订单数
+     */
+    int size() {
+        return docIds.size();
+    }
+
+    /**
+     * 按页码查询订单列表
+     *
+     * @param query 查询条件
+     * @return 当前页的行，总条数是行数
+     */
+    Page<OrderListDTO> search(OrderListQueryDTO query) {
+        long pageNo = query.getPageNo();
+        long pageSize = query.getPageSize();
+        long offset = (pageNo - 1) * pageSize;
+        long end = offset + pageSize;
+
+        BitSet candidates = candidates(query);
+        NavigableMap<Long, BitSet> buckets = bucketsInRange(query.getCreatedTimeInterval());
+
+        long total = 0;
+        List<OrderListDTO> records = new ArrayList<>();
+        for (BitSet bucket : buckets.descendingMap().values()) {
+            BitSet hits = (BitSet) bucket.clone();
+            hits.and(candidates);
+            if (hits.isEmpty()) {
+                continue;
+            }
+            if (total >= end) {
+                // 已经取满一页，后面的桶只计数，不排序
+                for (int docId = hits.nextSetBit(0); docId >= 0; docId = hits.nextSetBit(docId + 1)) {
+                    total += rowCount(rows.get(docId), query);
+                }
+                continue;
+            }
+            List<OrderListRow> bucketRows = new ArrayList<>(hits.cardinality());
+            for (int docId = hits.nextSetBit(0); docId >= 0; docId = hits.nextSetBit(docId + 1)) {
+                bucketRows.add(rows.get(docId));
+            }
+            bucketRows.sort(NEWEST_FIRST);
+            for (OrderListRow row : bucketRows) {
+                long count = rowCount(row, query);
+                if (count == 0) {
+                    continue;
+                }
+                if (total + count > offset && total < end) {
+                    List<OrderListDTO> orderRows = toListRows(row, query);
+                    for (int i = 0; i < orderRows.size(); i++) {
+                        if (total + i >= offset && total + i < end) {
+                            records.add(orderRows.get(i));
+                        }
+                    }
+                }
+                total += count;
+            }
+        }
+
+        Page<OrderListDTO> page = new Page<>(pageNo, pageSize, total);
+        page.setRecords(records);
+        return page;
+    }
+
+    /**
+     * 位图上能判断的条件求交集
+     */
+    private BitSet candidates(OrderListQueryDTO query) {
+        BitSet candidates = (BitSet) allDocs.clone();
+        if (query.getBusinessIdentifier() != null) {
+            retain(candidates, businessIdentifierIndex, Collections.singleton(query.getBusinessIdentifier()));
+        }
+        retain(candidates, orderTypeIndex, query.getOrderTypes());
+        retain(candidates, orderStatusIndex, query.getOrderStatus());
+        retain(candidates, userIdIndex, query.getUserIds());
+        retain(candidates, sellerIdIndex, query.getSellerIds());
+        retain(candidates, skuCodeIndex, query.getSkuCodes());
+        if (isNotEmpty(query.getOrderIds())) {
+            BitSet orderIdDocs = new BitSet();
+            for (String orderId : query.getOrderIds()) {
+                Integer docId = docIds.get(orderId);
+                if (docId != null) {
+                    orderIdDocs.set(docId);
+                }
+            }
+            candidates.and(orderIdDocs);
+        }
+        return candidates;
+    }
+
+    private NavigableMap<Long, BitSet> bucketsInRange(Pair<Date, Date> createdTimeInterval) {
+        NavigableMap<Long, BitSet> buckets = timeBuckets;
+        if (createdTimeInterval != null && createdTimeInterval.getLeft() != null) {
+            buckets = buckets.tailMap(bucket(createdTimeInterval.getLeft()), true);
+        }
+        if (createdTimeInterval != null && createdTimeInterval.getRight() != null) {
+            buckets = buckets.headMap(bucket(createdTimeInterval.getRight()), true);
+        }
+        return buckets;
+    }
+
+    /**
+     * 订单在连表查询中对应的行数：符合条件的订单条目数 × 支付明细数 × 配送信息数，订单不符合条件时为0
+     */
+    private long rowCount(OrderListRow row, OrderListQueryDTO query) {
+        if (!matchOrder(row, query)) {
+            return 0;
+        }
+        return joinCount(row.getItems(), itemFilter(query))
+                * joinCount(row.getTradeNos(), tradeNoFilter(query))
+                * joinCount(row.getDeliveries(), deliveryFilter(query));
+    }
+
+    private List<OrderListDTO> toListRows(OrderListRow row, OrderListQueryDTO query) {
+        long repeat = joinCount(row.getTradeNos(), tradeNoFilter(query))
+                * joinCount(row.getDeliveries(), deliveryFilter(query));
+        Predicate<OrderListRow.Item> itemFilter = itemFilter(query);
+        List<OrderListRow.Item> items = new ArrayList<>();
+        for (OrderListRow.Item item : row.getItems()) {
+            if (itemFilter == null || itemFilter.test(item)) {
+                items.add(item);
+            }
+        }
+        if (items.isEmpty() && itemFilter == null) {
+            // left join没有条目时返回一行空条目
+            items.add(null);
+        }
+        List<OrderListDTO> listRows = new ArrayList<>();
+        for (OrderListRow.Item item : items) {
+            for (long i = 0; i < repeat; i++) {
+                listRows.add(toListDTO(row, item));
+            }
+        }
+        return listRows;
+    }
+
+    /**
+     * 和OrderInfoMapper.listByPage查询的列保持一致
+     */
+    private OrderListDTO toListDTO(OrderListRow row, OrderListRow.Item item) {
+        OrderListDTO dto = new OrderListDTO();
+        dto.setBusinessIdentifier(row.getBusinessIdentifier());
+        dto.setOrderId(row.getOrderId());
+        dto.setBusinessOrderId(row.getBusinessOrderId());
+        dto.setOrderType(row.getOrderType());
+        dto.setOrderStatus(row.getOrderStatus());
+        dto.setSellerId(row.getSellerId());
+        dto.setUserId(row.getUserId());
+        dto.setPayType(row.getPayType());
+        dto.setCouponId(row.getCouponId());
+        dto.setPayTime(row.getPayTime());
+        dto.setPayAmount(row.getPayAmount());
+        dto.setUserRemark(row.getUserRemark());
+        dto.setCommentStatus(row.getCommentStatus());
+        if (item != null) {
+            dto.setProductImg(item.getProductImg());
+            dto.setProductName(item.getProductName());
+            dto.setSkuCode(item.getSkuCode());
+            dto.setSaleQuantity(item.getSaleQuantity());
+        }
+        return dto;
+    }
+
+    /**
+     * order_info上位图处理不了的条件
+     */
+    private boolean matchOrder(OrderListRow row, OrderListQueryDTO query) {
+        if (isNotEmpty(query.getParentOrderIds()) && !query.getParentOrderIds().contains(row.getParentOrderId())) {
+            return false;
+        }
+        return inRange(row.getGmtCreate(), query.getCreatedTimeInterval())
+                && inRange(row.getPayTime(), query.getPayTimeInterval())
+                && inRange(row.getPayAmount(), query.getPayAmountInterval());
+    }
+
+    private static <T extends Comparable<T>> boolean inRange(T value, Pair<T, T> interval) {
+        if (interval == null) {
+            return true;
+        }
+        if (interval.getLeft() != null && (value == null || value.compareTo(interval.getLeft()) < 0)) {
+            return false;
+        }
+        return interval.getRight() == null || (value != null && value.compareTo(interval.getRight()) <= 0);
+    }
+
+    private static Predicate<OrderListRow.Item> itemFilter(OrderListQueryDTO query) {
+        Set<String> skuCodes = query.getSkuCodes();
+        Set<String> productNames = query.getProductNames();
+        if (!isNotEmpty(skuCodes) && !isNotEmpty(productNames)) {
+            return null;
+        }
+        return item -> (!isNotEmpty(skuCodes) || skuCodes.contains(item.getSkuCode()))
+                && (!isNotEmpty(productNames) || productNames.contains(item.getProductName()));
+    }
+
+    private static Predicate<String> tradeNoFilter(OrderListQueryDTO query) {
+        Set<String> tradeNos = query.getTradeNos();
+        return isNotEmpty(tradeNos) ? tradeNos::contains : null;
+    }
+
+    private static Predicate<OrderListRow.Delivery> deliveryFilter(OrderListQueryDTO query) {
+        Set<String> receiverPhones = query.getReceiverPhones();
+        Set<String> receiverNames = query.getReceiverNames();
+        if (!isNotEmpty(receiverPhones) && !isNotEmpty(receiverNames)) {
+            return null;
+        }
+        return delivery -> (!isNotEmpty(receiverPhones) || receiverPhones.contains(delivery.getReceiverPhone()))
+                && (!isNotEmpty(receiverNames) || receiverNames.contains(delivery.getReceiverName()));
+    }
+
+    /**
+     * left join一张明细表后的行数：没有明细时为1行空值，有过滤条件时只算符合条件的明细
+     */
+    private static <T> long joinCount(List<T> details, Predicate<T> filter) {
+        if (filter == null) {
+            return Math.max(details.size(), 1);
+        }
+        return details.stream().filter(filter).count();
+    }
+
+    private static <K> void retain(BitSet candidates, Map<K, BitSet> index, Collection<K> keys) {
+        if (!isNotEmpty(keys)) {
+            return;
+        }
+        BitSet union = new BitSet();
+        for (K key : keys) {
+            BitSet posting = index.get(key);
+            if (posting != null) {
+                union.or(posting);
+            }
+        }
+        candidates.and(union);
+    }
+
+    private static <K> void addPosting(Map<K, BitSet> index, K key, int docId) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new BitSet()).set(docId);
+        }
+    }
+
+    private static <K> void removePosting(Map<K, BitSet> index, K key, int docId) {
+        if (key == null) {
+            return;
+        }
+        BitSet posting = index.get(key);
+        if (posting != null) {
+            posting.clear(docId);
+            if (posting.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static long bucket(Date time) {
+        return Math.floorDiv(time.getTime(), BUCKET_MILLIS);
+    }
+
+    private static boolean isNotEmpty(Collection<?> collection) {
+        return collection != null && !collection.isEmpty();
+    }
+}
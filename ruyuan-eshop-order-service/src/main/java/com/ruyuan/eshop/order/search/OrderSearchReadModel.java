@@ -0,0 +1,326 @@
+package com.ruyuan.eshop.order.search;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.ruyuan.eshop.order.cache.OrderChangedEvent;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.OrderDeliveryDetailDAO;
+import com.ruyuan.eshop.order.dao.OrderInfoDAO;
+import com.ruyuan.eshop.order.dao.OrderItemDAO;
+import com.ruyuan.eshop.order.dao.OrderPaymentDetailDAO;
+import com.ruyuan.eshop.order.domain.dto.OrderListDTO;
+import com.ruyuan.eshop.order.domain.dto.OrderListQueryDTO;
+import com.ruyuan.eshop.order.domain.entity.OrderDeliveryDetailDO;
+import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
+import com.ruyuan.eshop.order.domain.entity.OrderItemDO;
+import com.ruyuan.eshop.order.domain.entity.OrderPaymentDetailDO;
+import io.seata.core.context.RootContext;
+import io.seata.tm.api.transaction.TransactionHookAdapter;
+import io.seata.tm.api.transaction.TransactionHookManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * 订单列表读模型
+ * <p>
+ * 启动时按主键分批从数据库加载订单，建立{@link OrderSearchIndex}；之后写订单相关表时DAO发布{@link OrderChangedEvent}，
+ * 事务提交后按订单号从数据库重新加载这些订单刷新索引，seata全局事务结束后再刷新一次，全局回滚的数据也能恢复。
+ * 重建和刷新都在单线程里按顺序执行，后执行的刷新读到的一定是更新的数据。
+ * 重建期间变更的订单号先记下来，新索引替换上去之后再逐个刷新，已经扫描过的订单也不会漏掉变更；
+ * 记下订单号后立即返回，写订单的线程不用等重建结束。
+ * 没有开启、还没加载完或者刷新失败正在重建时，订单列表查询走数据库
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class OrderSearchReadModel {
+
+    @Autowired
+    private OrderInfoDAO orderInfoDAO;
+
+    @Autowired
+    private OrderItemDAO orderItemDAO;
+
+    @Autowired
+    private OrderPaymentDetailDAO orderPaymentDetailDAO;
+
+    @Autowired
+    private OrderDeliveryDetailDAO orderDeliveryDetailDAO;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    @Autowired
+    @Qualifier("orderSearchRefreshExecutor")
+    private ExecutorService orderSearchRefreshExecutor;
+
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    /**
+     * 重建和刷新互斥，队列打满由写订单的线程自己刷新时也不会和刷新线程交错
+     */
+    private final Object refreshLock = new Object();
+
+    private OrderSearchIndex index = new OrderSearchIndex();
+
+    /**
+     * 重建期间变更的订单号，和rebuilding一起在自身的锁里读写
+     */
+    private final Set<String> pendingOrderIds = new LinkedHashSet<>();
+
+    private boolean rebuilding;
+
+    private volatile boolean ready;
+
+    /**
+     * 开启时在后台加载全部订单
+     */
+    @PostConstruct
+    public void start() {
+        if (Boolean.TRUE.equals(orderProperties.getSearchReadModelEnabled())) {
+            orderSearchRefreshExecutor.execute(this::rebuild);
+        }
+    }
+
+    /**
+     * 是否可以查询
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 按页码查询订单列表，结果和OrderInfoDAO.listByPage一致
+     *
+     * @param query 查询条件
+     * @return
+     */
+    public Page<OrderListDTO> listByPage(OrderListQueryDTO query) {
+        indexLock.readLock().lock();
+        try {
+            return index.search(query);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 索引中的订单数
+     */
+    public int size() {
+        indexLock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从数据库重建索引，替换索引后刷新重建期间变更的订单，失败时保持不可查询
+     */
+    public void rebuild() {
+        synchronized (refreshLock) {
+            ready = false;
+            synchronized (pendingOrderIds) {
+                rebuilding = true;
+            }
+            try {
+                OrderSearchIndex newIndex = new OrderSearchIndex();
+                int batchSize = orderProperties.getSearchRebuildBatchSize();
+                long lastId = 0L;
+                List<OrderInfoDO> orderInfoDOList;
+                do {
+                    orderInfoDOList = orderInfoDAO.listByIdAfter(lastId, batchSize);
+                    if (orderInfoDOList.isEmpty()) {
+                        break;
+                    }
+                    loadRows(orderInfoDOList).values().forEach(newIndex::put);
+                    lastId = orderInfoDOList.get(orderInfoDOList.size() - 1).getId();
+                } while (orderInfoDOList.size() == batchSize);
+
+                indexLock.writeLock().lock();
+                try {
+                    index = newIndex;
+                } finally {
+                    indexLock.writeLock().unlock();
+                }
+                replayPending();
+                ready = true;
+                log.info("订单列表读模型加载完成, size={}", newIndex.size());
+            } catch (Exception e) {
+                log.error("订单列表读模型加载失败，订单列表查询数据库", e);
+            } finally {
+                // 加载失败时索引不可查询，下一次重建会读到最新数据
+                synchronized (pendingOrderIds) {
+                    rebuilding = false;
+                    pendingOrderIds.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * 从数据库重新加载订单刷新索引，刷新失败时重建
+     *
+     * @param orderIds 订单号
+     */
+    public void refresh(Collection<String> orderIds) {
+        synchronized (pendingOrderIds) {
+            if (rebuilding) {
+                pendingOrderIds.addAll(orderIds);
+                return;
+            }
+        }
+        synchronized (refreshLock) {
+            if (!ready) {
+                // 加载失败后不用刷新，下一次重建会读到最新数据
+                return;
+            }
+            try {
+                reload(orderIds);
+            } catch (Exception e) {
+                log.error("刷新订单列表读模型失败，重新加载, orderIds={}", orderIds, e);
+                ready = false;
+                orderSearchRefreshExecutor.execute(this::rebuild);
+            }
+        }
+    }
+
+    /**
+     * 事务提交后刷新，不在事务中时立即刷新
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOrderChanged(OrderChangedEvent event) {
+        if (!Boolean.TRUE.equals(orderProperties.getSearchReadModelEnabled())) {
+            return;
+        }
+        List<String> orderIdList = event.getOrderIdList();
+        orderSearchRefreshExecutor.execute(() -> refresh(orderIdList));
+        if (RootContext.inGlobalTransaction()) {
+            TransactionHookManager.registerHook(new TransactionHookAdapter() {
+                @Override
+                public void afterCompletion() {
+                    orderSearchRefreshExecutor.execute(() -> refresh(orderIdList));
+                }
+            });
+        }
+    }
+
+    /**
+     * 刷新重建期间变更的订单，刷新时又有变更就接着刷新，直到没有新的变更才结束重建
+     */
+    private void replayPending() {
+        while (true) {
+            List<String> orderIds;
+            synchronized (pendingOrderIds) {
+                if (pendingOrderIds.isEmpty()) {
+                    rebuilding = false;
+                    return;
+                }
+                orderIds = new ArrayList<>(pendingOrderIds);
+                pendingOrderIds.clear();
+            }
+            reload(orderIds);
+        }
+    }
+
+    /**
+     * 按订单号从数据库重新加载，数据库里已经没有的订单从索引删除
+     */
+    private void reload(Collection<String> orderIds) {
+        Map<String, OrderListRow> rows = loadRows(orderInfoDAO.listByOrderIds(new ArrayList<>(orderIds)));
+        indexLock.writeLock().lock();
+        try {
+            for (String orderId : orderIds) {
+                OrderListRow row = rows.get(orderId);
+                if (row == null) {
+                    index.remove(orderId);
+                } else {
+                    index.put(row);
+                }
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 为一批订单查询条目、支付明细、配送信息，组装成读模型的行
+     */
+    private Map<String, OrderListRow> loadRows(List<OrderInfoDO> orderInfoDOList) {
+        Map<String, OrderListRow> rows = new LinkedHashMap<>();
+        if (orderInfoDOList.isEmpty()) {
+            return rows;
+        }
+        List<String> orderIds = orderInfoDOList.stream().map(OrderInfoDO::getOrderId).collect(Collectors.toList());
+        Map<String, List<OrderItemDO>> itemMap = orderItemDAO.listByOrderIds(orderIds).stream()
+                .collect(Collectors.groupingBy(OrderItemDO::getOrderId));
+        Map<String, List<OrderPaymentDetailDO>> paymentMap = orderPaymentDetailDAO.listByOrderIds(orderIds).stream()
+                .collect(Collectors.groupingBy(OrderPaymentDetailDO::getOrderId));
+        Map<String, List<OrderDeliveryDetailDO>> deliveryMap = orderDeliveryDetailDAO.listByOrderIds(orderIds).stream()
+                .collect(Collectors.groupingBy(OrderDeliveryDetailDO::getOrderId));
+
+        for (OrderInfoDO orderInfoDO : orderInfoDOList) {
+            String orderId = orderInfoDO.getOrderId();
+            OrderListRow row = new OrderListRow();
+            row.setId(orderInfoDO.getId());
+            row.setBusinessIdentifier(orderInfoDO.getBusinessIdentifier());
+            row.setOrderId(orderId);
+            row.setParentOrderId(orderInfoDO.getParentOrderId());
+            row.setBusinessOrderId(orderInfoDO.getBusinessOrderId());
+            row.setOrderType(orderInfoDO.getOrderType());
+            row.setOrderStatus(orderInfoDO.getOrderStatus());
+            row.setSellerId(orderInfoDO.getSellerId());
+            row.setUserId(orderInfoDO.getUserId());
+            row.setPayType(orderInfoDO.getPayType());
+            row.setCouponId(orderInfoDO.getCouponId());
+            row.setPayTime(orderInfoDO.getPayTime());
+            row.setPayAmount(orderInfoDO.getPayAmount());
+            row.setUserRemark(orderInfoDO.getUserRemark());
+            row.setCommentStatus(orderInfoDO.getCommentStatus());
+            row.setDeleteStatus(orderInfoDO.getDeleteStatus());
+            row.setGmtCreate(orderInfoDO.getGmtCreate());
+
+            List<OrderListRow.Item> items = new ArrayList<>();
+            itemMap.getOrDefault(orderId, Collections.emptyList()).stream()
+                    .sorted(Comparator.comparing(OrderItemDO::getId))
+                    .forEach(orderItemDO -> {
+                        OrderListRow.Item item = new OrderListRow.Item();
+                        item.setId(orderItemDO.getId());
+                        item.setProductImg(orderItemDO.getProductImg());
+                        item.setProductName(orderItemDO.getProductName());
+                        item.setSkuCode(orderItemDO.getSkuCode());
+                        item.setSaleQuantity(orderItemDO.getSaleQuantity());
+                        items.add(item);
+                    });
+            row.setItems(items);
+
+            row.setTradeNos(paymentMap.getOrDefault(orderId, Collections.emptyList()).stream()
+                    .map(OrderPaymentDetailDO::getOutTradeNo).collect(Collectors.toList()));
+
+            List<OrderListRow.Delivery> deliveries = new ArrayList<>();
+            for (OrderDeliveryDetailDO orderDeliveryDetailDO : deliveryMap.getOrDefault(orderId, Collections.emptyList())) {
+                OrderListRow.Delivery delivery = new OrderListRow.Delivery();
+                delivery.setReceiverName(orderDeliveryDetailDO.getReceiverName());
+                delivery.setReceiverPhone(orderDeliveryDetailDO.getReceiverPhone());
+                deliveries.add(delivery);
+            }
+            row.setDeliveries(deliveries);
+            rows.put(orderId, row);
+        }
+        return rows;
+    }
+}
@@ -33,7 +33,9 @@ import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class AfterSaleQueryServiceImpl implements AfterSaleQueryService {
@@ -130,8 +132,7 @@ public class AfterSaleQueryServiceImpl implements AfterSaleQueryService {
 
         List<OrderLackItemDTO> lackItems = new ArrayList<>();
 
-        lackItemDO.forEach(lackItem -> {
-            AfterSaleOrderDetailDTO detailDTO = afterSaleDetail(lackItem.getAfterSaleId());
+        buildAfterSaleDetails(lackItemDO).forEach(detailDTO -> {
             OrderLackItemDTO itemDTO = new OrderLackItemDTO();
             BeanUtils.copyProperties(detailDTO, itemDTO);
             lackItems.add(itemDTO);
@@ -140,6 +141,49 @@ public class AfterSaleQueryServiceImpl implements AfterSaleQueryService {
         return lackItems;
     }
 
+    /**
+     * 批量构造售后单详情，条目、支付信息、日志各用一条IN查询，再按售后单号分组
+     *
+     * @param afterSaleInfos 售后单
+     * @return 和售后单顺序一致
+     */
+    private List<AfterSaleOrderDetailDTO> buildAfterSaleDetails(List<AfterSaleInfoDO> afterSaleInfos) {
+        if (CollectionUtils.isEmpty(afterSaleInfos)) {
+            return new ArrayList<>();
+        }
+        List<Long> afterSaleIds = afterSaleInfos.stream()
+                .map(AfterSaleInfoDO::getAfterSaleId).distinct().collect(Collectors.toList());
+
+        //1、批量查询售后单条目
+        Map<Long, List<AfterSaleItemDO>> afterSaleItemMap = afterSaleItemDAO.listByAfterSaleIds(afterSaleIds)
+                .stream().collect(Collectors.groupingBy(AfterSaleItemDO::getAfterSaleId));
+
+        //2、批量查询售后支付信息
+        Map<String, List<AfterSaleRefundDO>> afterSalePayMap = afterSaleRefundDAO.listByAfterSaleIds(afterSaleIds)
+                .stream().collect(Collectors.groupingBy(AfterSaleRefundDO::getAfterSaleId));
+
+        //3、批量查询售后日志
+        Map<String, List<AfterSaleLogDO>> afterSaleLogMap = afterSaleLogDAO.listByAfterSaleIds(afterSaleIds)
+                .stream().collect(Collectors.groupingBy(AfterSaleLogDO::getAfterSaleId));
+
+        //4、构造返参
+        List<AfterSaleOrderDetailDTO> details = new ArrayList<>(afterSaleInfos.size());
+        for (AfterSaleInfoDO afterSaleInfo : afterSaleInfos) {
+            Long afterSaleId = afterSaleInfo.getAfterSaleId();
+            String afterSaleIdStr = String.valueOf(afterSaleId);
+            details.add(AfterSaleOrderDetailDTO.builder()
+                    .afterSaleInfo(afterSaleConverter.afterSaleInfoDO2DTO(afterSaleInfo))
+                    .afterSaleItems(afterSaleConverter.afterSaleItemDO2DTO(
+                            afterSaleItemMap.getOrDefault(afterSaleId, new ArrayList<>())))
+                    .afterSalePays(afterSaleConverter.afterSalePayDO2DTO(
+                            afterSalePayMap.getOrDefault(afterSaleIdStr, new ArrayList<>())))
+                    .afterSaleLogs(afterSaleConverter.afterSaleLogDO2DTO(
+                            afterSaleLogMap.getOrDefault(afterSaleIdStr, new ArrayList<>())))
+                    .build());
+        }
+        return details;
+    }
+
     private void checkIntAllowableValues(Integer i, Set<Integer> allowableValues, String paramName) {
         OrderErrorCodeEnum orderErrorCodeEnum = OrderErrorCodeEnum.ENUM_PARAM_MUST_BE_IN_ALLOWABLE_VALUE;
         ParamCheckUtil.checkIntAllowableValues(i
@@ -0,0 +1,189 @@
+package com.ruyuan.eshop.order.service.impl;
+
+import com.ruyuan.eshop.market.domain.dto.CalculateOrderAmountDTO;
+import com.ruyuan.eshop.order.exception.OrderBizException;
+import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 生单前置并行调用阶段
+ * <p>
+ * 风控检查、订单查重、查询商品三者互不依赖，并行发起；
+ * 商品信息返回后立即发起订单算价，整体共用一个超时时间。
+ * 任意一个调用失败则快速失败，不再等待其余调用返回。
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+public class CreateOrderPrepareStage {
+
+    private final ExecutorService executor;
+
+    /**
+     * 整体超时时间 单位毫秒
+     */
+    private final long timeoutMillis;
+
+    public CreateOrderPrepareStage(ExecutorService executor, long timeoutMillis) {
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * 并行执行生单前置调用
+     *
+     * @param checkRisk            风控检查
+     * @param checkOrderNotExisted 订单查重
+     * @param listProductSkus      查询商品信息
+     * @param calculateOrderAmount 计算订单价格（依赖商品信息）
+     * @return 商品信息和订单价格
+     */
+    public PrepareResult prepare(Runnable checkRisk,
+                                 Runnable checkOrderNotExisted,
+                                 Supplier<List<ProductSkuDTO>> listProductSkus,
+                                 Function<List<ProductSkuDTO>, CalculateOrderAmountDTO> calculateOrderAmount) {
+        Map<String, String> mdcContext = MDC.getCopyOfContextMap();
+
+        CompletableFuture<Void> riskFuture = CompletableFuture.runAsync(
+                wrap(mdcContext, checkRisk), executor);
+        CompletableFuture<Void> existedFuture = CompletableFuture.runAsync(
+                wrap(mdcContext, checkOrderNotExisted), executor);
+        CompletableFuture<List<ProductSkuDTO>> productSkuFuture = CompletableFuture.supplyAsync(
+                wrap(mdcContext, listProductSkus), executor);
+        // 商品信息一返回就立即发起算价，不用等风控和查重
+        CompletableFuture<CalculateOrderAmountDTO> amountFuture = productSkuFuture.thenApplyAsync(
+                wrap(mdcContext, calculateOrderAmount), executor);
+
+        CompletableFuture<?>[] futures = {riskFuture, existedFuture, productSkuFuture, amountFuture};
+        try {
+            failFast(futures).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            cancel(futures);
+            log.error("createOrder prepare timeout, timeoutMillis={}", timeoutMillis);
+            throw new OrderBizException(OrderErrorCodeEnum.CREATE_ORDER_PREPARE_TIMEOUT);
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new OrderBizException(OrderErrorCodeEnum.CREATE_ORDER_PREPARE_ERROR);
+        } catch (ExecutionException e) {
+            cancel(futures);
+            throw unwrap(e);
+        }
+
+        PrepareResult result = new PrepareResult();
+        result.setProductSkuList(productSkuFuture.join());
+        result.setCalculateOrderAmountDTO(amountFuture.join());
+        return result;
+    }
+
+    /**
+     * 所有调用都成功时正常完成，任意一个调用失败时立即以该异常完成
+     */
+    private CompletableFuture<Void> failFast(CompletableFuture<?>[] futures) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        for (CompletableFuture<?> future : futures) {
+            future.whenComplete((r, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+        CompletableFuture.allOf(futures).whenComplete((r, e) -> result.complete(null));
+        return result;
+    }
+
+    private void cancel(CompletableFuture<?>[] futures) {
+        for (CompletableFuture<?> future : futures) {
+            future.cancel(false);
+        }
+    }
+
+    private RuntimeException unwrap(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException) {
+            // 业务异常原样抛出，与串行调用时的行为保持一致
+            return (RuntimeException) cause;
+        }
+        log.error("createOrder prepare error", cause);
+        return new OrderBizException(OrderErrorCodeEnum.CREATE_ORDER_PREPARE_ERROR);
+    }
+
+    private Runnable wrap(Map<String, String> mdcContext, Runnable runnable) {
+        return () -> {
+            Map<String, String> previous = replaceMdc(mdcContext);
+            try {
+                runnable.run();
+            } finally {
+                replaceMdc(previous);
+            }
+        };
+    }
+
+    private <T> Supplier<T> wrap(Map<String, String> mdcContext, Supplier<T> supplier) {
+        return () -> {
+            Map<String, String> previous = replaceMdc(mdcContext);
+            try {
+                return supplier.get();
+            } finally {
+                replaceMdc(previous);
+            }
+        };
+    }
+
+    private <T, R> Function<T, R> wrap(Map<String, String> mdcContext, Function<T, R> function) {
+        return t -> {
+            Map<String, String> previous = replaceMdc(mdcContext);
+            try {
+                return function.apply(t);
+            } finally {
+                replaceMdc(previous);
+            }
+        };
+    }
+
+    /**
+     * 替换当前线程的MDC上下文并返回原上下文
+     * 线程池打满时任务由请求线程执行(CallerRunsPolicy)，因此执行完要恢复原上下文而不是直接清空
+     */
+    private Map<String, String> replaceMdc(Map<String, String> mdcContext) {
+        Map<String, String> previous = MDC.getCopyOfContextMap();
+        if (mdcContext == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(mdcContext);
+        }
+        return previous;
+    }
+
+    /**
+     * 生单前置调用结果
+     */
+    @Data
+    public static class PrepareResult {
+
+        /**
+         * 商品信息
+         */
+        private List<ProductSkuDTO> productSkuList;
+
+        /**
+         * 订单价格
+         */
+        private CalculateOrderAmountDTO calculateOrderAmountDTO;
+    }
+}
@@ -56,6 +56,11 @@ public class NewOrderDataHolder {
      */
     private List<OrderSnapshotDO> orderSnapshotDOList = new ArrayList<>();
 
+    /**
+     * 和订单一起写入的发件箱消息
+     */
+    private List<OrderOutboxDO> orderOutboxDOList = new ArrayList<>();
+
 
     /**
      * 追加订单数据
@@ -27,23 +27,20 @@ import com.ruyuan.eshop.order.exception.OrderBizException;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
 import com.ruyuan.eshop.order.manager.OrderNoManager;
 import com.ruyuan.eshop.order.mq.producer.DefaultProducer;
+import com.ruyuan.eshop.order.mq.producer.TransactionMessageHandler;
 import com.ruyuan.eshop.order.remote.PayRemote;
 import com.ruyuan.eshop.order.manager.AfterSaleManager;
 import com.ruyuan.eshop.order.service.OrderAfterSaleService;
 import com.ruyuan.eshop.pay.domain.request.PayRefundRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.producer.LocalTransactionState;
-import org.apache.rocketmq.client.producer.TransactionListener;
-import org.apache.rocketmq.client.producer.TransactionMQProducer;
 import org.apache.rocketmq.client.producer.TransactionSendResult;
-import org.apache.rocketmq.common.message.Message;
-import org.apache.rocketmq.common.message.MessageExt;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import java.math.BigDecimal;
-import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.List;
 
@@ -103,6 +100,84 @@ public class OrderAfterSaleServiceImpl implements OrderAfterSaleService {
     @Autowired
     private AfterSaleConverter afterSaleConverter;
 
+    /**
+     * 最后一笔售后释放优惠券事务消息处理器
+     */
+    private static final String RELEASE_COUPON_TRANSACTION_HANDLER = "AFTER_SALE_RELEASE_COUPON";
+
+    /**
+     * 退货售后发起客服审核事务消息处理器
+     */
+    private static final String RETURN_GOODS_TRANSACTION_HANDLER = "RETURN_GOODS_AFTER_SALE";
+
+    @PostConstruct
+    public void registerTransactionHandler() {
+        defaultProducer.registerTransactionHandler(RELEASE_COUPON_TRANSACTION_HANDLER, new TransactionMessageHandler() {
+            @Override
+            public LocalTransactionState executeLocalTransaction(String afterSaleId, Object arg) {
+                try {
+                    //  更新售后单状态
+                    updateAfterSaleStatus((AfterSaleInfoDO) arg, AfterSaleStatusEnum.REVIEW_PASS.getCode(),
+                            AfterSaleStatusEnum.REFUNDING.getCode());
+                    return LocalTransactionState.COMMIT_MESSAGE;
+                } catch (Exception e) {
+                    log.error("system error", e);
+                    return LocalTransactionState.ROLLBACK_MESSAGE;
+                }
+            }
+
+            @Override
+            public LocalTransactionState checkLocalTransaction(String afterSaleId) {
+                //  查询售后单状态是"退款中"
+                AfterSaleInfoDO afterSaleInfoDO = afterSaleInfoDAO.getOneByAfterSaleId(Long.valueOf(afterSaleId));
+                if (AfterSaleStatusEnum.REFUNDING.getCode().equals(afterSaleInfoDO.getAfterSaleStatus())) {
+                    return LocalTransactionState.COMMIT_MESSAGE;
+                }
+                return LocalTransactionState.ROLLBACK_MESSAGE;
+            }
+        });
+
+        defaultProducer.registerTransactionHandler(RETURN_GOODS_TRANSACTION_HANDLER, new TransactionMessageHandler() {
+            @Override
+            public LocalTransactionState executeLocalTransaction(String afterSaleId, Object arg) {
+                try {
+                    //  售后数据落库
+                    ReturnGoodsAssembleRequest returnGoodsAssembleRequest = (ReturnGoodsAssembleRequest) arg;
+                    OrderInfoDTO orderInfoDTO = returnGoodsAssembleRequest.getOrderInfoDTO();
+                    OrderInfoDO orderInfoDO = orderConverter.orderInfoDTO2DO(orderInfoDTO);
+                    insertReturnGoodsAfterSale(returnGoodsAssembleRequest, AfterSaleStatusEnum.COMMITED.getCode(),
+                            afterSaleId, orderInfoDO, orderInfoDTO);
+                    return LocalTransactionState.COMMIT_MESSAGE;
+                } catch (Exception e) {
+                    log.error("system error", e);
+                    return LocalTransactionState.ROLLBACK_MESSAGE;
+                }
+            }
+
+            @Override
+            public LocalTransactionState checkLocalTransaction(String afterSaleId) {
+                return checkAfterSaleInserted(Long.valueOf(afterSaleId));
+            }
+        });
+    }
+
+    /**
+     * 查询售后数据是否插入成功
+     */
+    private LocalTransactionState checkAfterSaleInserted(Long afterSaleId) {
+        AfterSaleInfoDO afterSaleInfoDO = afterSaleInfoDAO.getOneByAfterSaleId(afterSaleId);
+        List<AfterSaleItemDO> afterSaleItemDOList = afterSaleItemDAO.listByAfterSaleId(afterSaleId);
+        List<AfterSaleLogDO> afterSaleLogDOList = afterSaleLogDAO.listByAfterSaleId(afterSaleId);
+        List<AfterSaleRefundDO> afterSaleRefundDOList = afterSaleRefundDAO.listByAfterSaleId(afterSaleId);
+        if (afterSaleInfoDO != null
+                && !afterSaleItemDOList.isEmpty()
+                && !afterSaleLogDOList.isEmpty()
+                && !afterSaleRefundDOList.isEmpty()) {
+            return LocalTransactionState.COMMIT_MESSAGE;
+        }
+        return LocalTransactionState.ROLLBACK_MESSAGE;
+    }
+
     /**
      * 取消订单/超时未支付取消
      */
@@ -137,42 +212,13 @@ public class OrderAfterSaleServiceImpl implements OrderAfterSaleService {
             throw new OrderBizException(OrderErrorCodeEnum.CURRENT_ORDER_STATUS_CANNOT_CANCEL);
         }
 
-        TransactionMQProducer producer = defaultProducer.getProducer();
-        producer.setTransactionListener(new TransactionListener() {
-            @Override
-            public LocalTransactionState executeLocalTransaction(Message message, Object o) {
-                try {
-                    //  2、执行履约取消、更新订单状态、新增订单日志操作
-                    afterSaleManager.cancelOrderFulfillmentAndUpdateOrderStatus(cancelOrderAssembleRequest);
-                    return LocalTransactionState.COMMIT_MESSAGE;
-                } catch (Exception e) {
-                    log.error("system error", e);
-                    return LocalTransactionState.ROLLBACK_MESSAGE;
-                }
-            }
-
-            @Override
-            public LocalTransactionState checkLocalTransaction(MessageExt messageExt) {
-                //  查询订单状态是否已更新为"已取消"
-                OrderInfoDO orderInfoByDatabase = orderInfoDAO.getByOrderId(orderId);
-                if (OrderStatusEnum.CANCELED.getCode().equals(orderInfoByDatabase.getOrderStatus())) {
-                    return LocalTransactionState.COMMIT_MESSAGE;
-                }
-                return LocalTransactionState.ROLLBACK_MESSAGE;
-            }
-        });
-
         try {
-            Message message = new Message(RocketMqConstant.RELEASE_ASSETS_TOPIC,
-                    JSONObject.toJSONString(cancelOrderAssembleRequest).getBytes(StandardCharsets.UTF_8));
-            // 3、发送事务消息 释放权益资产
-            TransactionSendResult result = producer.sendMessageInTransaction(message, cancelOrderAssembleRequest);
-            if (!result.getLocalTransactionState().equals(LocalTransactionState.COMMIT_MESSAGE)) {
-                throw new OrderBizException(OrderErrorCodeEnum.CANCEL_ORDER_PROCESS_FAILED);
-            }
+            // 2、执行履约取消、更新订单状态、新增订单日志操作，释放权益资产消息和订单状态一起写入发件箱
+            afterSaleManager.cancelOrderFulfillmentAndUpdateOrderStatus(cancelOrderAssembleRequest);
             return JsonResult.buildSuccess(true);
         } catch (Exception e) {
-            throw new OrderBizException(OrderErrorCodeEnum.SEND_TRANSACTION_MQ_FAILED);
+            log.error("cancel order error, orderId:{}", orderId, e);
+            throw new OrderBizException(OrderErrorCodeEnum.CANCEL_ORDER_PROCESS_FAILED);
         }
     }
 
@@ -388,62 +434,21 @@ public class OrderAfterSaleServiceImpl implements OrderAfterSaleService {
             //  执行退款前的准备工作
             //  生成售后订单号
             OrderInfoDTO orderInfoDTO = cancelOrderAssembleRequest.getOrderInfoDTO();
-            OrderInfoDO orderInfoDO = orderConverter.orderInfoDTO2DO(orderInfoDTO);
-            String afterSaleId = orderNoManager.genOrderId(OrderNoTypeEnum.AFTER_SALE.getCode(), orderInfoDO.getUserId());
+            String afterSaleId = orderNoManager.genOrderId(OrderNoTypeEnum.AFTER_SALE.getCode(), orderInfoDTO.getUserId());
 
             //  1、计算 取消订单 退款金额
             CancelOrderRefundAmountDTO cancelOrderRefundAmountDTO = calculatingCancelOrderRefundAmount(cancelOrderAssembleRequest);
             cancelOrderAssembleRequest.setCancelOrderRefundAmountDTO(cancelOrderRefundAmountDTO);
 
-            TransactionMQProducer producer = defaultProducer.getProducer();
-            producer.setTransactionListener(new TransactionListener() {
-                @Override
-                public LocalTransactionState executeLocalTransaction(Message message, Object o) {
-                    try {
-                        //  2、取消订单操作 记录售后信息
-                        afterSaleManager.insertCancelOrderAfterSale(cancelOrderAssembleRequest, AfterSaleStatusEnum.REVIEW_PASS.getCode(),
-                                orderInfoDO, afterSaleId);
-                        return LocalTransactionState.COMMIT_MESSAGE;
-                    } catch (Exception e) {
-                        log.error("system error", e);
-                        return LocalTransactionState.ROLLBACK_MESSAGE;
-                    }
-                }
-
-                @Override
-                public LocalTransactionState checkLocalTransaction(MessageExt messageExt) {
-                    //  查询售后数据是否插入成功
-                    AfterSaleInfoDO afterSaleInfoDO = afterSaleInfoDAO.getOneByAfterSaleId(Long.valueOf(afterSaleId));
-                    List<AfterSaleItemDO> afterSaleItemDOList = afterSaleItemDAO.listByAfterSaleId(Long.valueOf(afterSaleId));
-                    List<AfterSaleLogDO> afterSaleLogDOList = afterSaleLogDAO.listByAfterSaleId(Long.valueOf(afterSaleId));
-                    List<AfterSaleRefundDO> afterSaleRefundDOList = afterSaleRefundDAO.listByAfterSaleId(Long.valueOf(afterSaleId));
-                    if (afterSaleInfoDO != null
-                            && !afterSaleItemDOList.isEmpty()
-                            && !afterSaleLogDOList.isEmpty()
-                            && !afterSaleRefundDOList.isEmpty()) {
-                        return LocalTransactionState.COMMIT_MESSAGE;
-                    }
-                    return LocalTransactionState.ROLLBACK_MESSAGE;
-                }
-            });
-
             try {
-                //  3、组装事务MQ消息
-                ActualRefundMessage actualRefundMessage = new ActualRefundMessage();
-                actualRefundMessage.setOrderId(cancelOrderAssembleRequest.getOrderId());
-                actualRefundMessage.setLastReturnGoods(cancelOrderAssembleRequest.isLastReturnGoods());
-                actualRefundMessage.setAfterSaleId(Long.valueOf(afterSaleId));
-                Message message = new Message(RocketMqConstant.ACTUAL_REFUND_TOPIC,
-                        JSONObject.toJSONString(actualRefundMessage).getBytes(StandardCharsets.UTF_8));
-
-                // 4、发送事务MQ消息
-                TransactionSendResult result = producer.sendMessageInTransaction(message, actualRefundMessage);
-                if (!result.getLocalTransactionState().equals(LocalTransactionState.COMMIT_MESSAGE)) {
-                    throw new OrderBizException(OrderErrorCodeEnum.PROCESS_REFUND_FAILED);
-                }
+                //  2、记录取消订单的售后信息，实际退款消息在同一个本地事务里写入发件箱
+                OrderInfoDO orderInfoDO = orderConverter.orderInfoDTO2DO(orderInfoDTO);
+                afterSaleManager.insertCancelOrderAfterSale(cancelOrderAssembleRequest, AfterSaleStatusEnum.REVIEW_PASS.getCode(),
+                        orderInfoDO, afterSaleId);
                 return JsonResult.buildSuccess(true);
             } catch (Exception e) {
-                throw new OrderBizException(OrderErrorCodeEnum.SEND_TRANSACTION_MQ_FAILED);
+                log.error("process cancel order refund error, orderId:{}", orderId, e);
+                throw new OrderBizException(OrderErrorCodeEnum.PROCESS_REFUND_FAILED);
             }
         } finally {
             redisLock.unlock(key);
@@ -483,15 +488,13 @@ public class OrderAfterSaleServiceImpl implements OrderAfterSaleService {
 
             //  3、本次售后的订单条目是当前订单的最后一笔，发送事务MQ退优惠券,此时isLastReturnGoods标记是true
             if (actualRefundMessage.isLastReturnGoods()) {
-                TransactionMQProducer producer = defaultProducer.getProducer();
                 //  组装事务MQ消息体
-                ReleaseUserCouponRequest releaseUserCouponRequest = buildLastOrderReleasesCouponMessage(producer, afterSaleInfoDO,
-                        afterSaleId, actualRefundMessage);
+                ReleaseUserCouponRequest releaseUserCouponRequest = buildLastOrderReleasesCouponMessage(actualRefundMessage);
                 try {
-                    // 4、发送事务消息 释放优惠券
-                    Message message = new Message(RocketMqConstant.CANCEL_RELEASE_PROPERTY_TOPIC,
-                            JSONObject.toJSONString(releaseUserCouponRequest).getBytes(StandardCharsets.UTF_8));
-                    TransactionSendResult result = producer.sendMessageInTransaction(message, releaseUserCouponRequest);
+                    // 4、发送事务消息 释放优惠券，本地事务更新售后单状态为"退款中"
+                    TransactionSendResult result = defaultProducer.sendTransactionMessage(
+                            RocketMqConstant.CANCEL_RELEASE_PROPERTY_TOPIC, JSONObject.toJSONString(releaseUserCouponRequest),
+                            RELEASE_COUPON_TRANSACTION_HANDLER, String.valueOf(afterSaleId), afterSaleInfoDO);
                     if (!result.getLocalTransactionState().equals(LocalTransactionState.COMMIT_MESSAGE)) {
                         throw new OrderBizException(OrderErrorCodeEnum.REFUND_MONEY_RELEASE_COUPON_FAILED);
                     }
@@ -515,32 +518,7 @@ public class OrderAfterSaleServiceImpl implements OrderAfterSaleService {
     }
 
 
-    private ReleaseUserCouponRequest buildLastOrderReleasesCouponMessage(TransactionMQProducer producer, AfterSaleInfoDO afterSaleInfoDO,
-                                                                         Long afterSaleId, ActualRefundMessage actualRefundMessage) {
-        producer.setTransactionListener(new TransactionListener() {
-            @Override
-            public LocalTransactionState executeLocalTransaction(Message msg, Object arg) {
-                try {
-                    //  更新售后单状态
-                    updateAfterSaleStatus(afterSaleInfoDO, AfterSaleStatusEnum.REVIEW_PASS.getCode(), AfterSaleStatusEnum.REFUNDING.getCode());
-                    return LocalTransactionState.COMMIT_MESSAGE;
-                } catch (Exception e) {
-                    log.error("system error", e);
-                    return LocalTransactionState.ROLLBACK_MESSAGE;
-                }
-            }
-
-            @Override
-            public LocalTransactionState checkLocalTransaction(MessageExt msg) {
-                //  查询售后单状态是"退款中"
-                AfterSaleInfoDO afterSaleInfoDO = afterSaleInfoDAO.getOneByAfterSaleId(afterSaleId);
-                if (AfterSaleStatusEnum.REFUNDING.getCode().equals(afterSaleInfoDO.getAfterSaleStatus())) {
-                    return LocalTransactionState.COMMIT_MESSAGE;
-                }
-                return LocalTransactionState.ROLLBACK_MESSAGE;
-            }
-        });
-
+    private ReleaseUserCouponRequest buildLastOrderReleasesCouponMessage(ActualRefundMessage actualRefundMessage) {
         //  组装释放优惠券权益消息数据
         String orderId = actualRefundMessage.getOrderId();
         OrderInfoDO orderInfoDO = orderInfoDAO.getByOrderId(orderId);
@@ -594,54 +572,19 @@ public class OrderAfterSaleServiceImpl implements OrderAfterSaleService {
             // 3、计算退货金额
             returnGoodsAssembleRequest = calculateReturnGoodsAmount(returnGoodsAssembleRequest);
 
-            TransactionMQProducer producer = defaultProducer.getProducer();
-            ReturnGoodsAssembleRequest finalReturnGoodsAssembleRequest = returnGoodsAssembleRequest;
-
             // 4、生成售后订单号
             OrderInfoDTO orderInfoDTO = returnGoodsAssembleRequest.getOrderInfoDTO();
-            OrderInfoDO orderInfoDO = orderConverter.orderInfoDTO2DO(orderInfoDTO);
-            String afterSaleId = orderNoManager.genOrderId(OrderNoTypeEnum.AFTER_SALE.getCode(), orderInfoDO.getUserId());
-
-            producer.setTransactionListener(new TransactionListener() {
-                @Override
-                public LocalTransactionState executeLocalTransaction(Message message, Object o) {
-                    try {
-                        // 5、售后数据落库
-                        insertReturnGoodsAfterSale(finalReturnGoodsAssembleRequest, AfterSaleStatusEnum.COMMITED.getCode(),
-                                afterSaleId, orderInfoDO, orderInfoDTO);
-                        return LocalTransactionState.COMMIT_MESSAGE;
-                    } catch (Exception e) {
-                        log.error("system error", e);
-                        return LocalTransactionState.ROLLBACK_MESSAGE;
-                    }
-                }
-
-                @Override
-                public LocalTransactionState checkLocalTransaction(MessageExt messageExt) {
-                    //  查询售后数据是否插入成功
-                    AfterSaleInfoDO afterSaleInfoDO = afterSaleInfoDAO.getOneByAfterSaleId(Long.valueOf(afterSaleId));
-                    List<AfterSaleItemDO> afterSaleItemDOList = afterSaleItemDAO.listByAfterSaleId(Long.valueOf(afterSaleId));
-                    List<AfterSaleLogDO> afterSaleLogDOList = afterSaleLogDAO.listByAfterSaleId(Long.valueOf(afterSaleId));
-                    List<AfterSaleRefundDO> afterSaleRefundDOList = afterSaleRefundDAO.listByAfterSaleId(Long.valueOf(afterSaleId));
-                    if (afterSaleInfoDO != null
-                            && !afterSaleItemDOList.isEmpty()
-                            && !afterSaleLogDOList.isEmpty()
-                            && !afterSaleRefundDOList.isEmpty()) {
-                        return LocalTransactionState.COMMIT_MESSAGE;
-                    }
-                    return LocalTransactionState.ROLLBACK_MESSAGE;
-                }
-            });
+            String afterSaleId = orderNoManager.genOrderId(OrderNoTypeEnum.AFTER_SALE.getCode(), orderInfoDTO.getUserId());
 
             try {
                 // 6、组装发送消息数据
                 CustomerReceiveAfterSaleRequest customerReceiveAfterSaleRequest
                         = orderConverter.convertReturnGoodsAssembleRequest(returnGoodsAssembleRequest);
                 customerReceiveAfterSaleRequest.setAfterSaleId(afterSaleId);
-                Message message = new Message(RocketMqConstant.AFTER_SALE_CUSTOMER_AUDIT_TOPIC,
-                        JSONObject.toJSONString(customerReceiveAfterSaleRequest).getBytes(StandardCharsets.UTF_8));
-                // 7、发起客服审核
-                TransactionSendResult result = producer.sendMessageInTransaction(message, customerReceiveAfterSaleRequest);
+                // 7、发起客服审核，本地事务将售后数据落库
+                TransactionSendResult result = defaultProducer.sendTransactionMessage(
+                        RocketMqConstant.AFTER_SALE_CUSTOMER_AUDIT_TOPIC, JSONObject.toJSONString(customerReceiveAfterSaleRequest),
+                        RETURN_GOODS_TRANSACTION_HANDLER, afterSaleId, returnGoodsAssembleRequest);
                 if (!result.getLocalTransactionState().equals(LocalTransactionState.COMMIT_MESSAGE)) {
                     throw new OrderBizException(OrderErrorCodeEnum.SEND_AFTER_SALE_CUSTOMER_AUDIT_MQ_FAILED);
                 }
@@ -1,6 +1,5 @@
 package com.ruyuan.eshop.order.service.impl;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.ruyuan.eshop.common.constants.RocketMqConstant;
 import com.ruyuan.eshop.common.enums.AfterSaleTypeDetailEnum;
@@ -23,21 +22,18 @@ import com.ruyuan.eshop.order.exception.OrderBizException;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
 import com.ruyuan.eshop.order.manager.OrderNoManager;
 import com.ruyuan.eshop.order.mq.producer.DefaultProducer;
+import com.ruyuan.eshop.order.mq.producer.TransactionMessageHandler;
 import com.ruyuan.eshop.order.remote.ProductRemote;
 import com.ruyuan.eshop.order.service.OrderLackService;
 import com.ruyuan.eshop.order.service.amount.AfterSaleAmountService;
 import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.producer.LocalTransactionState;
-import org.apache.rocketmq.client.producer.TransactionListener;
-import org.apache.rocketmq.client.producer.TransactionMQProducer;
-import org.apache.rocketmq.common.message.Message;
-import org.apache.rocketmq.common.message.MessageExt;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.nio.charset.StandardCharsets;
+import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -73,6 +69,41 @@ public class OrderLackServiceImpl implements OrderLackService {
     @Autowired
     private AfterSaleInfoDAO afterSaleInfoDAO;
 
+    /**
+     * 缺品退款事务消息处理器
+     */
+    private static final String ORDER_LACK_TRANSACTION_HANDLER = "ORDER_LACK";
+
+    @PostConstruct
+    public void registerTransactionHandler() {
+        defaultProducer.registerTransactionHandler(ORDER_LACK_TRANSACTION_HANDLER, new TransactionMessageHandler() {
+
+            @Override
+            public LocalTransactionState executeLocalTransaction(String afterSaleId, Object arg) {
+                try {
+                    //保存缺品数据
+                    orderLackProcessor.saveLackInfo((OrderLackInfo) arg);
+                    return LocalTransactionState.COMMIT_MESSAGE;
+                } catch (BaseBizException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.error("system error", e);
+                    return LocalTransactionState.ROLLBACK_MESSAGE;
+                }
+            }
+
+            @Override
+            public LocalTransactionState checkLocalTransaction(String afterSaleId) {
+                // 检查缺品售后单是否已经创建
+                AfterSaleInfoDO afterSaleInfoDO = afterSaleInfoDAO.getOneByAfterSaleId(Long.valueOf(afterSaleId));
+                if (afterSaleInfoDO != null) {
+                    return LocalTransactionState.COMMIT_MESSAGE;
+                }
+                return LocalTransactionState.ROLLBACK_MESSAGE;
+            }
+        });
+    }
+
     @Override
     public CheckLackDTO checkRequest(LackRequest request) throws OrderBizException {
 
@@ -150,47 +181,13 @@ public class OrderLackServiceImpl implements OrderLackService {
                 .orderId(order.getOrderId())
                 .build();
 
-        //7、通过缺品事务消息保存缺品数据
-        TransactionMQProducer producer = defaultProducer.getProducer();
-        producer.setTransactionListener(new TransactionListener() {
-
-            @Override
-            public LocalTransactionState executeLocalTransaction(Message message, Object o) {
-                try {
-                    //保存缺品数据
-                    orderLackProcessor.saveLackInfo(orderLackInfo);
-                    return LocalTransactionState.COMMIT_MESSAGE;
-                } catch (BaseBizException e) {
-                    throw e;
-                } catch (Exception e) {
-                    log.error("system error", e);
-                    return LocalTransactionState.ROLLBACK_MESSAGE;
-                }
-
-            }
-
-            @Override
-            public LocalTransactionState checkLocalTransaction(MessageExt messageExt) {
-                // 检查缺品售后单是否已经创建
-                Long afterSaleId = lackAfterSaleOrder.getAfterSaleId();
-                AfterSaleInfoDO afterSaleInfoDO = afterSaleInfoDAO.getOneByAfterSaleId(afterSaleId);
-                if (afterSaleInfoDO != null) {
-                    return LocalTransactionState.COMMIT_MESSAGE;
-                }
-                return LocalTransactionState.ROLLBACK_MESSAGE;
-            }
-        });
-
-
-        //8、发送缺品退款的消息
+        //7、发送缺品退款的事务消息，本地事务保存缺品数据
         ActualRefundMessage actualRefundMessage = new ActualRefundMessage();
         actualRefundMessage.setAfterSaleRefundId(afterSaleRefund.getId());
         actualRefundMessage.setOrderId(order.getOrderId());
         actualRefundMessage.setAfterSaleId(lackAfterSaleOrder.getAfterSaleId());
-        String topic = ACTUAL_REFUND_TOPIC;
-        byte[] body = JSON.toJSONString(actualRefundMessage).getBytes(StandardCharsets.UTF_8);
-        Message mq = new Message(topic, null, order.getOrderId(), body);
-        producer.sendMessageInTransaction(mq, order);
+        defaultProducer.sendEncodedTransactionMessage(ACTUAL_REFUND_TOPIC, actualRefundMessage,
+                ORDER_LACK_TRANSACTION_HANDLER, String.valueOf(lackAfterSaleOrder.getAfterSaleId()), orderLackInfo);
 
         return new LackDTO(order.getOrderId(), lackAfterSaleOrder.getAfterSaleId());
     }
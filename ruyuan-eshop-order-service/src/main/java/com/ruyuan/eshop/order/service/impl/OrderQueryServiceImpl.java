@@ -6,10 +6,13 @@ import com.ruyuan.eshop.common.enums.OrderStatusEnum;
 import com.ruyuan.eshop.common.page.PagingInfo;
 import com.ruyuan.eshop.common.utils.LoggerFormat;
 import com.ruyuan.eshop.common.utils.ParamCheckUtil;
+import com.ruyuan.eshop.order.cache.CachedOrderDetail;
+import com.ruyuan.eshop.order.cache.OrderDetailCache;
+import com.ruyuan.eshop.order.config.OrderProperties;
 import com.ruyuan.eshop.order.converter.OrderConverter;
 import com.ruyuan.eshop.order.dao.*;
 import com.ruyuan.eshop.order.domain.dto.OrderDetailDTO;
-import com.ruyuan.eshop.order.domain.dto.OrderLackItemDTO;
+import com.ruyuan.eshop.order.domain.dto.OrderListCursor;
 import com.ruyuan.eshop.order.domain.dto.OrderListDTO;
 import com.ruyuan.eshop.order.domain.dto.OrderListQueryDTO;
 import com.ruyuan.eshop.order.domain.entity.*;
@@ -18,15 +21,25 @@ import com.ruyuan.eshop.order.domain.query.OrderQuery;
 import com.ruyuan.eshop.order.enums.BusinessIdentifierEnum;
 import com.ruyuan.eshop.order.enums.OrderTypeEnum;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import com.ruyuan.eshop.order.search.OrderSearchReadModel;
 import com.ruyuan.eshop.order.service.AfterSaleQueryService;
 import com.ruyuan.eshop.order.service.OrderLackService;
 import com.ruyuan.eshop.order.service.OrderQueryService;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.time.DateUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -66,6 +79,19 @@ public class OrderQueryServiceImpl implements OrderQueryService {
     @Autowired
     private OrderConverter orderConverter;
 
+    @Autowired
+    private OrderDetailCache orderDetailCache;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    @Autowired
+    private OrderSearchReadModel orderSearchReadModel;
+
+    @Autowired
+    @Qualifier("orderDetailLoadExecutor")
+    private ExecutorService orderDetailLoadExecutor;
+
 
     @Override
     public void checkQueryParam(AcceptOrderQuery acceptOrderQuery) {
@@ -93,6 +119,7 @@ public class OrderQueryServiceImpl implements OrderQueryService {
 
         //第一阶段采用很low的连表查询，连接5张表，即使加索引，只要数据量稍微大一点查询性能就很低了
         //第二阶段会接入es，优化这块的查询性能
+        //接入es之前，开启订单列表读模型后按页码查询走内存索引，不再连表查库
 
         //1、组装业务查询规则
         if (CollectionUtils.isEmpty(query.getOrderStatus())) {
@@ -100,18 +127,74 @@ public class OrderQueryServiceImpl implements OrderQueryService {
             query.setOrderStatus(OrderStatusEnum.validStatus());
         }
         OrderListQueryDTO queryDTO = orderConverter.orderListQuery2DTO(query);
-        log.info(LoggerFormat.build()
+        //时间区间按秒比较，和数据库datetime的精度一致
+        queryDTO.setCreatedTimeInterval(truncateToSecond(queryDTO.getCreatedTimeInterval()));
+        queryDTO.setPayTimeInterval(truncateToSecond(queryDTO.getPayTimeInterval()));
+        log.info("{}", LoggerFormat.build()
                 .remark("executeListQuery->request")
-                .data("request", query)
-                .finish());
+                .data("request", query));
+        if (Boolean.TRUE.equals(query.getCursorPaging())) {
+            return executeCursorListQuery(query, queryDTO);
+        }
         //2、查询
-        Page<OrderListDTO> page = orderInfoDAO.listByPage(queryDTO);
+        Page<OrderListDTO> page = orderSearchReadModel.isReady()
+                ? orderSearchReadModel.listByPage(queryDTO) : orderInfoDAO.listByPage(queryDTO);
 
         //3、转化
         return PagingInfo.toResponse(page.getRecords()
                 , page.getTotal(), (int) page.getCurrent(), (int) page.getSize());
     }
 
+    /**
+     * 游标翻页查询订单列表，每页pageSize个订单，一个订单有多个条目时返回多行
+     */
+    private PagingInfo<OrderListDTO> executeCursorListQuery(OrderQuery query, OrderListQueryDTO queryDTO) {
+        //1、解析游标
+        OrderListCursor cursor = OrderListCursor.decode(query.getCursor());
+        if (null != cursor) {
+            queryDTO.setCursorGmtCreate(cursor.getGmtCreate());
+            queryDTO.setCursorId(cursor.getId());
+        }
+
+        //2、先查这一页订单的主键，多查一条判断有没有下一页
+        int pageSize = queryDTO.getPageSize();
+        List<OrderInfoDO> orderIds = orderInfoDAO.listIdsByCursor(queryDTO, pageSize + 1);
+        boolean hasMore = orderIds.size() > pageSize;
+        if (hasMore) {
+            orderIds = orderIds.subList(0, pageSize);
+        }
+
+        //3、再为这一页的订单查询订单条目
+        List<OrderListDTO> records = orderInfoDAO.listByIds(orderIds.stream()
+                .map(OrderInfoDO::getId).collect(Collectors.toList()), queryDTO);
+
+        //4、统计总条数，达到上限后不再继续统计
+        Long total = null;
+        Boolean approximateTotal = null;
+        if (Boolean.TRUE.equals(query.getNeedTotal())) {
+            int countLimit = orderProperties.getListCountLimit();
+            total = orderInfoDAO.countByCursorQuery(queryDTO, countLimit);
+            approximateTotal = total >= countLimit;
+        }
+
+        PagingInfo<OrderListDTO> pagingInfo = PagingInfo.toResponse(records, total, query.getPageNo(), pageSize);
+        if (hasMore) {
+            OrderInfoDO last = orderIds.get(orderIds.size() - 1);
+            pagingInfo.setNextCursor(new OrderListCursor(last.getGmtCreate(), last.getId()).encode());
+        }
+        pagingInfo.setApproximateTotal(approximateTotal);
+        return pagingInfo;
+    }
+
+    private Pair<Date, Date> truncateToSecond(Pair<Date, Date> interval) {
+        if (null == interval) {
+            return null;
+        }
+        Date left = null == interval.getLeft() ? null : DateUtils.truncate(interval.getLeft(), Calendar.SECOND);
+        Date right = null == interval.getRight() ? null : DateUtils.truncate(interval.getRight(), Calendar.SECOND);
+        return Pair.of(left, right);
+    }
+
     private void checkIntAllowableValues(Integer i, Set<Integer> allowableValues, String paramName) {
         OrderErrorCodeEnum orderErrorCodeEnum = OrderErrorCodeEnum.ENUM_PARAM_MUST_BE_IN_ALLOWABLE_VALUE;
         ParamCheckUtil.checkIntAllowableValues(i
@@ -136,57 +219,94 @@ public class OrderQueryServiceImpl implements OrderQueryService {
 
     @Override
     public OrderDetailDTO orderDetail(String orderId) {
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("orderDetail->request")
-                .data("orderId", orderId)
-                .finish());
+                .data("orderId", orderId));
 
-        //1、查询订单
-        OrderInfoDO orderInfo = orderInfoDAO.getByOrderId(orderId);
-        if (null == orderInfo) {
+        //1、查询订单详情，缓存未命中时并行查询订单相关的各张表
+        CachedOrderDetail cachedOrderDetail = orderDetailCache.get(orderId, () -> loadOrderDetail(orderId));
+        if (null == cachedOrderDetail) {
             return null;
         }
+        OrderDetailDTO orderDetail = cachedOrderDetail.getOrderDetail();
+
+        //2、查询缺品退款信息
+        if (Boolean.TRUE.equals(cachedOrderDetail.getLacked())) {
+            orderDetail.setLackItems(afterSaleQueryService.getOrderLackItemInfo(orderId));
+        }
+        return orderDetail;
+    }
+
+    /**
+     * 从数据库查询订单详情，每张表一个查询并行执行
+     *
+     * @param orderId 订单号
+     * @return 订单不存在时返回null
+     */
+    private CachedOrderDetail loadOrderDetail(String orderId) {
+        //1、查询订单
+        CompletableFuture<OrderInfoDO> orderInfoFuture = supplyAsync(() -> orderInfoDAO.getByOrderId(orderId));
 
         //2、查询订单条目
-        List<OrderItemDO> orderItems = orderItemDAO.listByOrderId(orderId);
+        CompletableFuture<List<OrderItemDO>> orderItemsFuture = supplyAsync(() -> orderItemDAO.listByOrderId(orderId));
 
         //3、查询订单费用明细
-        List<OrderAmountDetailDO> orderAmountDetails = orderAmountDetailDAO.listByOrderId(orderId);
+        CompletableFuture<List<OrderAmountDetailDO>> orderAmountDetailsFuture =
+                supplyAsync(() -> orderAmountDetailDAO.listByOrderId(orderId));
 
         //4、查询订单配送信息
-        OrderDeliveryDetailDO orderAmountDetail = orderDeliveryDetailDAO.getByOrderId(orderId);
+        CompletableFuture<OrderDeliveryDetailDO> orderDeliveryDetailFuture =
+                supplyAsync(() -> orderDeliveryDetailDAO.getByOrderId(orderId));
 
         //5、查询订单支付明细
-        List<OrderPaymentDetailDO> orderPaymentDetails = orderPaymentDetailDAO.listByOrderId(orderId);
+        CompletableFuture<List<OrderPaymentDetailDO>> orderPaymentDetailsFuture =
+                supplyAsync(() -> orderPaymentDetailDAO.listByOrderId(orderId));
 
         //6、查询订单费用类型
-        List<OrderAmountDO> orderAmounts = orderAmountDAO.listByOrderId(orderId);
+        CompletableFuture<List<OrderAmountDO>> orderAmountsFuture = supplyAsync(() -> orderAmountDAO.listByOrderId(orderId));
 
         //7、查询订单操作日志
-        List<OrderOperateLogDO> orderOperateLogs = orderOperateLogDAO.listByOrderId(orderId);
+        CompletableFuture<List<OrderOperateLogDO>> orderOperateLogsFuture =
+                supplyAsync(() -> orderOperateLogDAO.listByOrderId(orderId));
 
         //8、查询订单快照
-        List<OrderSnapshotDO> orderSnapshots = orderSnapshotDAO.listByOrderId(orderId);
+        CompletableFuture<List<OrderSnapshotDO>> orderSnapshotsFuture =
+                supplyAsync(() -> orderSnapshotDAO.listByOrderId(orderId));
+
+        try {
+            CompletableFuture.allOf(orderInfoFuture, orderItemsFuture, orderAmountDetailsFuture,
+                    orderDeliveryDetailFuture, orderPaymentDetailsFuture, orderAmountsFuture,
+                    orderOperateLogsFuture, orderSnapshotsFuture).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
 
-        //9、查询缺品退款信息
-        List<OrderLackItemDTO> lackItems = null;
-        if (orderLackService.isOrderLacked(orderInfo)) {
-            lackItems = afterSaleQueryService.getOrderLackItemInfo(orderId);
+        OrderInfoDO orderInfo = orderInfoFuture.join();
+        if (null == orderInfo) {
+            return null;
         }
+        List<OrderAmountDO> orderAmounts = orderAmountsFuture.join();
 
-        //10、构造返参
-        return OrderDetailDTO.builder()
+        //9、构造返参
+        OrderDetailDTO orderDetail = OrderDetailDTO.builder()
                 .orderInfo(orderConverter.orderInfoDO2DTO(orderInfo))
-                .orderItems(orderConverter.orderItemDO2DTO(orderItems))
-                .orderAmountDetails(orderConverter.orderAmountDetailDO2DTO(orderAmountDetails))
-                .orderDeliveryDetail(orderConverter.orderDeliveryDetailDO2DTO(orderAmountDetail))
-                .orderPaymentDetails(orderConverter.orderPaymentDetailDO2DTO(orderPaymentDetails))
+                .orderItems(orderConverter.orderItemDO2DTO(orderItemsFuture.join()))
+                .orderAmountDetails(orderConverter.orderAmountDetailDO2DTO(orderAmountDetailsFuture.join()))
+                .orderDeliveryDetail(orderConverter.orderDeliveryDetailDO2DTO(orderDeliveryDetailFuture.join()))
+                .orderPaymentDetails(orderConverter.orderPaymentDetailDO2DTO(orderPaymentDetailsFuture.join()))
                 .orderAmounts(orderAmounts.stream().collect(
                         Collectors.toMap(OrderAmountDO::getAmountType, OrderAmountDO::getAmount, (v1, v2) -> v1)))
-                .orderOperateLogs(orderConverter.orderOperateLogsDO2DTO(orderOperateLogs))
-                .orderSnapshots(orderConverter.orderSnapshotsDO2DTO(orderSnapshots))
-                .lackItems(lackItems)
+                .orderOperateLogs(orderConverter.orderOperateLogsDO2DTO(orderOperateLogsFuture.join()))
+                .orderSnapshots(orderConverter.orderSnapshotsDO2DTO(orderSnapshotsFuture.join()))
                 .build();
+        return new CachedOrderDetail(orderDetail, orderLackService.isOrderLacked(orderInfo));
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, orderDetailLoadExecutor);
     }
 
 }
@@ -1,19 +1,12 @@
 package com.ruyuan.eshop.order.service.impl;
 
-import com.alibaba.fastjson.JSON;
 import com.google.common.collect.Lists;
 import com.ruyuan.eshop.common.constants.RedisLockKeyConstants;
-import com.ruyuan.eshop.common.constants.RocketDelayedLevel;
-import com.ruyuan.eshop.common.constants.RocketMqConstant;
 import com.ruyuan.eshop.common.enums.AmountTypeEnum;
 import com.ruyuan.eshop.common.enums.DeleteStatusEnum;
 import com.ruyuan.eshop.common.enums.OrderStatusEnum;
 import com.ruyuan.eshop.common.enums.PayTypeEnum;
-import com.ruyuan.eshop.common.exception.BaseBizException;
-import com.ruyuan.eshop.common.message.PaidOrderSuccessMessage;
-import com.ruyuan.eshop.common.message.PayOrderTimeoutDelayMessage;
 import com.ruyuan.eshop.common.redis.RedisLock;
-import com.ruyuan.eshop.common.utils.JsonUtil;
 import com.ruyuan.eshop.common.utils.LoggerFormat;
 import com.ruyuan.eshop.common.utils.ParamCheckUtil;
 import com.ruyuan.eshop.market.domain.dto.CalculateOrderAmountDTO;
@@ -30,9 +23,9 @@ import com.ruyuan.eshop.order.domain.request.*;
 import com.ruyuan.eshop.order.enums.*;
 import com.ruyuan.eshop.order.exception.OrderBizException;
 import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import com.ruyuan.eshop.order.manager.OrderExpireIndexManager;
 import com.ruyuan.eshop.order.manager.OrderManager;
 import com.ruyuan.eshop.order.manager.OrderNoManager;
-import com.ruyuan.eshop.order.mq.producer.DefaultProducer;
 import com.ruyuan.eshop.order.remote.MarketRemote;
 import com.ruyuan.eshop.order.remote.PayRemote;
 import com.ruyuan.eshop.order.remote.ProductRemote;
@@ -46,19 +39,11 @@ import com.ruyuan.eshop.risk.domain.request.CheckOrderRiskRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.rocketmq.client.exception.MQClientException;
-import org.apache.rocketmq.client.producer.LocalTransactionState;
-import org.apache.rocketmq.client.producer.TransactionListener;
-import org.apache.rocketmq.client.producer.TransactionMQProducer;
-import org.apache.rocketmq.client.producer.TransactionSendResult;
-import org.apache.rocketmq.common.message.Message;
-import org.apache.rocketmq.common.message.MessageExt;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -86,9 +71,6 @@ public class OrderServiceImpl implements OrderService {
     @Autowired
     private OrderNoManager orderNoManager;
 
-    @Autowired
-    private DefaultProducer defaultProducer;
-
     @Autowired
     private RedisLock redisLock;
 
@@ -110,6 +92,12 @@ public class OrderServiceImpl implements OrderService {
     @Autowired
     private OrderConverter orderConverter;
 
+    @Autowired
+    private CreateOrderPrepareStage createOrderPrepareStage;
+
+    @Autowired
+    private OrderExpireIndexManager orderExpireIndexManager;
+
     /**
      * 生成订单号接口
      *
@@ -118,10 +106,9 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public GenOrderIdDTO genOrderId(GenOrderIdRequest genOrderIdRequest) {
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("genOrderId->request")
-                .data("request", genOrderIdRequest)
-                .finish());
+                .data("request", genOrderIdRequest));
 
         // 参数检查
         String userId = genOrderIdRequest.getUserId();
@@ -133,10 +120,9 @@ public class OrderServiceImpl implements OrderService {
         GenOrderIdDTO genOrderIdDTO = new GenOrderIdDTO();
         genOrderIdDTO.setOrderId(orderId);
 
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("genOrderId->response")
-                .data("response", genOrderIdDTO)
-                .finish());
+                .data("response", genOrderIdDTO));
         return genOrderIdDTO;
     }
 
@@ -148,31 +134,30 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public CreateOrderDTO createOrder(CreateOrderRequest createOrderRequest) {
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("createOrder->request")
-                .data("request", createOrderRequest)
-                .finish());
+                .data("request", createOrderRequest));
 
         // 1、入参检查
         checkCreateOrderRequestParam(createOrderRequest);
 
-        // 2、风控检查
-        checkRisk(createOrderRequest);
-
-        // 3、获取商品信息
-        List<ProductSkuDTO> productSkuList = listProductSkus(createOrderRequest);
+        // 2、并行执行风控检查、订单查重、获取商品信息，商品信息返回后立即计算订单价格
+        CreateOrderPrepareStage.PrepareResult prepareResult = createOrderPrepareStage.prepare(
+                () -> checkRisk(createOrderRequest),
+                () -> checkOrderNotExisted(createOrderRequest),
+                () -> listProductSkus(createOrderRequest),
+                productSkus -> calculateOrderAmount(createOrderRequest, productSkus));
+        List<ProductSkuDTO> productSkuList = prepareResult.getProductSkuList();
+        CalculateOrderAmountDTO calculateOrderAmountDTO = prepareResult.getCalculateOrderAmountDTO();
 
-        // 4、计算订单价格
-        CalculateOrderAmountDTO calculateOrderAmountDTO = calculateOrderAmount(createOrderRequest, productSkuList);
-
-        // 5、验证订单实付金额
+        // 3、验证订单实付金额
         checkRealPayAmount(createOrderRequest, calculateOrderAmountDTO);
 
-        // 6、生成订单（包含锁定优惠券、扣减库存等逻辑）
-        createOrder(createOrderRequest, productSkuList, calculateOrderAmountDTO);
+        // 4、生成订单（包含锁定优惠券、扣减库存等逻辑），支付超时延迟消息和订单一起写入发件箱
+        OrderInfoDO orderInfoDO = createOrder(createOrderRequest, productSkuList, calculateOrderAmountDTO);
 
-        // 7、发送订单延迟消息用于支付超时自动关单
-        sendPayOrderTimeoutDelayMessage(createOrderRequest);
+        // 5、登记订单超时索引，用于定时任务扫描到期未支付的订单
+        registerOrderExpireIndex(orderInfoDO);
 
         // 返回订单信息
         CreateOrderDTO createOrderDTO = new CreateOrderDTO();
@@ -180,17 +165,31 @@ public class OrderServiceImpl implements OrderService {
         return createOrderDTO;
     }
 
+    /**
+     * 登记订单超时索引，按订单落库的支付截止时间登记
+     * 登记失败不影响生单，仍然可以通过支付超时延迟消息关单
+     */
+    private void registerOrderExpireIndex(OrderInfoDO orderInfoDO) {
+        String orderId = orderInfoDO.getOrderId();
+        try {
+            orderExpireIndexManager.register(orderId, orderInfoDO.getExpireTime());
+        } catch (Exception e) {
+            log.error("register order expire index error, orderId={}", orderId, e);
+        }
+    }
+
     /**
      * 插入订单到数据库
      *
      * @param createOrderRequest
      * @param productSkuList
      * @param calculateOrderAmountDTO
+     * @return 主订单
      */
-    private void createOrder(CreateOrderRequest createOrderRequest, List<ProductSkuDTO> productSkuList,
-                             CalculateOrderAmountDTO calculateOrderAmountDTO) {
+    private OrderInfoDO createOrder(CreateOrderRequest createOrderRequest, List<ProductSkuDTO> productSkuList,
+                                    CalculateOrderAmountDTO calculateOrderAmountDTO) {
         // 插入订单到数据库
-        orderManager.createOrder(createOrderRequest, productSkuList, calculateOrderAmountDTO);
+        return orderManager.createOrder(createOrderRequest, productSkuList, calculateOrderAmountDTO);
     }
 
     /**
@@ -202,8 +201,6 @@ public class OrderServiceImpl implements OrderService {
         // 订单ID
         String orderId = createOrderRequest.getOrderId();
         ParamCheckUtil.checkStringNonEmpty(orderId, OrderErrorCodeEnum.ORDER_ID_IS_NULL);
-        OrderInfoDO order = orderInfoDAO.getByOrderId(orderId);
-        ParamCheckUtil.checkObjectNull(order, OrderErrorCodeEnum.ORDER_EXISTED);
 
         // 业务线标识
         Integer businessIdentifier = createOrderRequest.getBusinessIdentifier();
@@ -331,6 +328,14 @@ public class OrderServiceImpl implements OrderService {
 
     }
 
+    /**
+     * 订单查重
+     */
+    private void checkOrderNotExisted(CreateOrderRequest createOrderRequest) {
+        OrderInfoDO order = orderInfoDAO.getByOrderId(createOrderRequest.getOrderId());
+        ParamCheckUtil.checkObjectNull(order, OrderErrorCodeEnum.ORDER_EXISTED);
+    }
+
     /**
      * 风控检查
      */
@@ -352,10 +357,9 @@ public class OrderServiceImpl implements OrderService {
             skuCodeList.add(skuCode);
         }
         List<ProductSkuDTO> productSkuList = productRemote.listProductSku(skuCodeList, createOrderRequest.getSellerId());
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("listProductSkus->return")
-                .data("productSkus", productSkuList)
-                .finish());
+                .data("productSkus", productSkuList));
         return productSkuList;
     }
 
@@ -395,10 +399,9 @@ public class OrderServiceImpl implements OrderService {
         if (orderItemAmountList == null || orderItemAmountList.isEmpty()) {
             throw new OrderBizException(OrderErrorCodeEnum.CALCULATE_ORDER_AMOUNT_ERROR);
         }
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("calculateOrderAmount->return")
-                .data("return", calculateOrderAmountDTO)
-                .finish());
+                .data("return", calculateOrderAmountDTO));
         return calculateOrderAmountDTO;
     }
 
@@ -427,35 +430,15 @@ public class OrderServiceImpl implements OrderService {
     }
 
 
-    /**
-     * 发送支付订单超时延迟消息，用于支付超时自动关单
-     */
-    private void sendPayOrderTimeoutDelayMessage(CreateOrderRequest createOrderRequest) {
-        PayOrderTimeoutDelayMessage message = new PayOrderTimeoutDelayMessage();
-
-        String orderId = createOrderRequest.getOrderId();
-        message.setOrderId(orderId);
-        message.setBusinessIdentifier(createOrderRequest.getBusinessIdentifier());
-        message.setCancelType(OrderCancelTypeEnum.TIMEOUT_CANCELED.getCode());
-        message.setUserId(createOrderRequest.getUserId());
-        message.setOrderType(createOrderRequest.getOrderType());
-        message.setOrderStatus(OrderStatusEnum.CREATED.getCode());
-
-        String msgJson = JsonUtil.object2Json(message);
-        defaultProducer.sendMessage(RocketMqConstant.PAY_ORDER_TIMEOUT_DELAY_TOPIC, msgJson,
-                RocketDelayedLevel.DELAYED_30m, "支付订单超时延迟消息", null, orderId);
-    }
-
     /**
      * 预支付订单
      */
     @Override
     @Transactional(rollbackFor = Exception.class)
     public PrePayOrderDTO prePayOrder(PrePayOrderRequest prePayOrderRequest) {
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("prePayOrder->request")
-                .data("request", prePayOrderRequest)
-                .finish());
+                .data("request", prePayOrderRequest));
 
         // 入参检查
         checkPrePayOrderRequestParam(prePayOrderRequest);
@@ -482,10 +465,9 @@ public class OrderServiceImpl implements OrderService {
 
             PrePayOrderDTO result = orderConverter.convertPrePayOrderRequest(payOrderDTO);
 
-            log.info(LoggerFormat.build()
+            log.info("{}", LoggerFormat.build()
                     .remark("prePayOrder->response")
-                    .data("response", result)
-                    .finish());
+                    .data("response", result));
 
             return orderConverter.convertPrePayOrderRequest(payOrderDTO);
         } finally {
@@ -556,6 +538,7 @@ public class OrderServiceImpl implements OrderService {
 
     /**
      * 预支付更新订单支付信息
+     * 主订单和子订单一起更新，订单表、支付明细表各一条语句
      */
     private void updateOrderPaymentInfo(PayOrderDTO payOrderDTO) {
         String orderId = payOrderDTO.getOrderId();
@@ -563,36 +546,35 @@ public class OrderServiceImpl implements OrderService {
         String outTradeNo = payOrderDTO.getOutTradeNo();
         Date payTime = new Date();
 
+        // 主订单和子订单
+        List<String> orderIds = new ArrayList<>();
+        orderIds.add(orderId);
+        List<String> subOrderIds = orderInfoDAO.listSubOrderIds(orderId);
+        if (subOrderIds != null) {
+            orderIds.addAll(subOrderIds);
+        }
+
         // 更新订单表支付信息
-        OrderInfoDO orderInfoDO = new OrderInfoDO();
-        orderInfoDO.setPayType(payType);
-        orderInfoDO.setPayTime(payTime);
-        orderInfoDAO.updateByOrderId(orderInfoDO, orderId);
+        orderInfoDAO.updatePaymentByOrderIds(payType, payTime, orderIds);
 
         // 更新支付明细信息
         OrderPaymentDetailDO orderPaymentDetailDO = new OrderPaymentDetailDO();
         orderPaymentDetailDO.setPayTime(payTime);
         orderPaymentDetailDO.setPayType(payType);
         orderPaymentDetailDO.setOutTradeNo(outTradeNo);
-        orderPaymentDetailDAO.updateByOrderId(orderPaymentDetailDO, orderId);
-
-        // 判断是否存在子订单
-        List<String> subOrderIds = orderInfoDAO.listSubOrderIds(orderId);
-        if (subOrderIds != null && !subOrderIds.isEmpty()) {
-            // 更新子订单支付信息
-            OrderInfoDO subOrderInfoDO = new OrderInfoDO();
-            subOrderInfoDO.setPayType(payType);
-            subOrderInfoDO.setPayTime(payTime);
-            orderInfoDAO.updateBatchByOrderIds(subOrderInfoDO, subOrderIds);
+        orderPaymentDetailDAO.updateBatchByOrderIds(orderPaymentDetailDO, orderIds);
+    }
 
-            // 更新子订单支付明细信息
-            OrderPaymentDetailDO subOrderPaymentDetailDO = new OrderPaymentDetailDO();
-            subOrderPaymentDetailDO.setPayTime(payTime);
-            subOrderPaymentDetailDO.setPayType(payType);
-            subOrderPaymentDetailDO.setOutTradeNo(outTradeNo);
-            orderPaymentDetailDAO.updateBatchByOrderIds(subOrderPaymentDetailDO, subOrderIds);
+    /**
+     * 移除订单超时索引
+     * 移除失败时定时任务取出订单后会检查订单状态，不会误关单
+     */
+    private void removeOrderExpireIndex(String orderId) {
+        try {
+            orderExpireIndexManager.remove(orderId);
+        } catch (Exception e) {
+            log.error("remove order expire index error, orderId={}", orderId, e);
         }
-
     }
 
     /**
@@ -602,10 +584,9 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public void payCallback(PayCallbackRequest payCallbackRequest) {
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("payCallback->request")
-                .data("request", payCallbackRequest)
-                .finish());
+                .data("request", payCallbackRequest));
 
         // 入参检查
         checkPayCallbackRequestParam(payCallbackRequest);
@@ -643,37 +624,11 @@ public class OrderServiceImpl implements OrderService {
             Integer orderStatus = orderInfoDO.getOrderStatus();
             if (OrderStatusEnum.CREATED.getCode().equals(orderStatus)) {
 
-                // 如果订单状态是 "已创建"，直接更新订单状态为已支付，并发送事务消息
-                TransactionMQProducer transactionMQProducer = defaultProducer.getProducer();
-                transactionMQProducer.setTransactionListener(new TransactionListener() {
-                    @Override
-                    public LocalTransactionState executeLocalTransaction(Message message, Object o) {
-                        try {
-                            orderManager.updateOrderStatusPaid(payCallbackRequest, orderInfoDO, orderPaymentDetailDO);
-                            return LocalTransactionState.COMMIT_MESSAGE;
-                        } catch (BaseBizException e) {
-                            throw e;
-                        } catch (Exception e) {
-                            log.error("system error", e);
-                            return LocalTransactionState.ROLLBACK_MESSAGE;
-                        }
-
-                    }
-
-                    @Override
-                    public LocalTransactionState checkLocalTransaction(MessageExt messageExt) {
-                        // 检查订单是否是已支付
-                        OrderInfoDO orderInfoDO = orderInfoDAO.getByOrderId(orderId);
-                        if (orderInfoDO != null
-                                && OrderStatusEnum.PAID.getCode().equals(orderInfoDO.getOrderStatus())) {
-                            return LocalTransactionState.COMMIT_MESSAGE;
-                        }
-                        return LocalTransactionState.ROLLBACK_MESSAGE;
-                    }
-                });
+                // 如果订单状态是 "已创建"，更新订单状态为已支付，"订单已完成支付" 消息在同一个本地事务里写入发件箱
+                orderManager.updateOrderStatusPaid(payCallbackRequest, orderInfoDO, orderPaymentDetailDO);
 
-                // 发送 "订单已完成支付" 消息
-                sendPaidOrderSuccessMessage(transactionMQProducer, orderInfoDO);
+                // 订单已支付，不再需要超时关单
+                removeOrderExpireIndex(orderId);
             } else {
                 // 如果订单状态不是 "已创建"
                 if (OrderStatusEnum.CANCELED.getCode().equals(orderStatus)) {
@@ -702,9 +657,8 @@ public class OrderServiceImpl implements OrderService {
                     }
                 }
             }
-            log.info(LoggerFormat.build()
-                    .remark("payCallback->response")
-                    .finish());
+            log.info("{}", LoggerFormat.build()
+                    .remark("payCallback->response"));
         } catch (Exception e) {
             log.error("payCallback error", e);
             throw new OrderBizException(e.getMessage());
@@ -755,28 +709,6 @@ public class OrderServiceImpl implements OrderService {
         ParamCheckUtil.checkStringNonEmpty(merchantId);
     }
 
-    /**
-     * 发送订单已完成支付消息，触发订单进行履约
-     */
-    private void sendPaidOrderSuccessMessage(TransactionMQProducer transactionMQProducer, OrderInfoDO orderInfoDO)
-            throws MQClientException {
-        String orderId = orderInfoDO.getOrderId();
-        PaidOrderSuccessMessage message = new PaidOrderSuccessMessage();
-        message.setOrderId(orderId);
-        log.info(LoggerFormat.build()
-                .remark("发送订单已支付消息")
-                .data("message", message)
-                .finish());
-
-        String topic = RocketMqConstant.PAID_ORDER_SUCCESS_TOPIC;
-        byte[] body = JSON.toJSONString(message).getBytes(StandardCharsets.UTF_8);
-        Message mq = new Message(topic, null, orderId, body);
-        TransactionSendResult result = transactionMQProducer.sendMessageInTransaction(mq, orderInfoDO);
-        if (!result.getLocalTransactionState().equals(LocalTransactionState.COMMIT_MESSAGE)) {
-            throw new OrderBizException(OrderErrorCodeEnum.ORDER_PAY_CALLBACK_SEND_MQ_ERROR);
-        }
-    }
-
     @Override
     public boolean removeOrders(List<String> orderIds) {
         //1、根据id查询订单
@@ -793,8 +725,7 @@ public class OrderServiceImpl implements OrderService {
         });
 
         //3、对订单进行软删除
-        List<Long> ids = orders.stream().map(OrderInfoDO::getId).collect(Collectors.toList());
-        orderInfoDAO.softRemoveOrders(ids);
+        orderInfoDAO.softRemoveOrders(orders);
 
         return true;
     }
@@ -827,9 +758,8 @@ public class OrderServiceImpl implements OrderService {
         }
 
         //5、更新配送地址信息
-        orderDeliveryDetailDAO.updateDeliveryAddress(orderDeliveryDetail.getId()
-                , orderDeliveryDetail.getModifyAddressCount(), request);
+        orderDeliveryDetailDAO.updateDeliveryAddress(orderDeliveryDetail, request);
 
         return true;
     }
-}
\ No newline at end of file
+}
@@ -34,7 +34,7 @@ public class OrderDeliveredProcessor extends AbstractWmsShipResultProcessor {
     protected void doExecute(WmsShipDTO wmsShipDTO, OrderInfoDO order) {
         //增加订单配送表的配送员信息
         OrderDeliveryDetailDO deliveryDetail = orderDeliveryDetailDAO.getByOrderId(order.getOrderId());
-        orderDeliveryDetailDAO.updateDeliverer(deliveryDetail.getId()
+        orderDeliveryDetailDAO.updateDeliverer(deliveryDetail
                 , wmsShipDTO.getDelivererNo()
                 , wmsShipDTO.getDelivererName(),
                 wmsShipDTO.getDelivererPhone());
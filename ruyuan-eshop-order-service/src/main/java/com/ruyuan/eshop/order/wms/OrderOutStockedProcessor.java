@@ -34,7 +34,7 @@ public class OrderOutStockedProcessor extends AbstractWmsShipResultProcessor {
     protected void doExecute(WmsShipDTO wmsShipDTO, OrderInfoDO order) {
         //增加订单配送表的出库时间
         OrderDeliveryDetailDO deliveryDetail = orderDeliveryDetailDAO.getByOrderId(order.getOrderId());
-        orderDeliveryDetailDAO.updateOutStockTime(deliveryDetail.getId(), wmsShipDTO.getOutStockTime());
+        orderDeliveryDetailDAO.updateOutStockTime(deliveryDetail, wmsShipDTO.getOutStockTime());
     }
 
 }
@@ -34,7 +34,7 @@ public class OrderSignedProcessor extends AbstractWmsShipResultProcessor {
     protected void doExecute(WmsShipDTO wmsShipDTO, OrderInfoDO order) {
         //增加订单配送表的签收时间
         OrderDeliveryDetailDO deliveryDetail = orderDeliveryDetailDAO.getByOrderId(order.getOrderId());
-        orderDeliveryDetailDAO.updateSignedTime(deliveryDetail.getId(), wmsShipDTO.getSignedTime());
+        orderDeliveryDetailDAO.updateSignedTime(deliveryDetail, wmsShipDTO.getSignedTime());
     }
 
 }
@@ -0,0 +1,139 @@
+package com.ruyuan.eshop.order;
+
+import com.baomidou.mybatisplus.core.config.GlobalConfig;
+import com.baomidou.mybatisplus.core.metadata.TableFieldInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.baomidou.mybatisplus.core.toolkit.GlobalConfigUtils;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.ruyuan.eshop.common.config.MybatisPlusConfig;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * H2内存库上的MyBatis-Plus测试支持：创建MySQL兼容模式的内存库、SqlSessionFactory和Mapper，
+ * 按实体类的表信息建表，测试不用维护一份和实体类同步的建表语句
+ */
+public final class H2MybatisTestSupport {
+
+    private H2MybatisTestSupport() {
+    }
+
+    /**
+     * MySQL兼容模式的内存库，最后一个连接关闭后不删库
+     *
+     * @param name 库名，每个测试类用自己的库，避免表结构互相影响
+     */
+    public static JdbcConnectionPool dataSource(String name) {
+        return JdbcConnectionPool.create("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;MODE=MySQL", "sa", "");
+    }
+
+    /**
+     * 使用项目的自动填充配置创建SqlSessionFactory
+     *
+     * @param dataSource      数据源
+     * @param mapperLocations classpath下的mapper xml，只用BaseMapper方法时不用传
+     */
+    public static SqlSessionFactory sqlSessionFactory(DataSource dataSource, String... mapperLocations) throws Exception {
+        return sqlSessionFactory(dataSource, null, mapperLocations);
+    }
+
+    /**
+     * 使用项目的自动填充配置创建SqlSessionFactory
+     *
+     * @param dataSource      数据源
+     * @param plugin          MyBatis插件，比如分页插件、语句计数，不需要时传null
+     * @param mapperLocations classpath下的mapper xml，只用BaseMapper方法时不用传
+     */
+    public static SqlSessionFactory sqlSessionFactory(DataSource dataSource, Interceptor plugin,
+                                                      String... mapperLocations) throws Exception {
+        MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        if (mapperLocations.length > 0) {
+            Resource[] resources = new Resource[mapperLocations.length];
+            for (int i = 0; i < mapperLocations.length; i++) {
+                resources[i] = new ClassPathResource(mapperLocations[i]);
+            }
+            factoryBean.setMapperLocations(resources);
+        }
+        if (plugin != null) {
+            factoryBean.setPlugins(plugin);
+        }
+        GlobalConfig globalConfig = GlobalConfigUtils.defaults();
+        globalConfig.setMetaObjectHandler(new MybatisPlusConfig().metaObjectHandler());
+        factoryBean.setGlobalConfig(globalConfig);
+        return factoryBean.getObject();
+    }
+
+    public static <T> MapperFactoryBean<T> mapper(Class<T> mapperInterface, SqlSessionFactory sqlSessionFactory) {
+        MapperFactoryBean<T> factoryBean = new MapperFactoryBean<>(mapperInterface);
+        factoryBean.setSqlSessionFactory(sqlSessionFactory);
+        return factoryBean;
+    }
+
+    /**
+     * 按实体类的表信息重建表，主键自增，其他列按字段类型映射
+     *
+     * @param jdbcTemplate  数据源
+     * @param entityClasses 实体类，需要先创建对应Mapper的SqlSessionFactory，表信息才会初始化
+     */
+    public static void createTables(JdbcTemplate jdbcTemplate, Collection<Class<?>> entityClasses) {
+        createTables(jdbcTemplate, entityClasses, Collections.emptyMap());
+    }
+
+    /**
+     * 按实体类的表信息重建表，个别列需要默认值等定义时单独指定
+     *
+     * @param jdbcTemplate  数据源
+     * @param entityClasses 实体类，需要先创建对应Mapper的SqlSessionFactory，表信息才会初始化
+     * @param columnTypes   表名.列名 -> 列定义
+     */
+    public static void createTables(JdbcTemplate jdbcTemplate, Collection<Class<?>> entityClasses,
+                                    Map<String, String> columnTypes) {
+        for (Class<?> entityClass : entityClasses) {
+            TableInfo tableInfo = TableInfoHelper.getTableInfo(entityClass);
+            String tableName = tableInfo.getTableName();
+            StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(tableName)
+                    .append(" (").append(tableInfo.getKeyColumn()).append(" BIGINT AUTO_INCREMENT PRIMARY KEY");
+            for (TableFieldInfo fieldInfo : tableInfo.getFieldList()) {
+                String columnType = columnTypes.getOrDefault(tableName + "." + fieldInfo.getColumn(),
+                        columnType(fieldInfo.getPropertyType()));
+                ddl.append(", ").append(fieldInfo.getColumn()).append(' ').append(columnType);
+            }
+            ddl.append(")");
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + tableName);
+            jdbcTemplate.execute(ddl.toString());
+        }
+    }
+
+    private static String columnType(Class<?> propertyType) {
+        if (Integer.class.equals(propertyType)) {
+            return "INT";
+        }
+        if (Long.class.equals(propertyType)) {
+            return "BIGINT";
+        }
+        if (Date.class.equals(propertyType)) {
+            return "DATETIME";
+        }
+        if (BigDecimal.class.equals(propertyType)) {
+            return "DECIMAL(20, 10)";
+        }
+        if (byte[].class.equals(propertyType)) {
+            return "BLOB";
+        }
+        return "VARCHAR(1024)";
+    }
+}
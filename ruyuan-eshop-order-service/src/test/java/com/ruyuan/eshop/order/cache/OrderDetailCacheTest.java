@@ -0,0 +1,529 @@
+package com.ruyuan.eshop.order.cache;
+
+import com.alibaba.fastjson.JSONObject;
+import com.ruyuan.eshop.common.redis.RedisCache;
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.*;
+import com.ruyuan.eshop.order.domain.dto.OrderDetailDTO;
+import com.ruyuan.eshop.order.domain.dto.OrderExtJsonDTO;
+import com.ruyuan.eshop.order.domain.dto.OrderInfoDTO;
+import com.ruyuan.eshop.order.domain.entity.*;
+import com.ruyuan.eshop.order.domain.request.AdjustDeliveryAddressRequest;
+import com.ruyuan.eshop.order.mapper.*;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ruyuan.eshop.order.H2MybatisTestSupport.mapper;
+import static org.junit.Assert.*;
+
+/**
+ * 订单详情缓存测试：订单每一次状态流转写库后都要失效缓存，事务提交后才失效，失效期间回源的旧数据不回填
+ * <p>
+ * 订单表使用H2内存库，redis用内存里的版本号和json代替
+ * </p>
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = OrderDetailCacheTest.Config.class)
+public class OrderDetailCacheTest {
+
+    private static final List<Class<?>> ENTITY_CLASSES = Arrays.asList(
+            OrderInfoDO.class, OrderDeliveryDetailDO.class, OrderPaymentDetailDO.class,
+            OrderOperateLogDO.class, OrderSnapshotDO.class);
+
+    private static final String ORDER_ID = "1011250000000010001";
+
+    private static final List<String> SUB_ORDER_IDS = Arrays.asList("1011250000000020001", "1011250000000030001");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private OrderDetailCache orderDetailCache;
+
+    @Autowired
+    private InMemoryOrderDetailRedisCache orderDetailRedisCache;
+
+    @Autowired
+    private OrderInfoDAO orderInfoDAO;
+
+    @Autowired
+    private OrderDeliveryDetailDAO orderDeliveryDetailDAO;
+
+    @Autowired
+    private OrderPaymentDetailDAO orderPaymentDetailDAO;
+
+    @Autowired
+    private OrderOperateLogDAO orderOperateLogDAO;
+
+    @Autowired
+    private OrderSnapshotDAO orderSnapshotDAO;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        createTables();
+        orderDetailRedisCache.clear();
+        loads.set(0);
+
+        List<OrderInfoDO> orders = new ArrayList<>();
+        orders.add(orderInfo(ORDER_ID, null));
+        for (String subOrderId : SUB_ORDER_IDS) {
+            orders.add(orderInfo(subOrderId, ORDER_ID));
+        }
+        orderInfoDAO.saveBatch(orders);
+        for (OrderInfoDO order : orders) {
+            OrderDeliveryDetailDO deliveryDetail = new OrderDeliveryDetailDO();
+            deliveryDetail.setOrderId(order.getOrderId());
+            deliveryDetail.setProvince("110000");
+            deliveryDetail.setDetailAddress("北京北京市东城区东华门街道");
+            deliveryDetail.setModifyAddressCount(0);
+            orderDeliveryDetailDAO.save(deliveryDetail);
+
+            OrderPaymentDetailDO paymentDetail = new OrderPaymentDetailDO();
+            paymentDetail.setOrderId(order.getOrderId());
+            paymentDetail.setPayType(10);
+            paymentDetail.setPayStatus(10);
+            orderPaymentDetailDAO.save(paymentDetail);
+        }
+    }
+
+    @Test
+    public void shouldInvalidateOnPaid() {
+        // 支付回调：主单、支付明细按主键更新，记录操作日志
+        OrderInfoDO order = orderInfoDAO.getByOrderId(ORDER_ID);
+        assertInvalidates(Collections.singletonList(ORDER_ID), () -> {
+            order.setOrderStatus(20);
+            orderInfoDAO.updateById(order);
+        });
+        OrderPaymentDetailDO paymentDetail = orderPaymentDetailDAO.getPaymentDetailByOrderId(ORDER_ID);
+        assertInvalidates(Collections.singletonList(ORDER_ID), () -> {
+            paymentDetail.setPayStatus(20);
+            orderPaymentDetailDAO.updateById(paymentDetail);
+        });
+        assertInvalidates(Collections.singletonList(ORDER_ID),
+                () -> orderOperateLogDAO.save(operateLog(ORDER_ID, 10, 20)));
+
+        // 拆单后子单批量更新
+        List<OrderInfoDO> subOrders = orderInfoDAO.listByParentOrderId(ORDER_ID);
+        assertInvalidates(SUB_ORDER_IDS, () -> {
+            subOrders.forEach(subOrder -> subOrder.setOrderStatus(20));
+            orderInfoDAO.updateBatchById(subOrders);
+        });
+        assertInvalidates(SUB_ORDER_IDS, () -> {
+            OrderPaymentDetailDO subPaymentDetail = new OrderPaymentDetailDO();
+            subPaymentDetail.setPayStatus(20);
+            orderPaymentDetailDAO.updateBatchByOrderIds(subPaymentDetail, SUB_ORDER_IDS);
+        });
+        assertInvalidates(SUB_ORDER_IDS, () -> orderOperateLogDAO.saveBatch(Arrays.asList(
+                operateLog(SUB_ORDER_IDS.get(0), 10, 20), operateLog(SUB_ORDER_IDS.get(1), 10, 20))));
+    }
+
+    @Test
+    public void shouldInvalidateOnPayByOrderId() {
+        assertInvalidates(Collections.singletonList(ORDER_ID), () -> {
+            OrderInfoDO orderInfo = new OrderInfoDO();
+            orderInfo.setPayType(20);
+            orderInfoDAO.updateByOrderId(orderInfo, ORDER_ID);
+        });
+        assertInvalidates(Collections.singletonList(ORDER_ID), () -> {
+            OrderPaymentDetailDO paymentDetail = new OrderPaymentDetailDO();
+            paymentDetail.setPayType(20);
+            orderPaymentDetailDAO.updateByOrderId(paymentDetail, ORDER_ID);
+        });
+        assertInvalidates(SUB_ORDER_IDS, () -> {
+            OrderInfoDO subOrderInfo = new OrderInfoDO();
+            subOrderInfo.setPayType(20);
+            orderInfoDAO.updateBatchByOrderIds(subOrderInfo, SUB_ORDER_IDS);
+        });
+    }
+
+    @Test
+    public void shouldInvalidateOnCancelAndAfterSale() {
+        assertInvalidates(Collections.singletonList(ORDER_ID), () -> {
+            OrderInfoDO orderInfo = new OrderInfoDO();
+            orderInfo.setOrderId(ORDER_ID);
+            orderInfo.setOrderStatus(70);
+            orderInfo.setCancelType("1");
+            orderInfo.setCancelTime(new Date());
+            orderInfoDAO.updateOrderInfo(orderInfo);
+        });
+        assertEquals(Integer.valueOf(70), orderInfoDAO.getByOrderId(ORDER_ID).getOrderStatus());
+
+        // 缺品：更新订单扩展信息
+        assertInvalidates(Collections.singletonList(ORDER_ID), () -> {
+            OrderExtJsonDTO extJson = new OrderExtJsonDTO();
+            extJson.setLackFlag(true);
+            orderInfoDAO.updateOrderExtJson(ORDER_ID, extJson);
+        });
+
+        // 移除订单
+        assertInvalidates(SUB_ORDER_IDS, () -> orderInfoDAO.softRemoveOrders(orderInfoDAO.listByOrderIds(SUB_ORDER_IDS)));
+        assertEquals(Integer.valueOf(2), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_info WHERE delete_status = 1", Integer.class));
+    }
+
+    @Test
+    public void shouldInvalidateOnFulfillAndShipResults() {
+        // 履约、出库、配送、签收：订单状态按前置状态更新
+        assertInvalidates(Collections.singletonList(ORDER_ID),
+                () -> assertTrue(orderInfoDAO.updateOrderStatus(ORDER_ID, 10, 30)));
+        assertInvalidates(Collections.singletonList(ORDER_ID),
+                () -> orderOperateLogDAO.save(operateLog(ORDER_ID, 10, 30)));
+
+        // 前置状态不匹配，没有更新任何数据时不失效
+        primeCache(ORDER_ID);
+        assertFalse(orderInfoDAO.updateOrderStatus(ORDER_ID, 10, 40));
+        assertCached(ORDER_ID);
+
+        OrderDeliveryDetailDO deliveryDetail = orderDeliveryDetailDAO.getByOrderId(ORDER_ID);
+        assertInvalidates(Collections.singletonList(ORDER_ID),
+                () -> orderDeliveryDetailDAO.updateOutStockTime(deliveryDetail, new Date()));
+        assertInvalidates(Collections.singletonList(ORDER_ID),
+                () -> orderDeliveryDetailDAO.updateDeliverer(deliveryDetail, "D001", "李四", "13800000000"));
+        assertInvalidates(Collections.singletonList(ORDER_ID),
+                () -> orderDeliveryDetailDAO.updateSignedTime(deliveryDetail, new Date()));
+        assertEquals("D001", orderDeliveryDetailDAO.getByOrderId(ORDER_ID).getDelivererNo());
+    }
+
+    @Test
+    public void shouldInvalidateOnAdjustDeliveryAddressAndSnapshot() {
+        OrderDeliveryDetailDO deliveryDetail = orderDeliveryDetailDAO.getByOrderId(ORDER_ID);
+        assertInvalidates(Collections.singletonList(ORDER_ID), () -> {
+            AdjustDeliveryAddressRequest request = new AdjustDeliveryAddressRequest();
+            request.setOrderId(ORDER_ID);
+            request.setDetailAddress("北京北京市东城区景山街道");
+            orderDeliveryDetailDAO.updateDeliveryAddress(deliveryDetail, request);
+        });
+        assertEquals(Integer.valueOf(1), orderDeliveryDetailDAO.getByOrderId(ORDER_ID).getModifyAddressCount());
+
+        // 生单后异步写入的快照
+        assertInvalidates(Arrays.asList(ORDER_ID, SUB_ORDER_IDS.get(0)), () -> {
+            OrderSnapshotDO snapshot = new OrderSnapshotDO();
+            snapshot.setOrderId(ORDER_ID);
+            snapshot.setSnapshotType(1);
+            snapshot.setSnapshotJson("{}");
+            OrderSnapshotDO subSnapshot = new OrderSnapshotDO();
+            subSnapshot.setOrderId(SUB_ORDER_IDS.get(0));
+            subSnapshot.setSnapshotType(1);
+            subSnapshot.setSnapshotJson("{}");
+            orderSnapshotDAO.saveBatch(Arrays.asList(snapshot, subSnapshot));
+        });
+    }
+
+    @Test
+    public void shouldInvalidateOnlyAfterCommit() {
+        primeCache(ORDER_ID);
+        transactionTemplate.execute(status -> {
+            orderInfoDAO.updateOrderStatus(ORDER_ID, 10, 20);
+            // 事务提交前其他请求读到的仍是提交前的数据，缓存不失效
+            assertCached(ORDER_ID);
+            return null;
+        });
+        assertNotCached(ORDER_ID);
+
+        primeCache(ORDER_ID);
+        transactionTemplate.execute(status -> {
+            orderInfoDAO.updateOrderStatus(ORDER_ID, 20, 30);
+            status.setRollbackOnly();
+            return null;
+        });
+        assertCached(ORDER_ID);
+        assertEquals(Integer.valueOf(20), orderInfoDAO.getByOrderId(ORDER_ID).getOrderStatus());
+    }
+
+    @Test
+    public void shouldNotCacheLoadStartedBeforeInvalidation() {
+        // 回源期间订单被修改，回源结果不回填
+        CachedOrderDetail loaded = orderDetailCache.get(ORDER_ID, () -> {
+            CachedOrderDetail stale = load(ORDER_ID);
+            orderInfoDAO.updateOrderStatus(ORDER_ID, 10, 20);
+            return stale;
+        });
+        assertEquals(Integer.valueOf(10), loaded.getOrderDetail().getOrderInfo().getOrderStatus());
+        assertNotCached(ORDER_ID);
+
+        CachedOrderDetail reloaded = orderDetailCache.get(ORDER_ID, () -> load(ORDER_ID));
+        assertEquals(Integer.valueOf(20), reloaded.getOrderDetail().getOrderInfo().getOrderStatus());
+        assertCached(ORDER_ID);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void shouldServeHitsWithoutLoading() {
+        CachedOrderDetail first = orderDetailCache.get(ORDER_ID, () -> load(ORDER_ID));
+        CachedOrderDetail second = orderDetailCache.get(ORDER_ID, () -> load(ORDER_ID));
+        assertEquals(1, loads.get());
+        assertEquals(first, second);
+        assertNotSame(first.getOrderDetail(), second.getOrderDetail());
+
+        // 不存在的订单不缓存
+        assertNull(orderDetailCache.get("999", () -> load("999")));
+        assertNull(orderDetailCache.get("999", () -> load("999")));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void shouldLoadFromDatabaseWhenRedisUnavailable() {
+        orderDetailRedisCache.setAvailable(false);
+        try {
+            assertNotNull(orderDetailCache.get(ORDER_ID, () -> load(ORDER_ID)));
+            assertNotNull(orderDetailCache.get(ORDER_ID, () -> load(ORDER_ID)));
+            assertEquals(2, loads.get());
+            // 失效失败不影响写库
+            assertTrue(orderInfoDAO.updateOrderStatus(ORDER_ID, 10, 20));
+        } finally {
+            orderDetailRedisCache.setAvailable(true);
+        }
+    }
+
+    /**
+     * 缓存每个订单后执行写操作，写完后这些订单都要失效
+     */
+    private void assertInvalidates(List<String> orderIds, Runnable write) {
+        for (String orderId : orderIds) {
+            primeCache(orderId);
+        }
+        write.run();
+        for (String orderId : orderIds) {
+            assertNotCached(orderId);
+        }
+    }
+
+    private void primeCache(String orderId) {
+        orderDetailCache.get(orderId, () -> load(orderId));
+        assertCached(orderId);
+    }
+
+    private void assertCached(String orderId) {
+        assertTrue(orderId, orderDetailRedisCache.contains(orderId));
+    }
+
+    private void assertNotCached(String orderId) {
+        assertFalse(orderId, orderDetailRedisCache.contains(orderId));
+    }
+
+    private CachedOrderDetail load(String orderId) {
+        loads.incrementAndGet();
+        OrderInfoDO orderInfo = orderInfoDAO.getByOrderId(orderId);
+        if (orderInfo == null) {
+            return null;
+        }
+        OrderInfoDTO orderInfoDTO = new OrderInfoDTO();
+        orderInfoDTO.setOrderId(orderInfo.getOrderId());
+        orderInfoDTO.setOrderStatus(orderInfo.getOrderStatus());
+        OrderDetailDTO orderDetail = OrderDetailDTO.builder().orderInfo(orderInfoDTO).build();
+        return new CachedOrderDetail(orderDetail, false);
+    }
+
+    private static OrderInfoDO orderInfo(String orderId, String parentOrderId) {
+        OrderInfoDO orderInfo = new OrderInfoDO();
+        orderInfo.setBusinessIdentifier(1);
+        orderInfo.setOrderId(orderId);
+        orderInfo.setParentOrderId(parentOrderId);
+        orderInfo.setOrderType(1);
+        orderInfo.setOrderStatus(10);
+        orderInfo.setUserId("100");
+        orderInfo.setTotalAmount(10000);
+        orderInfo.setPayAmount(9000);
+        orderInfo.setDeleteStatus(0);
+        return orderInfo;
+    }
+
+    private static OrderOperateLogDO operateLog(String orderId, Integer preStatus, Integer currentStatus) {
+        OrderOperateLogDO operateLog = new OrderOperateLogDO();
+        operateLog.setOrderId(orderId);
+        operateLog.setOperateType(10);
+        operateLog.setPreStatus(preStatus);
+        operateLog.setCurrentStatus(currentStatus);
+        operateLog.setRemark("订单操作" + preStatus + "-" + currentStatus);
+        return operateLog;
+    }
+
+    /**
+     * 按实体元数据建表，主键自增
+     */
+    private void createTables() {
+        H2MybatisTestSupport.createTables(jdbcTemplate, ENTITY_CLASSES);
+    }
+
+    /**
+     * 内存里的订单详情缓存，和redis一样按版本号回填、失效时版本号加1，value存json
+     */
+    static class InMemoryOrderDetailRedisCache extends OrderDetailRedisCache {
+
+        private final Map<String, Long> versions = new HashMap<>();
+
+        private final Map<String, String> values = new HashMap<>();
+
+        private volatile boolean available = true;
+
+        @Override
+        public synchronized OrderDetailCacheEntry get(String orderId) {
+            checkAvailable();
+            String value = values.get(orderId);
+            return new OrderDetailCacheEntry(versions.getOrDefault(orderId, 0L),
+                    value == null ? null : JSONObject.parseObject(value, CachedOrderDetail.class));
+        }
+
+        @Override
+        public synchronized boolean putIfVersion(String orderId, OrderDetailCacheEntry entry) {
+            checkAvailable();
+            if (versions.getOrDefault(orderId, 0L) != entry.getVersion()) {
+                return false;
+            }
+            versions.put(orderId, entry.getVersion());
+            values.put(orderId, JSONObject.toJSONString(entry.getValue()));
+            return true;
+        }
+
+        @Override
+        public synchronized void invalidate(Collection<String> orderIdList) {
+            checkAvailable();
+            for (String orderId : orderIdList) {
+                versions.merge(orderId, 1L, Long::sum);
+                values.remove(orderId);
+            }
+        }
+
+        synchronized boolean contains(String orderId) {
+            return values.containsKey(orderId);
+        }
+
+        synchronized void clear() {
+            versions.clear();
+            values.clear();
+        }
+
+        void setAvailable(boolean available) {
+            this.available = available;
+        }
+
+        private void checkAvailable() {
+            if (!available) {
+                throw new IllegalStateException("redis unavailable");
+            }
+        }
+    }
+
+    @Configuration
+    @EnableTransactionManagement
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return H2MybatisTestSupport.dataSource("order_detail_cache");
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderInfoMapper> orderInfoMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderInfoMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderDeliveryDetailMapper> orderDeliveryDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderDeliveryDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderPaymentDetailMapper> orderPaymentDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderPaymentDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderOperateLogMapper> orderOperateLogMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderOperateLogMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderSnapshotMapper> orderSnapshotMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderSnapshotMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public OrderInfoDAO orderInfoDAO() {
+            return new OrderInfoDAO();
+        }
+
+        @Bean
+        public OrderDeliveryDetailDAO orderDeliveryDetailDAO() {
+            return new OrderDeliveryDetailDAO();
+        }
+
+        @Bean
+        public OrderPaymentDetailDAO orderPaymentDetailDAO() {
+            return new OrderPaymentDetailDAO();
+        }
+
+        @Bean
+        public OrderOperateLogDAO orderOperateLogDAO() {
+            return new OrderOperateLogDAO();
+        }
+
+        @Bean
+        public OrderSnapshotDAO orderSnapshotDAO() {
+            return new OrderSnapshotDAO();
+        }
+
+        @Bean
+        public RedisCache redisCache() {
+            return new RedisCache(null);
+        }
+
+        @Bean
+        public OrderProperties orderProperties() {
+            return new OrderProperties();
+        }
+
+        @Bean
+        public InMemoryOrderDetailRedisCache orderDetailRedisCache() {
+            return new InMemoryOrderDetailRedisCache();
+        }
+
+        @Bean
+        public OrderDetailCache orderDetailCache() {
+            return new OrderDetailCache();
+        }
+
+        @Bean
+        public PlatformTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        public TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+            return new TransactionTemplate(transactionManager);
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
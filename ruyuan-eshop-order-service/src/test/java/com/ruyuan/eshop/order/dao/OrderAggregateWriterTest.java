@@ -0,0 +1,380 @@
+package com.ruyuan.eshop.order.dao;
+
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.domain.entity.*;
+import com.ruyuan.eshop.order.mapper.*;
+import com.ruyuan.eshop.order.service.impl.NewOrderDataHolder;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.ruyuan.eshop.order.H2MybatisTestSupport.mapper;
+import static org.junit.Assert.*;
+
+/**
+ * 订单聚合写入测试：和逐表saveBatch写入的行逐列比较，订单表使用H2内存库
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = OrderAggregateWriterTest.Config.class)
+public class OrderAggregateWriterTest {
+
+    private static final List<Class<?>> ENTITY_CLASSES = Arrays.asList(
+            OrderInfoDO.class, OrderItemDO.class, OrderDeliveryDetailDO.class, OrderPaymentDetailDO.class,
+            OrderAmountDO.class, OrderAmountDetailDO.class, OrderOperateLogDO.class, OrderSnapshotDO.class);
+
+    /**
+     * 和线上表结构一致的 NOT NULL DEFAULT 列，实体里为null时要由数据库默认值兜底
+     */
+    private static final Map<String, String> COLUMN_DEFAULTS = new HashMap<>();
+
+    static {
+        COLUMN_DEFAULTS.put("order_info.comment_status", "TINYINT NOT NULL DEFAULT 0");
+        COLUMN_DEFAULTS.put("order_delivery_detail.modify_address_count", "TINYINT NOT NULL DEFAULT 0");
+        COLUMN_DEFAULTS.put("order_payment_detail.pay_amount", "INT NOT NULL DEFAULT 0");
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OrderAggregateWriter orderAggregateWriter;
+
+    @Autowired
+    private OrderInfoDAO orderInfoDAO;
+
+    @Autowired
+    private OrderItemDAO orderItemDAO;
+
+    @Autowired
+    private OrderDeliveryDetailDAO orderDeliveryDetailDAO;
+
+    @Autowired
+    private OrderPaymentDetailDAO orderPaymentDetailDAO;
+
+    @Autowired
+    private OrderAmountDAO orderAmountDAO;
+
+    @Autowired
+    private OrderAmountDetailDAO orderAmountDetailDAO;
+
+    @Autowired
+    private OrderOperateLogDAO orderOperateLogDAO;
+
+    @Autowired
+    private OrderSnapshotDAO orderSnapshotDAO;
+
+    @Test
+    public void shouldWriteSameRowsAsSaveBatch() {
+        // 原来的写法：每张表各自saveBatch
+        createTables();
+        NewOrderDataHolder saveBatchHolder = buildNewOrderData();
+        orderInfoDAO.saveBatch(saveBatchHolder.getOrderInfoDOList());
+        orderItemDAO.saveBatch(saveBatchHolder.getOrderItemDOList());
+        orderDeliveryDetailDAO.saveBatch(saveBatchHolder.getOrderDeliveryDetailDOList());
+        orderPaymentDetailDAO.saveBatch(saveBatchHolder.getOrderPaymentDetailDOList());
+        orderAmountDAO.saveBatch(saveBatchHolder.getOrderAmountDOList());
+        orderAmountDetailDAO.saveBatch(saveBatchHolder.getOrderAmountDetailDOList());
+        orderOperateLogDAO.saveBatch(saveBatchHolder.getOrderOperateLogDOList());
+        orderSnapshotDAO.saveBatch(saveBatchHolder.getOrderSnapshotDOList());
+        Map<String, List<Map<String, Object>>> expected = dumpTables();
+
+        // 聚合写入
+        createTables();
+        NewOrderDataHolder writerHolder = buildNewOrderData();
+        orderAggregateWriter.write(writerHolder);
+        Map<String, List<Map<String, Object>>> actual = dumpTables();
+
+        for (Class<?> entityClass : ENTITY_CLASSES) {
+            String tableName = TableInfoHelper.getTableInfo(entityClass).getTableName();
+            assertFalse(tableName, expected.get(tableName).isEmpty());
+            assertEquals(tableName, expected.get(tableName), actual.get(tableName));
+        }
+
+        // 自增主键回填
+        assertEquals(ids(saveBatchHolder.getOrderInfoDOList(), OrderInfoDO::getId),
+                ids(writerHolder.getOrderInfoDOList(), OrderInfoDO::getId));
+        assertEquals(ids(saveBatchHolder.getOrderItemDOList(), OrderItemDO::getId),
+                ids(writerHolder.getOrderItemDOList(), OrderItemDO::getId));
+        assertEquals(ids(saveBatchHolder.getOrderSnapshotDOList(), OrderSnapshotDO::getId),
+                ids(writerHolder.getOrderSnapshotDOList(), OrderSnapshotDO::getId));
+    }
+
+    @Test
+    public void shouldUseColumnDefaultWhenFieldIsNull() {
+        createTables();
+        NewOrderDataHolder holder = buildNewOrderData();
+        orderAggregateWriter.write(holder);
+
+        List<Integer> commentStatus = jdbcTemplate.queryForList(
+                "SELECT comment_status FROM order_info ORDER BY id", Integer.class);
+        assertEquals(Arrays.asList(0, 1, 0), commentStatus);
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_delivery_detail WHERE modify_address_count <> 0", Integer.class));
+    }
+
+    private <T> List<Long> ids(List<T> entityList, Function<T, Long> idGetter) {
+        List<Long> ids = entityList.stream().map(idGetter).collect(Collectors.toList());
+        ids.forEach(id -> assertNotNull(id));
+        return ids;
+    }
+
+    /**
+     * 按实体元数据建表，主键自增，个别列带默认值
+     */
+    private void createTables() {
+        H2MybatisTestSupport.createTables(jdbcTemplate, ENTITY_CLASSES, COLUMN_DEFAULTS);
+    }
+
+    /**
+     * 导出所有行，创建/修改时间由填充器按当前时间生成，只校验非空
+     */
+    private Map<String, List<Map<String, Object>>> dumpTables() {
+        Map<String, List<Map<String, Object>>> tables = new HashMap<>();
+        for (Class<?> entityClass : ENTITY_CLASSES) {
+            String tableName = TableInfoHelper.getTableInfo(entityClass).getTableName();
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT * FROM " + tableName + " ORDER BY id");
+            for (Map<String, Object> row : rows) {
+                assertNotNull(row.remove("gmt_create"));
+                assertNotNull(row.remove("gmt_modified"));
+            }
+            tables.put(tableName, rows);
+        }
+        return tables;
+    }
+
+    /**
+     * 一个主单拆成两个子单
+     */
+    private NewOrderDataHolder buildNewOrderData() {
+        NewOrderDataHolder holder = new NewOrderDataHolder();
+        String masterOrderId = "1011250000000010001";
+        List<String> orderIds = Arrays.asList(masterOrderId, "1011250000000020001", "1011250000000030001");
+        Date expireTime = new Date(1700000000000L);
+        for (int i = 0; i < orderIds.size(); i++) {
+            String orderId = orderIds.get(i);
+
+            OrderInfoDO orderInfoDO = new OrderInfoDO();
+            orderInfoDO.setBusinessIdentifier(1);
+            orderInfoDO.setOrderId(orderId);
+            orderInfoDO.setParentOrderId(i == 0 ? null : masterOrderId);
+            orderInfoDO.setOrderType(1);
+            orderInfoDO.setOrderStatus(10);
+            orderInfoDO.setSellerId("101");
+            orderInfoDO.setUserId("100");
+            orderInfoDO.setTotalAmount(10000 + i);
+            orderInfoDO.setPayAmount(9000 + i);
+            orderInfoDO.setPayType(10);
+            orderInfoDO.setCouponId(i == 0 ? "1001001" : null);
+            orderInfoDO.setExpireTime(expireTime);
+            orderInfoDO.setUserRemark(i == 0 ? "" : "remark-" + i);
+            orderInfoDO.setDeleteStatus(0);
+            // 只有一个子单带评论状态，其余行依赖列默认值
+            orderInfoDO.setCommentStatus(i == 1 ? 1 : null);
+            holder.getOrderInfoDOList().add(orderInfoDO);
+
+            OrderDeliveryDetailDO deliveryDetailDO = new OrderDeliveryDetailDO();
+            deliveryDetailDO.setOrderId(orderId);
+            deliveryDetailDO.setDeliveryType(1);
+            deliveryDetailDO.setProvince("110000");
+            deliveryDetailDO.setCity("110100");
+            deliveryDetailDO.setArea("110105");
+            deliveryDetailDO.setStreet("110101007");
+            deliveryDetailDO.setDetailAddress("北京北京市东城区东华门街道");
+            deliveryDetailDO.setLon(new BigDecimal("100.1000"));
+            deliveryDetailDO.setLat(new BigDecimal("1010.2010"));
+            deliveryDetailDO.setReceiverName("张三");
+            deliveryDetailDO.setReceiverPhone("13434545545");
+            holder.getOrderDeliveryDetailDOList().add(deliveryDetailDO);
+
+            OrderPaymentDetailDO paymentDetailDO = new OrderPaymentDetailDO();
+            paymentDetailDO.setOrderId(orderId);
+            paymentDetailDO.setAccountType(1);
+            paymentDetailDO.setPayType(10);
+            paymentDetailDO.setPayStatus(10);
+            paymentDetailDO.setPayAmount(i == 0 ? 9000 : null);
+            holder.getOrderPaymentDetailDOList().add(paymentDetailDO);
+
+            for (int amountType = 10; amountType <= 20; amountType += 10) {
+                OrderAmountDO orderAmountDO = new OrderAmountDO();
+                orderAmountDO.setOrderId(orderId);
+                orderAmountDO.setAmountType(amountType);
+                orderAmountDO.setAmount(amountType * 100 + i);
+                holder.getOrderAmountDOList().add(orderAmountDO);
+            }
+
+            OrderOperateLogDO operateLogDO = new OrderOperateLogDO();
+            operateLogDO.setOrderId(orderId);
+            operateLogDO.setOperateType(10);
+            operateLogDO.setPreStatus(0);
+            operateLogDO.setCurrentStatus(10);
+            operateLogDO.setRemark("创建订单操作0-10");
+            holder.getOrderOperateLogDOList().add(operateLogDO);
+
+            OrderSnapshotDO snapshotDO = new OrderSnapshotDO();
+            snapshotDO.setOrderId(orderId);
+            snapshotDO.setSnapshotType(1);
+            snapshotDO.setSnapshotJson("{\"orderId\":\"" + orderId + "\"}");
+            holder.getOrderSnapshotDOList().add(snapshotDO);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            String orderId = orderIds.get(1 + i % 2);
+            OrderItemDO orderItemDO = new OrderItemDO();
+            orderItemDO.setOrderId(orderId);
+            orderItemDO.setOrderItemId(orderId + "_00" + i);
+            orderItemDO.setProductType(1 + i % 2);
+            orderItemDO.setProductId("100000" + i);
+            orderItemDO.setProductImg(i == 0 ? null : "img-" + i);
+            orderItemDO.setProductName("商品" + i);
+            orderItemDO.setSkuCode("skuCode00" + i);
+            orderItemDO.setSaleQuantity(i + 1);
+            orderItemDO.setSalePrice(1000);
+            orderItemDO.setOriginAmount(1000 * (i + 1));
+            orderItemDO.setPayAmount(900 * (i + 1));
+            orderItemDO.setProductUnit("个");
+            orderItemDO.setPurchasePrice(500);
+            orderItemDO.setSellerId("101");
+            holder.getOrderItemDOList().add(orderItemDO);
+
+            OrderAmountDetailDO amountDetailDO = new OrderAmountDetailDO();
+            amountDetailDO.setOrderId(orderId);
+            amountDetailDO.setProductType(orderItemDO.getProductType());
+            amountDetailDO.setOrderItemId(orderItemDO.getOrderItemId());
+            amountDetailDO.setProductId(orderItemDO.getProductId());
+            amountDetailDO.setSkuCode(orderItemDO.getSkuCode());
+            amountDetailDO.setSaleQuantity(orderItemDO.getSaleQuantity());
+            amountDetailDO.setSalePrice(orderItemDO.getSalePrice());
+            amountDetailDO.setAmountType(10);
+            amountDetailDO.setAmount(orderItemDO.getOriginAmount());
+            holder.getOrderAmountDetailDOList().add(amountDetailDO);
+        }
+        return holder;
+    }
+
+    @Configuration
+    @EnableTransactionManagement
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return H2MybatisTestSupport.dataSource("order_aggregate");
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderInfoMapper> orderInfoMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderInfoMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderItemMapper> orderItemMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderItemMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderDeliveryDetailMapper> orderDeliveryDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderDeliveryDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderPaymentDetailMapper> orderPaymentDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderPaymentDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderAmountMapper> orderAmountMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderAmountMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderAmountDetailMapper> orderAmountDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderAmountDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderOperateLogMapper> orderOperateLogMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderOperateLogMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderSnapshotMapper> orderSnapshotMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderSnapshotMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public OrderInfoDAO orderInfoDAO() {
+            return new OrderInfoDAO();
+        }
+
+        @Bean
+        public OrderItemDAO orderItemDAO() {
+            return new OrderItemDAO();
+        }
+
+        @Bean
+        public OrderDeliveryDetailDAO orderDeliveryDetailDAO() {
+            return new OrderDeliveryDetailDAO();
+        }
+
+        @Bean
+        public OrderPaymentDetailDAO orderPaymentDetailDAO() {
+            return new OrderPaymentDetailDAO();
+        }
+
+        @Bean
+        public OrderAmountDAO orderAmountDAO() {
+            return new OrderAmountDAO();
+        }
+
+        @Bean
+        public OrderAmountDetailDAO orderAmountDetailDAO() {
+            return new OrderAmountDetailDAO();
+        }
+
+        @Bean
+        public OrderOperateLogDAO orderOperateLogDAO() {
+            return new OrderOperateLogDAO();
+        }
+
+        @Bean
+        public OrderSnapshotDAO orderSnapshotDAO() {
+            return new OrderSnapshotDAO();
+        }
+
+        @Bean
+        public OrderAggregateWriter orderAggregateWriter() {
+            return new OrderAggregateWriter();
+        }
+
+        @Bean
+        public PlatformTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.ruyuan.eshop.order.dao;
+
+import com.ruyuan.eshop.common.utils.JsonUtil;
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.domain.entity.OrderSnapshotDO;
+import com.ruyuan.eshop.order.mapper.OrderSnapshotMapper;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 订单快照异步写入测试：攒批写入、崩溃后WAL回放，订单快照表使用H2内存库
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = OrderSnapshotWriterTest.Config.class)
+public class OrderSnapshotWriterTest {
+
+    @Rule
+    public TemporaryFolder walFolder = new TemporaryFolder();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OrderSnapshotDAO orderSnapshotDAO;
+
+    @Before
+    public void createTable() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS order_snapshot");
+        jdbcTemplate.execute("CREATE TABLE order_snapshot (id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                + " gmt_create DATETIME, gmt_modified DATETIME, order_id VARCHAR(50),"
+                + " snapshot_type INT, snapshot_json VARCHAR(1024))");
+    }
+
+    @Test
+    public void shouldFlushWhenBatchIsFull() throws Exception {
+        OrderSnapshotWriter writer = newWriter(orderSnapshotDAO, 3, 60 * 1000L);
+        writer.start();
+
+        writer.submit(snapshots("1011250000000010001"));
+        awaitRowCount(3);
+
+        // 不够一批，等待时间又很长，停止前不会写入
+        writer.submit(Arrays.asList(snapshot("1011250000000020001", 1)));
+        Thread.sleep(300);
+        assertEquals(3, rowCount());
+
+        writer.stop();
+        assertEquals(4, rowCount());
+        assertEquals(0, walFiles().length);
+    }
+
+    @Test
+    public void shouldFlushWhenIntervalElapsed() throws Exception {
+        OrderSnapshotWriter writer = newWriter(orderSnapshotDAO, 100, 100L);
+        writer.start();
+
+        writer.submit(snapshots("1011250000000010001"));
+        awaitRowCount(3);
+
+        // 全部确认后WAL文件被清空
+        File[] walFiles = walFiles();
+        assertEquals(1, walFiles.length);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (walFiles[0].length() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, walFiles[0].length());
+        writer.stop();
+    }
+
+    @Test
+    public void shouldSerializeSnapshotContentInWriterThread() throws Exception {
+        OrderSnapshotWriter writer = newWriter(orderSnapshotDAO, 100, 50L);
+        writer.start();
+
+        OrderSnapshotDO orderSnapshotDO = new OrderSnapshotDO();
+        orderSnapshotDO.setOrderId("1011250000000010001");
+        orderSnapshotDO.setSnapshotType(2);
+        orderSnapshotDO.setSnapshotContent(Arrays.asList("100001", "100002"));
+        writer.submit(Arrays.asList(orderSnapshotDO));
+        awaitRowCount(1);
+
+        assertEquals("[\"100001\",\"100002\"]", jdbcTemplate.queryForObject(
+                "SELECT snapshot_json FROM order_snapshot WHERE order_id = '1011250000000010001'", String.class));
+        writer.stop();
+    }
+
+    @Test
+    public void shouldReplayWalAfterCrash() throws Exception {
+        // 数据库不可用，快照只写进了WAL，随后进程崩溃，不执行stop
+        OrderSnapshotWriter crashed = newWriter(new FailingOrderSnapshotDAO(), 100, 50L);
+        crashed.start();
+        crashed.submit(snapshots("1011250000000010001"));
+        crashed.submit(snapshots("1011250000000020001"));
+        // 写入线程先追加WAL再写库
+        assertEquals(1, walFiles().length);
+        awaitWalLines(walFiles()[0], 6);
+        assertEquals(0, rowCount());
+
+        // 重启后回放WAL
+        OrderSnapshotWriter restarted = newWriter(orderSnapshotDAO, 100, 50L);
+        restarted.start();
+        assertEquals(6, rowCount());
+        assertEquals(Integer.valueOf(2), jdbcTemplate.queryForObject(
+                "SELECT COUNT(DISTINCT order_id) FROM order_snapshot", Integer.class));
+        assertEquals("{\"orderId\":\"1011250000000020001\",\"type\":3}", jdbcTemplate.queryForObject(
+                "SELECT snapshot_json FROM order_snapshot WHERE order_id = '1011250000000020001' AND snapshot_type = 3",
+                String.class));
+        restarted.stop();
+        assertEquals(0, walFiles().length);
+    }
+
+    @Test
+    public void shouldSkipExistingSnapshotsWhenReplaying() throws Exception {
+        // 写库成功后、确认WAL之前崩溃：WAL里的快照有一部分已经在库里
+        orderSnapshotDAO.saveBatch(Arrays.asList(snapshot("1011250000000010001", 1)));
+        List<String> lines = new ArrayList<>();
+        for (OrderSnapshotDO orderSnapshotDO : snapshots("1011250000000010001")) {
+            lines.add(JsonUtil.object2Json(orderSnapshotDO));
+        }
+        // 最后一行只写了一半
+        lines.add("{\"orderId\":\"10112500000");
+        Files.write(new File(walFolder.getRoot(), "snapshot-00000000000000000007.wal").toPath(),
+                lines, StandardCharsets.UTF_8);
+
+        OrderSnapshotWriter writer = newWriter(orderSnapshotDAO, 100, 50L);
+        writer.start();
+        assertEquals(3, rowCount());
+        assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_snapshot WHERE snapshot_type = 1", Integer.class));
+
+        // 新的WAL文件编号接在回放过的文件后面
+        File[] walFiles = walFiles();
+        assertEquals(1, walFiles.length);
+        assertEquals("snapshot-00000000000000000008.wal", walFiles[0].getName());
+        writer.stop();
+    }
+
+    private OrderSnapshotWriter newWriter(OrderSnapshotDAO dao, int batchSize, long flushInterval) {
+        OrderProperties orderProperties = new OrderProperties();
+        orderProperties.setSnapshotBatchSize(batchSize);
+        orderProperties.setSnapshotFlushInterval(flushInterval);
+        orderProperties.setSnapshotQueueCapacity(1000);
+        orderProperties.setSnapshotWalDir(walFolder.getRoot().getAbsolutePath());
+        OrderSnapshotWriter writer = new OrderSnapshotWriter();
+        ReflectionTestUtils.setField(writer, "orderSnapshotDAO", dao);
+        ReflectionTestUtils.setField(writer, "orderProperties", orderProperties);
+        return writer;
+    }
+
+    private List<OrderSnapshotDO> snapshots(String orderId) {
+        return Arrays.asList(snapshot(orderId, 1), snapshot(orderId, 2), snapshot(orderId, 3));
+    }
+
+    private OrderSnapshotDO snapshot(String orderId, int snapshotType) {
+        OrderSnapshotDO orderSnapshotDO = new OrderSnapshotDO();
+        orderSnapshotDO.setOrderId(orderId);
+        orderSnapshotDO.setSnapshotType(snapshotType);
+        orderSnapshotDO.setSnapshotJson("{\"orderId\":\"" + orderId + "\",\"type\":" + snapshotType + "}");
+        return orderSnapshotDO;
+    }
+
+    private int rowCount() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM order_snapshot", Integer.class);
+    }
+
+    private void awaitRowCount(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (rowCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, rowCount());
+    }
+
+    private void awaitWalLines(File walFile, int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Files.readAllLines(walFile.toPath(), StandardCharsets.UTF_8).size() < expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, Files.readAllLines(walFile.toPath(), StandardCharsets.UTF_8).size());
+    }
+
+    private File[] walFiles() {
+        return walFolder.getRoot().listFiles((dir, name) -> name.endsWith(".wal"));
+    }
+
+    /**
+     * 模拟数据库不可用
+     */
+    static class FailingOrderSnapshotDAO extends OrderSnapshotDAO {
+
+        @Override
+        public boolean saveBatch(Collection<OrderSnapshotDO> entityList, int batchSize) {
+            throw new IllegalStateException("database unavailable");
+        }
+
+        @Override
+        public List<OrderSnapshotDO> listTypesByOrderIds(List<String> orderIds) {
+            throw new IllegalStateException("database unavailable");
+        }
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return H2MybatisTestSupport.dataSource("order_snapshot");
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderSnapshotMapper> orderSnapshotMapper(SqlSessionFactory sqlSessionFactory) {
+            MapperFactoryBean<OrderSnapshotMapper> factoryBean = new MapperFactoryBean<>(OrderSnapshotMapper.class);
+            factoryBean.setSqlSessionFactory(sqlSessionFactory);
+            return factoryBean;
+        }
+
+        @Bean
+        public OrderSnapshotDAO orderSnapshotDAO() {
+            return new OrderSnapshotDAO();
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
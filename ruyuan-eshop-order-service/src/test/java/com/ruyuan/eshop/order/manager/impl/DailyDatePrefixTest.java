@@ -0,0 +1,186 @@
+package com.ruyuan.eshop.order.manager.impl;
+
+import com.ruyuan.eshop.common.constants.CoreConstant;
+import com.ruyuan.eshop.common.utils.DateFormatUtil;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 订单号日期前缀测试：跨天切换、多线程下和SimpleDateFormat的结果一致
+ */
+public class DailyDatePrefixTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Shanghai");
+
+    /**
+     * 2021-12-31 23:59:59.999 +08:00
+     */
+    private static final long LAST_MILLI_OF_2021 = 1640966399999L;
+
+    private static final int THREADS = 8;
+
+    private static final int CALLS_PER_THREAD = 20_000;
+
+    /**
+     * 时钟前进的次数
+     */
+    private static final int TICKS = 1000;
+
+    @Test
+    public void shouldSwitchPrefixAtMidnight() {
+        MutableClock clock = new MutableClock(LAST_MILLI_OF_2021);
+        DailyDatePrefix prefix = new DailyDatePrefix("yyMMdd", clock);
+        assertEquals("211231", prefix.get());
+        assertSame(prefix.get(), prefix.get());
+
+        clock.set(LAST_MILLI_OF_2021 + 1);
+        assertEquals("220101", prefix.get());
+
+        // 时钟回拨到前一天也能算出正确的日期
+        clock.set(LAST_MILLI_OF_2021);
+        assertEquals("211231", prefix.get());
+    }
+
+    @Test
+    public void shouldMatchSimpleDateFormatWhileDaysChangeConcurrently() throws Exception {
+        MutableClock clock = new MutableClock(LAST_MILLI_OF_2021 - TimeUnit.DAYS.toMillis(3));
+        DailyDatePrefix prefix = new DailyDatePrefix("yyMMdd", clock);
+
+        // 工作线程取前缀的同时，时钟每次前进7分钟，一共前进约5天，跨过多个午夜
+        AtomicBoolean ticking = new AtomicBoolean(true);
+        Thread ticker = new Thread(() -> {
+            try {
+                for (int i = 0; i < TICKS; i++) {
+                    clock.set(clock.millis() + TimeUnit.MINUTES.toMillis(7));
+                    Thread.sleep(1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                ticking.set(false);
+            }
+        });
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                SimpleDateFormat expectedFormat = simpleDateFormat("yyMMdd", TimeZone.getTimeZone(ZONE));
+                try {
+                    start.await();
+                    while (ticking.get()) {
+                        long before = clock.millis();
+                        String actual = prefix.get();
+                        long after = clock.millis();
+                        // 取前缀时的时间落在[before, after]之间，日期前缀也只能在这两个日期之间
+                        String lower = expectedFormat.format(new Date(before));
+                        String upper = expectedFormat.format(new Date(after));
+                        if (actual.compareTo(lower) < 0 || actual.compareTo(upper) > 0) {
+                            throw new AssertionError(actual + " not in [" + lower + ", " + upper + "]");
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        ticker.start();
+        start.countDown();
+        done.await();
+        ticker.join();
+        assertNull(String.valueOf(error.get()), error.get());
+        assertEquals("220102", prefix.get());
+    }
+
+    @Test
+    public void shouldFormatSameAsSimpleDateFormatConcurrently() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                TimeZone timeZone = TimeZone.getDefault();
+                SimpleDateFormat dateFormat = simpleDateFormat(CoreConstant.DATE_FORMAT_PATTERN, timeZone);
+                SimpleDateFormat dateTimeFormat = simpleDateFormat(CoreConstant.DATE_TIME_FORMAT_PATTERN, timeZone);
+                SimpleDateFormat timeFormat = simpleDateFormat(CoreConstant.TIME_FORMAT_PATTERN, timeZone);
+                SimpleDateFormat orderNoFormat = simpleDateFormat("yyMMdd", timeZone);
+                try {
+                    start.await();
+                    for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                        // 2000年到2040年之间的随机时间
+                        Date date = new Date(ThreadLocalRandom.current().nextLong(946684800000L, 2208988800000L));
+                        assertEquals(dateFormat.format(date), DateFormatUtil.format(date));
+                        assertEquals(dateTimeFormat.format(date), DateFormatUtil.formatDateTime(date));
+                        assertEquals(timeFormat.format(date), DateFormatUtil.formatTime(date));
+                        assertEquals(orderNoFormat.format(date), DateFormatUtil.format(date, "yyMMdd"));
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertNull(String.valueOf(error.get()), error.get());
+    }
+
+    private SimpleDateFormat simpleDateFormat(String pattern, TimeZone timeZone) {
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
+        simpleDateFormat.setTimeZone(timeZone);
+        return simpleDateFormat;
+    }
+
+    /**
+     * 可手动调整的时钟
+     */
+    private static class MutableClock extends Clock {
+
+        private volatile long millis;
+
+        private MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        private void set(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZONE;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+}
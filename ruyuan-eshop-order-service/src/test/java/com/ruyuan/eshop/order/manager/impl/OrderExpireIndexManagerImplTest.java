@@ -0,0 +1,246 @@
+package com.ruyuan.eshop.order.manager.impl;
+
+import com.ruyuan.eshop.common.redis.RedisCache;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * 未支付订单超时索引测试，需要本地启动redis-server，时间使用可控时钟
+ * 默认连接localhost:6379，可通过-Dredis.host、-Dredis.port指定，连接不上时跳过
+ */
+public class OrderExpireIndexManagerImplTest {
+
+    private static final int SHARD_COUNT = 4;
+
+    private static final long START = 1_638_000_000_000L;
+
+    private JedisConnectionFactory connectionFactory;
+
+    private RedisCache redisCache;
+
+    private MutableClock clock;
+
+    private OrderExpireIndexManagerImpl indexManager;
+
+    @Before
+    public void setUp() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+        connectionFactory = new JedisConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.ping();
+        } catch (Exception e) {
+            connectionFactory.destroy();
+            Assume.assumeNoException("redis-server不可用", e);
+        }
+
+        RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setDefaultSerializer(new StringRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+        redisCache = new RedisCache(redisTemplate);
+        clearIndex();
+
+        OrderProperties orderProperties = new OrderProperties();
+        orderProperties.setExpireIndexShardCount(SHARD_COUNT);
+        clock = new MutableClock(START);
+        indexManager = new OrderExpireIndexManagerImpl();
+        ReflectionTestUtils.setField(indexManager, "redisCache", redisCache);
+        ReflectionTestUtils.setField(indexManager, "orderProperties", orderProperties);
+        ReflectionTestUtils.setField(indexManager, "clock", clock);
+    }
+
+    @After
+    public void tearDown() {
+        if (redisCache != null) {
+            clearIndex();
+        }
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    public void shouldClaimOnlyExpiredOrders() {
+        for (int i = 0; i < 100; i++) {
+            indexManager.register("order" + i, new Date(START + i * 1000L));
+        }
+
+        clock.set(START + 9_999L);
+        Set<String> claimed = claimAll(1000);
+        assertEquals(10, claimed.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(claimed.contains("order" + i));
+        }
+
+        // 租约内已认领的订单不会再次认领
+        assertTrue(claimAll(1000).isEmpty());
+
+        clock.set(START + 99_000L);
+        assertEquals(90, claimAll(1000).size());
+    }
+
+    @Test
+    public void shouldRespectLimitAndExpireOrder() {
+        List<String> orderIds = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String orderId = "order" + i;
+            orderIds.add(orderId);
+            indexManager.register(orderId, new Date(START + i));
+        }
+        clock.set(START + 1000L);
+
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            List<String> batch = indexManager.claimExpired(shard, 3);
+            assertTrue(batch.size() <= 3);
+            // 同一分片内按到期时间先后取出
+            for (int i = 1; i < batch.size(); i++) {
+                assertTrue(orderIds.indexOf(batch.get(i - 1)) < orderIds.indexOf(batch.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotClaimRemovedOrder() {
+        indexManager.register("paid", new Date(START));
+        indexManager.register("unpaid", new Date(START));
+        indexManager.remove("paid");
+
+        clock.set(START + 1L);
+        assertEquals(Collections.singleton("unpaid"), claimAll(10));
+    }
+
+    @Test
+    public void shouldClaimDelayedOrderAfterDelay() {
+        indexManager.registerDelay("retry", 60_000L);
+
+        clock.set(START + 59_999L);
+        assertTrue(claimAll(10).isEmpty());
+        clock.set(START + 60_000L);
+        assertEquals(Collections.singleton("retry"), claimAll(10));
+    }
+
+    @Test
+    public void shouldClaimEachOrderOnceConcurrently() throws Exception {
+        int orders = 2000;
+        for (int i = 0; i < orders; i++) {
+            indexManager.register("order" + i, new Date(START));
+        }
+        clock.set(START + 1L);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<String>>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                List<String> popped = new ArrayList<>();
+                for (int shard = 0; shard < SHARD_COUNT; shard++) {
+                    List<String> batch;
+                    do {
+                        batch = indexManager.claimExpired(shard, 50);
+                        popped.addAll(batch);
+                    } while (!batch.isEmpty());
+                }
+                return popped;
+            }));
+        }
+        start.countDown();
+        List<String> all = new ArrayList<>();
+        for (Future<List<String>> future : futures) {
+            all.addAll(future.get(30, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        assertEquals(orders, all.size());
+        assertEquals(orders, new HashSet<>(all).size());
+    }
+
+    @Test
+    public void shouldReclaimAfterLeaseExpires() {
+        indexManager.register("order0", new Date(START));
+        long lease = new OrderProperties().getExpireCancelLeaseMillis();
+
+        clock.set(START + 1L);
+        assertEquals(Collections.singleton("order0"), claimAll(10));
+
+        // 认领方没有关单也没有移除，租约到期前不会再次认领，到期后重新认领
+        clock.set(START + lease);
+        assertTrue(claimAll(10).isEmpty());
+        clock.set(START + 1L + lease);
+        assertEquals(Collections.singleton("order0"), claimAll(10));
+
+        // 关单完成后移除，不会再次认领
+        indexManager.remove("order0");
+        clock.set(START + 2L + 2 * lease);
+        assertTrue(claimAll(10).isEmpty());
+    }
+
+    private Set<String> claimAll(int limit) {
+        Set<String> claimed = new HashSet<>();
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            claimed.addAll(indexManager.claimExpired(shard, limit));
+        }
+        return claimed;
+    }
+
+    private void clearIndex() {
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            redisCache.delete(OrderExpireIndexManagerImpl.ORDER_EXPIRE_INDEX_KEY + shard);
+        }
+    }
+
+    /**
+     * 可手动调整的时钟
+     */
+    private static class MutableClock extends Clock {
+
+        private volatile long millis;
+
+        private MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        private void set(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.systemDefault();
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+}
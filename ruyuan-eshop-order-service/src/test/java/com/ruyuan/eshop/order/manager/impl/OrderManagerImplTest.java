@@ -0,0 +1,365 @@
+package com.ruyuan.eshop.order.manager.impl;
+
+import com.ruyuan.eshop.common.constants.RocketMqConstant;
+import com.ruyuan.eshop.common.enums.OrderStatusEnum;
+import com.ruyuan.eshop.common.message.PaidOrderSuccessMessage;
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.OrderInfoDAO;
+import com.ruyuan.eshop.order.dao.OrderOperateLogDAO;
+import com.ruyuan.eshop.order.dao.OrderOutboxDAO;
+import com.ruyuan.eshop.order.dao.OrderPaymentDetailDAO;
+import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
+import com.ruyuan.eshop.order.domain.entity.OrderOperateLogDO;
+import com.ruyuan.eshop.order.domain.entity.OrderOutboxDO;
+import com.ruyuan.eshop.order.domain.entity.OrderPaymentDetailDO;
+import com.ruyuan.eshop.order.domain.request.PayCallbackRequest;
+import com.ruyuan.eshop.order.enums.PayStatusEnum;
+import com.ruyuan.eshop.order.exception.OrderBizException;
+import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import com.ruyuan.eshop.order.mapper.OrderInfoMapper;
+import com.ruyuan.eshop.order.mapper.OrderOperateLogMapper;
+import com.ruyuan.eshop.order.mapper.OrderOutboxMapper;
+import com.ruyuan.eshop.order.mapper.OrderPaymentDetailMapper;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.*;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ruyuan.eshop.order.H2MybatisTestSupport.mapper;
+import static org.junit.Assert.*;
+
+/**
+ * 支付回调更新订单状态测试：不管有多少个子订单执行的语句数都一样，订单状态已经变了时不会被改回已支付，
+ * 订单已完成支付消息和订单状态一起写入发件箱
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = OrderManagerImplTest.Config.class)
+public class OrderManagerImplTest {
+
+    private static final List<Class<?>> ENTITY_CLASSES = Arrays.asList(
+            OrderInfoDO.class, OrderPaymentDetailDO.class, OrderOperateLogDO.class, OrderOutboxDO.class);
+
+    private static final String ORDER_ID = "1011250000000010001";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private StatementCounter statementCounter;
+
+    @Autowired
+    private OrderInfoDAO orderInfoDAO;
+
+    @Autowired
+    private OrderPaymentDetailDAO orderPaymentDetailDAO;
+
+    @Autowired
+    private OrderOperateLogDAO orderOperateLogDAO;
+
+    @Autowired
+    private OrderOutboxDAO orderOutboxDAO;
+
+    private OrderManagerImpl orderManager;
+
+    @Before
+    public void setUp() {
+        createTables();
+        orderManager = new OrderManagerImpl();
+        ReflectionTestUtils.setField(orderManager, "orderInfoDAO", orderInfoDAO);
+        ReflectionTestUtils.setField(orderManager, "orderPaymentDetailDAO", orderPaymentDetailDAO);
+        ReflectionTestUtils.setField(orderManager, "orderOperateLogDAO", orderOperateLogDAO);
+        ReflectionTestUtils.setField(orderManager, "orderOutboxDAO", orderOutboxDAO);
+    }
+
+    @Test
+    public void shouldPayOrderWithoutSubOrders() {
+        insertOrder(ORDER_ID, null, OrderStatusEnum.CREATED.getCode());
+
+        int statements = payCallback();
+
+        // 查子订单、更新订单状态、更新支付明细、新增日志、写入发件箱
+        assertEquals(5, statements);
+        assertEquals(OrderStatusEnum.PAID.getCode(), orderStatus(ORDER_ID));
+        assertEquals(PayStatusEnum.PAID.getCode(), payStatus(ORDER_ID));
+        assertEquals(Collections.singletonList(OrderStatusEnum.CREATED.getCode() + "-" + OrderStatusEnum.PAID.getCode()),
+                operateLogs(ORDER_ID));
+        assertEquals(Collections.singletonList(RocketMqConstant.PAID_ORDER_SUCCESS_TOPIC), outboxTopics(ORDER_ID));
+    }
+
+    @Test
+    public void shouldUseSameStatementsForAnySubOrderCount() {
+        insertOrderWithSubOrders(1, OrderStatusEnum.CREATED.getCode());
+        int oneSubOrder = payCallback();
+        assertSubOrdersPaid(1);
+
+        createTables();
+        insertOrderWithSubOrders(30, OrderStatusEnum.CREATED.getCode());
+        int manySubOrders = payCallback();
+        assertSubOrdersPaid(30);
+
+        // 查子订单、更新主订单、更新子订单、更新支付明细、新增日志、写入发件箱
+        assertEquals(6, oneSubOrder);
+        assertEquals(oneSubOrder, manySubOrders);
+    }
+
+    @Test
+    public void shouldNotRegressCanceledOrder() {
+        // 支付回调读到的订单还是已创建，更新前订单被取消了
+        insertOrder(ORDER_ID, null, OrderStatusEnum.CANCELED.getCode());
+
+        assertStatusChanged();
+
+        assertEquals(OrderStatusEnum.CANCELED.getCode(), orderStatus(ORDER_ID));
+        assertEquals(PayStatusEnum.UNPAID.getCode(), payStatus(ORDER_ID));
+        assertTrue(operateLogs(ORDER_ID).isEmpty());
+        assertTrue(outboxTopics(ORDER_ID).isEmpty());
+    }
+
+    @Test
+    public void shouldRollbackWhenSubOrderStatusChanged() {
+        List<String> subOrderIds = insertOrderWithSubOrders(3, OrderStatusEnum.CREATED.getCode());
+        jdbcTemplate.update("UPDATE order_info SET order_status = ? WHERE order_id = ?",
+                OrderStatusEnum.CANCELED.getCode(), subOrderIds.get(1));
+
+        assertStatusChanged();
+
+        // 主订单已经更新为无效订单的语句一起回滚
+        assertEquals(OrderStatusEnum.CREATED.getCode(), orderStatus(ORDER_ID));
+        assertEquals(OrderStatusEnum.CREATED.getCode(), orderStatus(subOrderIds.get(0)));
+        assertEquals(OrderStatusEnum.CANCELED.getCode(), orderStatus(subOrderIds.get(1)));
+        assertEquals(PayStatusEnum.UNPAID.getCode(), payStatus(ORDER_ID));
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_operate_log", Integer.class));
+        assertTrue(outboxTopics(ORDER_ID).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectOutboxOutsideTransaction() {
+        orderOutboxDAO.append(orderOutboxDAO.build(ORDER_ID, RocketMqConstant.PAID_ORDER_SUCCESS_TOPIC, null, ORDER_ID,
+                new PaidOrderSuccessMessage(), -1));
+    }
+
+    private void assertStatusChanged() {
+        try {
+            payCallback();
+            fail("订单状态已变更时应该抛异常");
+        } catch (OrderBizException e) {
+            assertEquals(OrderErrorCodeEnum.ORDER_STATUS_CHANGED.getErrorCode(), e.getErrorCode());
+        }
+    }
+
+    private void assertSubOrdersPaid(int subOrderCount) {
+        assertEquals(OrderStatusEnum.INVALID.getCode(), orderStatus(ORDER_ID));
+        assertEquals(Integer.valueOf(subOrderCount), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_info WHERE parent_order_id = ? AND order_status = ?",
+                Integer.class, ORDER_ID, OrderStatusEnum.PAID.getCode()));
+        assertEquals(Integer.valueOf(subOrderCount + 1), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_payment_detail WHERE pay_status = ?",
+                Integer.class, PayStatusEnum.PAID.getCode()));
+        assertEquals(Arrays.asList(OrderStatusEnum.CREATED.getCode() + "-" + OrderStatusEnum.PAID.getCode(),
+                OrderStatusEnum.PAID.getCode() + "-" + OrderStatusEnum.INVALID.getCode()), operateLogs(ORDER_ID));
+        assertEquals(Integer.valueOf(subOrderCount + 2), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_operate_log", Integer.class));
+    }
+
+    /**
+     * 在事务中执行支付回调更新，返回执行的语句数
+     */
+    private int payCallback() {
+        PayCallbackRequest payCallbackRequest = new PayCallbackRequest();
+        payCallbackRequest.setOrderId(ORDER_ID);
+        OrderInfoDO orderInfoDO = orderInfoDAO.getByOrderId(ORDER_ID);
+        // 支付回调时读到的订单状态是已创建
+        orderInfoDO.setOrderStatus(OrderStatusEnum.CREATED.getCode());
+        OrderPaymentDetailDO orderPaymentDetailDO = orderPaymentDetailDAO.getPaymentDetailByOrderId(ORDER_ID);
+
+        statementCounter.reset();
+        transactionTemplate.execute(status -> {
+            orderManager.updateOrderStatusPaid(payCallbackRequest, orderInfoDO, orderPaymentDetailDO);
+            return null;
+        });
+        return statementCounter.get();
+    }
+
+    private List<String> insertOrderWithSubOrders(int subOrderCount, Integer orderStatus) {
+        insertOrder(ORDER_ID, null, orderStatus);
+        List<String> subOrderIds = new ArrayList<>();
+        for (int i = 0; i < subOrderCount; i++) {
+            String subOrderId = String.valueOf(1011250000000020000L + i);
+            insertOrder(subOrderId, ORDER_ID, orderStatus);
+            subOrderIds.add(subOrderId);
+        }
+        return subOrderIds;
+    }
+
+    private void insertOrder(String orderId, String parentOrderId, Integer orderStatus) {
+        jdbcTemplate.update("INSERT INTO order_info (business_identifier, order_id, parent_order_id, order_type,"
+                        + " order_status, user_id, pay_amount, delete_status) VALUES (1, ?, ?, 1, ?, '100', 9505, 0)",
+                orderId, parentOrderId, orderStatus);
+        jdbcTemplate.update("INSERT INTO order_payment_detail (order_id, account_type, pay_type, pay_status,"
+                        + " pay_amount) VALUES (?, 1, 10, ?, 9505)",
+                orderId, PayStatusEnum.UNPAID.getCode());
+    }
+
+    private Integer orderStatus(String orderId) {
+        return jdbcTemplate.queryForObject("SELECT order_status FROM order_info WHERE order_id = ?",
+                Integer.class, orderId);
+    }
+
+    private Integer payStatus(String orderId) {
+        return jdbcTemplate.queryForObject("SELECT pay_status FROM order_payment_detail WHERE order_id = ?",
+                Integer.class, orderId);
+    }
+
+    private List<String> operateLogs(String orderId) {
+        return jdbcTemplate.queryForList("SELECT CONCAT(pre_status, '-', current_status) FROM order_operate_log"
+                + " WHERE order_id = ? ORDER BY id", String.class, orderId);
+    }
+
+    private List<String> outboxTopics(String orderId) {
+        return jdbcTemplate.queryForList("SELECT topic FROM order_outbox WHERE order_id = ? ORDER BY id",
+                String.class, orderId);
+    }
+
+    private void createTables() {
+        H2MybatisTestSupport.createTables(jdbcTemplate, ENTITY_CLASSES);
+    }
+
+    /**
+     * 统计MyBatis执行的语句数，JDBC批处理里的每条语句都算一次
+     */
+    @Intercepts({
+            @Signature(type = StatementHandler.class, method = "query", args = {Statement.class, ResultHandler.class}),
+            @Signature(type = StatementHandler.class, method = "update", args = {Statement.class}),
+            @Signature(type = StatementHandler.class, method = "batch", args = {Statement.class})})
+    static class StatementCounter implements Interceptor {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            count.incrementAndGet();
+            return invocation.proceed();
+        }
+
+        @Override
+        public Object plugin(Object target) {
+            return Plugin.wrap(target, this);
+        }
+
+        @Override
+        public void setProperties(Properties properties) {
+        }
+
+        void reset() {
+            count.set(0);
+        }
+
+        int get() {
+            return count.get();
+        }
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return H2MybatisTestSupport.dataSource("order_paid");
+        }
+
+        @Bean
+        public StatementCounter statementCounter() {
+            return new StatementCounter();
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource, StatementCounter statementCounter) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource, statementCounter,
+                    "mapper/OrderOperateLogMapper.xml", "mapper/OrderOutboxMapper.xml");
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderInfoMapper> orderInfoMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderInfoMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderPaymentDetailMapper> orderPaymentDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderPaymentDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderOperateLogMapper> orderOperateLogMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderOperateLogMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public OrderInfoDAO orderInfoDAO() {
+            return new OrderInfoDAO();
+        }
+
+        @Bean
+        public OrderPaymentDetailDAO orderPaymentDetailDAO() {
+            return new OrderPaymentDetailDAO();
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderOutboxMapper> orderOutboxMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderOutboxMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public OrderOperateLogDAO orderOperateLogDAO() {
+            return new OrderOperateLogDAO();
+        }
+
+        @Bean
+        public OrderOutboxDAO orderOutboxDAO() {
+            return new OrderOutboxDAO();
+        }
+
+        @Bean
+        public OrderProperties orderProperties() {
+            return new OrderProperties();
+        }
+
+        @Bean
+        public PlatformTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        public TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+            return new TransactionTemplate(transactionManager);
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.ruyuan.eshop.order.manager.impl;
+
+import com.ruyuan.eshop.common.utils.DateFormatUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单号日期前缀的基准测试，8个线程并发生成，对比每次新建SimpleDateFormat、共享DateTimeFormatter和按天缓存三种写法
+ * <p>
+ * 运行main方法，GC profiler会输出每次调用的分配字节数（gc.alloc.rate.norm）
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderNoDateKeyBenchmark {
+
+    private static final String DATE_KEY_PATTERN = "yyMMdd";
+
+    private DailyDatePrefix dailyDatePrefix;
+
+    @Setup
+    public void setUp() {
+        dailyDatePrefix = new DailyDatePrefix(DATE_KEY_PATTERN, Clock.systemDefaultZone());
+    }
+
+    /**
+     * 原来的写法：每次新建SimpleDateFormat
+     */
+    @Benchmark
+    public String newSimpleDateFormat() {
+        return new SimpleDateFormat(DATE_KEY_PATTERN).format(new Date());
+    }
+
+    /**
+     * 共享的DateTimeFormatter，每次都要格式化
+     */
+    @Benchmark
+    public String sharedDateTimeFormatter() {
+        return DateFormatUtil.format(new Date(), DATE_KEY_PATTERN);
+    }
+
+    /**
+     * 按天缓存的前缀
+     */
+    @Benchmark
+    public String dailyDatePrefix() {
+        return dailyDatePrefix.get();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(OrderNoDateKeyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
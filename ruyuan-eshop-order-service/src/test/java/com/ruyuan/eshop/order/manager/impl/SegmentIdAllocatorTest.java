@@ -0,0 +1,155 @@
+package com.ruyuan.eshop.order.manager.impl;
+
+import com.ruyuan.eshop.common.utils.NumberUtil;
+import com.ruyuan.eshop.order.domain.entity.OrderAutoNoSegmentDO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 号段序列号分配器测试，号段表使用H2内存库
+ */
+public class SegmentIdAllocatorTest {
+
+    private static final String BIZ_TAG = "order_auto_no";
+
+    private static final int STEP = 1000;
+
+    private static final int THREADS = 8;
+
+    private static final int IDS_PER_THREAD = 250_000;
+
+    private Connection connection;
+
+    private ExecutorService prefetchExecutor;
+
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:segment;DB_CLOSE_DELAY=-1;MODE=MySQL");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS order_auto_no_segment");
+            statement.execute("CREATE TABLE order_auto_no_segment ("
+                    + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                    + "biz_tag VARCHAR(64) NOT NULL UNIQUE, "
+                    + "max_id BIGINT NOT NULL, "
+                    + "step INT NOT NULL, "
+                    + "gmt_create DATETIME NOT NULL, "
+                    + "gmt_modified DATETIME NOT NULL)");
+            statement.execute("INSERT INTO order_auto_no_segment (biz_tag, max_id, step, gmt_create, gmt_modified) "
+                    + "VALUES ('" + BIZ_TAG + "', 38, " + STEP + ", now(), now())");
+        }
+        prefetchExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        prefetchExecutor.shutdownNow();
+        connection.close();
+    }
+
+    @Test
+    public void shouldContinueFromCurrentMaxId() {
+        SegmentIdAllocator allocator = new SegmentIdAllocator(this::updateMaxIdAndGet, prefetchExecutor);
+        assertEquals(39L, allocator.nextId());
+        assertEquals(40L, allocator.nextId());
+    }
+
+    @Test
+    public void shouldAllocateUniqueIdsConcurrently() throws Exception {
+        SegmentIdAllocator allocator = new SegmentIdAllocator(this::updateMaxIdAndGet, prefetchExecutor);
+
+        long[][] results = new long[THREADS][IDS_PER_THREAD];
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int t = 0; t < THREADS; t++) {
+            long[] result = results[t];
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        result[i] = allocator.nextId();
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertNull(error.get());
+
+        long[] all = new long[THREADS * IDS_PER_THREAD];
+        for (int t = 0; t < THREADS; t++) {
+            System.arraycopy(results[t], 0, all, t * IDS_PER_THREAD, IDS_PER_THREAD);
+        }
+        assertNoDuplicate(all);
+
+        // 序列号经过genNo混淆后依然唯一
+        long[] autoNoKeys = new long[all.length];
+        for (int i = 0; i < all.length; i++) {
+            autoNoKeys[i] = NumberUtil.genNo(all[i], 8);
+        }
+        assertNoDuplicate(autoNoKeys);
+
+        // 每个号段只访问一次数据库，加上预加载最多多出一个号段
+        int expectedLoads = all.length / STEP;
+        assertTrue("loadCount=" + loadCount.get(), loadCount.get() <= expectedLoads + 2);
+    }
+
+    private void assertNoDuplicate(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++) {
+            assertNotEquals("duplicate id " + sorted[i], sorted[i - 1], sorted[i]);
+        }
+    }
+
+    /**
+     * 与OrderAutoNoSegmentDAO#updateMaxIdAndGet相同的语义：同一事务内update后select
+     */
+    private synchronized OrderAutoNoSegmentDO updateMaxIdAndGet() {
+        loadCount.incrementAndGet();
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement update = connection.prepareStatement(
+                    "update order_auto_no_segment set max_id = max_id + step, gmt_modified = now() where biz_tag = ?");
+                 PreparedStatement select = connection.prepareStatement(
+                         "select max_id, step from order_auto_no_segment where biz_tag = ?")) {
+                update.setString(1, BIZ_TAG);
+                update.executeUpdate();
+                select.setString(1, BIZ_TAG);
+                OrderAutoNoSegmentDO segmentDO = new OrderAutoNoSegmentDO();
+                try (ResultSet rs = select.executeQuery()) {
+                    rs.next();
+                    segmentDO.setBizTag(BIZ_TAG);
+                    segmentDO.setMaxId(rs.getLong("max_id"));
+                    segmentDO.setStep(rs.getInt("step"));
+                }
+                connection.commit();
+                return segmentDO;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.ruyuan.eshop.order.mq.consumer;
+
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.MqConsumedDAO;
+import com.ruyuan.eshop.order.mapper.MqConsumedMapper;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.rocketmq.client.consumer.listener.*;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * 消息消费去重测试：消费记录表使用H2内存库，时钟可以拨动，用来检查消费中和已消费记录的到期
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = MessageIdempotentStoreTest.Config.class)
+public class MessageIdempotentStoreTest {
+
+    private static final String GROUP = "TEST_CONSUMER_GROUP";
+
+    private static final MessageQueue QUEUE = new MessageQueue("TEST_TOPIC", "broker-a", 0);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MessageIdempotentStore messageIdempotentStore;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Before
+    public void setUp() {
+        createTable();
+        now.set(System.currentTimeMillis());
+        ReflectionTestUtils.setField(messageIdempotentStore, "clock", (LongSupplier) now::get);
+        Object expiredPurger = ReflectionTestUtils.getField(messageIdempotentStore, "expiredPurger");
+        ((AtomicLong) ReflectionTestUtils.getField(expiredPurger, "lastPurgeTime")).set(now.get());
+        // 每个用例使用新的本地缓存
+        messageIdempotentStore.init();
+    }
+
+    @Test
+    public void concurrentDuplicateDeliveryShouldBeConsumedOnce() throws Exception {
+        int threads = 8;
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        AtomicInteger businessCalls = new AtomicInteger();
+        IdempotentConcurrentlyListener listener = new IdempotentConcurrentlyListener(GROUP, (list, context) -> {
+            businessCalls.incrementAndGet();
+            entered.countDown();
+            try {
+                finish.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+        }, messageIdempotentStore);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        List<Future<ConsumeConcurrentlyStatus>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                barrier.await();
+                return listener.consumeMessage(Collections.singletonList(message("m1")),
+                        new ConsumeConcurrentlyContext(QUEUE));
+            }));
+        }
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        // 第一条还在消费时，其他线程拿不到消费权，稍后重投
+        Thread.sleep(200);
+        finish.countDown();
+
+        int success = 0;
+        for (Future<ConsumeConcurrentlyStatus> future : futures) {
+            if (future.get(10, TimeUnit.SECONDS) == ConsumeConcurrentlyStatus.CONSUME_SUCCESS) {
+                success++;
+            }
+        }
+        executor.shutdownNow();
+        assertEquals(1, businessCalls.get());
+        assertEquals(1, success);
+
+        // 消费成功后重投的消息直接跳过
+        assertEquals(ConsumeConcurrentlyStatus.CONSUME_SUCCESS, listener.consumeMessage(
+                Collections.singletonList(message("m1")), new ConsumeConcurrentlyContext(QUEUE)));
+        assertEquals(1, businessCalls.get());
+        assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+                "SELECT status FROM mq_consumed WHERE consumer_group = ? AND msg_key = 'm1'", Integer.class, GROUP));
+    }
+
+    @Test
+    public void consumedRecordShouldBeSharedAcrossInstances() {
+        AtomicInteger businessCalls = new AtomicInteger();
+        IdempotentConcurrentlyListener listener = countingListener(businessCalls, messageIdempotentStore);
+        listener.consumeMessage(Collections.singletonList(message("m1")), new ConsumeConcurrentlyContext(QUEUE));
+
+        // 另一个实例没有本地缓存，查库后跳过
+        messageIdempotentStore.init();
+        assertEquals(ConsumeConcurrentlyStatus.CONSUME_SUCCESS, listener.consumeMessage(
+                Collections.singletonList(message("m1")), new ConsumeConcurrentlyContext(QUEUE)));
+        assertEquals(1, businessCalls.get());
+
+        // 其他消费者组不受影响
+        IdempotentConcurrentlyListener otherGroup = new IdempotentConcurrentlyListener("OTHER_GROUP",
+                (list, context) -> {
+                    businessCalls.incrementAndGet();
+                    return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+                }, messageIdempotentStore);
+        otherGroup.consumeMessage(Collections.singletonList(message("m1")), new ConsumeConcurrentlyContext(QUEUE));
+        assertEquals(2, businessCalls.get());
+    }
+
+    @Test
+    public void failedConsumptionShouldBeRetried() {
+        AtomicInteger businessCalls = new AtomicInteger();
+        IdempotentConcurrentlyListener listener = new IdempotentConcurrentlyListener(GROUP, (list, context) ->
+                businessCalls.incrementAndGet() == 1
+                        ? ConsumeConcurrentlyStatus.RECONSUME_LATER : ConsumeConcurrentlyStatus.CONSUME_SUCCESS,
+                messageIdempotentStore);
+
+        assertEquals(ConsumeConcurrentlyStatus.RECONSUME_LATER, listener.consumeMessage(
+                Collections.singletonList(message("m1")), new ConsumeConcurrentlyContext(QUEUE)));
+        assertEquals(Integer.valueOf(0), recordCount());
+
+        assertEquals(ConsumeConcurrentlyStatus.CONSUME_SUCCESS, listener.consumeMessage(
+                Collections.singletonList(message("m1")), new ConsumeConcurrentlyContext(QUEUE)));
+        assertEquals(2, businessCalls.get());
+    }
+
+    @Test
+    public void partialAckShouldMapBackToOriginalBatch() {
+        AtomicInteger businessCalls = new AtomicInteger();
+        countingListener(businessCalls, messageIdempotentStore).consumeMessage(
+                Collections.singletonList(message("m0")), new ConsumeConcurrentlyContext(QUEUE));
+
+        List<List<String>> delegated = new ArrayList<>();
+        IdempotentConcurrentlyListener listener = new IdempotentConcurrentlyListener(GROUP, (list, context) -> {
+            List<String> keys = new ArrayList<>();
+            list.forEach(messageExt -> keys.add(MessageIdempotentStore.msgKeyOf(messageExt)));
+            delegated.add(keys);
+            // 只确认前两条
+            context.setAckIndex(1);
+            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+        }, messageIdempotentStore);
+
+        ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(QUEUE);
+        List<MessageExt> batch = Arrays.asList(message("m1"), message("m0"), message("m1"), message("m2"),
+                message("m3"));
+        assertEquals(ConsumeConcurrentlyStatus.CONSUME_SUCCESS, listener.consumeMessage(batch, context));
+
+        // 已消费的m0和批内重复的m1不交给业务处理
+        assertEquals(Collections.singletonList(Arrays.asList("m1", "m2", "m3")), delegated);
+        // m3没有确认，从它在原来这批消息里的位置开始重投
+        assertEquals(3, context.getAckIndex());
+        assertEquals(Collections.singletonList("m3"), listAcquirable("m1", "m2", "m3"));
+    }
+
+    @Test
+    public void batchShouldAcquireOnlyNewMessages() {
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, acquire("m2"));
+
+        MessageIdempotentStore.Acquisition acquisition = messageIdempotentStore.tryAcquire(GROUP,
+                Arrays.asList("m1", "m2", "m3"));
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, acquisition.stateOf("m1"));
+        assertEquals(MessageIdempotentStore.State.CONSUMING, acquisition.stateOf("m2"));
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, acquisition.stateOf("m3"));
+        assertEquals(Integer.valueOf(3), recordCount());
+    }
+
+    @Test
+    public void consumingLeaseShouldExpire() {
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, acquire("m1"));
+        assertEquals(MessageIdempotentStore.State.CONSUMING, acquire("m1"));
+
+        // 消费线程挂掉，占用到期后可以被接管
+        now.addAndGet(orderProperties.getConsumingLeaseMillis() + 1);
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, acquire("m1"));
+        assertEquals(MessageIdempotentStore.State.CONSUMING, acquire("m1"));
+    }
+
+    @Test
+    public void formerConsumerShouldNotTouchTakenOverRecord() {
+        MessageIdempotentStore.Acquisition former = messageIdempotentStore.tryAcquire(GROUP,
+                Collections.singletonList("m1"));
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, former.stateOf("m1"));
+
+        // 原来的消费线程卡住，占用到期后被接管
+        now.addAndGet(orderProperties.getConsumingLeaseMillis() + 1);
+        MessageIdempotentStore.Acquisition current = messageIdempotentStore.tryAcquire(GROUP,
+                Collections.singletonList("m1"));
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, current.stateOf("m1"));
+        assertNotEquals(former.getLeaseToken(), current.getLeaseToken());
+
+        // 原来的消费线程失败后放弃消费权，不能删掉接管方的记录
+        messageIdempotentStore.release(GROUP, Collections.singletonList("m1"), former.getLeaseToken());
+        assertEquals(MessageIdempotentStore.State.CONSUMING, acquire("m1"));
+
+        // 原来的消费线程标记已消费，也不能改动接管方的记录
+        messageIdempotentStore.markConsumed(GROUP, Collections.singletonList("m1"), former.getLeaseToken());
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT status FROM mq_consumed WHERE consumer_group = ? AND msg_key = 'm1'", Integer.class, GROUP));
+
+        messageIdempotentStore.release(GROUP, Collections.singletonList("m1"), current.getLeaseToken());
+        assertEquals(Integer.valueOf(0), recordCount());
+    }
+
+    @Test
+    public void consumedRecordShouldExpireAfterRetention() {
+        consume("m1");
+        long retentionMillis = TimeUnit.HOURS.toMillis(orderProperties.getConsumedRetentionHours());
+
+        now.addAndGet(retentionMillis - 1);
+        assertEquals(MessageIdempotentStore.State.CONSUMED, acquire("m1"));
+        messageIdempotentStore.init();
+        assertEquals(MessageIdempotentStore.State.CONSUMED, acquire("m1"));
+
+        // 本地缓存和库里的记录都到期
+        now.addAndGet(2);
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, acquire("m1"));
+    }
+
+    @Test
+    public void expiredRecordsShouldBePurged() {
+        consume("m1");
+        consume("m2");
+        assertEquals(Integer.valueOf(2), recordCount());
+
+        now.addAndGet(TimeUnit.HOURS.toMillis(orderProperties.getConsumedRetentionHours()) + 1);
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, acquire("m3"));
+        assertEquals(Collections.singletonList("m3"), jdbcTemplate.queryForList(
+                "SELECT msg_key FROM mq_consumed", String.class));
+    }
+
+    @Test
+    public void orderlyListenerShouldSuspendWhileConsumingElsewhere() {
+        List<String> consumed = new ArrayList<>();
+        IdempotentOrderlyListener listener = new IdempotentOrderlyListener(GROUP, (list, context) -> {
+            list.forEach(messageExt -> consumed.add(MessageIdempotentStore.msgKeyOf(messageExt)));
+            return ConsumeOrderlyStatus.SUCCESS;
+        }, messageIdempotentStore);
+
+        // m2正在被其他线程消费，整批暂停，m1的消费权也放弃
+        MessageIdempotentStore.Acquisition elsewhere = messageIdempotentStore.tryAcquire(GROUP,
+                Collections.singletonList("m2"));
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, elsewhere.stateOf("m2"));
+        assertEquals(ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT, listener.consumeMessage(
+                Arrays.asList(message("m1"), message("m2")), new ConsumeOrderlyContext(QUEUE)));
+        assertTrue(consumed.isEmpty());
+
+        messageIdempotentStore.markConsumed(GROUP, Collections.singletonList("m2"), elsewhere.getLeaseToken());
+        assertEquals(ConsumeOrderlyStatus.SUCCESS, listener.consumeMessage(
+                Arrays.asList(message("m1"), message("m2")), new ConsumeOrderlyContext(QUEUE)));
+        assertEquals(Collections.singletonList("m1"), consumed);
+        assertEquals(MessageIdempotentStore.State.CONSUMED, acquire("m1"));
+    }
+
+    private IdempotentConcurrentlyListener countingListener(AtomicInteger businessCalls,
+                                                            MessageIdempotentStore store) {
+        return new IdempotentConcurrentlyListener(GROUP, (list, context) -> {
+            businessCalls.addAndGet(list.size());
+            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+        }, store);
+    }
+
+    private MessageIdempotentStore.State acquire(String msgKey) {
+        return messageIdempotentStore.tryAcquire(GROUP, Collections.singletonList(msgKey)).stateOf(msgKey);
+    }
+
+    /**
+     * 拿到消费权后标记已消费
+     */
+    private void consume(String msgKey) {
+        MessageIdempotentStore.Acquisition acquisition = messageIdempotentStore.tryAcquire(GROUP,
+                Collections.singletonList(msgKey));
+        assertEquals(MessageIdempotentStore.State.ACQUIRED, acquisition.stateOf(msgKey));
+        messageIdempotentStore.markConsumed(GROUP, Collections.singletonList(msgKey), acquisition.getLeaseToken());
+    }
+
+    /**
+     * 能重新拿到消费权的消息，拿到后立即放弃
+     */
+    private List<String> listAcquirable(String... msgKeys) {
+        List<String> acquirable = new ArrayList<>();
+        MessageIdempotentStore.Acquisition acquisition = messageIdempotentStore.tryAcquire(GROUP,
+                Arrays.asList(msgKeys));
+        for (String msgKey : msgKeys) {
+            if (acquisition.stateOf(msgKey) == MessageIdempotentStore.State.ACQUIRED) {
+                acquirable.add(msgKey);
+            }
+        }
+        messageIdempotentStore.release(GROUP, acquirable, acquisition.getLeaseToken());
+        return acquirable;
+    }
+
+    private Integer recordCount() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM mq_consumed", Integer.class);
+    }
+
+    private static MessageExt message(String uniqId) {
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic(QUEUE.getTopic());
+        messageExt.setBody(uniqId.getBytes(StandardCharsets.UTF_8));
+        // broker重投时消息ID会变，唯一ID不变
+        messageExt.setMsgId(UUID.randomUUID().toString());
+        MessageAccessor.putProperty(messageExt, MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX, uniqId);
+        return messageExt;
+    }
+
+    private void createTable() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS mq_consumed");
+        jdbcTemplate.execute("CREATE TABLE mq_consumed ("
+                + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "consumer_group VARCHAR(128) NOT NULL, "
+                + "msg_key VARCHAR(64) NOT NULL, "
+                + "status TINYINT NOT NULL, "
+                + "expire_time TIMESTAMP(3) NOT NULL, "
+                + "lease_token VARCHAR(64) NOT NULL DEFAULT '', "
+                + "gmt_create DATETIME NOT NULL, "
+                + "gmt_modified DATETIME NOT NULL, "
+                + "CONSTRAINT uk_consumer_group_msg_key UNIQUE (consumer_group, msg_key))");
+        jdbcTemplate.execute("CREATE INDEX idx_expire_time ON mq_consumed (expire_time)");
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return H2MybatisTestSupport.dataSource("mq_consumed");
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource, "mapper/MqConsumedMapper.xml");
+        }
+
+        @Bean
+        public MapperFactoryBean<MqConsumedMapper> mqConsumedMapper(SqlSessionFactory sqlSessionFactory) {
+            MapperFactoryBean<MqConsumedMapper> factoryBean = new MapperFactoryBean<>(MqConsumedMapper.class);
+            factoryBean.setSqlSessionFactory(sqlSessionFactory);
+            return factoryBean;
+        }
+
+        @Bean
+        public MqConsumedDAO mqConsumedDAO() {
+            return new MqConsumedDAO();
+        }
+
+        @Bean
+        public OrderProperties orderProperties() {
+            return new OrderProperties();
+        }
+
+        @Bean
+        public MessageIdempotentStore messageIdempotentStore() {
+            return new MessageIdempotentStore();
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
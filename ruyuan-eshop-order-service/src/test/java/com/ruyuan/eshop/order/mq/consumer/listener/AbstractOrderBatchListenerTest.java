@@ -0,0 +1,343 @@
+package com.ruyuan.eshop.order.mq.consumer.listener;
+
+import com.alibaba.fastjson.JSON;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按批消费订单消息测试：内存消息源模拟broker的投递和重投
+ */
+public class AbstractOrderBatchListenerTest {
+
+    private RecordingListener listener;
+
+    private InMemoryMessageSource source;
+
+    @Before
+    public void setUp() {
+        listener = new RecordingListener();
+        source = new InMemoryMessageSource();
+    }
+
+    @Test
+    public void shouldGroupByOrder() {
+        source.send("m1", "A", 1);
+        source.send("m2", "B", 1);
+        source.send("m3", "A", 2);
+        source.send("m4", "C", 1);
+
+        assertEquals(ConsumeConcurrentlyStatus.CONSUME_SUCCESS, source.deliver(listener, 16));
+
+        assertEquals(Arrays.asList("A", "B", "C"), listener.calledOrderIds);
+        assertEquals(Arrays.asList(1, 2), listener.consumed.get("A"));
+        assertEquals(Collections.singletonList(1), listener.consumed.get("B"));
+        assertEquals(Collections.singletonList(1), listener.consumed.get("C"));
+        assertTrue(source.isEmpty());
+    }
+
+    @Test
+    public void shouldRedeliverFromFirstMessageOfFailedOrder() {
+        source.send("m1", "A", 1);
+        source.send("m2", "B", 1);
+        source.send("m3", "C", 1);
+        source.send("m4", "D", 1);
+        source.send("m5", "B", 2);
+        listener.failTimes.put("C", 1);
+
+        source.deliver(listener, 16);
+
+        // A、B在失败订单C之前被确认，C和之后的消息重投
+        assertEquals(Arrays.asList("m3", "m4", "m5"), source.pendingMessageIds());
+
+        source.deliver(listener, 16);
+        assertTrue(source.isEmpty());
+        assertEquals(Collections.singletonList(1), listener.consumed.get("C"));
+        // 重投的B、D消息再处理一次
+        assertEquals(Arrays.asList(1, 1), listener.consumed.get("D"));
+        assertEquals(Arrays.asList(1, 2, 2), listener.consumed.get("B"));
+    }
+
+    @Test
+    public void shouldReconsumeWholeBatchWhenFirstOrderFails() {
+        source.send("m1", "A", 1);
+        source.send("m2", "B", 1);
+        listener.failTimes.put("A", 1);
+
+        assertEquals(ConsumeConcurrentlyStatus.RECONSUME_LATER, source.deliver(listener, 16));
+        assertEquals(Arrays.asList("m1", "m2"), source.pendingMessageIds());
+
+        source.deliver(listener, 16);
+        assertTrue(source.isEmpty());
+    }
+
+    @Test
+    public void shouldRedeliverMalformedMessage() {
+        source.send("m1", "A", 1);
+        source.sendRaw("m2", "not json");
+        source.send("m3", "B", 1);
+
+        source.deliver(listener, 16);
+
+        assertEquals(Arrays.asList("m2", "m3"), source.pendingMessageIds());
+        assertEquals(Arrays.asList("A", "B"), listener.calledOrderIds);
+    }
+
+    @Test
+    public void shouldDrainBacklogInBatches() {
+        Random random = new Random(7);
+        Map<String, Set<Integer>> expected = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            String orderId = "order" + random.nextInt(60);
+            source.send("m" + i, orderId, i);
+            expected.computeIfAbsent(orderId, key -> new HashSet<>()).add(i);
+            if (i % 9 == 0) {
+                source.redeliver("m" + random.nextInt(i + 1));
+            }
+            if (i % 50 == 0) {
+                listener.failTimes.put(orderId, 1);
+            }
+        }
+
+        int callbacks = 0;
+        while (!source.isEmpty()) {
+            source.deliver(listener, 16);
+            callbacks++;
+            assertTrue("too many callbacks", callbacks < 500);
+        }
+
+        Map<String, Set<Integer>> consumed = new HashMap<>();
+        listener.consumed.forEach((orderId, seqs) -> consumed.put(orderId, new HashSet<>(seqs)));
+        assertEquals(expected, consumed);
+        // 一次回调处理多条消息，回调次数远少于消息数
+        assertTrue("callbacks=" + callbacks, callbacks < 100);
+    }
+
+    @Test
+    public void shouldPrefetchOncePerBatch() {
+        PrefetchingListener prefetchingListener = new PrefetchingListener();
+        source.send("m1", "A", 1);
+        source.send("m2", "B", 1);
+        source.send("m3", "A", 2);
+
+        assertEquals(ConsumeConcurrentlyStatus.CONSUME_SUCCESS, source.deliver(prefetchingListener, 16));
+
+        assertEquals(Collections.singletonList(Arrays.asList("A", "B")), prefetchingListener.prefetchCalls);
+        assertEquals("prefetched-A", prefetchingListener.received.get("A"));
+        assertEquals("prefetched-B", prefetchingListener.received.get("B"));
+    }
+
+    @Test
+    public void shouldReconsumeWholeBatchWhenPrefetchFails() {
+        PrefetchingListener prefetchingListener = new PrefetchingListener();
+        prefetchingListener.failPrefetch = true;
+        source.send("m1", "A", 1);
+        source.send("m2", "B", 1);
+
+        assertEquals(ConsumeConcurrentlyStatus.RECONSUME_LATER, source.deliver(prefetchingListener, 16));
+        assertTrue(prefetchingListener.received.isEmpty());
+        assertEquals(Arrays.asList("m1", "m2"), source.pendingMessageIds());
+    }
+
+    @Test(timeout = 5000)
+    public void shouldSubmitAllOrdersBeforeWaiting() {
+        AsyncListener asyncListener = new AsyncListener(3);
+        asyncListener.failing.add("B");
+        source.send("m1", "A", 1);
+        source.send("m2", "B", 1);
+        source.send("m3", "C", 1);
+
+        // 订单的处理结果在三个订单都提交后才完成，先等待再提交下一个订单会一直阻塞
+        assertEquals(ConsumeConcurrentlyStatus.CONSUME_SUCCESS, source.deliver(asyncListener, 16));
+        assertEquals(Arrays.asList("A", "B", "C"), asyncListener.submitted);
+        assertEquals(Arrays.asList("m2", "m3"), source.pendingMessageIds());
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class TestMessage {
+
+        private String orderId;
+
+        private Integer seq;
+    }
+
+    private static class RecordingListener extends AbstractOrderBatchListener<TestMessage, Void> {
+
+        private final List<String> calledOrderIds = new ArrayList<>();
+
+        private final Map<String, List<Integer>> consumed = new LinkedHashMap<>();
+
+        private final Map<String, Integer> failTimes = new HashMap<>();
+
+        private RecordingListener() {
+            super(TestMessage.class);
+        }
+
+        @Override
+        protected String orderIdOf(TestMessage message) {
+            return message.getOrderId();
+        }
+
+        @Override
+        protected void consumeOrder(String orderId, List<TestMessage> messages, Void prefetched) {
+            calledOrderIds.add(orderId);
+            Integer remaining = failTimes.get(orderId);
+            if (remaining != null && remaining > 0) {
+                failTimes.put(orderId, remaining - 1);
+                throw new IllegalStateException("consume failed, orderId=" + orderId);
+            }
+            for (TestMessage message : messages) {
+                consumed.computeIfAbsent(orderId, key -> new ArrayList<>()).add(message.getSeq());
+            }
+        }
+    }
+
+    private static class PrefetchingListener extends AbstractOrderBatchListener<TestMessage, String> {
+
+        private final List<List<String>> prefetchCalls = new ArrayList<>();
+
+        private final Map<String, String> received = new HashMap<>();
+
+        private boolean failPrefetch;
+
+        private PrefetchingListener() {
+            super(TestMessage.class);
+        }
+
+        @Override
+        protected String orderIdOf(TestMessage message) {
+            return message.getOrderId();
+        }
+
+        @Override
+        protected Map<String, String> prefetch(List<String> orderIds) {
+            if (failPrefetch) {
+                throw new IllegalStateException("prefetch failed");
+            }
+            prefetchCalls.add(orderIds);
+            Map<String, String> prefetched = new HashMap<>();
+            orderIds.forEach(orderId -> prefetched.put(orderId, "prefetched-" + orderId));
+            return prefetched;
+        }
+
+        @Override
+        protected void consumeOrder(String orderId, List<TestMessage> messages, String prefetched) {
+            received.put(orderId, prefetched);
+        }
+    }
+
+    private static class AsyncListener extends AbstractOrderBatchListener<TestMessage, Void> {
+
+        private final int batchOrders;
+
+        private final List<String> submitted = new ArrayList<>();
+
+        private final Set<String> failing = new HashSet<>();
+
+        private final Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+
+        private AsyncListener(int batchOrders) {
+            super(TestMessage.class);
+            this.batchOrders = batchOrders;
+        }
+
+        @Override
+        protected String orderIdOf(TestMessage message) {
+            return message.getOrderId();
+        }
+
+        @Override
+        protected CompletableFuture<Void> consumeOrderAsync(String orderId, List<TestMessage> messages, Void prefetched) {
+            submitted.add(orderId);
+            futures.put(orderId, new CompletableFuture<>());
+            if (futures.size() == batchOrders) {
+                futures.forEach((id, future) -> {
+                    if (failing.contains(id)) {
+                        future.completeExceptionally(new IllegalStateException("send failed, orderId=" + id));
+                    } else {
+                        future.complete(null);
+                    }
+                });
+            }
+            return futures.get(orderId);
+        }
+
+        @Override
+        protected void consumeOrder(String orderId, List<TestMessage> messages, Void prefetched) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * 内存消息源：按顺序投递，按ackIndex和消费结果把未确认的消息放回队尾，和集群消费模式一致
+     */
+    private static class InMemoryMessageSource {
+
+        private final Deque<MessageExt> pending = new ArrayDeque<>();
+
+        private final Map<String, MessageExt> sent = new HashMap<>();
+
+        void send(String msgId, String orderId, int seq) {
+            sendRaw(msgId, JSON.toJSONString(new TestMessage(orderId, seq)));
+        }
+
+        void sendRaw(String msgId, String body) {
+            MessageExt messageExt = new MessageExt();
+            messageExt.setTopic("TEST_ORDER_TOPIC");
+            messageExt.setMsgId(msgId);
+            messageExt.setBody(body.getBytes(StandardCharsets.UTF_8));
+            sent.put(msgId, messageExt);
+            pending.addLast(messageExt);
+        }
+
+        /**
+         * 已发送的消息再投递一次
+         */
+        void redeliver(String msgId) {
+            pending.addLast(sent.get(msgId));
+        }
+
+        ConsumeConcurrentlyStatus deliver(AbstractOrderBatchListener<?, ?> listener, int batchSize) {
+            List<MessageExt> batch = new ArrayList<>();
+            while (batch.size() < batchSize && !pending.isEmpty()) {
+                batch.add(pending.pollFirst());
+            }
+            ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(
+                    new MessageQueue("TEST_ORDER_TOPIC", "broker-a", 0));
+            ConsumeConcurrentlyStatus status = listener.consumeMessage(batch, context);
+
+            int ackIndex = status == ConsumeConcurrentlyStatus.CONSUME_SUCCESS
+                    ? Math.min(context.getAckIndex(), batch.size() - 1) : -1;
+            for (int i = ackIndex + 1; i < batch.size(); i++) {
+                MessageExt messageExt = batch.get(i);
+                messageExt.setReconsumeTimes(messageExt.getReconsumeTimes() + 1);
+                pending.addLast(messageExt);
+            }
+            return status;
+        }
+
+        List<String> pendingMessageIds() {
+            List<String> msgIds = new ArrayList<>();
+            pending.forEach(messageExt -> msgIds.add(messageExt.getMsgId()));
+            return msgIds;
+        }
+
+        boolean isEmpty() {
+            return pending.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.ruyuan.eshop.order.mq.producer;
+
+import org.apache.rocketmq.client.producer.LocalTransactionState;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.client.producer.TransactionMQProducer;
+import org.apache.rocketmq.client.producer.TransactionSendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageExt;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * 共享生产者并发发送事务消息时，本地事务和回查都只会路由到消息自己的处理器
+ */
+public class DefaultProducerTransactionTest {
+
+    private static final String TOPIC = "TEST_TRANSACTION_TOPIC";
+
+    private static final int THREADS = 16;
+
+    private static final int SENDS_PER_THREAD = 500;
+
+    private InProcessTransactionProducer fakeProducer;
+
+    private DefaultProducer defaultProducer;
+
+    @Before
+    public void setUp() {
+        fakeProducer = new InProcessTransactionProducer();
+        OrderProperties orderProperties = new OrderProperties();
+        MessageBatcher messageBatcher = new MessageBatcher(fakeProducer, orderProperties,
+                Executors.newSingleThreadScheduledExecutor(), Executors.newSingleThreadExecutor());
+        defaultProducer = new DefaultProducer(fakeProducer, messageBatcher, orderProperties.getMessageCodec());
+    }
+
+    @After
+    public void tearDown() {
+        defaultProducer.shutdown();
+    }
+
+    @Test
+    public void callbacksShouldNeverCrossBetweenRequests() throws Exception {
+        RecordingHandler payHandler = new RecordingHandler("PAY");
+        RecordingHandler cancelHandler = new RecordingHandler("CANCEL");
+        defaultProducer.registerTransactionHandler(payHandler.handlerKey, payHandler);
+        defaultProducer.registerTransactionHandler(cancelHandler.handlerKey, cancelHandler);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        Queue<TransactionSendResult> results = new ConcurrentLinkedQueue<>();
+        Future<?>[] futures = new Future<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures[t] = executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < SENDS_PER_THREAD; i++) {
+                    RecordingHandler handler = (i + thread) % 2 == 0 ? payHandler : cancelHandler;
+                    String bizKey = handler.handlerKey + "-" + thread + "-" + i;
+                    results.add(defaultProducer.sendTransactionMessage(TOPIC, "payload-" + bizKey,
+                            handler.handlerKey, bizKey, new RequestArg(bizKey)));
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+
+        int total = THREADS * SENDS_PER_THREAD;
+        assertEquals(total, results.size());
+        for (TransactionSendResult result : results) {
+            assertEquals(LocalTransactionState.COMMIT_MESSAGE, result.getLocalTransactionState());
+        }
+        assertEquals(0, payHandler.crossed.get());
+        assertEquals(0, cancelHandler.crossed.get());
+        assertEquals(total, payHandler.executed.size() + cancelHandler.executed.size());
+
+        // broker并发回查，每条半消息都回到自己的处理器和业务标识上
+        List<Future<LocalTransactionState>> checks = fakeProducer.halfMessages.stream()
+                .map(msg -> executor.submit(() -> {
+                    String expected = new String(msg.getBody(), StandardCharsets.UTF_8).substring("payload-".length());
+                    LocalTransactionState state = fakeProducer.getTransactionListener().checkLocalTransaction(msg);
+                    assertEquals(expected, msg.getKeys());
+                    return state;
+                }))
+                .collect(Collectors.toList());
+        for (Future<LocalTransactionState> check : checks) {
+            assertEquals(LocalTransactionState.COMMIT_MESSAGE, check.get(60, TimeUnit.SECONDS));
+        }
+        assertEquals(total, checks.size());
+        assertEquals(0, payHandler.crossed.get());
+        assertEquals(0, cancelHandler.crossed.get());
+        assertEquals(payHandler.executed.size(), payHandler.checked.get());
+        assertEquals(cancelHandler.executed.size(), cancelHandler.checked.get());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldRollbackWhenHandlerMissing() {
+        TransactionMessageDispatcher dispatcher = (TransactionMessageDispatcher) fakeProducer.getTransactionListener();
+        Message message = new Message(TOPIC, "body".getBytes(StandardCharsets.UTF_8));
+        assertEquals(LocalTransactionState.ROLLBACK_MESSAGE, dispatcher.executeLocalTransaction(message, null));
+
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic(TOPIC);
+        messageExt.putUserProperty(TransactionMessageDispatcher.PROPERTY_HANDLER_KEY, "NOT_REGISTERED");
+        assertEquals(LocalTransactionState.UNKNOW, dispatcher.checkLocalTransaction(messageExt));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectUnregisteredHandlerOnSend() throws Exception {
+        defaultProducer.sendTransactionMessage(TOPIC, "payload", "NOT_REGISTERED", "1", null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectDuplicateHandler() {
+        RecordingHandler handler = new RecordingHandler("PAY");
+        defaultProducer.registerTransactionHandler(handler.handlerKey, handler);
+        defaultProducer.registerTransactionHandler(handler.handlerKey, handler);
+    }
+
+    private static class RequestArg {
+
+        private final String bizKey;
+
+        private RequestArg(String bizKey) {
+            this.bizKey = bizKey;
+        }
+    }
+
+    /**
+     * 记录执行过的业务标识，发现参数或处理器对不上就计数
+     */
+    private static class RecordingHandler implements TransactionMessageHandler {
+
+        private final String handlerKey;
+
+        private final Set<String> executed = ConcurrentHashMap.newKeySet();
+
+        private final AtomicInteger checked = new AtomicInteger();
+
+        private final AtomicInteger crossed = new AtomicInteger();
+
+        private RecordingHandler(String handlerKey) {
+            this.handlerKey = handlerKey;
+        }
+
+        @Override
+        public LocalTransactionState executeLocalTransaction(String bizKey, Object arg) {
+            if (!bizKey.startsWith(handlerKey + "-") || !bizKey.equals(((RequestArg) arg).bizKey)) {
+                crossed.incrementAndGet();
+            }
+            // 放大并发窗口
+            if (ThreadLocalRandom.current().nextInt(8) == 0) {
+                Thread.yield();
+            }
+            executed.add(bizKey);
+            return LocalTransactionState.COMMIT_MESSAGE;
+        }
+
+        @Override
+        public LocalTransactionState checkLocalTransaction(String bizKey) {
+            checked.incrementAndGet();
+            if (!bizKey.startsWith(handlerKey + "-")) {
+                crossed.incrementAndGet();
+            }
+            return executed.contains(bizKey) ? LocalTransactionState.COMMIT_MESSAGE : LocalTransactionState.ROLLBACK_MESSAGE;
+        }
+    }
+
+    /**
+     * 进程内的事务生产者，在发送线程里执行本地事务并保存半消息，用于模拟broker回查
+     */
+    private static class InProcessTransactionProducer extends TransactionMQProducer {
+
+        private final Queue<MessageExt> halfMessages = new ConcurrentLinkedQueue<>();
+
+        private InProcessTransactionProducer() {
+            super("TEST_TRANSACTION_PRODUCER_GROUP");
+        }
+
+        @Override
+        public TransactionSendResult sendMessageInTransaction(Message msg, Object arg) {
+            LocalTransactionState state;
+            try {
+                state = getTransactionListener().executeLocalTransaction(msg, arg);
+            } catch (Throwable e) {
+                state = LocalTransactionState.UNKNOW;
+            }
+            MessageExt halfMessage = new MessageExt();
+            halfMessage.setTopic(msg.getTopic());
+            halfMessage.setBody(msg.getBody());
+            Map<String, String> properties = new HashMap<>(msg.getProperties());
+            MessageAccessor.setProperties(halfMessage, properties);
+            halfMessages.add(halfMessage);
+
+            TransactionSendResult result = new TransactionSendResult();
+            result.setSendStatus(SendStatus.SEND_OK);
+            result.setLocalTransactionState(state);
+            return result;
+        }
+    }
+}
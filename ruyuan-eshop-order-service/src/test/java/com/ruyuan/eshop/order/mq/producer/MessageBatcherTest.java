@@ -0,0 +1,238 @@
+package com.ruyuan.eshop.order.mq.producer;
+
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.exception.OrderBizException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * 异步攒批发送测试：假的生产者记录每次发送的批次，可以模拟broker不可用和发送耗时
+ */
+public class MessageBatcherTest {
+
+    private RecordingProducer fakeProducer;
+
+    private MessageBatcher batcher;
+
+    @Before
+    public void setUp() {
+        fakeProducer = new RecordingProducer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    @Test
+    public void shouldGroupMessagesByTopicWithinLinger() throws Exception {
+        batcher = newBatcher(50L, 100);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(batcher.submit(message("TOPIC_A", "a" + i)));
+            if (i % 2 == 0) {
+                futures.add(batcher.submit(message("TOPIC_B", "b" + i)));
+            }
+        }
+        joinAll(futures);
+
+        assertEquals(2, fakeProducer.batches.size());
+        Map<String, List<String>> bodiesByTopic = new HashMap<>();
+        for (List<Message> batch : fakeProducer.batches) {
+            bodiesByTopic.put(batch.get(0).getTopic(), bodies(batch));
+        }
+        assertEquals(Arrays.asList("a0", "a1", "a2", "a3", "a4", "a5", "a6", "a7", "a8", "a9"), bodiesByTopic.get("TOPIC_A"));
+        assertEquals(Arrays.asList("b0", "b2", "b4", "b6", "b8"), bodiesByTopic.get("TOPIC_B"));
+    }
+
+    @Test
+    public void shouldSendWhenBatchIsFull() throws Exception {
+        // 等待时间足够长，只有攒满才会发送
+        batcher = newBatcher(60_000L, 4);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(batcher.submit(message("TOPIC_A", "a" + i)));
+        }
+        joinAll(futures);
+
+        assertEquals(2, fakeProducer.batches.size());
+        for (List<Message> batch : fakeProducer.batches) {
+            assertEquals(4, batch.size());
+        }
+    }
+
+    @Test
+    public void shouldSendDelayMessageAlone() throws Exception {
+        batcher = newBatcher(50L, 100);
+        Message delayMessage = message("TOPIC_A", "delay");
+        delayMessage.setDelayTimeLevel(3);
+        joinAll(Arrays.asList(batcher.submit(delayMessage), batcher.submit(message("TOPIC_A", "a0")),
+                batcher.submit(message("TOPIC_A", "a1"))));
+
+        List<List<Message>> delayBatches = fakeProducer.batches.stream()
+                .filter(batch -> batch.get(0).getDelayTimeLevel() > 0)
+                .collect(Collectors.toList());
+        assertEquals(1, delayBatches.size());
+        assertEquals(Collections.singletonList("delay"), bodies(delayBatches.get(0)));
+        assertEquals(2, fakeProducer.batches.size());
+    }
+
+    @Test
+    public void shouldOverlapSendsOfDifferentTopics() throws Exception {
+        batcher = newBatcher(5L, 100);
+        // 三个topic的发送同时在进行中，假的生产者才会返回
+        fakeProducer.barrier = new CountDownLatch(3);
+        List<CompletableFuture<Void>> futures = Arrays.asList(
+                batcher.submit(message("CANCEL_REFUND", "refund")),
+                batcher.submit(message("CANCEL_INVENTORY", "inventory")),
+                batcher.submit(message("CANCEL_COUPON", "coupon")));
+        joinAll(futures);
+
+        assertEquals(3, fakeProducer.maxConcurrentSends.get());
+        assertFalse(fakeProducer.barrierTimeout);
+    }
+
+    @Test
+    public void shouldFailWhenBrokerUnavailable() throws Exception {
+        batcher = newBatcher(5L, 100);
+        fakeProducer.available = false;
+        // 同一批里的消息都异常结束，由调用方重试
+        List<CompletableFuture<Void>> futures = Arrays.asList(batcher.submit(message("TOPIC_A", "a0")),
+                batcher.submit(message("TOPIC_A", "a1")));
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("发送失败时应该异常结束");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof OrderBizException);
+            }
+        }
+        assertTrue(fakeProducer.batches.isEmpty());
+
+        fakeProducer.available = true;
+        batcher.submit(message("TOPIC_A", "a2")).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("a2"), bodies(fakeProducer.batches.peek()));
+    }
+
+    @Test
+    public void shouldRejectSubmitAfterClose() throws Exception {
+        batcher = newBatcher(5L, 100);
+        batcher.close();
+        try {
+            batcher.submit(message("TOPIC_A", "a0"));
+            fail("关闭后不能再提交消息");
+        } catch (IllegalStateException e) {
+            assertTrue(fakeProducer.batches.isEmpty());
+        } finally {
+            batcher = null;
+        }
+    }
+
+    @Test
+    public void shouldFlushPendingMessagesOnClose() throws Exception {
+        batcher = newBatcher(60_000L, 100);
+        CompletableFuture<Void> future = batcher.submit(message("TOPIC_A", "a0"));
+        assertFalse(future.isDone());
+
+        batcher.close();
+        batcher = null;
+        assertTrue(future.isDone());
+        assertEquals(1, fakeProducer.batches.size());
+    }
+
+    private MessageBatcher newBatcher(long lingerMillis, int maxBatchSize) {
+        return new MessageBatcher(fakeProducer, orderProperties(lingerMillis, maxBatchSize));
+    }
+
+    private OrderProperties orderProperties(long lingerMillis, int maxBatchSize) {
+        OrderProperties orderProperties = new OrderProperties();
+        orderProperties.setProducerBatchLingerMillis(lingerMillis);
+        orderProperties.setProducerBatchMaxSize(maxBatchSize);
+        orderProperties.setProducerSendPoolSize(4);
+        return orderProperties;
+    }
+
+    private Message message(String topic, String body) {
+        return new Message(topic, null, "order-" + body, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> bodies(List<Message> messages) {
+        return messages.stream()
+                .map(message -> new String(message.getBody(), StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+    }
+
+    private void joinAll(List<CompletableFuture<Void>> futures) throws Exception {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 假的生产者，不连接broker，记录每次发送的消息
+     */
+    private static class RecordingProducer extends DefaultMQProducer {
+
+        private final Queue<List<Message>> batches = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger concurrentSends = new AtomicInteger();
+
+        private final AtomicInteger maxConcurrentSends = new AtomicInteger();
+
+        private volatile boolean available = true;
+
+        private volatile CountDownLatch barrier;
+
+        private volatile boolean barrierTimeout;
+
+        private RecordingProducer() {
+            super("TEST_BATCH_PRODUCER_GROUP");
+        }
+
+        @Override
+        public SendResult send(Message msg) throws MQClientException, InterruptedException {
+            return record(Collections.singletonList(msg));
+        }
+
+        @Override
+        public SendResult send(Collection<Message> msgs) throws MQClientException, InterruptedException {
+            return record(new ArrayList<>(msgs));
+        }
+
+        private SendResult record(List<Message> messages) throws MQClientException, InterruptedException {
+            maxConcurrentSends.accumulateAndGet(concurrentSends.incrementAndGet(), Math::max);
+            try {
+                if (!available) {
+                    throw new MQClientException("broker unavailable", null);
+                }
+                CountDownLatch latch = barrier;
+                if (latch != null) {
+                    latch.countDown();
+                    if (!latch.await(5, TimeUnit.SECONDS)) {
+                        barrierTimeout = true;
+                    }
+                }
+                batches.add(messages);
+                SendResult sendResult = new SendResult();
+                sendResult.setSendStatus(SendStatus.SEND_OK);
+                return sendResult;
+            } finally {
+                concurrentSends.decrementAndGet();
+            }
+        }
+    }
+}
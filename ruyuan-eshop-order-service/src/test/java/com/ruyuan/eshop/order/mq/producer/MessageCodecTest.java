@@ -0,0 +1,272 @@
+package com.ruyuan.eshop.order.mq.producer;
+
+import com.alibaba.fastjson.JSON;
+import com.ruyuan.eshop.common.message.ActualRefundMessage;
+import com.ruyuan.eshop.common.message.PaidOrderSuccessMessage;
+import com.ruyuan.eshop.common.message.PayOrderTimeoutDelayMessage;
+import com.ruyuan.eshop.common.message.codec.*;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.domain.request.CancelOrderAssembleRequest;
+import com.ruyuan.eshop.order.mq.consumer.MessagePayloads;
+import lombok.Data;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.client.producer.TransactionMQProducer;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * 消息编解码测试：二进制格式往返一致，新老版本互相兼容，生产者写入编码方式属性，消费者按属性选择解码方式
+ */
+public class MessageCodecTest {
+
+    private final MessageCodec binary = MessageCodecs.get(BinaryMessageCodec.NAME);
+
+    @Test
+    public void shouldRoundTripOrderMessages() {
+        PaidOrderSuccessMessage paid = new PaidOrderSuccessMessage();
+        paid.setOrderId("1011250000000010000");
+        assertEquals(paid, binary.decode(binary.encode(paid), PaidOrderSuccessMessage.class));
+
+        PayOrderTimeoutDelayMessage timeout = new PayOrderTimeoutDelayMessage();
+        timeout.setOrderId("1011250000000010000");
+        timeout.setBusinessIdentifier(1);
+        timeout.setCancelType(-1);
+        timeout.setUserId("用户100");
+        timeout.setOrderType(Integer.MAX_VALUE);
+        timeout.setOrderStatus(Integer.MIN_VALUE);
+        assertEquals(timeout, binary.decode(binary.encode(timeout), PayOrderTimeoutDelayMessage.class));
+
+        ActualRefundMessage refund = new ActualRefundMessage();
+        refund.setAfterSaleRefundId(Long.MAX_VALUE);
+        refund.setAfterSaleId(Long.MIN_VALUE);
+        refund.setOrderId("1011250000000010000");
+        refund.setLastReturnGoods(true);
+        assertEquals(refund, binary.decode(binary.encode(refund), ActualRefundMessage.class));
+    }
+
+    @Test
+    public void shouldKeepNullFieldsNull() {
+        PayOrderTimeoutDelayMessage timeout = new PayOrderTimeoutDelayMessage();
+        timeout.setOrderId("1011250000000010000");
+        PayOrderTimeoutDelayMessage decoded = binary.decode(binary.encode(timeout), PayOrderTimeoutDelayMessage.class);
+        assertEquals(timeout, decoded);
+        assertNull(decoded.getBusinessIdentifier());
+        assertNull(decoded.getUserId());
+    }
+
+    @Test
+    public void binaryShouldBeSmallerThanJson() {
+        PayOrderTimeoutDelayMessage timeout = new PayOrderTimeoutDelayMessage();
+        timeout.setOrderId("1011250000000010000");
+        timeout.setBusinessIdentifier(1);
+        timeout.setCancelType(1);
+        timeout.setUserId("100");
+        timeout.setOrderType(1);
+        timeout.setOrderStatus(10);
+        byte[] json = MessageCodecs.get(JsonMessageCodec.NAME).encode(timeout);
+        byte[] bytes = binary.encode(timeout);
+        assertTrue("binary=" + bytes.length + ", json=" + json.length, bytes.length * 3 < json.length);
+    }
+
+    @Test
+    public void newReaderShouldReadOldMessage() {
+        BinaryMessageCodec v1 = new BinaryMessageCodec().register(new VersionedSchema(1));
+        BinaryMessageCodec v2 = new BinaryMessageCodec().register(new VersionedSchema(2));
+
+        VersionedMessage message = new VersionedMessage();
+        message.setOrderId("1011250000000010000");
+        message.setAmount(-12345L);
+        message.setRemark("v2才有的字段");
+
+        VersionedMessage decoded = v2.decode(v1.encode(message), VersionedMessage.class);
+        assertEquals("1011250000000010000", decoded.getOrderId());
+        assertEquals(Long.valueOf(-12345L), decoded.getAmount());
+        assertNull(decoded.getRemark());
+        assertEquals(Integer.valueOf(1), decoded.getWriterVersion());
+    }
+
+    @Test
+    public void oldReaderShouldSkipNewFields() {
+        BinaryMessageCodec v1 = new BinaryMessageCodec().register(new VersionedSchema(1));
+        BinaryMessageCodec v2 = new BinaryMessageCodec().register(new VersionedSchema(2));
+
+        VersionedMessage message = new VersionedMessage();
+        message.setOrderId("1011250000000010000");
+        message.setAmount(300L);
+        message.setRemark("v2才有的字段");
+
+        VersionedMessage decoded = v1.decode(v2.encode(message), VersionedMessage.class);
+        assertEquals("1011250000000010000", decoded.getOrderId());
+        assertEquals(Long.valueOf(300L), decoded.getAmount());
+        assertNull(decoded.getRemark());
+        assertEquals(Integer.valueOf(2), decoded.getWriterVersion());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTruncatedBody() {
+        PaidOrderSuccessMessage paid = new PaidOrderSuccessMessage();
+        paid.setOrderId("1011250000000010000");
+        byte[] body = binary.encode(paid);
+        byte[] truncated = new byte[body.length - 3];
+        System.arraycopy(body, 0, truncated, 0, truncated.length);
+        binary.decode(truncated, PaidOrderSuccessMessage.class);
+    }
+
+    @Test
+    public void shouldDecodeByCodecProperty() {
+        ActualRefundMessage refund = new ActualRefundMessage();
+        refund.setAfterSaleId(2021L);
+        refund.setOrderId("1011250000000010000");
+
+        // 老的生产者没有编码方式属性，按JSON解码
+        MessageExt legacy = messageExt(JSON.toJSONString(refund).getBytes(StandardCharsets.UTF_8), null);
+        assertEquals(refund, MessagePayloads.decode(legacy, ActualRefundMessage.class));
+
+        MessageExt json = messageExt(MessageCodecs.get(JsonMessageCodec.NAME).encode(refund), JsonMessageCodec.NAME);
+        assertEquals(refund, MessagePayloads.decode(json, ActualRefundMessage.class));
+
+        MessageExt binaryMessage = messageExt(binary.encode(refund), BinaryMessageCodec.NAME);
+        assertEquals(refund, MessagePayloads.decode(binaryMessage, ActualRefundMessage.class));
+    }
+
+    @Test
+    public void producerShouldTagCodecAndFallBackToJson() {
+        CapturingProducer fakeProducer = new CapturingProducer();
+        OrderProperties orderProperties = new OrderProperties();
+        orderProperties.setMessageCodec(BinaryMessageCodec.NAME);
+        MessageBatcher messageBatcher = new MessageBatcher(fakeProducer, orderProperties,
+                Executors.newSingleThreadScheduledExecutor(), Executors.newSingleThreadExecutor());
+        DefaultProducer defaultProducer = new DefaultProducer(fakeProducer, messageBatcher, orderProperties.getMessageCodec());
+
+        PaidOrderSuccessMessage paid = new PaidOrderSuccessMessage();
+        paid.setOrderId("1011250000000010000");
+        defaultProducer.sendEncodedMessage("PAID_ORDER_SUCCESS_TOPIC", paid, "订单已完成支付", null, paid.getOrderId());
+        // 没有二进制格式的消息类型使用JSON
+        CancelOrderAssembleRequest cancel = new CancelOrderAssembleRequest();
+        cancel.setOrderId("1011250000000010000");
+        defaultProducer.sendEncodedMessage("RELEASE_ASSETS_TOPIC", cancel, "释放资产", null, cancel.getOrderId());
+
+        assertEquals(2, fakeProducer.sent.size());
+        Message paidMessage = fakeProducer.sent.get(0);
+        assertEquals(BinaryMessageCodec.NAME, paidMessage.getUserProperty(MessageCodec.PROPERTY_CODEC));
+        assertEquals(paid, MessagePayloads.decode(messageExt(paidMessage.getBody(), BinaryMessageCodec.NAME),
+                PaidOrderSuccessMessage.class));
+
+        Message cancelMessage = fakeProducer.sent.get(1);
+        assertEquals(JsonMessageCodec.NAME, cancelMessage.getUserProperty(MessageCodec.PROPERTY_CODEC));
+        assertEquals(cancel.getOrderId(), JSON.parseObject(new String(cancelMessage.getBody(), StandardCharsets.UTF_8),
+                CancelOrderAssembleRequest.class).getOrderId());
+        defaultProducer.shutdown();
+    }
+
+    private MessageExt messageExt(byte[] body, String codec) {
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic("TEST_TOPIC");
+        messageExt.setBody(body);
+        MessageAccessor.setProperties(messageExt, new HashMap<>());
+        if (codec != null) {
+            messageExt.putUserProperty(MessageCodec.PROPERTY_CODEC, codec);
+        }
+        return messageExt;
+    }
+
+    @Data
+    public static class VersionedMessage {
+
+        private String orderId;
+
+        private Long amount;
+
+        private String remark;
+
+        /**
+         * 解码时记录写入方的版本
+         */
+        private Integer writerVersion;
+    }
+
+    /**
+     * v1: 1-orderId 2-amount，v2 增加 3-remark
+     */
+    private static class VersionedSchema implements MessageSchema<VersionedMessage> {
+
+        private final int version;
+
+        private VersionedSchema(int version) {
+            this.version = version;
+        }
+
+        @Override
+        public Class<VersionedMessage> type() {
+            return VersionedMessage.class;
+        }
+
+        @Override
+        public int version() {
+            return version;
+        }
+
+        @Override
+        public void write(VersionedMessage message, BinaryWriter writer) {
+            writer.writeString(1, message.getOrderId())
+                    .writeLong(2, message.getAmount());
+            if (version >= 2) {
+                writer.writeString(3, message.getRemark());
+            }
+        }
+
+        @Override
+        public VersionedMessage newInstance() {
+            return new VersionedMessage();
+        }
+
+        @Override
+        public boolean readField(VersionedMessage message, int fieldNumber, BinaryReader reader) {
+            message.setWriterVersion(reader.getSchemaVersion());
+            if (fieldNumber == 1) {
+                message.setOrderId(reader.readString());
+                return true;
+            }
+            if (fieldNumber == 2) {
+                message.setAmount(reader.readLong());
+                return true;
+            }
+            if (fieldNumber == 3 && version >= 2) {
+                message.setRemark(reader.readString());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 记录发送的消息，不连接broker
+     */
+    private static class CapturingProducer extends TransactionMQProducer {
+
+        private final List<Message> sent = new ArrayList<>();
+
+        private CapturingProducer() {
+            super("TEST_CODEC_PRODUCER_GROUP");
+        }
+
+        @Override
+        public SendResult send(Message msg) {
+            sent.add(msg);
+            SendResult sendResult = new SendResult();
+            sendResult.setSendStatus(SendStatus.SEND_OK);
+            return sendResult;
+        }
+    }
+}
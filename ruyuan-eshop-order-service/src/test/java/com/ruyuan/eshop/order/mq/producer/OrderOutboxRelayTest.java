@@ -0,0 +1,442 @@
+package com.ruyuan.eshop.order.mq.producer;
+
+import com.alibaba.fastjson.JSON;
+import com.ruyuan.eshop.common.message.PaidOrderSuccessMessage;
+import com.ruyuan.eshop.common.message.codec.MessageCodec;
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.OrderOutboxDAO;
+import com.ruyuan.eshop.order.domain.entity.OrderOutboxDO;
+import com.ruyuan.eshop.order.mapper.OrderOutboxMapper;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.client.producer.TransactionMQProducer;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * 发件箱投递测试：发件箱表使用H2内存库，假的生产者按发送顺序记录每次发送的消息，可以按消息模拟发送失败
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = OrderOutboxRelayTest.Config.class)
+public class OrderOutboxRelayTest {
+
+    private static final String TOPIC = "TEST_OUTBOX_TOPIC";
+
+    private static final String OTHER_TOPIC = "TEST_OUTBOX_OTHER_TOPIC";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private OrderOutboxDAO orderOutboxDAO;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    private RecordingProducer fakeProducer;
+
+    private DefaultProducer defaultProducer;
+
+    @Before
+    public void setUp() {
+        createTable();
+        fakeProducer = new RecordingProducer();
+        MessageBatcher messageBatcher = new MessageBatcher(fakeProducer, orderProperties,
+                Executors.newSingleThreadScheduledExecutor(), Executors.newSingleThreadExecutor());
+        defaultProducer = new DefaultProducer(fakeProducer, messageBatcher, orderProperties.getMessageCodec());
+    }
+
+    @After
+    public void tearDown() {
+        defaultProducer.shutdown();
+        OrderProperties defaults = new OrderProperties();
+        orderProperties.setOutboxClaimBatchSize(defaults.getOutboxClaimBatchSize());
+        orderProperties.setOutboxRetryBaseMillis(defaults.getOutboxRetryBaseMillis());
+    }
+
+    @Test
+    public void shouldDeliverEachOrderInWriteOrder() {
+        append("A", TOPIC, 1);
+        append("B", TOPIC, 1);
+        append("A", TOPIC, 2);
+        append("C", OTHER_TOPIC, 1);
+        append("B", TOPIC, 2);
+        append("A", TOPIC, 3);
+
+        OrderOutboxRelay relay = newRelay();
+        assertEquals(6, relay.relayOnce());
+
+        assertEquals(Arrays.asList(1, 2, 3), fakeProducer.seqsOf("A"));
+        assertEquals(Arrays.asList(1, 2), fakeProducer.seqsOf("B"));
+        assertEquals(Collections.singletonList(1), fakeProducer.seqsOf("C"));
+        // 第一轮A1、B1合成一批，C1是另一个topic单独发送；之后每轮一批
+        assertEquals(Arrays.asList(2, 1, 2, 1), fakeProducer.batchSizes());
+        assertEquals(Integer.valueOf(0), pendingCount());
+        assertEquals(0, relay.relayOnce());
+    }
+
+    @Test
+    public void shouldSendDelayMessageAloneWithCodecAndStableMessageId() {
+        OrderOutboxDO delayed = append("A", TOPIC, 1, 16);
+        append("B", TOPIC, 1);
+
+        newRelay().relayOnce();
+
+        Message delayMessage = fakeProducer.sent.stream()
+                .filter(message -> message.getDelayTimeLevel() > 0)
+                .findFirst().orElseThrow(IllegalStateException::new);
+        assertEquals(16, delayMessage.getDelayTimeLevel());
+        assertEquals(delayed.getMsgId(), MessageClientIDSetter.getUniqID(delayMessage));
+        assertEquals("A", delayMessage.getKeys());
+        assertEquals("json", delayMessage.getUserProperty(MessageCodec.PROPERTY_CODEC));
+        assertEquals(Arrays.asList(1, 1), fakeProducer.batchSizes());
+    }
+
+    @Test
+    public void shouldBackOffFailedMessageAndHoldLaterMessagesOfSameOrder() {
+        append("A", TOPIC, 1);
+        append("A", TOPIC, 2);
+        append("B", OTHER_TOPIC, 1);
+        fakeProducer.failWhen = message -> "A".equals(message.getKeys());
+
+        OrderOutboxRelay relay = newRelay();
+        long before = System.currentTimeMillis();
+        relay.relayOnce();
+
+        // A1失败，A2这次不发；B不受影响
+        assertTrue(fakeProducer.seqsOf("A").isEmpty());
+        assertEquals(Collections.singletonList(1), fakeProducer.seqsOf("B"));
+        Map<String, Object> failed = jdbcTemplate.queryForMap(
+                "SELECT retry_count, next_retry_time, last_error, lease_owner FROM order_outbox WHERE id = ?",
+                firstPendingId("A"));
+        assertEquals(1, ((Number) failed.get("retry_count")).intValue());
+        assertTrue(((Timestamp) failed.get("next_retry_time")).getTime() >= before + orderProperties.getOutboxRetryBaseMillis());
+        assertNotNull(failed.get("last_error"));
+        assertNull(failed.get("lease_owner"));
+
+        // 退避时间内A1不能领取，A2排在A1后面也不领取
+        fakeProducer.failWhen = message -> false;
+        assertEquals(0, relay.relayOnce());
+        assertTrue(fakeProducer.seqsOf("A").isEmpty());
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_outbox WHERE lease_owner IS NOT NULL", Integer.class));
+
+        // 到了重试时间后按顺序发送
+        jdbcTemplate.update("UPDATE order_outbox SET next_retry_time = ? WHERE status = 0",
+                new Timestamp(System.currentTimeMillis() - 1000L));
+        relay.relayOnce();
+        assertEquals(Arrays.asList(1, 2), fakeProducer.seqsOf("A"));
+        assertEquals(Integer.valueOf(0), pendingCount());
+    }
+
+    @Test
+    public void blockedMessagesShouldNotStarveNewerOrders() {
+        orderProperties.setOutboxClaimBatchSize(5);
+        append("A", TOPIC, 1);
+        append("C", TOPIC, 1);
+        for (int seq = 2; seq <= 10; seq++) {
+            append("A", TOPIC, seq);
+            append("C", TOPIC, seq);
+        }
+        append("B", OTHER_TOPIC, 1);
+        fakeProducer.failWhen = message -> "A".equals(message.getKeys()) || "C".equals(message.getKeys());
+
+        OrderOutboxRelay relay = newRelay();
+        assertEquals(0, relay.relayOnce());
+        // A1、C1在同一批里失败，一条语句记录失败
+        assertEquals(Integer.valueOf(2), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_outbox WHERE retry_count = 1", Integer.class));
+
+        // A、C后面的消息被挡住，不再领取，B可以投递
+        fakeProducer.failWhen = message -> false;
+        assertEquals(1, relay.relayOnce());
+        assertEquals(Collections.singletonList(1), fakeProducer.seqsOf("B"));
+        assertEquals(0, relay.relayOnce());
+        assertEquals(Integer.valueOf(20), pendingCount());
+    }
+
+    @Test
+    public void retryDelayShouldGrowExponentiallyUpToMax() {
+        OrderOutboxRelay relay = newRelay();
+        long base = orderProperties.getOutboxRetryBaseMillis();
+        assertEquals(base, relay.retryDelay(0));
+        assertEquals(base * 2, relay.retryDelay(1));
+        assertEquals(base * 8, relay.retryDelay(3));
+        assertEquals(orderProperties.getOutboxRetryMaxMillis().longValue(), relay.retryDelay(20));
+        assertEquals(orderProperties.getOutboxRetryMaxMillis().longValue(), relay.retryDelay(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldRedeliverAfterLeaseOfCrashedRelayExpires() {
+        OrderOutboxDO orderOutboxDO = append("A", TOPIC, 1);
+        // 另一个实例领取后挂掉，没有标记已投递
+        assertEquals(1, orderOutboxDAO.claim("crashed-relay", 10).size());
+
+        OrderOutboxRelay relay = newRelay();
+        assertEquals(0, relay.relayOnce());
+        assertTrue(fakeProducer.sent.isEmpty());
+
+        jdbcTemplate.update("UPDATE order_outbox SET lease_expire_time = ?",
+                new Timestamp(System.currentTimeMillis() - 1000L));
+        assertEquals(1, relay.relayOnce());
+        assertEquals(1, fakeProducer.sent.size());
+        assertEquals(orderOutboxDO.getMsgId(), MessageClientIDSetter.getUniqID(fakeProducer.sent.get(0)));
+        assertEquals(Integer.valueOf(0), pendingCount());
+    }
+
+    @Test
+    public void concurrentRelaysShouldNotDoubleSendOrReorder() throws Exception {
+        int orders = 20;
+        int messagesPerOrder = 15;
+        Random random = new Random(11);
+        int[] nextSeq = new int[orders];
+        for (int i = 0; i < orders * messagesPerOrder; i++) {
+            int order = random.nextInt(orders);
+            while (nextSeq[order] >= messagesPerOrder) {
+                order = (order + 1) % orders;
+            }
+            append("order" + order, random.nextBoolean() ? TOPIC : OTHER_TOPIC, ++nextSeq[order]);
+        }
+        orderProperties.setOutboxClaimBatchSize(16);
+        // 偶尔发送失败，失败后立即可以重试
+        orderProperties.setOutboxRetryBaseMillis(0L);
+        fakeProducer.failWhen = message -> ThreadLocalRandom.current().nextInt(10) == 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            OrderOutboxRelay relay = newRelay();
+            futures.add(executor.submit(() -> {
+                long deadline = System.currentTimeMillis() + 30_000L;
+                while (pendingCount() > 0 && System.currentTimeMillis() < deadline) {
+                    relay.relayOnce();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdownNow();
+
+        assertEquals(Integer.valueOf(0), pendingCount());
+        Set<String> msgIds = new HashSet<>();
+        for (Message message : fakeProducer.sent) {
+            assertTrue("sent twice: " + message.getKeys(), msgIds.add(MessageClientIDSetter.getUniqID(message)));
+        }
+        assertEquals(orders * messagesPerOrder, msgIds.size());
+        List<Integer> expected = new ArrayList<>();
+        for (int seq = 1; seq <= messagesPerOrder; seq++) {
+            expected.add(seq);
+        }
+        for (int order = 0; order < orders; order++) {
+            assertEquals(expected, fakeProducer.seqsOf("order" + order));
+        }
+    }
+
+    @Test
+    public void shouldPurgeDeliveredMessagesBeforeRetention() {
+        append("A", TOPIC, 1);
+        append("B", TOPIC, 1);
+        newRelay().relayOnce();
+        jdbcTemplate.update("UPDATE order_outbox SET delivered_time = ? WHERE msg_keys = 'A'",
+                new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10)));
+
+        assertEquals(1, orderOutboxDAO.deleteDelivered(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(3)), 100));
+        assertEquals(Collections.singletonList("B"), jdbcTemplate.queryForList(
+                "SELECT msg_keys FROM order_outbox", String.class));
+    }
+
+    private OrderOutboxRelay newRelay() {
+        OrderOutboxRelay relay = new OrderOutboxRelay();
+        ReflectionTestUtils.setField(relay, "defaultProducer", defaultProducer);
+        ReflectionTestUtils.setField(relay, "orderOutboxDAO", orderOutboxDAO);
+        ReflectionTestUtils.setField(relay, "orderProperties", orderProperties);
+        return relay;
+    }
+
+    private OrderOutboxDO append(String orderId, String topic, int seq) {
+        return append(orderId, topic, seq, -1);
+    }
+
+    /**
+     * 在本地事务里写入一条发件箱消息，消息体里的订单号存的是序号，用来检查投递顺序
+     */
+    private OrderOutboxDO append(String orderId, String topic, int seq, int delayTimeLevel) {
+        PaidOrderSuccessMessage message = new PaidOrderSuccessMessage();
+        message.setOrderId(String.valueOf(seq));
+        return transactionTemplate.execute(status -> {
+            OrderOutboxDO orderOutboxDO = orderOutboxDAO.build(orderId, topic, null, orderId, message, delayTimeLevel);
+            orderOutboxDAO.append(orderOutboxDO);
+            return orderOutboxDO;
+        });
+    }
+
+    private Integer pendingCount() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM order_outbox WHERE status = 0", Integer.class);
+    }
+
+    private Long firstPendingId(String orderId) {
+        return jdbcTemplate.queryForObject("SELECT MIN(id) FROM order_outbox WHERE order_id = ? AND status = 0",
+                Long.class, orderId);
+    }
+
+    private void createTable() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS order_outbox");
+        jdbcTemplate.execute("CREATE TABLE order_outbox ("
+                + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "order_id VARCHAR(50) NOT NULL, "
+                + "topic VARCHAR(128) NOT NULL, "
+                + "tags VARCHAR(128), "
+                + "msg_keys VARCHAR(128), "
+                + "msg_id VARCHAR(64) NOT NULL, "
+                + "codec VARCHAR(32) NOT NULL, "
+                + "body BLOB NOT NULL, "
+                + "delay_time_level TINYINT NOT NULL DEFAULT 0, "
+                + "status TINYINT NOT NULL DEFAULT 0, "
+                + "retry_count INT NOT NULL DEFAULT 0, "
+                + "next_retry_time TIMESTAMP(3) NOT NULL, "
+                + "lease_owner VARCHAR(64), "
+                + "lease_expire_time TIMESTAMP(3), "
+                + "last_error VARCHAR(255), "
+                + "delivered_time TIMESTAMP(3), "
+                + "gmt_create DATETIME NOT NULL, "
+                + "gmt_modified DATETIME NOT NULL)");
+        jdbcTemplate.execute("CREATE INDEX idx_status_next_retry_time ON order_outbox (status, next_retry_time, id)");
+        jdbcTemplate.execute("CREATE INDEX idx_order_id_status ON order_outbox (order_id, status)");
+    }
+
+    /**
+     * 假的生产者，不连接broker，按发送顺序记录消息，按条件模拟整批发送失败
+     */
+    private static class RecordingProducer extends TransactionMQProducer {
+
+        private final List<Message> sent = new CopyOnWriteArrayList<>();
+
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+        private volatile Predicate<Message> failWhen = message -> false;
+
+        private RecordingProducer() {
+            super("TEST_OUTBOX_PRODUCER_GROUP");
+        }
+
+        @Override
+        public SendResult send(Message msg) throws MQClientException {
+            return record(Collections.singletonList(msg));
+        }
+
+        @Override
+        public SendResult send(Collection<Message> msgs) throws MQClientException {
+            return record(new ArrayList<>(msgs));
+        }
+
+        private synchronized SendResult record(List<Message> messages) throws MQClientException {
+            for (Message message : messages) {
+                if (failWhen.test(message)) {
+                    throw new MQClientException("broker unavailable", null);
+                }
+            }
+            sent.addAll(messages);
+            batchSizes.add(messages.size());
+            SendResult sendResult = new SendResult();
+            sendResult.setSendStatus(SendStatus.SEND_OK);
+            return sendResult;
+        }
+
+        List<Integer> batchSizes() {
+            return new ArrayList<>(batchSizes);
+        }
+
+        /**
+         * 一个订单按发送顺序收到的序号
+         */
+        List<Integer> seqsOf(String orderId) {
+            List<Integer> seqs = new ArrayList<>();
+            for (Message message : sent) {
+                if (orderId.equals(message.getKeys())) {
+                    PaidOrderSuccessMessage payload = JSON.parseObject(message.getBody(),
+                            PaidOrderSuccessMessage.class);
+                    seqs.add(Integer.valueOf(payload.getOrderId()));
+                }
+            }
+            return seqs;
+        }
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return H2MybatisTestSupport.dataSource("order_outbox");
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource, "mapper/OrderOutboxMapper.xml");
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderOutboxMapper> orderOutboxMapper(SqlSessionFactory sqlSessionFactory) {
+            MapperFactoryBean<OrderOutboxMapper> factoryBean = new MapperFactoryBean<>(OrderOutboxMapper.class);
+            factoryBean.setSqlSessionFactory(sqlSessionFactory);
+            return factoryBean;
+        }
+
+        @Bean
+        public OrderOutboxDAO orderOutboxDAO() {
+            return new OrderOutboxDAO();
+        }
+
+        @Bean
+        public OrderProperties orderProperties() {
+            OrderProperties orderProperties = new OrderProperties();
+            // 测试里手动触发补发
+                return orderProperties;
+        }
+
+        @Bean
+        public PlatformTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        public TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+            return new TransactionTemplate(transactionManager);
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
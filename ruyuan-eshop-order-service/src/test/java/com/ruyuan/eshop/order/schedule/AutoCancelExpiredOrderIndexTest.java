@@ -0,0 +1,252 @@
+package com.ruyuan.eshop.order.schedule;
+
+import com.ruyuan.eshop.common.core.JsonResult;
+import com.ruyuan.eshop.common.enums.OrderStatusEnum;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.OrderInfoDAO;
+import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
+import com.ruyuan.eshop.order.domain.request.CancelOrderRequest;
+import com.ruyuan.eshop.order.manager.OrderExpireIndexManager;
+import com.ruyuan.eshop.order.service.OrderAfterSaleService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * 超时关单任务测试，超时索引使用内存实现和可控时钟
+ */
+public class AutoCancelExpiredOrderIndexTest {
+
+    private static final int SHARD_COUNT = 8;
+
+    private static final long START = 1_638_000_000_000L;
+
+    private static final long LEASE_MILLIS = 300_000L;
+
+    private final AtomicLong now = new AtomicLong(START);
+
+    private final Map<String, OrderInfoDO> orders = new ConcurrentHashMap<>();
+
+    private final Set<String> canceled = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> failOnce = ConcurrentHashMap.newKeySet();
+
+    private InMemoryOrderExpireIndex index;
+
+    private ExecutorService executor;
+
+    private AutoCancelExpiredOrderTask task;
+
+    @Before
+    public void setUp() {
+        OrderProperties orderProperties = new OrderProperties();
+        orderProperties.setExpireCancelBatchSize(10);
+        orderProperties.setExpireCancelRetryDelay(60_000L);
+        orderProperties.setExpireCancelLeaseMillis(LEASE_MILLIS);
+
+        index = new InMemoryOrderExpireIndex();
+        executor = new ThreadPoolExecutor(4, 4, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(8), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        OrderInfoDAO orderInfoDAO = new OrderInfoDAO() {
+            @Override
+            public OrderInfoDO getByOrderId(String orderId) {
+                return orders.get(orderId);
+            }
+        };
+        OrderAfterSaleService orderAfterSaleService = (OrderAfterSaleService) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{OrderAfterSaleService.class}, (proxy, method, args) -> {
+                    if (!"cancelOrder".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    String orderId = ((CancelOrderRequest) args[0]).getOrderId();
+                    if (failOnce.remove(orderId)) {
+                        throw new IllegalStateException("cancel failed");
+                    }
+                    assertTrue("重复关单 " + orderId, canceled.add(orderId));
+                    orders.get(orderId).setOrderStatus(OrderStatusEnum.CANCELED.getCode());
+                    return JsonResult.buildSuccess(true);
+                });
+
+        task = new AutoCancelExpiredOrderTask();
+        ReflectionTestUtils.setField(task, "orderInfoDAO", orderInfoDAO);
+        ReflectionTestUtils.setField(task, "orderAfterSaleService", orderAfterSaleService);
+        ReflectionTestUtils.setField(task, "orderProperties", orderProperties);
+        ReflectionTestUtils.setField(task, "orderExpireIndexManager", index);
+        ReflectionTestUtils.setField(task, "orderExpireCancelExecutor", executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldCancelOnlyExpiredOrders() {
+        for (int i = 0; i < 100; i++) {
+            createOrder("order" + i, START + i * 1000L);
+        }
+
+        now.set(START + 49_999L);
+        assertEquals(50, task.cancelExpiredOrders(0, 0));
+        assertEquals(expectedIds(0, 50), canceled);
+
+        // 未到期的订单不会被取出，再执行一次没有新的到期订单
+        assertEquals(0, task.cancelExpiredOrders(0, 0));
+
+        now.set(START + 100_000L);
+        assertEquals(50, task.cancelExpiredOrders(0, 0));
+        assertEquals(expectedIds(0, 100), canceled);
+    }
+
+    @Test
+    public void shouldSkipPaidOrder() {
+        createOrder("paid", START);
+        createOrder("unpaid", START);
+        orders.get("paid").setOrderStatus(OrderStatusEnum.PAID.getCode());
+
+        now.set(START + 1L);
+        task.cancelExpiredOrders(0, 0);
+        assertEquals(Collections.singleton("unpaid"), canceled);
+    }
+
+    @Test
+    public void shouldSplitShardsAcrossExecutors() {
+        for (int i = 0; i < 200; i++) {
+            createOrder("order" + i, START);
+        }
+        now.set(START + 1L);
+
+        int total = 0;
+        for (int shardIndex = 0; shardIndex < 3; shardIndex++) {
+            total += task.cancelExpiredOrders(shardIndex, 3);
+        }
+        assertEquals(200, total);
+        assertEquals(expectedIds(0, 200), canceled);
+    }
+
+    @Test
+    public void shouldRetryFailedCancelAfterDelay() {
+        createOrder("order0", START);
+        failOnce.add("order0");
+
+        now.set(START + 1L);
+        task.cancelExpiredOrders(0, 0);
+        assertTrue(canceled.isEmpty());
+
+        now.set(START + 59_999L);
+        assertEquals(0, task.cancelExpiredOrders(0, 0));
+
+        now.set(START + 60_001L);
+        assertEquals(1, task.cancelExpiredOrders(0, 0));
+        assertEquals(Collections.singleton("order0"), canceled);
+    }
+
+    @Test
+    public void shouldCancelClaimedOrderAfterLeaseExpires() {
+        createOrder("order0", START);
+
+        // 模拟执行器认领订单后关单前宕机
+        now.set(START + 1L);
+        assertEquals(Collections.singletonList("order0"), index.claimExpired(
+                ("order0".hashCode() & Integer.MAX_VALUE) % SHARD_COUNT, 10));
+        assertEquals(0, task.cancelExpiredOrders(0, 0));
+
+        now.set(START + 1L + LEASE_MILLIS);
+        assertEquals(1, task.cancelExpiredOrders(0, 0));
+        assertEquals(Collections.singleton("order0"), canceled);
+
+        // 关单成功后从索引中移除
+        now.set(START + 2L + 2 * LEASE_MILLIS);
+        assertEquals(0, task.cancelExpiredOrders(0, 0));
+    }
+
+    @Test
+    public void shouldRemovePaidOrderFromIndex() {
+        createOrder("paid", START);
+        orders.get("paid").setOrderStatus(OrderStatusEnum.PAID.getCode());
+
+        now.set(START + 1L);
+        assertEquals(1, task.cancelExpiredOrders(0, 0));
+        now.set(START + 1L + LEASE_MILLIS);
+        assertEquals(0, task.cancelExpiredOrders(0, 0));
+        assertTrue(canceled.isEmpty());
+    }
+
+    private void createOrder(String orderId, long expireTime) {
+        OrderInfoDO order = new OrderInfoDO();
+        order.setOrderId(orderId);
+        order.setOrderStatus(OrderStatusEnum.CREATED.getCode());
+        order.setExpireTime(new Date(expireTime));
+        orders.put(orderId, order);
+        index.register(orderId, order.getExpireTime());
+    }
+
+    private Set<String> expectedIds(int from, int to) {
+        Set<String> ids = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            ids.add("order" + i);
+        }
+        return ids;
+    }
+
+    /**
+     * 内存版超时索引，语义与redis有序集合实现一致
+     */
+    private class InMemoryOrderExpireIndex implements OrderExpireIndexManager {
+
+        private final List<Map<String, Long>> shards = new ArrayList<>();
+
+        private InMemoryOrderExpireIndex() {
+            for (int i = 0; i < SHARD_COUNT; i++) {
+                shards.add(new HashMap<>());
+            }
+        }
+
+        @Override
+        public synchronized void register(String orderId, Date expireTime) {
+            shardOf(orderId).put(orderId, expireTime.getTime());
+        }
+
+        @Override
+        public void registerDelay(String orderId, long delayMillis) {
+            register(orderId, new Date(now.get() + delayMillis));
+        }
+
+        @Override
+        public synchronized void remove(String orderId) {
+            shardOf(orderId).remove(orderId);
+        }
+
+        @Override
+        public synchronized List<String> claimExpired(int shard, int limit) {
+            Map<String, Long> scores = shards.get(shard);
+            List<String> expired = scores.entrySet().stream()
+                    .filter(entry -> entry.getValue() <= now.get())
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(limit)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            expired.forEach(orderId -> scores.put(orderId, now.get() + LEASE_MILLIS));
+            return expired;
+        }
+
+        @Override
+        public int getShardCount() {
+            return SHARD_COUNT;
+        }
+
+        private Map<String, Long> shardOf(String orderId) {
+            return shards.get((orderId.hashCode() & Integer.MAX_VALUE) % SHARD_COUNT);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.ruyuan.eshop.order.schedule;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.ruyuan.eshop.common.dao.ShardedCursorScanner;
+import com.ruyuan.eshop.common.enums.OrderStatusEnum;
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.OrderInfoDAO;
+import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
+import com.ruyuan.eshop.order.manager.OrderExpireIndexManager;
+import com.ruyuan.eshop.order.mapper.OrderInfoMapper;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static com.ruyuan.eshop.order.H2MybatisTestSupport.mapper;
+import static org.junit.Assert.*;
+
+/**
+ * 分片游标扫描测试：订单表使用H2内存库，多个分片一起扫描时每个未支付订单恰好被处理一次
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = AutoCancelExpiredOrderRebuildTest.Config.class)
+public class AutoCancelExpiredOrderRebuildTest {
+
+    private static final int ORDER_COUNT = 1000;
+
+    private static final long START = 1_638_000_000_000L;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OrderInfoDAO orderInfoDAO;
+
+    private ExecutorService executor;
+
+    private Set<String> unPaidOrderIds;
+
+    /**
+     * H2没有CRC32函数，注册一个和MySQL结果一致的
+     */
+    public static long crc32(String value) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(value.getBytes(StandardCharsets.UTF_8));
+        return crc32.getValue();
+    }
+
+    @Before
+    public void setUp() {
+        jdbcTemplate.execute("CREATE ALIAS IF NOT EXISTS CRC32 FOR \""
+                + AutoCancelExpiredOrderRebuildTest.class.getName() + ".crc32\"");
+        createTable();
+        unPaidOrderIds = new HashSet<>();
+        int[] statuses = {OrderStatusEnum.CREATED.getCode(), OrderStatusEnum.CREATED.getCode(),
+                OrderStatusEnum.PAID.getCode(), OrderStatusEnum.CANCELED.getCode()};
+        for (int i = 0; i < ORDER_COUNT; i++) {
+            String orderId = String.valueOf(1011250000000010000L + i * 7L);
+            int orderStatus = statuses[i % statuses.length];
+            jdbcTemplate.update("INSERT INTO order_info (order_id, order_status, user_id, expire_time)"
+                    + " VALUES (?, ?, '100', ?)", orderId, orderStatus, new Date(START + i * 1000L));
+            if (orderStatus == OrderStatusEnum.CREATED.getCode()) {
+                unPaidOrderIds.add(orderId);
+            }
+        }
+        executor = new ThreadPoolExecutor(3, 3, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(2), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldCoverEveryRowOnceAcrossShards() throws Exception {
+        for (int shardTotal : new int[]{0, 1, 3, 8}) {
+            Map<String, Integer> processed = new ConcurrentHashMap<>();
+            ShardedCursorScanner<OrderInfoDO> scanner = newScanner(7, 2);
+            long total = 0;
+            for (int shardIndex = 0; shardIndex < Math.max(shardTotal, 1); shardIndex++) {
+                int shard = shardIndex;
+                total += scanner.scan(shardIndex, shardTotal, unPaid(), orders -> {
+                    for (OrderInfoDO order : orders) {
+                        // 每个分片只读到自己的订单
+                        if (shardTotal > 1) {
+                            assertEquals(shard, crc32(order.getOrderId()) % shardTotal);
+                        }
+                        assertEquals(OrderStatusEnum.CREATED.getCode(), order.getOrderStatus());
+                        processed.merge(order.getOrderId(), 1, Integer::sum);
+                    }
+                });
+            }
+            assertEquals("shardTotal=" + shardTotal, unPaidOrderIds, processed.keySet());
+            assertTrue("shardTotal=" + shardTotal, processed.values().stream().allMatch(count -> count == 1));
+            assertEquals(unPaidOrderIds.size(), total);
+        }
+    }
+
+    @Test
+    public void shouldLimitChunksInFlight() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        long total = newScanner(10, 2).scan(0, 1, unPaid(), orders -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+        assertEquals(unPaidOrderIds.size(), total);
+        assertTrue("maxInFlight=" + maxInFlight.get(), maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void shouldStopScanWhenChunkFails() throws Exception {
+        AtomicInteger chunks = new AtomicInteger();
+        try {
+            newScanner(10, 1).scan(0, 1, unPaid(), orders -> {
+                if (chunks.incrementAndGet() == 3) {
+                    throw new IllegalArgumentException("handle failed");
+                }
+            });
+            fail("处理失败时应该抛异常");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        // 同时只有一批在处理，失败后不再读取新的批次
+        assertEquals(3, chunks.get());
+    }
+
+    @Test
+    public void shouldRebuildExpireIndexByShard() throws Exception {
+        OrderProperties orderProperties = new OrderProperties();
+        orderProperties.setScanChunkSize(50);
+        orderProperties.setScanMaxInFlightChunks(2);
+        Map<String, Date> registered = new ConcurrentHashMap<>();
+        AtomicInteger registerCount = new AtomicInteger();
+
+        AutoCancelExpiredOrderTask task = new AutoCancelExpiredOrderTask();
+        ReflectionTestUtils.setField(task, "orderInfoDAO", orderInfoDAO);
+        ReflectionTestUtils.setField(task, "orderProperties", orderProperties);
+        ReflectionTestUtils.setField(task, "orderScanExecutor", executor);
+        ReflectionTestUtils.setField(task, "orderExpireIndexManager", new OrderExpireIndexManager() {
+            @Override
+            public void register(String orderId, Date expireTime) {
+                registerCount.incrementAndGet();
+                registered.put(orderId, expireTime);
+            }
+
+            @Override
+            public void registerDelay(String orderId, long delayMillis) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void remove(String orderId) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<String> claimExpired(int shard, int limit) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int getShardCount() {
+                return 1;
+            }
+        });
+
+        long total = 0;
+        for (int shardIndex = 0; shardIndex < 3; shardIndex++) {
+            total += task.rebuildExpireIndex(shardIndex, 3);
+        }
+        assertEquals(unPaidOrderIds.size(), total);
+        assertEquals(unPaidOrderIds.size(), registerCount.get());
+        assertEquals(unPaidOrderIds, registered.keySet());
+        assertTrue(registered.values().stream().allMatch(Objects::nonNull));
+    }
+
+    private ShardedCursorScanner<OrderInfoDO> newScanner(int chunkSize, int maxInFlightChunks) {
+        return new ShardedCursorScanner<>(orderInfoDAO, "id", OrderInfoDO::getId, "CRC32(order_id)",
+                chunkSize, executor, maxInFlightChunks);
+    }
+
+    private Consumer<QueryWrapper<OrderInfoDO>> unPaid() {
+        return queryWrapper -> queryWrapper.in("order_status", OrderStatusEnum.unPaidStatus());
+    }
+
+    private void createTable() {
+        H2MybatisTestSupport.createTables(jdbcTemplate, Collections.singletonList(OrderInfoDO.class));
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return H2MybatisTestSupport.dataSource("order_scan");
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderInfoMapper> orderInfoMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderInfoMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public OrderInfoDAO orderInfoDAO() {
+            return new OrderInfoDAO();
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
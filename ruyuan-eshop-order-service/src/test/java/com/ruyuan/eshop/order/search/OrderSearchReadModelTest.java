@@ -0,0 +1,436 @@
+package com.ruyuan.eshop.order.search;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.ruyuan.eshop.common.config.MybatisPlusConfig;
+import com.ruyuan.eshop.common.enums.OrderStatusEnum;
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.cache.OrderChangedEvent;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.dao.OrderDeliveryDetailDAO;
+import com.ruyuan.eshop.order.dao.OrderInfoDAO;
+import com.ruyuan.eshop.order.dao.OrderItemDAO;
+import com.ruyuan.eshop.order.dao.OrderPaymentDetailDAO;
+import com.ruyuan.eshop.order.domain.dto.OrderListDTO;
+import com.ruyuan.eshop.order.domain.dto.OrderListQueryDTO;
+import com.ruyuan.eshop.order.domain.entity.OrderDeliveryDetailDO;
+import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
+import com.ruyuan.eshop.order.domain.entity.OrderItemDO;
+import com.ruyuan.eshop.order.domain.entity.OrderPaymentDetailDO;
+import com.ruyuan.eshop.order.mapper.OrderDeliveryDetailMapper;
+import com.ruyuan.eshop.order.mapper.OrderInfoMapper;
+import com.ruyuan.eshop.order.mapper.OrderItemMapper;
+import com.ruyuan.eshop.order.mapper.OrderPaymentDetailMapper;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import static com.ruyuan.eshop.order.H2MybatisTestSupport.mapper;
+import static org.junit.Assert.*;
+
+/**
+ * 订单列表读模型测试：按OrderBatchInsertTest的方式生成订单数据，
+ * 各种条件组合下读模型每一页的结果都和OrderInfoMapper.listByPage一致；写订单提交后读模型跟着刷新
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = OrderSearchReadModelTest.Config.class)
+public class OrderSearchReadModelTest {
+
+    private static final List<Class<?>> ENTITY_CLASSES = Arrays.asList(
+            OrderInfoDO.class, OrderItemDO.class, OrderPaymentDetailDO.class, OrderDeliveryDetailDO.class);
+
+    private static final int ORDER_COUNT = 600;
+
+    private static final long BASE_TIME = 1640966400000L;
+
+    private static final int[] ORDER_STATUS = {
+            OrderStatusEnum.CREATED.getCode(), OrderStatusEnum.PAID.getCode(), OrderStatusEnum.FULFILL.getCode(),
+            OrderStatusEnum.CANCELED.getCode(), OrderStatusEnum.INVALID.getCode()};
+
+    private static final String[] SKU_CODES = {"10101010", "10101011", "10101012", "10101013", "10101014"};
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private OrderInfoMapper orderInfoMapper;
+
+    @Autowired
+    private ScanHookOrderInfoDAO orderInfoDAO;
+
+    @Autowired
+    private OrderProperties orderProperties;
+
+    @Autowired
+    private OrderSearchReadModel orderSearchReadModel;
+
+    private static boolean dataReady;
+
+    @Before
+    public void setUp() {
+        if (!dataReady) {
+            createTables();
+            insertOrders(0, ORDER_COUNT);
+            dataReady = true;
+        }
+        orderProperties.setSearchReadModelEnabled(true);
+        orderProperties.setSearchRebuildBatchSize(64);
+        orderSearchReadModel.rebuild();
+        assertTrue(orderSearchReadModel.isReady());
+    }
+
+    @Test
+    public void shouldMatchSqlPathForAllQueries() {
+        for (OrderListQueryDTO query : queries()) {
+            assertSameAsSql(query);
+        }
+    }
+
+    @Test
+    public void shouldRefreshAfterCommit() {
+        String orderId = findOrderId(OrderStatusEnum.CREATED.getCode());
+        assertEquals(OrderStatusEnum.CREATED.getCode(), statusInReadModel(orderId));
+
+        // 事务提交前读模型不变，提交后刷新
+        transactionTemplate.execute(status -> {
+            assertTrue(orderInfoDAO.updateOrderStatus(orderId,
+                    OrderStatusEnum.CREATED.getCode(), OrderStatusEnum.PAID.getCode()));
+            assertEquals(OrderStatusEnum.CREATED.getCode(), statusInReadModel(orderId));
+            return null;
+        });
+        assertEquals(OrderStatusEnum.PAID.getCode(), statusInReadModel(orderId));
+
+        // 回滚后不刷新
+        transactionTemplate.execute(status -> {
+            orderInfoDAO.updateOrderStatus(orderId, OrderStatusEnum.PAID.getCode(), OrderStatusEnum.CANCELED.getCode());
+            status.setRollbackOnly();
+            return null;
+        });
+        assertEquals(OrderStatusEnum.PAID.getCode(), statusInReadModel(orderId));
+
+        // 新订单
+        transactionTemplate.execute(status -> {
+            List<String> orderIds = insertOrders(ORDER_COUNT, 3);
+            applicationEventPublisher.publishEvent(new OrderChangedEvent(this, orderIds));
+            return null;
+        });
+        for (int i = ORDER_COUNT; i < ORDER_COUNT + 3; i++) {
+            if (isVisible(i)) {
+                assertNotNull(statusInReadModel(orderId(i)));
+            }
+        }
+
+        // 删除订单
+        OrderInfoDO orderInfoDO = orderInfoDAO.getByOrderId(orderId);
+        orderInfoDAO.softRemoveOrders(Collections.singletonList(orderInfoDO));
+        assertNull(statusInReadModel(orderId));
+
+        for (OrderListQueryDTO query : queries()) {
+            assertSameAsSql(query);
+        }
+    }
+
+    @Test
+    public void shouldApplyChangesCommittedDuringRebuild() {
+        String orderId = findOrderId(OrderStatusEnum.CREATED.getCode());
+        Long id = jdbcTemplate.queryForObject("SELECT id FROM order_info WHERE order_id = ?", Long.class, orderId);
+        // 订单所在的批次扫描完之后再改状态，重建读到的是旧状态，只能靠重建后刷新
+        orderInfoDAO.afterScan = lastId -> {
+            if (lastId >= id) {
+                orderInfoDAO.afterScan = null;
+                assertTrue(orderInfoDAO.updateOrderStatus(orderId,
+                        OrderStatusEnum.CREATED.getCode(), OrderStatusEnum.PAID.getCode()));
+                assertFalse(orderSearchReadModel.isReady());
+            }
+        };
+        try {
+            orderSearchReadModel.rebuild();
+        } finally {
+            orderInfoDAO.afterScan = null;
+        }
+
+        assertTrue(orderSearchReadModel.isReady());
+        assertEquals(OrderStatusEnum.PAID.getCode(), statusInReadModel(orderId));
+        for (OrderListQueryDTO query : queries()) {
+            assertSameAsSql(query);
+        }
+    }
+
+    @Test
+    public void shouldSkipRefreshWhenDisabled() {
+        orderProperties.setSearchReadModelEnabled(false);
+        String orderId = findOrderId(OrderStatusEnum.PAID.getCode());
+        orderInfoDAO.updateOrderStatus(orderId, OrderStatusEnum.PAID.getCode(), OrderStatusEnum.FULFILL.getCode());
+        assertEquals(OrderStatusEnum.PAID.getCode(), statusInReadModel(orderId));
+        orderSearchReadModel.rebuild();
+        assertEquals(OrderStatusEnum.FULFILL.getCode(), statusInReadModel(orderId));
+    }
+
+    private List<OrderListQueryDTO> queries() {
+        List<OrderListQueryDTO> queries = new ArrayList<>();
+        queries.add(query(q -> {
+        }));
+        queries.add(query(q -> q.setBusinessIdentifier(1)));
+        queries.add(query(q -> q.setOrderStatus(new HashSet<>(Arrays.asList(
+                OrderStatusEnum.CREATED.getCode(), OrderStatusEnum.CANCELED.getCode())))));
+        queries.add(query(q -> q.setOrderTypes(Collections.singleton(2))));
+        queries.add(query(q -> q.setUserIds(new HashSet<>(Arrays.asList("1", "7", "13", "999")))));
+        queries.add(query(q -> q.setSellerIds(Collections.singleton("102"))));
+        queries.add(query(q -> q.setOrderIds(new HashSet<>(Arrays.asList(orderId(3), orderId(77), orderId(300),
+                "not exist")))));
+        queries.add(query(q -> q.setParentOrderIds(Collections.singleton(orderId(0)))));
+        queries.add(query(q -> q.setSkuCodes(new HashSet<>(Arrays.asList(SKU_CODES[0], SKU_CODES[2])))));
+        queries.add(query(q -> q.setProductNames(Collections.singleton("商品" + SKU_CODES[1]))));
+        queries.add(query(q -> q.setReceiverPhones(Collections.singleton("13434545542"))));
+        queries.add(query(q -> {
+            q.setReceiverNames(Collections.singleton("收货人1"));
+            q.setReceiverPhones(Collections.singleton("13434545541"));
+        }));
+        queries.add(query(q -> q.setTradeNos(new HashSet<>(Arrays.asList(tradeNo(5, 0), tradeNo(5, 1),
+                tradeNo(42, 0))))));
+        queries.add(query(q -> q.setCreatedTimeInterval(Pair.of(gmtCreate(100), gmtCreate(420)))));
+        queries.add(query(q -> q.setCreatedTimeInterval(Pair.of(null, gmtCreate(50)))));
+        queries.add(query(q -> q.setPayTimeInterval(Pair.of(gmtCreate(200), null))));
+        queries.add(query(q -> q.setPayAmountInterval(Pair.of(9200, 9600))));
+        queries.add(query(q -> {
+            q.setUserIds(new HashSet<>(Arrays.asList("2", "3", "5", "8")));
+            q.setSkuCodes(Collections.singleton(SKU_CODES[3]));
+            q.setCreatedTimeInterval(Pair.of(gmtCreate(60), gmtCreate(540)));
+        }));
+        return queries;
+    }
+
+    private OrderListQueryDTO query(Consumer<OrderListQueryDTO> conditions) {
+        OrderListQueryDTO query = new OrderListQueryDTO();
+        query.setOrderStatus(OrderStatusEnum.validStatus());
+        conditions.accept(query);
+        return query;
+    }
+
+    private void assertSameAsSql(OrderListQueryDTO query) {
+        for (int pageSize : new int[]{7, 20, 1000}) {
+            query.setPageSize(pageSize);
+            long sqlRows = 0;
+            for (int pageNo = 1; ; pageNo++) {
+                query.setPageNo(pageNo);
+                List<OrderListDTO> expected = orderInfoMapper.listByPage(
+                        new Page<>(pageNo, pageSize, false), query).getRecords();
+                Page<OrderListDTO> actual = orderSearchReadModel.listByPage(query);
+                assertEquals(query + " pageNo=" + pageNo, expected, actual.getRecords());
+                sqlRows += expected.size();
+                if (expected.size() < pageSize) {
+                    assertEquals(query.toString(), sqlRows, actual.getTotal());
+                    break;
+                }
+            }
+        }
+    }
+
+    private Integer statusInReadModel(String orderId) {
+        OrderListQueryDTO query = query(q -> q.setOrderIds(Collections.singleton(orderId)));
+        query.setOrderStatus(null);
+        List<OrderListDTO> records = orderSearchReadModel.listByPage(query).getRecords();
+        return records.isEmpty() ? null : records.get(0).getOrderStatus();
+    }
+
+    private String findOrderId(Integer orderStatus) {
+        return jdbcTemplate.queryForObject("SELECT order_id FROM order_info WHERE order_status = ?"
+                + " AND delete_status = 0 ORDER BY id LIMIT 1", String.class, orderStatus);
+    }
+
+    /**
+     * 生成订单数据：买家、状态、金额随机，部分订单有多个条目、没有条目、有两条支付明细、已删除，很多订单创建时间相同
+     */
+    private List<String> insertOrders(int from, int count) {
+        Random random = new Random(from + 31);
+        List<String> orderIds = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            String orderId = orderId(i);
+            orderIds.add(orderId);
+            int orderStatus = ORDER_STATUS[random.nextInt(ORDER_STATUS.length)];
+            Date payTime = orderStatus == OrderStatusEnum.CREATED.getCode() ? null : gmtCreate(i + 1);
+            jdbcTemplate.update("INSERT INTO order_info (business_identifier, order_id, parent_order_id,"
+                            + " business_order_id, order_type, order_status, seller_id, user_id, pay_type, coupon_id,"
+                            + " pay_amount, pay_time, user_remark, delete_status, comment_status, gmt_create, gmt_modified)"
+                            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, 10, ?, ?, ?, '压测数据', ?, 0, ?, ?)",
+                    1 + i % 2, orderId, i % 10 == 1 ? orderId(0) : null, "B" + i, 1 + i % 3, orderStatus,
+                    String.valueOf(100 + i % 4), String.valueOf(random.nextInt(20)), i % 5 == 0 ? "1001001" : null,
+                    9000 + random.nextInt(1000), payTime, isVisible(i) ? 0 : 1, gmtCreate(i), gmtCreate(i));
+            int itemCount = i % 19 == 0 ? 0 : 1 + random.nextInt(3);
+            for (int item = 0; item < itemCount; item++) {
+                String skuCode = SKU_CODES[random.nextInt(SKU_CODES.length)];
+                jdbcTemplate.update("INSERT INTO order_item (order_id, order_item_id, product_type, product_img,"
+                                + " product_name, sku_code, sale_quantity, pay_amount, gmt_create, gmt_modified)"
+                                + " VALUES (?, ?, 1, 'test.img', ?, ?, ?, 9505, ?, ?)",
+                        orderId, orderId + "00" + item, "商品" + skuCode, skuCode, 1 + random.nextInt(10),
+                        gmtCreate(i), gmtCreate(i));
+            }
+            int paymentCount = i % 23 == 0 ? 2 : 1;
+            for (int payment = 0; payment < paymentCount; payment++) {
+                jdbcTemplate.update("INSERT INTO order_payment_detail (order_id, account_type, pay_type, pay_status,"
+                                + " pay_amount, out_trade_no, gmt_create, gmt_modified) VALUES (?, 1, 10, 10, 9000, ?, ?, ?)",
+                        orderId, tradeNo(i, payment), gmtCreate(i), gmtCreate(i));
+            }
+            jdbcTemplate.update("INSERT INTO order_delivery_detail (order_id, delivery_type, receiver_name,"
+                            + " receiver_phone, gmt_create, gmt_modified) VALUES (?, 1, ?, ?, ?, ?)",
+                    orderId, "收货人" + i % 3, "1343454554" + i % 4, gmtCreate(i), gmtCreate(i));
+        }
+        return orderIds;
+    }
+
+    private static boolean isVisible(int i) {
+        return i % 29 != 0;
+    }
+
+    /**
+     * 每3个订单创建时间相同，跨越多个小时
+     */
+    private static Date gmtCreate(int i) {
+        return new Date(BASE_TIME + (i / 3) * 60 * 1000L);
+    }
+
+    private static String orderId(int i) {
+        return String.valueOf(1011250000000010000L + i);
+    }
+
+    private static String tradeNo(int i, int payment) {
+        return String.valueOf(2021000000000000000L + i * 10L + payment);
+    }
+
+    private void createTables() {
+        H2MybatisTestSupport.createTables(jdbcTemplate, ENTITY_CLASSES);
+    }
+
+    /**
+     * 每扫描完一批订单回调一次，模拟重建过程中有订单写入
+     */
+    static class ScanHookOrderInfoDAO extends OrderInfoDAO {
+
+        private volatile LongConsumer afterScan;
+
+        @Override
+        public List<OrderInfoDO> listByIdAfter(Long lastId, int limit) {
+            List<OrderInfoDO> orderInfoDOList = super.listByIdAfter(lastId, limit);
+            LongConsumer hook = afterScan;
+            if (hook != null && !orderInfoDOList.isEmpty()) {
+                hook.accept(orderInfoDOList.get(orderInfoDOList.size() - 1).getId());
+            }
+            return orderInfoDOList;
+        }
+    }
+
+    @Configuration
+    @EnableTransactionManagement
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return H2MybatisTestSupport.dataSource("order_search");
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource, new MybatisPlusConfig().mybatisPlusInterceptor(),
+                    "mapper/OrderInfoMapper.xml");
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderInfoMapper> orderInfoMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderInfoMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderItemMapper> orderItemMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderItemMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderPaymentDetailMapper> orderPaymentDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderPaymentDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderDeliveryDetailMapper> orderDeliveryDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderDeliveryDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public ScanHookOrderInfoDAO orderInfoDAO() {
+            return new ScanHookOrderInfoDAO();
+        }
+
+        @Bean
+        public OrderItemDAO orderItemDAO() {
+            return new OrderItemDAO();
+        }
+
+        @Bean
+        public OrderPaymentDetailDAO orderPaymentDetailDAO() {
+            return new OrderPaymentDetailDAO();
+        }
+
+        @Bean
+        public OrderDeliveryDetailDAO orderDeliveryDetailDAO() {
+            return new OrderDeliveryDetailDAO();
+        }
+
+        @Bean
+        public OrderProperties orderProperties() {
+            return new OrderProperties();
+        }
+
+        /**
+         * 在当前线程刷新，断言时不用等待
+         */
+        @Bean(name = "orderSearchRefreshExecutor")
+        public ExecutorService orderSearchRefreshExecutor() {
+            return MoreExecutors.newDirectExecutorService();
+        }
+
+        @Bean
+        public OrderSearchReadModel orderSearchReadModel() {
+            return new OrderSearchReadModel();
+        }
+
+        @Bean
+        public PlatformTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        public TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+            return new TransactionTemplate(transactionManager);
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
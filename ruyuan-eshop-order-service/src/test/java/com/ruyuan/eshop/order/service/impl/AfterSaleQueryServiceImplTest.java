@@ -0,0 +1,301 @@
+package com.ruyuan.eshop.order.service.impl;
+
+import com.ruyuan.eshop.common.enums.AfterSaleTypeDetailEnum;
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.converter.AfterSaleConverterImpl;
+import com.ruyuan.eshop.order.dao.AfterSaleInfoDAO;
+import com.ruyuan.eshop.order.dao.AfterSaleItemDAO;
+import com.ruyuan.eshop.order.dao.AfterSaleLogDAO;
+import com.ruyuan.eshop.order.dao.AfterSaleRefundDAO;
+import com.ruyuan.eshop.order.domain.dto.OrderLackItemDTO;
+import com.ruyuan.eshop.order.domain.entity.AfterSaleInfoDO;
+import com.ruyuan.eshop.order.domain.entity.AfterSaleItemDO;
+import com.ruyuan.eshop.order.domain.entity.AfterSaleLogDO;
+import com.ruyuan.eshop.order.domain.entity.AfterSaleRefundDO;
+import com.ruyuan.eshop.order.mapper.AfterSaleInfoMapper;
+import com.ruyuan.eshop.order.mapper.AfterSaleItemMapper;
+import com.ruyuan.eshop.order.mapper.AfterSaleLogMapper;
+import com.ruyuan.eshop.order.mapper.AfterSaleRefundMapper;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.ruyuan.eshop.order.H2MybatisTestSupport.mapper;
+import static org.junit.Assert.*;
+
+/**
+ * 售后单批量查询测试：缺品信息用固定条数的IN查询组装，结果和逐条查询售后单详情一致，
+ * 通过包装DataSource统计实际执行的SQL条数
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = AfterSaleQueryServiceImplTest.Config.class)
+public class AfterSaleQueryServiceImplTest {
+
+    private static final List<Class<?>> ENTITY_CLASSES = Arrays.asList(
+            AfterSaleInfoDO.class, AfterSaleItemDO.class, AfterSaleLogDO.class, AfterSaleRefundDO.class);
+
+    private static final String ORDER_ID = "1011250000000010001";
+
+    private static final String OTHER_ORDER_ID = "1011250000000020001";
+
+    private static final int LACK_COUNT = 5;
+
+    @Autowired
+    private CountingDataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private AfterSaleInfoDAO afterSaleInfoDAO;
+
+    @Autowired
+    private AfterSaleItemDAO afterSaleItemDAO;
+
+    @Autowired
+    private AfterSaleLogDAO afterSaleLogDAO;
+
+    @Autowired
+    private AfterSaleRefundDAO afterSaleRefundDAO;
+
+    private AfterSaleQueryServiceImpl afterSaleQueryService;
+
+    private final List<Long> lackAfterSaleIds = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        afterSaleQueryService = new AfterSaleQueryServiceImpl();
+        ReflectionTestUtils.setField(afterSaleQueryService, "afterSaleInfoDAO", afterSaleInfoDAO);
+        ReflectionTestUtils.setField(afterSaleQueryService, "afterSaleItemDAO", afterSaleItemDAO);
+        ReflectionTestUtils.setField(afterSaleQueryService, "afterSaleLogDAO", afterSaleLogDAO);
+        ReflectionTestUtils.setField(afterSaleQueryService, "afterSaleRefundDAO", afterSaleRefundDAO);
+        ReflectionTestUtils.setField(afterSaleQueryService, "afterSaleConverter", new AfterSaleConverterImpl());
+
+        createTables();
+        lackAfterSaleIds.clear();
+        long afterSaleId = 2021112800000000000L;
+        for (int i = 0; i < LACK_COUNT; i++) {
+            afterSaleId++;
+            lackAfterSaleIds.add(afterSaleId);
+            // 最后一个缺品售后单还没有生成退款单
+            saveAfterSale(afterSaleId, ORDER_ID, AfterSaleTypeDetailEnum.LACK_REFUND, i + 1, i < LACK_COUNT - 1);
+        }
+        // 同一订单的其他售后、其他订单的缺品售后不返回
+        saveAfterSale(++afterSaleId, ORDER_ID, AfterSaleTypeDetailEnum.ALL_REFUND, 1, true);
+        saveAfterSale(++afterSaleId, OTHER_ORDER_ID, AfterSaleTypeDetailEnum.LACK_REFUND, 1, true);
+        dataSource.reset();
+    }
+
+    @Test
+    public void shouldBuildLackItemsWithFourQueries() {
+        List<OrderLackItemDTO> expected = new ArrayList<>();
+        for (Long afterSaleId : lackAfterSaleIds) {
+            OrderLackItemDTO itemDTO = new OrderLackItemDTO();
+            BeanUtils.copyProperties(afterSaleQueryService.afterSaleDetail(afterSaleId), itemDTO);
+            expected.add(itemDTO);
+        }
+        // 逐条查询：每个售后单4条SQL
+        assertEquals(4 * LACK_COUNT, dataSource.reset());
+
+        List<OrderLackItemDTO> lackItems = afterSaleQueryService.getOrderLackItemInfo(ORDER_ID);
+        // 按订单查售后单1条，条目、退款、日志各1条IN查询
+        assertEquals(4, dataSource.reset());
+        assertEquals(expected, lackItems);
+
+        List<Long> afterSaleIds = lackItems.stream()
+                .map(lackItem -> lackItem.getAfterSaleInfo().getAfterSaleId()).collect(Collectors.toList());
+        assertEquals(lackAfterSaleIds, afterSaleIds);
+        for (OrderLackItemDTO lackItem : lackItems) {
+            Long afterSaleId = lackItem.getAfterSaleInfo().getAfterSaleId();
+            int index = lackAfterSaleIds.indexOf(afterSaleId);
+            assertEquals(index + 1, lackItem.getAfterSaleItems().size());
+            lackItem.getAfterSaleItems().forEach(item -> assertEquals(afterSaleId, item.getAfterSaleId()));
+            assertEquals(index < LACK_COUNT - 1 ? 1 : 0, lackItem.getAfterSalePays().size());
+        }
+    }
+
+    @Test
+    public void shouldReturnNullWhenOrderHasNoLack() {
+        assertNull(afterSaleQueryService.getOrderLackItemInfo("1011250000000030001"));
+        assertEquals(1, dataSource.reset());
+    }
+
+    private void saveAfterSale(Long afterSaleId, String orderId, AfterSaleTypeDetailEnum typeDetail,
+                               int itemCount, boolean withRefund) {
+        AfterSaleInfoDO afterSaleInfo = new AfterSaleInfoDO();
+        afterSaleInfo.setAfterSaleId(afterSaleId);
+        afterSaleInfo.setOrderId(orderId);
+        afterSaleInfo.setUserId("100");
+        afterSaleInfo.setOrderSourceChannel(1);
+        afterSaleInfo.setOrderType(1);
+        afterSaleInfo.setAfterSaleType(1);
+        afterSaleInfo.setAfterSaleTypeDetail(typeDetail.getCode());
+        afterSaleInfo.setAfterSaleStatus(20);
+        afterSaleInfo.setApplyRefundAmount(100 * itemCount);
+        afterSaleInfoDAO.save(afterSaleInfo);
+
+        List<AfterSaleItemDO> afterSaleItems = new ArrayList<>();
+        for (int i = 0; i < itemCount; i++) {
+            AfterSaleItemDO afterSaleItem = new AfterSaleItemDO();
+            afterSaleItem.setAfterSaleId(afterSaleId);
+            afterSaleItem.setOrderId(orderId);
+            afterSaleItem.setSkuCode("skuCode00" + i);
+            afterSaleItem.setProductName("商品" + i);
+            afterSaleItem.setReturnQuantity(1);
+            afterSaleItem.setApplyRefundAmount(100);
+            afterSaleItems.add(afterSaleItem);
+        }
+        afterSaleItemDAO.saveBatch(afterSaleItems);
+
+        if (withRefund) {
+            AfterSaleRefundDO afterSaleRefund = new AfterSaleRefundDO();
+            afterSaleRefund.setAfterSaleId(String.valueOf(afterSaleId));
+            afterSaleRefund.setOrderId(orderId);
+            afterSaleRefund.setAccountType(1);
+            afterSaleRefund.setPayType(10);
+            afterSaleRefund.setRefundStatus(10);
+            afterSaleRefund.setRefundAmount(100 * itemCount);
+            afterSaleRefundDAO.save(afterSaleRefund);
+        }
+
+        for (int status = 10; status <= 20; status += 10) {
+            AfterSaleLogDO afterSaleLog = new AfterSaleLogDO();
+            afterSaleLog.setAfterSaleId(String.valueOf(afterSaleId));
+            afterSaleLog.setPreStatus(status - 10);
+            afterSaleLog.setCurrentStatus(status);
+            afterSaleLog.setRemark("售后单状态变更" + (status - 10) + "-" + status);
+            afterSaleLogDAO.save(afterSaleLog);
+        }
+    }
+
+    /**
+     * 按实体元数据建表，主键自增
+     */
+    private void createTables() {
+        H2MybatisTestSupport.createTables(jdbcTemplate, ENTITY_CLASSES);
+    }
+
+    /**
+     * 统计执行的SQL条数：每次prepareStatement、createStatement记一次
+     */
+    static class CountingDataSource extends DelegatingDataSource {
+
+        private final AtomicInteger statements = new AtomicInteger();
+
+        CountingDataSource(DataSource targetDataSource) {
+            super(targetDataSource);
+        }
+
+        /**
+         * 返回上次重置以来执行的SQL条数并清零
+         */
+        int reset() {
+            return statements.getAndSet(0);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return countingConnection(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return countingConnection(super.getConnection(username, password));
+        }
+
+        private Connection countingConnection(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        String name = method.getName();
+                        if ("prepareStatement".equals(name) || "createStatement".equals(name)
+                                || "prepareCall".equals(name)) {
+                            statements.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    });
+        }
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public CountingDataSource dataSource() {
+            return new CountingDataSource(H2MybatisTestSupport.dataSource("after_sale_query"));
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource);
+        }
+
+        @Bean
+        public MapperFactoryBean<AfterSaleInfoMapper> afterSaleInfoMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(AfterSaleInfoMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<AfterSaleItemMapper> afterSaleItemMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(AfterSaleItemMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<AfterSaleLogMapper> afterSaleLogMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(AfterSaleLogMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<AfterSaleRefundMapper> afterSaleRefundMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(AfterSaleRefundMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public AfterSaleInfoDAO afterSaleInfoDAO() {
+            return new AfterSaleInfoDAO();
+        }
+
+        @Bean
+        public AfterSaleItemDAO afterSaleItemDAO() {
+            return new AfterSaleItemDAO();
+        }
+
+        @Bean
+        public AfterSaleLogDAO afterSaleLogDAO() {
+            return new AfterSaleLogDAO();
+        }
+
+        @Bean
+        public AfterSaleRefundDAO afterSaleRefundDAO() {
+            return new AfterSaleRefundDAO();
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.ruyuan.eshop.order.service.impl;
+
+import com.ruyuan.eshop.market.domain.dto.CalculateOrderAmountDTO;
+import com.ruyuan.eshop.market.domain.request.CalculateOrderAmountRequest;
+import com.ruyuan.eshop.order.exception.OrderBizException;
+import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import com.ruyuan.eshop.order.remote.MarketRemote;
+import com.ruyuan.eshop.order.remote.ProductRemote;
+import com.ruyuan.eshop.order.remote.RiskRemote;
+import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
+import com.ruyuan.eshop.risk.domain.dto.CheckOrderRiskDTO;
+import com.ruyuan.eshop.risk.domain.request.CheckOrderRiskRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 生单前置并行调用阶段测试，使用本地桩实现的远程接口模拟调用延迟
+ */
+public class CreateOrderPrepareStageTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldCostAboutSlowestChainInsteadOfSum() {
+        CreateOrderPrepareStage stage = new CreateOrderPrepareStage(executor, 3000L);
+        StubRiskRemote riskRemote = new StubRiskRemote(300, false);
+        StubProductRemote productRemote = new StubProductRemote(300);
+        StubMarketRemote marketRemote = new StubMarketRemote(300);
+
+        long start = System.currentTimeMillis();
+        CreateOrderPrepareStage.PrepareResult result = stage.prepare(
+                () -> riskRemote.checkOrderRisk(new CheckOrderRiskRequest()),
+                () -> sleep(300),
+                () -> productRemote.listProductSku(Collections.singletonList("sku001"), "seller001"),
+                productSkus -> marketRemote.calculateOrderAmount(new CalculateOrderAmountRequest()));
+        long cost = System.currentTimeMillis() - start;
+
+        // 串行约1200ms，并行后为 商品+算价 约600ms
+        assertTrue("cost=" + cost, cost < 1000);
+        assertEquals(1, result.getProductSkuList().size());
+        assertNotNull(result.getCalculateOrderAmountDTO());
+    }
+
+    @Test
+    public void shouldCalculateAmountAsSoonAsProductSkusReturned() {
+        CreateOrderPrepareStage stage = new CreateOrderPrepareStage(executor, 3000L);
+        StubRiskRemote riskRemote = new StubRiskRemote(800, false);
+        StubProductRemote productRemote = new StubProductRemote(100);
+        StubMarketRemote marketRemote = new StubMarketRemote(100);
+
+        long start = System.currentTimeMillis();
+        stage.prepare(
+                () -> riskRemote.checkOrderRisk(new CheckOrderRiskRequest()),
+                () -> sleep(800),
+                () -> productRemote.listProductSku(Collections.singletonList("sku001"), "seller001"),
+                productSkus -> marketRemote.calculateOrderAmount(new CalculateOrderAmountRequest()));
+
+        // 算价不等待风控和查重
+        long marketStartOffset = marketRemote.startTime.get() - start;
+        assertTrue("marketStartOffset=" + marketStartOffset, marketStartOffset < 500);
+    }
+
+    @Test
+    public void shouldFailFastWhenAnyCallFails() {
+        CreateOrderPrepareStage stage = new CreateOrderPrepareStage(executor, 5000L);
+        StubRiskRemote riskRemote = new StubRiskRemote(50, true);
+        StubProductRemote productRemote = new StubProductRemote(2000);
+        StubMarketRemote marketRemote = new StubMarketRemote(100);
+
+        long start = System.currentTimeMillis();
+        try {
+            stage.prepare(
+                    () -> riskRemote.checkOrderRisk(new CheckOrderRiskRequest()),
+                    () -> sleep(10),
+                    () -> productRemote.listProductSku(Collections.singletonList("sku001"), "seller001"),
+                    productSkus -> marketRemote.calculateOrderAmount(new CalculateOrderAmountRequest()));
+            fail("risk check should fail");
+        } catch (OrderBizException e) {
+            assertEquals("risk reject", e.getErrorMsg());
+        }
+        long cost = System.currentTimeMillis() - start;
+        assertTrue("cost=" + cost, cost < 1000);
+        assertEquals(0L, marketRemote.startTime.get());
+    }
+
+    @Test
+    public void shouldTimeoutWithOneDeadline() {
+        CreateOrderPrepareStage stage = new CreateOrderPrepareStage(executor, 200L);
+        StubRiskRemote riskRemote = new StubRiskRemote(10, false);
+        StubProductRemote productRemote = new StubProductRemote(150);
+        StubMarketRemote marketRemote = new StubMarketRemote(150);
+
+        try {
+            stage.prepare(
+                    () -> riskRemote.checkOrderRisk(new CheckOrderRiskRequest()),
+                    () -> sleep(10),
+                    () -> productRemote.listProductSku(Collections.singletonList("sku001"), "seller001"),
+                    productSkus -> marketRemote.calculateOrderAmount(new CalculateOrderAmountRequest()));
+            fail("should timeout");
+        } catch (OrderBizException e) {
+            assertEquals(OrderErrorCodeEnum.CREATE_ORDER_PREPARE_TIMEOUT.getErrorCode(), e.getErrorCode());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class StubRiskRemote extends RiskRemote {
+
+        private final long delay;
+
+        private final boolean reject;
+
+        StubRiskRemote(long delay, boolean reject) {
+            this.delay = delay;
+            this.reject = reject;
+        }
+
+        @Override
+        public CheckOrderRiskDTO checkOrderRisk(CheckOrderRiskRequest checkOrderRiskRequest) {
+            sleep(delay);
+            if (reject) {
+                throw new OrderBizException("risk reject");
+            }
+            return new CheckOrderRiskDTO();
+        }
+    }
+
+    private static class StubProductRemote extends ProductRemote {
+
+        private final long delay;
+
+        StubProductRemote(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public List<ProductSkuDTO> listProductSku(List<String> skuCodeList, String sellerId) {
+            sleep(delay);
+            ProductSkuDTO productSkuDTO = new ProductSkuDTO();
+            productSkuDTO.setSkuCode(skuCodeList.get(0));
+            productSkuDTO.setSalePrice(1000);
+            return Collections.singletonList(productSkuDTO);
+        }
+    }
+
+    private static class StubMarketRemote extends MarketRemote {
+
+        private final long delay;
+
+        private final AtomicLong startTime = new AtomicLong();
+
+        StubMarketRemote(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public CalculateOrderAmountDTO calculateOrderAmount(CalculateOrderAmountRequest calculateOrderPriceRequest) {
+            startTime.set(System.currentTimeMillis());
+            sleep(delay);
+            return new CalculateOrderAmountDTO();
+        }
+    }
+}
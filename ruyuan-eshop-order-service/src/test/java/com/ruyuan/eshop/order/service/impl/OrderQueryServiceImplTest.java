@@ -0,0 +1,355 @@
+package com.ruyuan.eshop.order.service.impl;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.ruyuan.eshop.common.config.MybatisPlusConfig;
+import com.ruyuan.eshop.common.enums.OrderStatusEnum;
+import com.ruyuan.eshop.common.page.PagingInfo;
+import com.ruyuan.eshop.order.H2MybatisTestSupport;
+import com.ruyuan.eshop.order.config.OrderProperties;
+import com.ruyuan.eshop.order.converter.OrderConverterImpl;
+import com.ruyuan.eshop.order.dao.OrderInfoDAO;
+import com.ruyuan.eshop.order.domain.dto.OrderListDTO;
+import com.ruyuan.eshop.order.domain.dto.OrderListQueryDTO;
+import com.ruyuan.eshop.order.domain.entity.OrderDeliveryDetailDO;
+import com.ruyuan.eshop.order.domain.entity.OrderInfoDO;
+import com.ruyuan.eshop.order.domain.entity.OrderItemDO;
+import com.ruyuan.eshop.order.domain.entity.OrderPaymentDetailDO;
+import com.ruyuan.eshop.order.domain.query.OrderQuery;
+import com.ruyuan.eshop.order.exception.OrderBizException;
+import com.ruyuan.eshop.order.exception.OrderErrorCodeEnum;
+import com.ruyuan.eshop.order.mapper.OrderDeliveryDetailMapper;
+import com.ruyuan.eshop.order.mapper.OrderInfoMapper;
+import com.ruyuan.eshop.order.mapper.OrderItemMapper;
+import com.ruyuan.eshop.order.mapper.OrderPaymentDetailMapper;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static com.ruyuan.eshop.order.H2MybatisTestSupport.mapper;
+import static org.junit.Assert.*;
+
+/**
+ * 订单列表游标翻页测试：在H2上生成订单数据，游标翻页遍历的结果和原来按页码翻页遍历的结果一致
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = OrderQueryServiceImplTest.Config.class)
+public class OrderQueryServiceImplTest {
+
+    private static final List<Class<?>> ENTITY_CLASSES = Arrays.asList(
+            OrderInfoDO.class, OrderItemDO.class, OrderPaymentDetailDO.class, OrderDeliveryDetailDO.class);
+
+    private static final int ORDER_COUNT = 240;
+
+    /**
+     * 订单创建时间的起点，很多订单的创建时间相同，验证同一秒内的订单按主键翻页不重不漏
+     */
+    private static final long BASE_TIME = 1640966400000L;
+
+    private static final String[] SKU_CODES = {"10101010", "10101011", "10101012", "10101013"};
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OrderInfoDAO orderInfoDAO;
+
+    private OrderQueryServiceImpl orderQueryService;
+
+    private OrderProperties orderProperties;
+
+    @Autowired
+    private OrderInfoMapper orderInfoMapper;
+
+    private final OrderConverterImpl orderConverter = new OrderConverterImpl();
+
+    private static boolean dataReady;
+
+    @Before
+    public void setUp() {
+        orderProperties = new OrderProperties();
+        orderQueryService = new OrderQueryServiceImpl();
+        ReflectionTestUtils.setField(orderQueryService, "orderInfoDAO", orderInfoDAO);
+        ReflectionTestUtils.setField(orderQueryService, "orderConverter", orderConverter);
+        ReflectionTestUtils.setField(orderQueryService, "orderProperties", orderProperties);
+        if (!dataReady) {
+            createTables();
+            insertOrders();
+            dataReady = true;
+        }
+    }
+
+    @Test
+    public void shouldMatchOffsetPagingWithoutConditions() {
+        assertSameAsOffsetPaging(OrderQuery::new);
+    }
+
+    @Test
+    public void shouldMatchOffsetPagingWithOrderInfoConditions() {
+        assertSameAsOffsetPaging(() -> {
+            OrderQuery query = new OrderQuery();
+            query.setUserIds(new HashSet<>(Arrays.asList("100", "101", "103")));
+            query.setOrderStatus(new HashSet<>(Arrays.asList(OrderStatusEnum.CREATED.getCode(),
+                    OrderStatusEnum.PAID.getCode())));
+            query.setCreatedTimeInterval(Pair.of(gmtCreate(30), gmtCreate(200)));
+            query.setPayAmountInterval(Pair.of(9000, 9800));
+            return query;
+        });
+    }
+
+    @Test
+    public void shouldMatchOffsetPagingWithDetailConditions() {
+        assertSameAsOffsetPaging(() -> {
+            OrderQuery query = new OrderQuery();
+            query.setSkuCodes(new HashSet<>(Arrays.asList(SKU_CODES[1], SKU_CODES[3])));
+            query.setReceiverNames(new HashSet<>(Arrays.asList("收货人0", "收货人2")));
+            return query;
+        });
+        assertSameAsOffsetPaging(() -> {
+            OrderQuery query = new OrderQuery();
+            Set<String> tradeNos = new HashSet<>();
+            for (int i = 0; i < ORDER_COUNT; i += 3) {
+                tradeNos.add(tradeNo(i));
+            }
+            query.setTradeNos(tradeNos);
+            query.setProductNames(Collections.singleton("商品" + SKU_CODES[0]));
+            return query;
+        });
+    }
+
+    @Test
+    public void shouldCompareCreatedTimeBySecond() {
+        // 左边界带毫秒，按秒比较时同一秒创建的订单也要查出来
+        OrderQuery query = cursorQuery(new OrderQuery(), 100, null);
+        query.setCreatedTimeInterval(Pair.of(new Date(gmtCreate(120).getTime() + 500),
+                new Date(gmtCreate(120).getTime() + 999)));
+        List<String> orderIds = distinctOrderIds(orderQueryService.executeListQuery(query).getList());
+        List<String> expected = new ArrayList<>();
+        for (int i = 123; i >= 120; i--) {
+            if (i % 11 != 0 && i % 13 != 0) {
+                expected.add(orderId(i));
+            }
+        }
+        assertEquals(new HashSet<>(expected), new HashSet<>(orderIds));
+    }
+
+    @Test
+    public void shouldCountUpToLimit() {
+        OrderQuery query = cursorQuery(new OrderQuery(), 10, null);
+        query.setNeedTotal(true);
+        PagingInfo<OrderListDTO> page = orderQueryService.executeListQuery(query);
+        long expected = distinctOrderIds(offsetTraversal(OrderQuery::new, 50)).size();
+        assertEquals(Long.valueOf(expected), page.getTotal());
+        assertEquals(Boolean.FALSE, page.getApproximateTotal());
+
+        orderProperties.setListCountLimit(20);
+        query = cursorQuery(new OrderQuery(), 10, null);
+        query.setNeedTotal(true);
+        page = orderQueryService.executeListQuery(query);
+        assertEquals(Long.valueOf(20), page.getTotal());
+        assertEquals(Boolean.TRUE, page.getApproximateTotal());
+
+        // 默认不统计总条数
+        page = orderQueryService.executeListQuery(cursorQuery(new OrderQuery(), 10, null));
+        assertNull(page.getTotal());
+    }
+
+    @Test
+    public void shouldRejectInvalidCursor() {
+        for (String cursor : Arrays.asList("not a cursor", "MTIz", "YSxi")) {
+            try {
+                orderQueryService.executeListQuery(cursorQuery(new OrderQuery(), 10, cursor));
+                fail(cursor);
+            } catch (OrderBizException e) {
+                assertEquals(OrderErrorCodeEnum.ORDER_LIST_CURSOR_INVALID.getErrorCode(), e.getErrorCode());
+            }
+        }
+    }
+
+    private void assertSameAsOffsetPaging(Supplier<OrderQuery> querySupplier) {
+        List<OrderListDTO> offsetRows = offsetTraversal(querySupplier, 7);
+        assertFalse(offsetRows.isEmpty());
+        for (int pageSize : new int[]{1, 5, 13, 100}) {
+            List<OrderListDTO> cursorRows = cursorTraversal(querySupplier, pageSize);
+            assertEquals("pageSize=" + pageSize, distinctOrderIds(offsetRows), distinctOrderIds(cursorRows));
+            assertEquals("pageSize=" + pageSize, sorted(offsetRows), sorted(cursorRows));
+        }
+    }
+
+    /**
+     * 按页码翻页遍历，直接执行原来的分页SQL，不依赖count的结果
+     */
+    private List<OrderListDTO> offsetTraversal(Supplier<OrderQuery> querySupplier, int pageSize) {
+        OrderQuery query = querySupplier.get();
+        if (query.getOrderStatus() == null) {
+            query.setOrderStatus(OrderStatusEnum.validStatus());
+        }
+        OrderListQueryDTO queryDTO = orderConverter.orderListQuery2DTO(query);
+        List<OrderListDTO> rows = new ArrayList<>();
+        for (int pageNo = 1; ; pageNo++) {
+            List<OrderListDTO> records = orderInfoMapper.listByPage(new Page<>(pageNo, pageSize, false), queryDTO)
+                    .getRecords();
+            rows.addAll(records);
+            if (records.size() < pageSize) {
+                return rows;
+            }
+        }
+    }
+
+    private List<OrderListDTO> cursorTraversal(Supplier<OrderQuery> querySupplier, int pageSize) {
+        List<OrderListDTO> rows = new ArrayList<>();
+        String cursor = null;
+        do {
+            PagingInfo<OrderListDTO> page = orderQueryService.executeListQuery(
+                    cursorQuery(querySupplier.get(), pageSize, cursor));
+            List<String> orderIds = distinctOrderIds(page.getList());
+            assertTrue(orderIds.size() <= pageSize);
+            if (page.getNextCursor() != null) {
+                assertEquals(pageSize, orderIds.size());
+            }
+            rows.addAll(page.getList());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return rows;
+    }
+
+    private static OrderQuery cursorQuery(OrderQuery query, int pageSize, String cursor) {
+        query.setCursorPaging(true);
+        query.setPageSize(pageSize);
+        query.setCursor(cursor);
+        return query;
+    }
+
+    /**
+     * 按顺序去重后的订单号，同一个订单的多行是连续的
+     */
+    private static List<String> distinctOrderIds(List<OrderListDTO> rows) {
+        List<String> orderIds = new ArrayList<>();
+        for (OrderListDTO row : rows) {
+            if (orderIds.isEmpty() || !orderIds.get(orderIds.size() - 1).equals(row.getOrderId())) {
+                assertFalse(row.getOrderId(), orderIds.contains(row.getOrderId()));
+                orderIds.add(row.getOrderId());
+            }
+        }
+        return orderIds;
+    }
+
+    private static List<OrderListDTO> sorted(List<OrderListDTO> rows) {
+        List<OrderListDTO> sorted = new ArrayList<>(rows);
+        sorted.sort(Comparator.comparing(OrderListDTO::getOrderId)
+                .thenComparing(OrderListDTO::getSkuCode, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return sorted;
+    }
+
+    private void insertOrders() {
+        Random random = new Random(17);
+        // 主键顺序和创建时间顺序不一致
+        List<Integer> sequence = new ArrayList<>();
+        for (int i = 0; i < ORDER_COUNT; i++) {
+            sequence.add(i);
+        }
+        Collections.shuffle(sequence, random);
+        for (int i : sequence) {
+            String orderId = orderId(i);
+            int orderStatus = i % 11 == 0 ? OrderStatusEnum.INVALID.getCode()
+                    : (i % 2 == 0 ? OrderStatusEnum.CREATED.getCode() : OrderStatusEnum.PAID.getCode());
+            jdbcTemplate.update("INSERT INTO order_info (business_identifier, order_id, order_type, order_status,"
+                            + " seller_id, user_id, pay_type, pay_amount, pay_time, delete_status, comment_status,"
+                            + " gmt_create, gmt_modified) VALUES (1, ?, 1, ?, '101', ?, 10, ?, ?, ?, 0, ?, ?)",
+                    orderId, orderStatus, String.valueOf(100 + i % 7), 9000 + random.nextInt(1000),
+                    gmtCreate(i), i % 13 == 0 ? 1 : 0, gmtCreate(i), gmtCreate(i));
+            // 少数订单没有订单条目
+            int itemCount = i % 17 == 0 ? 0 : 1 + random.nextInt(3);
+            for (int item = 0; item < itemCount; item++) {
+                String skuCode = SKU_CODES[(i + item) % SKU_CODES.length];
+                jdbcTemplate.update("INSERT INTO order_item (order_id, order_item_id, product_img, product_name,"
+                                + " sku_code, sale_quantity, pay_amount, gmt_create, gmt_modified)"
+                                + " VALUES (?, ?, 'test.img', ?, ?, ?, ?, ?, ?)",
+                        orderId, orderId + "00" + item, "商品" + skuCode, skuCode, 1 + item, 3000,
+                        gmtCreate(i), gmtCreate(i));
+            }
+            jdbcTemplate.update("INSERT INTO order_payment_detail (order_id, pay_type, pay_amount, out_trade_no,"
+                    + " gmt_create, gmt_modified) VALUES (?, 10, 9000, ?, ?, ?)", orderId, tradeNo(i), gmtCreate(i), gmtCreate(i));
+            jdbcTemplate.update("INSERT INTO order_delivery_detail (order_id, receiver_name, receiver_phone,"
+                            + " gmt_create, gmt_modified) VALUES (?, ?, '13434545545', ?, ?)",
+                    orderId, "收货人" + i % 5, gmtCreate(i), gmtCreate(i));
+        }
+    }
+
+    /**
+     * 每4个订单创建时间相同
+     */
+    private static Date gmtCreate(int i) {
+        return new Date(BASE_TIME + (i / 4) * 1000L);
+    }
+
+    private static String orderId(int i) {
+        return String.valueOf(1011250000000010000L + i);
+    }
+
+    private static String tradeNo(int i) {
+        return String.valueOf(2021000000000000000L + i);
+    }
+
+    private void createTables() {
+        H2MybatisTestSupport.createTables(jdbcTemplate, ENTITY_CLASSES);
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public DataSource dataSource() {
+            return H2MybatisTestSupport.dataSource("order_list_query");
+        }
+
+        @Bean
+        public SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+            return H2MybatisTestSupport.sqlSessionFactory(dataSource, new MybatisPlusConfig().mybatisPlusInterceptor(),
+                    "mapper/OrderInfoMapper.xml");
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderInfoMapper> orderInfoMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderInfoMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderItemMapper> orderItemMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderItemMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderPaymentDetailMapper> orderPaymentDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderPaymentDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public MapperFactoryBean<OrderDeliveryDetailMapper> orderDeliveryDetailMapper(SqlSessionFactory sqlSessionFactory) {
+            return mapper(OrderDeliveryDetailMapper.class, sqlSessionFactory);
+        }
+
+        @Bean
+        public OrderInfoDAO orderInfoDAO() {
+            return new OrderInfoDAO();
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+    }
+}
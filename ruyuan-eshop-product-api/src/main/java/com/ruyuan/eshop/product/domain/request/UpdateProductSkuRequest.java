@@ -0,0 +1,47 @@
+package com.ruyuan.eshop.product.domain.request;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 修改商品sku请求，为空的字段不修改
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Data
+public class UpdateProductSkuRequest implements Serializable {
+
+    private static final long serialVersionUID = 3150436723401856017L;
+
+    /**
+     * 商品SKU编码
+     */
+    private String skuCode;
+
+    /**
+     * 商品名称
+     */
+    private String productName;
+
+    /**
+     * 商品图片
+     */
+    private String productImg;
+
+    /**
+     * 商品单位
+     */
+    private String productUnit;
+
+    /**
+     * 商品销售价格
+     */
+    private Integer salePrice;
+
+    /**
+     * 商品采购价格
+     */
+    private Integer purchasePrice;
+}
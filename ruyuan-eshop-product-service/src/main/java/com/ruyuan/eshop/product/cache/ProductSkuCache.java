@@ -0,0 +1,300 @@
+package com.ruyuan.eshop.product.cache;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.ruyuan.eshop.product.converter.ProductConverter;
+import com.ruyuan.eshop.product.dao.ProductSkuDAO;
+import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
+import com.ruyuan.eshop.product.domain.entity.ProductSkuDO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 商品sku两级缓存
+ * <p>
+ * 一级是本地有界缓存，写入后{@link #localExpireSeconds}秒过期；二级是redis里每个sku一个hash。
+ * 批量查询时本地缺失的sku一次管道读redis，redis也缺失的sku用一条IN查询回源数据库，并按版本号回填redis。
+ * 多个请求同时缺失同一个sku时，只有一个请求回源，其他请求等它的结果。
+ * </p>
+ * <p>
+ * 本机写sku的事务提交后通过{@link ProductSkuChangedEvent}失效两级缓存；其他机器的本地缓存只能等过期，
+ * 所以sku写入后最多{@link #localExpireSeconds}秒内可能读到旧数据
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Slf4j
+@Component
+public class ProductSkuCache {
+
+    @Autowired
+    private ProductSkuDAO productSkuDAO;
+
+    @Autowired
+    private ProductConverter productConverter;
+
+    @Autowired
+    private ProductSkuRedisCache productSkuRedisCache;
+
+    /**
+     * 本地缓存最多缓存的sku个数
+     */
+    @Value("${product.sku-cache.local-maximum-size:10000}")
+    private long localMaximumSize = 10000;
+
+    /**
+     * 本地缓存写入后的过期秒数，也是其他机器写sku后本机读到旧数据的最长时间
+     */
+    @Value("${product.sku-cache.local-expire-seconds:5}")
+    private long localExpireSeconds = 5;
+
+    private Ticker ticker = Ticker.systemTicker();
+
+    private Cache<String, ProductSkuCacheEntry> localCache;
+
+    /**
+     * 正在回源的sku，同一个sku同时只有一个请求回源
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<ProductSkuCacheEntry>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * 失效次数，回源期间发生过失效的结果不放入本地缓存
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder localHits = new LongAdder();
+
+    private final LongAdder localMisses = new LongAdder();
+
+    private final LongAdder remoteHits = new LongAdder();
+
+    private final LongAdder dbQueries = new LongAdder();
+
+    private final LongAdder dbLoads = new LongAdder();
+
+    private final LongAdder coalescedWaits = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        localCache = CacheBuilder.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localExpireSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * 批量查询sku
+     *
+     * @param skuCodeList sku编码，可以重复
+     * @return skuCode -> sku信息，按入参顺序，不存在的sku不返回
+     */
+    public Map<String, ProductSkuDTO> getAll(Collection<String> skuCodeList) {
+        Set<String> skuCodes = new LinkedHashSet<>(skuCodeList);
+        Map<String, ProductSkuCacheEntry> entries = new HashMap<>(localCache.getAllPresent(skuCodes));
+        localHits.add(entries.size());
+
+        List<String> misses = new ArrayList<>();
+        for (String skuCode : skuCodes) {
+            if (!entries.containsKey(skuCode)) {
+                misses.add(skuCode);
+            }
+        }
+        if (!misses.isEmpty()) {
+            localMisses.add(misses.size());
+            entries.putAll(load(misses));
+        }
+
+        Map<String, ProductSkuDTO> result = new LinkedHashMap<>(skuCodes.size() * 2);
+        for (String skuCode : skuCodes) {
+            ProductSkuCacheEntry entry = entries.get(skuCode);
+            if (entry != null && entry.getValue() != null) {
+                result.put(skuCode, entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 失效sku的两级缓存
+     *
+     * @param skuCodeList sku编码
+     */
+    public void invalidate(Collection<String> skuCodeList) {
+        productSkuRedisCache.invalidate(skuCodeList);
+        invalidations.incrementAndGet();
+        localCache.invalidateAll(skuCodeList);
+    }
+
+    /**
+     * 事务提交后失效，不在事务中时立即失效；提交前失效的话，并发的读请求可能把未提交前的旧数据回填进缓存
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductSkuChanged(ProductSkuChangedEvent event) {
+        invalidate(event.getSkuCodeList());
+    }
+
+    /**
+     * 命中统计
+     */
+    public Stats stats() {
+        return new Stats(localHits.sum(), localMisses.sum(), remoteHits.sum(),
+                dbQueries.sum(), dbLoads.sum(), coalescedWaits.sum());
+    }
+
+    /**
+     * 本地缓存缺失的sku：没有其他请求在回源的由当前请求回源，其余的等待其他请求的结果
+     */
+    private Map<String, ProductSkuCacheEntry> load(List<String> skuCodeList) {
+        Map<String, CompletableFuture<ProductSkuCacheEntry>> owned = new LinkedHashMap<>();
+        Map<String, CompletableFuture<ProductSkuCacheEntry>> waiting = new HashMap<>();
+        for (String skuCode : skuCodeList) {
+            CompletableFuture<ProductSkuCacheEntry> future = new CompletableFuture<>();
+            CompletableFuture<ProductSkuCacheEntry> existing = loading.putIfAbsent(skuCode, future);
+            if (existing == null) {
+                owned.put(skuCode, future);
+            } else {
+                waiting.put(skuCode, existing);
+            }
+        }
+
+        Map<String, ProductSkuCacheEntry> loaded = new HashMap<>(skuCodeList.size() * 2);
+        if (!owned.isEmpty()) {
+            try {
+                loaded.putAll(loadFromRemote(new ArrayList<>(owned.keySet())));
+                for (Map.Entry<String, CompletableFuture<ProductSkuCacheEntry>> entry : owned.entrySet()) {
+                    entry.getValue().complete(loaded.get(entry.getKey()));
+                }
+            } catch (RuntimeException e) {
+                for (CompletableFuture<ProductSkuCacheEntry> future : owned.values()) {
+                    future.completeExceptionally(e);
+                }
+                throw e;
+            } finally {
+                for (Map.Entry<String, CompletableFuture<ProductSkuCacheEntry>> entry : owned.entrySet()) {
+                    loading.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        if (!waiting.isEmpty()) {
+            coalescedWaits.add(waiting.size());
+            for (Map.Entry<String, CompletableFuture<ProductSkuCacheEntry>> entry : waiting.entrySet()) {
+                loaded.put(entry.getKey(), join(entry.getValue()));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 先读redis，redis缺失的sku一条IN查询回源数据库再回填redis，最后放入本地缓存
+     */
+    private Map<String, ProductSkuCacheEntry> loadFromRemote(List<String> skuCodeList) {
+        long generation = invalidations.get();
+
+        Map<String, ProductSkuCacheEntry> remoteEntries = multiGetQuietly(skuCodeList);
+        Map<String, ProductSkuCacheEntry> loaded = new HashMap<>(skuCodeList.size() * 2);
+        List<String> remoteMisses = new ArrayList<>();
+        for (String skuCode : skuCodeList) {
+            ProductSkuCacheEntry entry = remoteEntries.get(skuCode);
+            if (entry != null && entry.getValue() != null) {
+                loaded.put(skuCode, entry);
+            } else {
+                remoteMisses.add(skuCode);
+            }
+        }
+        remoteHits.add(loaded.size());
+
+        if (!remoteMisses.isEmpty()) {
+            dbQueries.increment();
+            List<ProductSkuDO> productSkuDOList = productSkuDAO.listProductSkuByCode(remoteMisses);
+            dbLoads.add(productSkuDOList.size());
+
+            Map<String, ProductSkuCacheEntry> dbEntries = new HashMap<>(productSkuDOList.size() * 2);
+            for (ProductSkuDO productSkuDO : productSkuDOList) {
+                ProductSkuCacheEntry remoteEntry = remoteEntries.get(productSkuDO.getSkuCode());
+                long version = remoteEntry == null ? 0L : remoteEntry.getVersion();
+                dbEntries.put(productSkuDO.getSkuCode(),
+                        new ProductSkuCacheEntry(version, productConverter.convert(productSkuDO)));
+            }
+            if (!remoteEntries.isEmpty()) {
+                putIfVersionQuietly(dbEntries);
+            }
+            loaded.putAll(dbEntries);
+        }
+
+        if (invalidations.get() == generation) {
+            localCache.putAll(loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * redis不可用时直接回源数据库
+     */
+    private Map<String, ProductSkuCacheEntry> multiGetQuietly(List<String> skuCodeList) {
+        try {
+            return productSkuRedisCache.multiGet(skuCodeList);
+        } catch (Exception e) {
+            log.warn("读取商品sku缓存失败，直接查询数据库, skuCodeList={}", skuCodeList, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    private void putIfVersionQuietly(Map<String, ProductSkuCacheEntry> entries) {
+        try {
+            productSkuRedisCache.putIfVersion(entries);
+        } catch (Exception e) {
+            log.warn("回填商品sku缓存失败, skuCodes={}", entries.keySet(), e);
+        }
+    }
+
+    private static ProductSkuCacheEntry join(CompletableFuture<ProductSkuCacheEntry> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 命中统计，单位都是sku个数，dbQueries是回源数据库的查询次数
+     */
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Stats {
+
+        private final long localHits;
+
+        private final long localMisses;
+
+        private final long remoteHits;
+
+        private final long dbQueries;
+
+        private final long dbLoads;
+
+        private final long coalescedWaits;
+    }
+}
@@ -0,0 +1,27 @@
+package com.ruyuan.eshop.product.cache;
+
+import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 带版本号的商品sku缓存条目
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Getter
+@AllArgsConstructor
+public class ProductSkuCacheEntry {
+
+    /**
+     * 写入时redis里该sku的版本号，每次失效加1
+     */
+    private final long version;
+
+    /**
+     * sku信息，为null表示redis里只有版本号（已失效）
+     */
+    private final ProductSkuDTO value;
+
+}
@@ -0,0 +1,23 @@
+package com.ruyuan.eshop.product.cache;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.List;
+
+/**
+ * 商品sku变更事件，写sku后发布，缓存在事务提交后失效对应的sku
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Getter
+public class ProductSkuChangedEvent extends ApplicationEvent {
+
+    private final List<String> skuCodeList;
+
+    public ProductSkuChangedEvent(Object source, List<String> skuCodeList) {
+        super(source);
+        this.skuCodeList = skuCodeList;
+    }
+}
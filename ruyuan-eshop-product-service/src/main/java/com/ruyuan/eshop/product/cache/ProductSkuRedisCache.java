@@ -0,0 +1,150 @@
+package com.ruyuan.eshop.product.cache;
+
+import com.alibaba.fastjson.JSONObject;
+import com.ruyuan.eshop.common.redis.RedisCache;
+import com.ruyuan.eshop.product.constants.ProductConstant;
+import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 商品sku的redis缓存（二级缓存）
+ * <p>
+ * 每个sku一个hash：version是版本号，value是sku的json。
+ * 写sku时版本号加1并删掉value，只留下版本号；回填时只有版本号和读取时一致才写入，
+ * 失效之前读到的旧数据不会覆盖回去。多个key需要落在同一个redis节点（当前为单机部署）
+ * </p>
+ *
+ * @author zhonghuashishan
+ * @version 1.0
+ */
+@Component
+public class ProductSkuRedisCache {
+
+    private static final String VERSION = "version";
+
+    private static final String VALUE = "value";
+
+    private static final byte[] VERSION_BYTES = VERSION.getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] VALUE_BYTES = VALUE.getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 批量回填：KEYS为sku缓存key，ARGV[1]为过期秒数，之后每个key依次是读取时的版本号、json
+     */
+    private static final RedisScript<Long> PUT_IF_VERSION = new DefaultRedisScript<>(
+            "local written = 0 "
+                    + "for i, key in ipairs(KEYS) do "
+                    + "    local expected = ARGV[2 * i] "
+                    + "    local version = redis.call('hget', key, '" + VERSION + "') "
+                    + "    if (version or '0') == expected then "
+                    + "        redis.call('hmset', key, '" + VERSION + "', expected, '" + VALUE + "', ARGV[2 * i + 1]) "
+                    + "        redis.call('expire', key, ARGV[1]) "
+                    + "        written = written + 1 "
+                    + "    end "
+                    + "end "
+                    + "return written", Long.class);
+
+    /**
+     * 批量失效：KEYS为sku缓存key，ARGV[1]为版本号的保留秒数
+     */
+    private static final RedisScript<Long> INVALIDATE = new DefaultRedisScript<>(
+            "for i, key in ipairs(KEYS) do "
+                    + "    redis.call('hincrby', key, '" + VERSION + "', 1) "
+                    + "    redis.call('hdel', key, '" + VALUE + "') "
+                    + "    redis.call('expire', key, ARGV[1]) "
+                    + "end "
+                    + "return #KEYS", Long.class);
+
+    @Autowired
+    private RedisCache redisCache;
+
+    /**
+     * 缓存过期秒数，失效后留下的版本号也保留这么久
+     */
+    @Value("${product.sku-cache.remote-expire-seconds:1800}")
+    private int expireSeconds = 1800;
+
+    /**
+     * 一次管道批量读取
+     *
+     * @param skuCodeList sku编码
+     * @return skuCode -> 缓存条目，redis里没有这个key时版本号为0、value为null
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, ProductSkuCacheEntry> multiGet(List<String> skuCodeList) {
+        RedisTemplate<String, String> redisTemplate = redisCache.getRedisTemplate();
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String skuCode : skuCodeList) {
+                connection.hMGet(rawKey(skuCode), VERSION_BYTES, VALUE_BYTES);
+            }
+            return null;
+        });
+
+        Map<String, ProductSkuCacheEntry> entries = new HashMap<>(skuCodeList.size() * 2);
+        for (int i = 0; i < skuCodeList.size(); i++) {
+            List<String> fields = (List<String>) results.get(i);
+            String version = fields == null ? null : fields.get(0);
+            String value = fields == null ? null : fields.get(1);
+            entries.put(skuCodeList.get(i), new ProductSkuCacheEntry(
+                    version == null ? 0L : Long.parseLong(version),
+                    value == null ? null : JSONObject.parseObject(value, ProductSkuDTO.class)));
+        }
+        return entries;
+    }
+
+    /**
+     * 批量回填，版本号和读取时不一致（期间被失效过）的sku不写入
+     *
+     * @param entries skuCode -> 读取时的版本号和从数据库查到的数据
+     * @return 实际写入的个数
+     */
+    public long putIfVersion(Map<String, ProductSkuCacheEntry> entries) {
+        if (entries.isEmpty()) {
+            return 0L;
+        }
+        List<String> keys = new ArrayList<>(entries.size());
+        String[] args = new String[entries.size() * 2 + 1];
+        args[0] = String.valueOf(expireSeconds);
+        int i = 1;
+        for (Map.Entry<String, ProductSkuCacheEntry> entry : entries.entrySet()) {
+            keys.add(key(entry.getKey()));
+            args[i++] = String.valueOf(entry.getValue().getVersion());
+            args[i++] = JSONObject.toJSONString(entry.getValue().getValue());
+        }
+        Long written = redisCache.execute(PUT_IF_VERSION, keys, args);
+        return written == null ? 0L : written;
+    }
+
+    /**
+     * 批量失效，版本号加1
+     *
+     * @param skuCodeList sku编码
+     */
+    public void invalidate(Collection<String> skuCodeList) {
+        if (skuCodeList.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(skuCodeList.size());
+        for (String skuCode : skuCodeList) {
+            keys.add(key(skuCode));
+        }
+        redisCache.execute(INVALIDATE, keys, String.valueOf(expireSeconds));
+    }
+
+    private static String key(String skuCode) {
+        return ProductConstant.PRODUCT_SKU_CACHE_KEY_PREFIX + skuCode;
+    }
+
+    private static byte[] rawKey(String skuCode) {
+        return key(skuCode).getBytes(StandardCharsets.UTF_8);
+    }
+}
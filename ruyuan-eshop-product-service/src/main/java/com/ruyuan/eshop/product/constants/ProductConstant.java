@@ -7,5 +7,9 @@ package com.ruyuan.eshop.product.constants;
  */
 public class ProductConstant {
 
+    /**
+     * 商品sku缓存key前缀，每个sku一个hash：version、value
+     */
+    public static final String PRODUCT_SKU_CACHE_KEY_PREFIX = "product:sku:";
 
 }
@@ -1,14 +1,13 @@
 package com.ruyuan.eshop.product.controller;
 
+import com.ruyuan.eshop.common.core.JsonResult;
 import com.ruyuan.eshop.product.converter.ProductConverter;
 import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
+import com.ruyuan.eshop.product.domain.request.UpdateProductSkuRequest;
 import com.ruyuan.eshop.product.domain.vo.ProductSkuVO;
 import com.ruyuan.eshop.product.service.ProductSkuService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
 
 /**
  * @author zhonghuashishan
@@ -39,5 +38,16 @@ public class ProductController {
         return productConverter.convert(productSkuDTO);
     }
 
+    /**
+     * 修改商品sku信息
+     *
+     * @return
+     */
+    @PostMapping("/updateProductSku")
+    public JsonResult<Boolean> updateProductSku(@RequestBody UpdateProductSkuRequest request) {
+        productSkuService.updateProductSku(request);
+        return JsonResult.buildSuccess(true);
+    }
+
 
 }
\ No newline at end of file
@@ -1,11 +1,16 @@
 package com.ruyuan.eshop.product.dao;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.ruyuan.eshop.common.dao.BaseDAO;
+import com.ruyuan.eshop.product.cache.ProductSkuChangedEvent;
 import com.ruyuan.eshop.product.domain.entity.ProductSkuDO;
 import com.ruyuan.eshop.product.mapper.ProductSkuMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -18,6 +23,9 @@ import java.util.List;
 @Repository
 public class ProductSkuDAO extends BaseDAO<ProductSkuMapper, ProductSkuDO> {
 
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
     /**
      * 根据skuCode获取商品信息
      *
@@ -42,4 +50,21 @@ public class ProductSkuDAO extends BaseDAO<ProductSkuMapper, ProductSkuDO> {
         return list(queryWrapper);
     }
 
+    /**
+     * 根据skuCode更新商品信息，有更新时发布sku变更事件，缓存在事务提交后失效
+     *
+     * @param productSkuDO
+     * @return
+     */
+    public boolean updateBySkuCode(ProductSkuDO productSkuDO) {
+        UpdateWrapper<ProductSkuDO> updateWrapper = new UpdateWrapper<>();
+        updateWrapper.eq("sku_code", productSkuDO.getSkuCode());
+        boolean updated = update(productSkuDO, updateWrapper);
+        if (updated) {
+            applicationEventPublisher.publishEvent(new ProductSkuChangedEvent(this,
+                    Collections.singletonList(productSkuDO.getSkuCode())));
+        }
+        return updated;
+    }
+
 }
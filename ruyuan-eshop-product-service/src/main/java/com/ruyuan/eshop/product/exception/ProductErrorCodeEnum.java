@@ -12,6 +12,7 @@ import com.ruyuan.eshop.common.exception.BaseErrorCodeEnum;
 public enum ProductErrorCodeEnum implements BaseErrorCodeEnum {
 
     SKU_CODE_IS_NULL("200001", "sku编号不能为空"),
+    PRODUCT_SKU_NOT_FOUND("200002", "商品sku不存在"),
     ;
 
     private String errorCode;
@@ -1,6 +1,7 @@
 package com.ruyuan.eshop.product.service;
 
 import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
+import com.ruyuan.eshop.product.domain.request.UpdateProductSkuRequest;
 
 import java.util.List;
 
@@ -26,4 +27,11 @@ public interface ProductSkuService {
      */
     List<ProductSkuDTO> listProductSkuByCode(List<String> skuCodeList);
 
+    /**
+     * 修改商品sku信息
+     *
+     * @param request
+     */
+    void updateProductSku(UpdateProductSkuRequest request);
+
 }
\ No newline at end of file
@@ -1,15 +1,20 @@
 package com.ruyuan.eshop.product.service.impl;
 
 import com.ruyuan.eshop.common.utils.ParamCheckUtil;
-import com.ruyuan.eshop.product.converter.ProductConverter;
+import com.ruyuan.eshop.product.cache.ProductSkuCache;
 import com.ruyuan.eshop.product.dao.ProductSkuDAO;
 import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
 import com.ruyuan.eshop.product.domain.entity.ProductSkuDO;
+import com.ruyuan.eshop.product.domain.request.UpdateProductSkuRequest;
+import com.ruyuan.eshop.product.exception.ProductBizException;
 import com.ruyuan.eshop.product.exception.ProductErrorCodeEnum;
 import com.ruyuan.eshop.product.service.ProductSkuService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -20,26 +25,41 @@ import java.util.List;
 public class ProductSkuServiceImpl implements ProductSkuService {
 
     @Autowired
-    private ProductSkuDAO productSkuDAO;
+    private ProductSkuCache productSkuCache;
 
     @Autowired
-    private ProductConverter productConverter;
+    private ProductSkuDAO productSkuDAO;
 
     @Override
     public ProductSkuDTO getProductSkuByCode(String skuCode) {
         ParamCheckUtil.checkStringNonEmpty(skuCode, ProductErrorCodeEnum.SKU_CODE_IS_NULL);
 
-        ProductSkuDO productSkuDO = productSkuDAO.getProductSkuByCode(skuCode);
-        if (productSkuDO == null) {
-            return null;
-        }
-        return productConverter.convert(productSkuDO);
+        return productSkuCache.getAll(Collections.singletonList(skuCode)).get(skuCode);
     }
 
     @Override
     public List<ProductSkuDTO> listProductSkuByCode(List<String> skuCodeList) {
         ParamCheckUtil.checkCollectionNonEmpty(skuCodeList, ProductErrorCodeEnum.SKU_CODE_IS_NULL);
-        List<ProductSkuDO> productSkuDOList = productSkuDAO.listProductSkuByCode(skuCodeList);
-        return productConverter.convert(productSkuDOList);
+        return new ArrayList<>(productSkuCache.getAll(skuCodeList).values());
+    }
+
+    /**
+     * 走{@link ProductSkuDAO#updateBySkuCode}更新，事务提交后失效sku缓存
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void updateProductSku(UpdateProductSkuRequest request) {
+        ParamCheckUtil.checkStringNonEmpty(request.getSkuCode(), ProductErrorCodeEnum.SKU_CODE_IS_NULL);
+
+        ProductSkuDO productSkuDO = new ProductSkuDO();
+        productSkuDO.setSkuCode(request.getSkuCode());
+        productSkuDO.setProductName(request.getProductName());
+        productSkuDO.setProductImg(request.getProductImg());
+        productSkuDO.setProductUnit(request.getProductUnit());
+        productSkuDO.setSalePrice(request.getSalePrice());
+        productSkuDO.setPurchasePrice(request.getPurchasePrice());
+        if (!productSkuDAO.updateBySkuCode(productSkuDO)) {
+            throw new ProductBizException(ProductErrorCodeEnum.PRODUCT_SKU_NOT_FOUND);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,304 @@
+package com.ruyuan.eshop.product.cache;
+
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.base.Ticker;
+import com.ruyuan.eshop.product.converter.ProductConverterImpl;
+import com.ruyuan.eshop.product.dao.ProductSkuDAO;
+import com.ruyuan.eshop.product.domain.dto.ProductSkuDTO;
+import com.ruyuan.eshop.product.domain.entity.ProductSkuDO;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * 商品sku两级缓存测试：命中统计、并发缺失合并回源、本地缓存的过期上限、版本号防止旧数据回填
+ * redis和数据库都用内存实现，时间用可手动调整的ticker
+ */
+public class ProductSkuCacheTest {
+
+    private static final String SKU_A = "skuA";
+
+    private static final String SKU_B = "skuB";
+
+    private static final String SKU_C = "skuC";
+
+    private static final int WAITERS = 7;
+
+    private FakeTicker ticker;
+
+    private InMemoryProductSkuDAO productSkuDAO;
+
+    private InMemoryProductSkuRedisCache productSkuRedisCache;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        productSkuDAO = new InMemoryProductSkuDAO();
+        productSkuDAO.save(sku(SKU_A, 100));
+        productSkuDAO.save(sku(SKU_B, 200));
+        productSkuDAO.save(sku(SKU_C, 300));
+        productSkuRedisCache = new InMemoryProductSkuRedisCache();
+    }
+
+    @Test
+    public void shouldCountHitsOnEachLevel() {
+        ProductSkuCache cache = newCache();
+
+        Map<String, ProductSkuDTO> first = cache.getAll(Arrays.asList(SKU_A, SKU_B, SKU_A, "notExists"));
+        assertEquals(Arrays.asList(SKU_A, SKU_B), new ArrayList<>(first.keySet()));
+        assertEquals(Integer.valueOf(100), first.get(SKU_A).getSalePrice());
+        assertStats(cache.stats(), 0, 3, 0, 1, 2, 0);
+        assertEquals(Collections.singletonList(Arrays.asList(SKU_A, SKU_B, "notExists")), productSkuDAO.calls);
+
+        cache.getAll(Arrays.asList(SKU_A, SKU_B));
+        assertStats(cache.stats(), 2, 3, 0, 1, 2, 0);
+
+        // 另一台机器：本地缓存为空，A、B从redis读，只有C回源
+        ProductSkuCache otherCache = newCache();
+        Map<String, ProductSkuDTO> other = otherCache.getAll(Arrays.asList(SKU_A, SKU_B, SKU_C));
+        assertEquals(3, other.size());
+        assertStats(otherCache.stats(), 0, 3, 2, 1, 1, 0);
+        assertEquals(Collections.singletonList(SKU_C), productSkuDAO.calls.get(1));
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentMissesIntoOneQuery() throws Exception {
+        ProductSkuCache cache = newCache();
+        productSkuDAO.blockFirstCall();
+
+        ExecutorService executor = Executors.newFixedThreadPool(WAITERS + 2);
+        try {
+            Future<Map<String, ProductSkuDTO>> owner = executor.submit(() -> cache.getAll(Arrays.asList(SKU_A, SKU_B)));
+            assertTrue(productSkuDAO.entered.await(5, TimeUnit.SECONDS));
+
+            // 回源期间同样缺失A、B的请求都等第一个请求的结果
+            List<Future<Map<String, ProductSkuDTO>>> waiters = new ArrayList<>();
+            for (int i = 0; i < WAITERS; i++) {
+                waiters.add(executor.submit(() -> cache.getAll(Arrays.asList(SKU_B, SKU_A))));
+            }
+            awaitUntil(() -> cache.stats().getCoalescedWaits() == WAITERS * 2);
+
+            // 部分重叠的请求只回源C
+            Future<Map<String, ProductSkuDTO>> overlapping = executor.submit(() -> cache.getAll(Arrays.asList(SKU_B, SKU_C)));
+            awaitUntil(() -> cache.stats().getCoalescedWaits() == WAITERS * 2 + 1);
+            assertEquals(2, cache.stats().getDbQueries());
+
+            productSkuDAO.release.countDown();
+            assertEquals(2, owner.get(5, TimeUnit.SECONDS).size());
+            for (Future<Map<String, ProductSkuDTO>> waiter : waiters) {
+                Map<String, ProductSkuDTO> result = waiter.get(5, TimeUnit.SECONDS);
+                assertEquals(Integer.valueOf(100), result.get(SKU_A).getSalePrice());
+                assertEquals(Integer.valueOf(200), result.get(SKU_B).getSalePrice());
+            }
+            Map<String, ProductSkuDTO> result = overlapping.get(5, TimeUnit.SECONDS);
+            assertEquals(Integer.valueOf(300), result.get(SKU_C).getSalePrice());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(Arrays.asList(Arrays.asList(SKU_A, SKU_B), Collections.singletonList(SKU_C)), productSkuDAO.calls);
+        assertEquals(3, cache.stats().getDbLoads());
+
+        cache.getAll(Arrays.asList(SKU_A, SKU_B, SKU_C));
+        assertEquals(2, cache.stats().getDbQueries());
+    }
+
+    @Test
+    public void shouldBoundStalenessOfOtherNodesByLocalExpiry() {
+        ProductSkuCache writer = newCache();
+        ProductSkuCache reader = newCache();
+        assertEquals(Integer.valueOf(100), reader.getAll(Collections.singletonList(SKU_A)).get(SKU_A).getSalePrice());
+
+        // 写sku的机器收到变更事件，两级缓存都失效
+        productSkuDAO.save(sku(SKU_A, 101));
+        writer.onProductSkuChanged(new ProductSkuChangedEvent(this, Collections.singletonList(SKU_A)));
+        assertEquals(Integer.valueOf(101), writer.getAll(Collections.singletonList(SKU_A)).get(SKU_A).getSalePrice());
+
+        // 其他机器在本地缓存过期之前读到旧数据，过期后从redis读到新数据
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(4999));
+        assertEquals(Integer.valueOf(100), reader.getAll(Collections.singletonList(SKU_A)).get(SKU_A).getSalePrice());
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(Integer.valueOf(101), reader.getAll(Collections.singletonList(SKU_A)).get(SKU_A).getSalePrice());
+        assertEquals(1, reader.stats().getDbQueries());
+        assertEquals(1, reader.stats().getRemoteHits());
+    }
+
+    @Test
+    public void shouldNotRefillWithValueReadBeforeInvalidation() {
+        ProductSkuCache cache = newCache();
+        // 回源查到旧数据之后、回填之前，sku被修改并失效
+        productSkuDAO.afterNextRead = () -> {
+            productSkuDAO.save(sku(SKU_A, 101));
+            cache.invalidate(Collections.singletonList(SKU_A));
+        };
+
+        assertEquals(Integer.valueOf(100), cache.getAll(Collections.singletonList(SKU_A)).get(SKU_A).getSalePrice());
+        assertNull(productSkuRedisCache.multiGet(Collections.singletonList(SKU_A)).get(SKU_A).getValue());
+
+        assertEquals(Integer.valueOf(101), cache.getAll(Collections.singletonList(SKU_A)).get(SKU_A).getSalePrice());
+        ProductSkuCacheEntry remote = productSkuRedisCache.multiGet(Collections.singletonList(SKU_A)).get(SKU_A);
+        assertEquals(1L, remote.getVersion());
+        assertEquals(Integer.valueOf(101), remote.getValue().getSalePrice());
+        assertEquals(2, cache.stats().getDbQueries());
+    }
+
+    private ProductSkuCache newCache() {
+        ProductSkuCache cache = new ProductSkuCache();
+        ReflectionTestUtils.setField(cache, "productSkuDAO", productSkuDAO);
+        ReflectionTestUtils.setField(cache, "productConverter", new ProductConverterImpl());
+        ReflectionTestUtils.setField(cache, "productSkuRedisCache", productSkuRedisCache);
+        ReflectionTestUtils.setField(cache, "ticker", ticker);
+        cache.init();
+        return cache;
+    }
+
+    private static ProductSkuDO sku(String skuCode, int salePrice) {
+        ProductSkuDO productSkuDO = new ProductSkuDO();
+        productSkuDO.setSkuCode(skuCode);
+        productSkuDO.setProductId("product_" + skuCode);
+        productSkuDO.setProductType(1);
+        productSkuDO.setProductName("商品" + skuCode);
+        productSkuDO.setSalePrice(salePrice);
+        productSkuDO.setPurchasePrice(salePrice / 2);
+        return productSkuDO;
+    }
+
+    private static void assertStats(ProductSkuCache.Stats stats, long localHits, long localMisses, long remoteHits,
+                                    long dbQueries, long dbLoads, long coalescedWaits) {
+        String message = stats.toString();
+        assertEquals(message, localHits, stats.getLocalHits());
+        assertEquals(message, localMisses, stats.getLocalMisses());
+        assertEquals(message, remoteHits, stats.getRemoteHits());
+        assertEquals(message, dbQueries, stats.getDbQueries());
+        assertEquals(message, dbLoads, stats.getDbLoads());
+        assertEquals(message, coalescedWaits, stats.getCoalescedWaits());
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("等待超时", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * 可手动调整的ticker
+     */
+    private static class FakeTicker extends Ticker {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        private void advance(long delta) {
+            nanos.addAndGet(delta);
+        }
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    }
+
+    /**
+     * 内存里的商品表，记录每次IN查询的sku
+     */
+    private static class InMemoryProductSkuDAO extends ProductSkuDAO {
+
+        private final Map<String, ProductSkuDO> rows = new ConcurrentHashMap<>();
+
+        private final List<List<String>> calls = new CopyOnWriteArrayList<>();
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        private volatile Runnable afterNextRead;
+
+        private void blockFirstCall() {
+            release = new CountDownLatch(1);
+        }
+
+        @Override
+        public boolean save(ProductSkuDO productSkuDO) {
+            rows.put(productSkuDO.getSkuCode(), productSkuDO);
+            return true;
+        }
+
+        @Override
+        public List<ProductSkuDO> listProductSkuByCode(List<String> skuCodeList) {
+            calls.add(new ArrayList<>(skuCodeList));
+            List<ProductSkuDO> result = new ArrayList<>();
+            for (String skuCode : skuCodeList) {
+                ProductSkuDO productSkuDO = rows.get(skuCode);
+                if (productSkuDO != null) {
+                    result.add(productSkuDO);
+                }
+            }
+            if (calls.size() == 1) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Runnable callback = afterNextRead;
+            if (callback != null) {
+                afterNextRead = null;
+                callback.run();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 内存里的redis，和lua脚本的语义一致：按版本号回填，失效时版本号加1、删除value
+     */
+    private static class InMemoryProductSkuRedisCache extends ProductSkuRedisCache {
+
+        private final Map<String, long[]> versions = new HashMap<>();
+
+        private final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public synchronized Map<String, ProductSkuCacheEntry> multiGet(List<String> skuCodeList) {
+            Map<String, ProductSkuCacheEntry> entries = new HashMap<>();
+            for (String skuCode : skuCodeList) {
+                long[] version = versions.get(skuCode);
+                String value = values.get(skuCode);
+                entries.put(skuCode, new ProductSkuCacheEntry(version == null ? 0L : version[0],
+                        value == null ? null : JSONObject.parseObject(value, ProductSkuDTO.class)));
+            }
+            return entries;
+        }
+
+        @Override
+        public synchronized long putIfVersion(Map<String, ProductSkuCacheEntry> entries) {
+            long written = 0;
+            for (Map.Entry<String, ProductSkuCacheEntry> entry : entries.entrySet()) {
+                long[] version = versions.get(entry.getKey());
+                if ((version == null ? 0L : version[0]) == entry.getValue().getVersion()) {
+                    versions.put(entry.getKey(), new long[]{entry.getValue().getVersion()});
+                    values.put(entry.getKey(), JSONObject.toJSONString(entry.getValue().getValue()));
+                    written++;
+                }
+            }
+            return written;
+        }
+
+        @Override
+        public synchronized void invalidate(Collection<String> skuCodeList) {
+            for (String skuCode : skuCodeList) {
+                versions.computeIfAbsent(skuCode, key -> new long[1])[0]++;
+                values.remove(skuCode);
+            }
+        }
+    }
+}
@@ -18,18 +18,16 @@ public class RiskApiImpl implements RiskApi {
 
     @Override
     public JsonResult<CheckOrderRiskDTO> checkOrderRisk(CheckOrderRiskRequest checkOrderRiskRequest) {
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("checkOrderRisk->request")
-                .data("request", checkOrderRiskRequest)
-                .finish());
+                .data("request", checkOrderRiskRequest));
         // 执行风控检查 TODO
         CheckOrderRiskDTO checkOrderRiskDTO = new CheckOrderRiskDTO();
         checkOrderRiskDTO.setResult(true);
         // 默认风控检查通过
-        log.info(LoggerFormat.build()
+        log.info("{}", LoggerFormat.build()
                 .remark("checkOrderRisk->response")
-                .data("response", checkOrderRiskDTO)
-                .finish());
+                .data("response", checkOrderRiskDTO));
         return JsonResult.buildSuccess(checkOrderRiskDTO);
     }
 }
\ No newline at end of file